@@ -57,6 +57,7 @@ import org.apache.celeborn.common.rpc.RpcEnv;
 import org.apache.celeborn.common.unsafe.Platform;
 import org.apache.celeborn.common.util.*;
 import org.apache.celeborn.common.write.DataBatches;
+import org.apache.celeborn.common.write.PushCredits;
 import org.apache.celeborn.common.write.PushState;
 
 public class ShuffleClientImpl extends ShuffleClient {
@@ -100,6 +101,9 @@ public class ShuffleClientImpl extends ShuffleClient {
 
   private final ExecutorService pushDataRetryPool;
 
+  // Push credits granted by workers, null if pushes are not limited by credits.
+  private final PushCredits pushCredits;
+
   private final ExecutorService partitionSplitPool;
   private final Map<Integer, Set<Integer>> splitting = JavaUtils.newConcurrentHashMap();
 
@@ -152,6 +156,7 @@ public class ShuffleClientImpl extends ShuffleClient {
     testRetryRevive = conf.testRetryRevive();
     pushBufferMaxSize = conf.pushBufferMaxSize();
     shuffleClientPushBlacklistEnabled = conf.shuffleClientPushBlacklistEnabled();
+    pushCredits = conf.pushCreditEnabled() ? new PushCredits() : null;
     if (conf.pushReplicateEnabled()) {
       pushDataTimeout = conf.pushDataTimeoutMs() * 2;
     } else {
@@ -337,6 +342,7 @@ public class ShuffleClientImpl extends ShuffleClient {
           mapId,
           attemptId,
           newDataBatches.requireBatches(),
+          0,
           pushState,
           remainReviveTimes);
     }
@@ -421,7 +427,7 @@ public class ShuffleClientImpl extends ShuffleClient {
 
   @Override
   public PushState getPushState(String mapKey) {
-    return pushStates.computeIfAbsent(mapKey, (s) -> new PushState(conf));
+    return pushStates.computeIfAbsent(mapKey, (s) -> new PushState(conf, pushCredits));
   }
 
   private ConcurrentHashMap<Integer, PartitionLocation> registerShuffleInternal(
@@ -489,6 +495,17 @@ public class ShuffleClientImpl extends ShuffleClient {
     }
   }
 
+  protected void limitPushCredit(
+      String mapKey, PushState pushState, String hostAndPushPort, int numBytes)
+      throws IOException {
+    boolean reachLimit = pushState.limitPushCredit(hostAndPushPort, numBytes);
+
+    if (reachLimit) {
+      throw new CelebornIOException(
+          "Waiting timeout for task " + mapKey, pushState.exception.get());
+    }
+  }
+
   protected void limitZeroInFlight(String mapKey, PushState pushState) throws IOException {
     boolean reachLimit = pushState.limitZeroInFlight();
 
@@ -710,9 +727,10 @@ public class ShuffleClientImpl extends ShuffleClient {
     if (doPush) {
       // check limit
       limitMaxInFlight(mapKey, pushState, loc.hostAndPushPort());
+      limitPushCredit(mapKey, pushState, loc.hostAndPushPort(), body.length);
 
       // add inFlight requests
-      pushState.addBatch(nextBatchId, loc.hostAndPushPort());
+      pushState.addBatch(nextBatchId, body.length, loc.hostAndPushPort());
 
       // build PushData request
       NettyManagedBuffer buffer = new NettyManagedBuffer(Unpooled.wrappedBuffer(body));
@@ -816,6 +834,10 @@ public class ShuffleClientImpl extends ShuffleClient {
                       nextBatchId);
                   pushState.onCongestControl(loc.hostAndPushPort());
                   callback.onSuccess(response);
+                } else if (reason == StatusCode.PUSH_DATA_SUCCESS_WITH_CREDIT.getValue()) {
+                  pushState.onCredit(loc.hostAndPushPort(), response.getLong());
+                  pushState.onSuccess(loc.hostAndPushPort());
+                  callback.onSuccess(response);
                 } else {
                   response.rewind();
                   pushState.onSuccess(loc.hostAndPushPort());
@@ -924,13 +946,17 @@ public class ShuffleClientImpl extends ShuffleClient {
       if (shouldPush) {
         limitMaxInFlight(mapKey, pushState, loc.hostAndPushPort());
         DataBatches dataBatches = pushState.takeDataBatches(addressPair);
+        ArrayList<DataBatches.DataBatch> batches = dataBatches.requireBatches();
+        int creditedBytes = totalBytes(batches);
+        limitPushCredit(mapKey, pushState, loc.hostAndPushPort(), creditedBytes);
         doPushMergedData(
             addressPair,
             applicationId,
             shuffleId,
             mapId,
             attemptId,
-            dataBatches.requireBatches(),
+            batches,
+            creditedBytes,
             pushState,
             maxReviveTimes);
       }
@@ -1047,6 +1073,8 @@ public class ShuffleClientImpl extends ShuffleClient {
       if (entry.getValue().getTotalSize() == 0) {
         batchesArr.remove(entry);
       }
+      int creditedBytes = totalBytes(batches);
+      limitPushCredit(mapKey, pushState, tokens[0], creditedBytes);
       doPushMergedData(
           entry.getKey(),
           applicationId,
@@ -1054,11 +1082,24 @@ public class ShuffleClientImpl extends ShuffleClient {
           mapId,
           attemptId,
           batches,
+          creditedBytes,
           pushState,
           maxReviveTimes);
     }
   }
 
+  private static int totalBytes(ArrayList<DataBatches.DataBatch> batches) {
+    int totalBytes = 0;
+    for (DataBatches.DataBatch batch : batches) {
+      totalBytes += batch.body.length;
+    }
+    return totalBytes;
+  }
+
+  /**
+   * Push the batches merged into one request. The credited bytes are taken out of the push credit
+   * of the worker already, 0 for retried batches which are not limited by credits.
+   */
   private void doPushMergedData(
       String addressPair,
       String applicationId,
@@ -1066,6 +1107,7 @@ public class ShuffleClientImpl extends ShuffleClient {
       int mapId,
       int attemptId,
       ArrayList<DataBatches.DataBatch> batches,
+      int creditedBytes,
       PushState pushState,
       int remainReviveTimes) {
     String hostPort = addressPair.split("-")[0];
@@ -1074,7 +1116,7 @@ public class ShuffleClientImpl extends ShuffleClient {
     final int port = Integer.parseInt(splits[1]);
 
     int groupedBatchId = pushState.nextBatchId();
-    pushState.addBatch(groupedBatchId, hostPort);
+    pushState.addBatch(groupedBatchId, creditedBytes, hostPort);
 
     final int numBatches = batches.size();
     final Integer[] partitionIds = new Integer[numBatches];
@@ -1202,6 +1244,10 @@ public class ShuffleClientImpl extends ShuffleClient {
                     Arrays.toString(batchIds));
                 pushState.onCongestControl(hostPort);
                 callback.onSuccess(response);
+              } else if (reason == StatusCode.PUSH_DATA_SUCCESS_WITH_CREDIT.getValue()) {
+                pushState.onCredit(hostPort, response.getLong());
+                pushState.onSuccess(hostPort);
+                callback.onSuccess(response);
               } else {
                 // Should not happen in current architecture.
                 response.rewind();
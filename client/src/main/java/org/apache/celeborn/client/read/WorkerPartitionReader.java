@@ -55,6 +55,8 @@ public class WorkerPartitionReader implements PartitionReader {
 
   private final AtomicReference<IOException> exception = new AtomicReference<>();
   private final int fetchMaxReqsInFlight;
+  private final boolean fetchMultiChunks;
+  private final boolean fetchStreaming;
   private boolean closed = false;
 
   // for test
@@ -73,6 +75,8 @@ public class WorkerPartitionReader implements PartitionReader {
       int fetchChunkMaxRetry)
       throws IOException {
     fetchMaxReqsInFlight = conf.fetchMaxReqsInFlight();
+    fetchMultiChunks = conf.fetchMultiChunksEnabled();
+    fetchStreaming = conf.fetchStreamingEnabled();
     results = new LinkedBlockingQueue<>();
     // only add the buffer to results queue if this reader is not closed.
     callback =
@@ -113,6 +117,10 @@ public class WorkerPartitionReader implements PartitionReader {
     this.fetchChunkRetryCnt = fetchChunkRetryCnt;
     this.fetchChunkMaxRetry = fetchChunkMaxRetry;
     testFetch = conf.testFetchFailure();
+    if (fetchStreaming && !testFetch && streamHandle.numChunks > 0) {
+      // The worker starts to send chunks right after the stream is opened.
+      fetchChunks();
+    }
   }
 
   public boolean hasNext() {
@@ -160,6 +168,28 @@ public class WorkerPartitionReader implements PartitionReader {
     if (inFlight < fetchMaxReqsInFlight) {
       final int toFetch =
           Math.min(fetchMaxReqsInFlight - inFlight + 1, streamHandle.numChunks - chunkIndex);
+      if ((fetchStreaming || fetchMultiChunks) && !testFetch) {
+        // A single credit or request for the chunks, they are still received one by one.
+        try {
+          TransportClient client =
+              clientFactory.createClient(location.getHost(), location.getFetchPort());
+          if (fetchStreaming) {
+            client.addChunkStreamCredit(streamHandle.streamId, chunkIndex, toFetch, callback);
+          } else {
+            client.fetchChunks(streamHandle.streamId, chunkIndex, toFetch, callback);
+          }
+          chunkIndex += toFetch;
+        } catch (IOException | InterruptedException e) {
+          logger.error(
+              "fetchChunks for streamId: {}, chunkIndex: {}, numChunks: {} failed.",
+              streamHandle.streamId,
+              chunkIndex,
+              toFetch,
+              e);
+          ExceptionUtils.wrapAndThrowIOException(e);
+        }
+        return;
+      }
       for (int i = 0; i < toFetch; i++) {
         if (testFetch && fetchChunkRetryCnt < fetchChunkMaxRetry - 1 && chunkIndex == 3) {
           callback.onFailure(chunkIndex, new CelebornIOException("Test fetch chunk failure"));
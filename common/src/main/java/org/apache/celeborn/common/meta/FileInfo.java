@@ -23,6 +23,8 @@ import java.util.Arrays;
 import java.util.List;
 
 import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -31,6 +33,7 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.celeborn.common.identity.UserIdentifier;
 import org.apache.celeborn.common.protocol.PartitionType;
+import org.apache.celeborn.common.util.ShuffleBlockInfoUtils.ShuffleBlockInfo;
 import org.apache.celeborn.common.util.Utils;
 
 public class FileInfo {
@@ -42,6 +45,13 @@ public class FileInfo {
 
   // members for ReducePartition
   private final List<Long> chunkOffsets;
+  // When set, chunk offsets are positions in the concatenation of these segments of the file
+  // rather than positions in the file itself.
+  private List<ShuffleBlockInfo> fileSegments;
+
+  // Flushed data of a small partition kept in memory instead of the file, null once the data is
+  // in the file. The file is only written when the data is evicted from memory.
+  private CompositeByteBuf memoryBuffer;
 
   // members for MapPartition
   private int bufferSize;
@@ -126,6 +136,10 @@ public class FileInfo {
     return Utils.getIndexFilePath(filePath);
   }
 
+  public String getBlockIndexPath() {
+    return Utils.getBlockIndexFilePath(filePath);
+  }
+
   public Path getHdfsPath() {
     return new Path(filePath);
   }
@@ -138,6 +152,10 @@ public class FileInfo {
     return new Path(Utils.getSortedFilePath(filePath));
   }
 
+  public Path getHdfsBlockIndexPath() {
+    return new Path(Utils.getBlockIndexFilePath(filePath));
+  }
+
   public Path getHdfsWriterSuccessPath() {
     return new Path(Utils.getWriteSuccessFilePath(filePath));
   }
@@ -157,20 +175,23 @@ public class FileInfo {
         hdfsFs.delete(getHdfsWriterSuccessPath(), false);
         hdfsFs.delete(getHdfsIndexPath(), false);
         hdfsFs.delete(getHdfsSortedPath(), false);
+        hdfsFs.delete(getHdfsBlockIndexPath(), false);
       } catch (Exception e) {
         // ignore delete exceptions because some other workers might be deleting the directory
         logger.debug(
-            "delete hdfs file {},{},{},{} failed {}",
+            "delete hdfs file {},{},{},{},{} failed {}",
             getHdfsPath(),
             getHdfsWriterSuccessPath(),
             getHdfsIndexPath(),
             getHdfsSortedPath(),
+            getHdfsBlockIndexPath(),
             e);
       }
     } else {
       getFile().delete();
       new File(getIndexPath()).delete();
       new File(getSortedPath()).delete();
+      new File(getBlockIndexPath()).delete();
     }
   }
 
@@ -186,6 +207,50 @@ public class FileInfo {
     return partitionType;
   }
 
+  public List<ShuffleBlockInfo> getFileSegments() {
+    return fileSegments;
+  }
+
+  public void setFileSegments(List<ShuffleBlockInfo> fileSegments) {
+    this.fileSegments = fileSegments;
+  }
+
+  public synchronized boolean isInMemory() {
+    return memoryBuffer != null;
+  }
+
+  public synchronized void setMemoryBuffer(CompositeByteBuf memoryBuffer) {
+    this.memoryBuffer = memoryBuffer;
+  }
+
+  public synchronized void appendMemoryData(ByteBuf data) {
+    memoryBuffer.addComponent(true, data);
+  }
+
+  /** In-memory data, which must not be modified, or null if the data is in the file. */
+  public synchronized ByteBuf getMemoryBuffer() {
+    return memoryBuffer;
+  }
+
+  /** A retained slice of the in-memory data, or null if the data is in the file. */
+  public synchronized ByteBuf retainedMemorySlice(long offset, int length) {
+    if (memoryBuffer == null) {
+      return null;
+    }
+    return memoryBuffer.retainedSlice((int) offset, length);
+  }
+
+  /** Drop the in-memory data, after it was written to the file. Returns its size. */
+  public synchronized long releaseMemoryBuffer() {
+    if (memoryBuffer == null) {
+      return 0;
+    }
+    long size = memoryBuffer.readableBytes();
+    memoryBuffer.release();
+    memoryBuffer = null;
+    return size;
+  }
+
   @Override
   public String toString() {
     return "FileInfo{"
@@ -18,21 +18,50 @@
 package org.apache.celeborn.common.meta;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.List;
 
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+
 import org.apache.celeborn.common.network.buffer.FileSegmentManagedBuffer;
+import org.apache.celeborn.common.network.buffer.FileSegmentsManagedBuffer;
 import org.apache.celeborn.common.network.buffer.ManagedBuffer;
+import org.apache.celeborn.common.network.buffer.NettyManagedBuffer;
+import org.apache.celeborn.common.network.buffer.SharedFileChannel;
 import org.apache.celeborn.common.network.util.TransportConf;
+import org.apache.celeborn.common.util.JavaUtils;
+import org.apache.celeborn.common.util.ShuffleBlockInfoUtils.ShuffleBlockInfo;
 
 public class FileManagedBuffers {
   private final File file;
+  private final String mountPoint;
   private final long[] offsets;
   private final int numChunks;
+  // Physical offsets and lengths of the file segments which make up the stream, and the
+  // stream position each segment starts at. Null if the stream is the file itself.
+  private final long[] segmentOffsets;
+  private final long[] segmentLengths;
+  private final long[] segmentStarts;
+  // Set if the data was in memory when the stream was opened, chunks are served from memory
+  // until the data is evicted to the file.
+  private final FileInfo memoryFileInfo;
 
   private final TransportConf conf;
+  // The file channel shared by the chunks of the stream, opened on the first chunk served from the
+  // file and released after the last chunk, or when the stream is closed. Null if not open.
+  private final boolean shareFileChannel;
+  private SharedFileChannel sharedChannel;
+  private boolean closed = false;
 
   public FileManagedBuffers(FileInfo fileInfo, TransportConf conf) {
     file = fileInfo.getFile();
+    mountPoint = fileInfo.getMountPoint();
     numChunks = fileInfo.numChunks();
     if (numChunks > 0) {
       offsets = new long[numChunks + 1];
@@ -44,7 +73,28 @@ public class FileManagedBuffers {
       offsets = new long[1];
       offsets[0] = 0;
     }
+    List<ShuffleBlockInfo> fileSegments = fileInfo.getFileSegments();
+    if (fileSegments != null) {
+      int numSegments = fileSegments.size();
+      segmentOffsets = new long[numSegments];
+      segmentLengths = new long[numSegments];
+      segmentStarts = new long[numSegments];
+      long start = 0;
+      for (int i = 0; i < numSegments; i++) {
+        ShuffleBlockInfo segment = fileSegments.get(i);
+        segmentOffsets[i] = segment.offset;
+        segmentLengths[i] = segment.length;
+        segmentStarts[i] = start;
+        start += segment.length;
+      }
+    } else {
+      segmentOffsets = null;
+      segmentLengths = null;
+      segmentStarts = null;
+    }
+    memoryFileInfo = fileInfo.isInMemory() ? fileInfo : null;
     this.conf = conf;
+    shareFileChannel = conf.getCelebornConf().workerFetchSharedFileChannelEnabled();
   }
 
   public int numChunks() {
@@ -57,6 +107,176 @@ public class FileManagedBuffers {
     final long chunkLength = offsets[chunkIndex + 1] - chunkOffset;
     assert offset < chunkLength;
     long length = Math.min(chunkLength - offset, len);
-    return new FileSegmentManagedBuffer(conf, file, chunkOffset + offset, length);
+    if (memoryFileInfo != null) {
+      ByteBuf data = memoryFileInfo.retainedMemorySlice(chunkOffset + offset, (int) length);
+      if (data != null) {
+        return new NettyManagedBuffer(data);
+      }
+    }
+    SharedFileChannel channel = null;
+    if (shareFileChannel) {
+      boolean lastChunk = chunkIndex == numChunks - 1 && offset + length == chunkLength;
+      channel = retainSharedChannel(lastChunk);
+    }
+    if (segmentOffsets == null) {
+      if (channel != null) {
+        return new FileSegmentManagedBuffer(conf, channel, chunkOffset + offset, length);
+      }
+      return new FileSegmentManagedBuffer(conf, file, chunkOffset + offset, length);
+    } else {
+      return segments(channel, chunkOffset + offset, length);
+    }
+  }
+
+  /** The mount point of the file, null if unknown. */
+  public String getMountPoint() {
+    return mountPoint;
+  }
+
+  public long chunkLength(int chunkIndex) {
+    return offsets[chunkIndex + 1] - offsets[chunkIndex];
+  }
+
+  /**
+   * Reads the chunk from the file through the scratch buffer and drops the data, so that the chunk
+   * is in the page cache by the time it is sent. Chunks served from memory and chunks of closed
+   * streams are skipped.
+   */
+  public void readAhead(int chunkIndex, ByteBuffer scratch) throws IOException {
+    if (memoryFileInfo != null && memoryFileInfo.isInMemory()) {
+      return;
+    }
+    SharedFileChannel sharedChannel = null;
+    FileChannel channel;
+    if (shareFileChannel) {
+      sharedChannel = retainSharedChannel(false);
+      if (sharedChannel == null) {
+        return;
+      }
+      channel = sharedChannel.channel();
+    } else {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+    try {
+      long position = offsets[chunkIndex];
+      long length = chunkLength(chunkIndex);
+      if (segmentOffsets == null) {
+        readRange(channel, position, length, scratch);
+      } else {
+        int index = segmentIndex(position);
+        long inSegmentOffset = position - segmentStarts[index];
+        while (length > 0 && index < segmentOffsets.length) {
+          long rangeLength = Math.min(segmentLengths[index] - inSegmentOffset, length);
+          readRange(channel, segmentOffsets[index] + inSegmentOffset, rangeLength, scratch);
+          length -= rangeLength;
+          inSegmentOffset = 0;
+          index++;
+        }
+      }
+    } finally {
+      if (sharedChannel != null) {
+        sharedChannel.release();
+      } else {
+        JavaUtils.closeQuietly(channel);
+      }
+    }
+  }
+
+  private static void readRange(FileChannel channel, long position, long length, ByteBuffer scratch)
+      throws IOException {
+    while (length > 0) {
+      scratch.clear();
+      scratch.limit((int) Math.min(scratch.capacity(), length));
+      int read = channel.read(scratch, position);
+      if (read < 0) {
+        return;
+      }
+      position += read;
+      length -= read;
+    }
+  }
+
+  /**
+   * A reference of the shared channel for a chunk, null if the stream is closed. The stream's own
+   * reference is released with the last chunk, a chunk fetched again afterwards opens the file
+   * again.
+   */
+  private synchronized SharedFileChannel retainSharedChannel(boolean lastChunk) {
+    if (closed) {
+      return null;
+    }
+    SharedFileChannel channel = sharedChannel;
+    if (channel == null) {
+      try {
+        channel = SharedFileChannel.open(file);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to open " + file, e);
+      }
+      sharedChannel = channel;
+    }
+    if (lastChunk) {
+      // The stream's reference is handed over to the chunk.
+      sharedChannel = null;
+    } else {
+      channel.retain();
+    }
+    return channel;
+  }
+
+  /** Releases the stream's reference of the shared channel, chunks being sent keep their own. */
+  public synchronized void close() {
+    closed = true;
+    if (sharedChannel != null) {
+      sharedChannel.release();
+      sharedChannel = null;
+    }
+  }
+
+  @VisibleForTesting
+  synchronized SharedFileChannel sharedChannel() {
+    return sharedChannel;
+  }
+
+  private int segmentIndex(long position) {
+    int index = Arrays.binarySearch(segmentStarts, position);
+    if (index < 0) {
+      // position falls inside the segment before the insertion point
+      index = -index - 2;
+    }
+    return index;
+  }
+
+  private ManagedBuffer segments(SharedFileChannel channel, long position, long length) {
+    int index = segmentIndex(position);
+    long inSegmentOffset = position - segmentStarts[index];
+    if (segmentLengths[index] - inSegmentOffset >= length) {
+      if (channel != null) {
+        return new FileSegmentManagedBuffer(
+            conf, channel, segmentOffsets[index] + inSegmentOffset, length);
+      }
+      return new FileSegmentManagedBuffer(
+          conf, file, segmentOffsets[index] + inSegmentOffset, length);
+    }
+
+    int lastIndex = index;
+    long covered = segmentLengths[index] - inSegmentOffset;
+    while (covered < length) {
+      lastIndex++;
+      covered += segmentLengths[lastIndex];
+    }
+    int numSegments = lastIndex - index + 1;
+    long[] offsets = new long[numSegments];
+    long[] lengths = new long[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      offsets[i] = segmentOffsets[index + i];
+      lengths[i] = segmentLengths[index + i];
+    }
+    offsets[0] += inSegmentOffset;
+    lengths[0] -= inSegmentOffset;
+    lengths[numSegments - 1] -= covered - length;
+    if (channel != null) {
+      return new FileSegmentsManagedBuffer(channel, offsets, lengths);
+    }
+    return new FileSegmentsManagedBuffer(file, offsets, lengths);
   }
 }
@@ -30,18 +30,34 @@ import org.apache.celeborn.common.network.util.LimitedInputStream;
 import org.apache.celeborn.common.network.util.TransportConf;
 import org.apache.celeborn.common.util.JavaUtils;
 
-/** A {@link ManagedBuffer} backed by a segment in a file. */
+/**
+ * A {@link ManagedBuffer} backed by a segment in a file. The file is opened for each read unless
+ * the buffer is created over a {@link SharedFileChannel}.
+ */
 public final class FileSegmentManagedBuffer extends ManagedBuffer {
   private final TransportConf conf;
   private final File file;
   private final long offset;
   private final long length;
+  // Null if the file is opened for each read.
+  private final SharedFileChannel sharedChannel;
 
   public FileSegmentManagedBuffer(TransportConf conf, File file, long offset, long length) {
     this.conf = conf;
     this.file = file;
     this.offset = offset;
     this.length = length;
+    this.sharedChannel = null;
+  }
+
+  /** A buffer over the shared channel, taking over one reference of the channel. */
+  public FileSegmentManagedBuffer(
+      TransportConf conf, SharedFileChannel sharedChannel, long offset, long length) {
+    this.conf = conf;
+    this.file = sharedChannel.getFile();
+    this.offset = offset;
+    this.length = length;
+    this.sharedChannel = sharedChannel;
   }
 
   @Override
@@ -53,18 +69,23 @@ public final class FileSegmentManagedBuffer extends ManagedBuffer {
   public ByteBuffer nioByteBuffer() throws IOException {
     FileChannel channel = null;
     try {
-      channel = new RandomAccessFile(file, "r").getChannel();
+      channel =
+          sharedChannel != null
+              ? sharedChannel.channel()
+              : new RandomAccessFile(file, "r").getChannel();
       // Just copy the buffer if it's sufficiently small, as memory mapping has a high overhead.
       if (length < conf.memoryMapBytes()) {
         ByteBuffer buf = ByteBuffer.allocate((int) length);
-        channel.position(offset);
+        long position = offset;
         while (buf.remaining() != 0) {
-          if (channel.read(buf) == -1) {
+          int read = channel.read(buf, position);
+          if (read == -1) {
             throw new IOException(
                 String.format(
                     "Reached EOF before filling buffer\n" + "offset=%s\nfile=%s\nbuf.remaining=%s",
                     offset, file.getAbsoluteFile(), buf.remaining()));
           }
+          position += read;
         }
         buf.flip();
         return buf;
@@ -83,7 +104,9 @@ public final class FileSegmentManagedBuffer extends ManagedBuffer {
       }
       throw new IOException(errorMessage, e);
     } finally {
-      JavaUtils.closeQuietly(channel);
+      if (sharedChannel == null) {
+        JavaUtils.closeQuietly(channel);
+      }
     }
   }
 
@@ -113,17 +136,25 @@ public final class FileSegmentManagedBuffer extends ManagedBuffer {
 
   @Override
   public ManagedBuffer retain() {
+    if (sharedChannel != null) {
+      sharedChannel.retain();
+    }
     return this;
   }
 
   @Override
   public ManagedBuffer release() {
+    if (sharedChannel != null) {
+      sharedChannel.release();
+    }
     return this;
   }
 
   @Override
   public Object convertToNetty() throws IOException {
-    if (conf.lazyFileDescriptor()) {
+    if (sharedChannel != null) {
+      return sharedChannel.retainedRegion(offset, length);
+    } else if (conf.lazyFileDescriptor()) {
       return new DefaultFileRegion(file, offset, length);
     } else {
       FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
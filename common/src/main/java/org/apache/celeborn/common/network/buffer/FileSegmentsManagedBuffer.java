@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.common.network.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.google.common.base.Objects;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+
+import org.apache.celeborn.common.network.util.AbstractFileRegion;
+import org.apache.celeborn.common.util.JavaUtils;
+
+/**
+ * A {@link ManagedBuffer} backed by several segments of a file, which are served one after another
+ * as if they were contiguous. The file is opened for each read unless the buffer is created over a
+ * {@link SharedFileChannel}.
+ */
+public final class FileSegmentsManagedBuffer extends ManagedBuffer {
+  private final File file;
+  private final long[] offsets;
+  private final long[] lengths;
+  private final long size;
+  // Null if the file is opened for each read.
+  private final SharedFileChannel sharedChannel;
+
+  public FileSegmentsManagedBuffer(File file, long[] offsets, long[] lengths) {
+    this(file, null, offsets, lengths);
+  }
+
+  /** A buffer over the shared channel, taking over one reference of the channel. */
+  public FileSegmentsManagedBuffer(
+      SharedFileChannel sharedChannel, long[] offsets, long[] lengths) {
+    this(sharedChannel.getFile(), sharedChannel, offsets, lengths);
+  }
+
+  private FileSegmentsManagedBuffer(
+      File file, SharedFileChannel sharedChannel, long[] offsets, long[] lengths) {
+    this.file = file;
+    this.sharedChannel = sharedChannel;
+    this.offsets = offsets;
+    this.lengths = lengths;
+    long totalLength = 0;
+    for (long length : lengths) {
+      totalLength += length;
+    }
+    this.size = totalLength;
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public ByteBuffer nioByteBuffer() throws IOException {
+    FileChannel channel = null;
+    try {
+      channel =
+          sharedChannel != null
+              ? sharedChannel.channel()
+              : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      ByteBuffer buf = ByteBuffer.allocate(Math.toIntExact(size));
+      for (int i = 0; i < offsets.length; i++) {
+        long position = offsets[i];
+        buf.limit(buf.position() + (int) lengths[i]);
+        while (buf.hasRemaining()) {
+          int read = channel.read(buf, position);
+          if (read == -1) {
+            throw new IOException(
+                String.format(
+                    "Reached EOF before filling buffer\n" + "offset=%s\nfile=%s\nbuf.remaining=%s",
+                    position, file.getAbsoluteFile(), buf.remaining()));
+          }
+          position += read;
+        }
+      }
+      buf.flip();
+      return buf;
+    } catch (IOException e) {
+      throw new IOException("Error in reading " + this, e);
+    } finally {
+      if (sharedChannel == null) {
+        JavaUtils.closeQuietly(channel);
+      }
+    }
+  }
+
+  @Override
+  public InputStream createInputStream() throws IOException {
+    return new ByteBufInputStream(Unpooled.wrappedBuffer(nioByteBuffer()), true);
+  }
+
+  @Override
+  public ManagedBuffer retain() {
+    if (sharedChannel != null) {
+      sharedChannel.retain();
+    }
+    return this;
+  }
+
+  @Override
+  public ManagedBuffer release() {
+    if (sharedChannel != null) {
+      sharedChannel.release();
+    }
+    return this;
+  }
+
+  @Override
+  public Object convertToNetty() throws IOException {
+    if (sharedChannel != null) {
+      sharedChannel.retain();
+    }
+    return new FileSegmentsRegion(file, sharedChannel, offsets, lengths, size);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("file", file)
+        .add("offsets", Arrays.toString(offsets))
+        .add("lengths", Arrays.toString(lengths))
+        .toString();
+  }
+
+  /**
+   * Transfers the segments of a file in order, over the shared channel holding a reference of it,
+   * or opening the file lazily on first transfer.
+   */
+  private static final class FileSegmentsRegion extends AbstractFileRegion {
+    private final File file;
+    private final SharedFileChannel sharedChannel;
+    private final long[] offsets;
+    private final long[] lengths;
+    private final long count;
+
+    private FileChannel channel;
+    private int segmentIndex = 0;
+    private long segmentTransferred = 0;
+    private long transferred = 0;
+
+    FileSegmentsRegion(
+        File file,
+        SharedFileChannel sharedChannel,
+        long[] offsets,
+        long[] lengths,
+        long count) {
+      this.file = file;
+      this.sharedChannel = sharedChannel;
+      this.offsets = offsets;
+      this.lengths = lengths;
+      this.count = count;
+    }
+
+    @Override
+    public long position() {
+      return 0;
+    }
+
+    @Override
+    public long transferred() {
+      return transferred;
+    }
+
+    @Override
+    public long count() {
+      return count;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException {
+      if (position != transferred) {
+        throw new IllegalArgumentException(
+            "Invalid position " + position + ", transferred " + transferred);
+      }
+      if (channel == null) {
+        channel =
+            sharedChannel != null
+                ? sharedChannel.channel()
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      }
+      long written = 0;
+      while (segmentIndex < offsets.length) {
+        long remaining = lengths[segmentIndex] - segmentTransferred;
+        long w =
+            channel.transferTo(offsets[segmentIndex] + segmentTransferred, remaining, target);
+        written += w;
+        segmentTransferred += w;
+        if (w < remaining) {
+          // Target can not accept more, return and wait for the next call.
+          break;
+        }
+        segmentIndex++;
+        segmentTransferred = 0;
+      }
+      transferred += written;
+      return written;
+    }
+
+    @Override
+    protected void deallocate() {
+      if (sharedChannel != null) {
+        sharedChannel.release();
+      } else {
+        JavaUtils.closeQuietly(channel);
+      }
+    }
+  }
+}
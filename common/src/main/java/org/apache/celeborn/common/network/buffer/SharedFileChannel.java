@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.common.network.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import io.netty.channel.DefaultFileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+import org.apache.celeborn.common.util.JavaUtils;
+
+/**
+ * A read-only {@link FileChannel} shared by the buffers of a file, closed when the last reference
+ * is released. Reads must be positional, as the channel's position is shared.
+ */
+public final class SharedFileChannel extends AbstractReferenceCounted {
+  private final File file;
+  private final FileChannel channel;
+
+  private SharedFileChannel(File file, FileChannel channel) {
+    this.file = file;
+    this.channel = channel;
+  }
+
+  /** Opens the file, the returned channel holds one reference. */
+  public static SharedFileChannel open(File file) throws IOException {
+    return new SharedFileChannel(file, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public FileChannel channel() {
+    return channel;
+  }
+
+  /** A region of the file holding its own reference, which is released with the region. */
+  public DefaultFileRegion retainedRegion(long position, long count) {
+    retain();
+    return new DefaultFileRegion(channel, position, count) {
+      @Override
+      protected void deallocate() {
+        SharedFileChannel.this.release();
+      }
+    };
+  }
+
+  @Override
+  public SharedFileChannel retain() {
+    super.retain();
+    return this;
+  }
+
+  @Override
+  public SharedFileChannel touch(Object hint) {
+    return this;
+  }
+
+  @Override
+  protected void deallocate() {
+    JavaUtils.closeQuietly(channel);
+  }
+}
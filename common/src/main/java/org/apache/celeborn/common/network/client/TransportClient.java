@@ -134,6 +134,88 @@ public class TransportClient implements Closeable {
     channel.writeAndFlush(new ChunkFetchRequest(streamChunkSlice)).addListener(listener);
   }
 
+  /**
+   * Requests a run of whole chunks from the remote side in a single request, from the
+   * pre-negotiated streamId. The callback is invoked for each chunk as if the chunks were
+   * requested one by one by {@link #fetchChunk(long, int, ChunkReceivedCallback)}.
+   *
+   * @param streamId Identifier that refers to a stream in the remote StreamManager.
+   * @param startChunkIndex 0-based index of the first chunk to fetch
+   * @param numChunks number of chunks to fetch
+   * @param callback Callback invoked upon successful receipt of each chunk, or upon any failure.
+   */
+  public void fetchChunks(
+      long streamId, int startChunkIndex, int numChunks, ChunkReceivedCallback callback) {
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Sending fetch chunks request [{}, {}) to {}.",
+          startChunkIndex,
+          startChunkIndex + numChunks,
+          NettyUtils.getRemoteAddress(channel));
+    }
+
+    sendChunksRequest(
+        new ChunksFetchRequest(streamId, startChunkIndex, numChunks),
+        streamId,
+        startChunkIndex,
+        numChunks,
+        callback);
+  }
+
+  /**
+   * Grants credit to a chunk stream of a reduce partition, the remote side sends as many of the
+   * next chunks of the stream without further requests. The chunks from startChunkIndex are the
+   * next ones, as the credit granted before covers the chunks before it, the remote side fails
+   * the credit otherwise. The callback is invoked
+   * for each chunk as if the chunks were requested one by one by {@link #fetchChunk(long, int,
+   * ChunkReceivedCallback)}.
+   *
+   * @param streamId Identifier that refers to a stream in the remote StreamManager.
+   * @param startChunkIndex 0-based index of the first chunk the credit is for
+   * @param credit number of chunks to send
+   * @param callback Callback invoked upon successful receipt of each chunk, or upon any failure.
+   */
+  public void addChunkStreamCredit(
+      long streamId, int startChunkIndex, int credit, ChunkReceivedCallback callback) {
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Sending credit of chunks [{}, {}) to {}.",
+          startChunkIndex,
+          startChunkIndex + credit,
+          NettyUtils.getRemoteAddress(channel));
+    }
+
+    sendChunksRequest(
+        new ChunkStreamCredit(streamId, startChunkIndex, credit),
+        streamId,
+        startChunkIndex,
+        credit,
+        callback);
+  }
+
+  private void sendChunksRequest(
+      RequestMessage request,
+      long streamId,
+      int startChunkIndex,
+      int numChunks,
+      ChunkReceivedCallback callback) {
+    StdChannelListener listener =
+        new StdChannelListener(request) {
+          @Override
+          protected void handleFailure(String errorMsg, Throwable cause) {
+            for (int i = startChunkIndex; i < startChunkIndex + numChunks; i++) {
+              handler.removeFetchRequest(new StreamChunkSlice(streamId, i));
+              callback.onFailure(i, new IOException(errorMsg, cause));
+            }
+          }
+        };
+    for (int i = startChunkIndex; i < startChunkIndex + numChunks; i++) {
+      handler.addFetchRequest(new StreamChunkSlice(streamId, i), callback);
+    }
+
+    channel.writeAndFlush(request).addListener(listener);
+  }
+
   /**
    * Sends an opaque message to the RpcHandler on the server-side. The callback will be invoked with
    * the server's response or upon any failure.
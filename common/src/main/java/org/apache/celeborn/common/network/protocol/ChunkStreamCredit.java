@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.common.network.protocol;
+
+import com.google.common.base.Objects;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Grants credit to a chunk stream of a reduce partition, the worker sends as many of the next
+ * chunks of the stream. The next chunk is startChunkIndex, as the credit granted before covers the
+ * chunks before it, and the worker fails the credit if its next chunk is another one. Each chunk
+ * is answered by its own {@link ResponseMessage} (either {@link ChunkFetchSuccess} or {@link
+ * ChunkFetchFailure}), as if it was requested by a {@link ChunkFetchRequest} of the chunk.
+ */
+public final class ChunkStreamCredit extends RequestMessage {
+  public final long streamId;
+  public final int startChunkIndex;
+  public final int credit;
+
+  public ChunkStreamCredit(long streamId, int startChunkIndex, int credit) {
+    this.streamId = streamId;
+    this.startChunkIndex = startChunkIndex;
+    this.credit = credit;
+  }
+
+  /** The slice of a chunk of the credit, the whole chunk. */
+  public StreamChunkSlice streamChunkSlice(int chunkIndex) {
+    return new StreamChunkSlice(streamId, chunkIndex);
+  }
+
+  @Override
+  public Type type() {
+    return Type.CHUNK_STREAM_CREDIT;
+  }
+
+  @Override
+  public int encodedLength() {
+    return 8 + 4 + 4;
+  }
+
+  @Override
+  public void encode(ByteBuf buf) {
+    buf.writeLong(streamId);
+    buf.writeInt(startChunkIndex);
+    buf.writeInt(credit);
+  }
+
+  public static ChunkStreamCredit decode(ByteBuf buf) {
+    long streamId = buf.readLong();
+    int startChunkIndex = buf.readInt();
+    int credit = buf.readInt();
+    return new ChunkStreamCredit(streamId, startChunkIndex, credit);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(streamId, startChunkIndex, credit);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other instanceof ChunkStreamCredit) {
+      ChunkStreamCredit o = (ChunkStreamCredit) other;
+      return streamId == o.streamId
+          && startChunkIndex == o.startChunkIndex
+          && credit == o.credit;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("streamId", streamId)
+        .add("startChunkIndex", startChunkIndex)
+        .add("credit", credit)
+        .toString();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.common.network.protocol;
+
+import com.google.common.base.Objects;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Request to fetch a run of whole chunks of a stream in one message. Each chunk is answered by
+ * its own {@link ResponseMessage} (either {@link ChunkFetchSuccess} or {@link ChunkFetchFailure}),
+ * as if it was requested by a {@link ChunkFetchRequest} of the chunk.
+ */
+public final class ChunksFetchRequest extends RequestMessage {
+  public final long streamId;
+  public final int startChunkIndex;
+  public final int numChunks;
+
+  public ChunksFetchRequest(long streamId, int startChunkIndex, int numChunks) {
+    this.streamId = streamId;
+    this.startChunkIndex = startChunkIndex;
+    this.numChunks = numChunks;
+  }
+
+  /** The slice of a chunk of the run, the whole chunk. */
+  public StreamChunkSlice streamChunkSlice(int chunkIndex) {
+    return new StreamChunkSlice(streamId, chunkIndex);
+  }
+
+  @Override
+  public Type type() {
+    return Type.CHUNKS_FETCH_REQUEST;
+  }
+
+  @Override
+  public int encodedLength() {
+    return 8 + 4 + 4;
+  }
+
+  @Override
+  public void encode(ByteBuf buf) {
+    buf.writeLong(streamId);
+    buf.writeInt(startChunkIndex);
+    buf.writeInt(numChunks);
+  }
+
+  public static ChunksFetchRequest decode(ByteBuf buf) {
+    long streamId = buf.readLong();
+    int startChunkIndex = buf.readInt();
+    int numChunks = buf.readInt();
+    return new ChunksFetchRequest(streamId, startChunkIndex, numChunks);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(streamId, startChunkIndex, numChunks);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other instanceof ChunksFetchRequest) {
+      ChunksFetchRequest o = (ChunksFetchRequest) other;
+      return streamId == o.streamId
+          && startChunkIndex == o.startChunkIndex
+          && numChunks == o.numChunks;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("streamId", streamId)
+        .add("startChunkIndex", startChunkIndex)
+        .add("numChunks", numChunks)
+        .toString();
+  }
+}
@@ -29,6 +29,9 @@ import org.apache.celeborn.common.network.buffer.NettyManagedBuffer;
 /** An on-the-wire transmittable message. */
 public abstract class Message implements Encodable {
   private ManagedBuffer body;
+  // Set once the encoder owns the reference on the body, after which the body is released with
+  // the encoded message, also if the write fails.
+  private volatile boolean bodyTakenByEncoder = false;
 
   protected Message() {
     this(null);
@@ -50,6 +53,18 @@ public abstract class Message implements Encodable {
     this.body = new NettyManagedBuffer(buf);
   }
 
+  /**
+   * Whether the encoder has taken the reference on the body. The writer of a message whose write
+   * fails before it is encoded still owns the body and must release it.
+   */
+  public boolean isBodyTakenByEncoder() {
+    return bodyTakenByEncoder;
+  }
+
+  void bodyTakenByEncoder() {
+    bodyTakenByEncoder = true;
+  }
+
   /** Whether the body should be copied out in frame decoder. */
   public boolean needCopyOut() {
     return false;
@@ -91,7 +106,9 @@ public abstract class Message implements Encodable {
     BACKLOG_ANNOUNCEMENT(19),
     TRANSPORTABLE_ERROR(20),
     BUFFER_STREAM_END(21),
-    HEARTBEAT(22);
+    HEARTBEAT(22),
+    CHUNKS_FETCH_REQUEST(23),
+    CHUNK_STREAM_CREDIT(24);
     private final byte id;
 
     Type(int id) {
@@ -163,6 +180,10 @@ public abstract class Message implements Encodable {
           return BUFFER_STREAM_END;
         case 22:
           return HEARTBEAT;
+        case 23:
+          return CHUNKS_FETCH_REQUEST;
+        case 24:
+          return CHUNK_STREAM_CREDIT;
         case -1:
           throw new IllegalArgumentException("User type messages cannot be decoded.");
         default:
@@ -236,6 +257,12 @@ public abstract class Message implements Encodable {
       case HEARTBEAT:
         return new Heartbeat();
 
+      case CHUNKS_FETCH_REQUEST:
+        return ChunksFetchRequest.decode(in);
+
+      case CHUNK_STREAM_CREDIT:
+        return ChunkStreamCredit.decode(in);
+
       default:
         throw new IllegalArgumentException("Unexpected message type: " + msgType);
     }
@@ -52,6 +52,7 @@ public final class MessageEncoder extends MessageToMessageEncoder<Message> {
 
     // If the message has a body, take it out to enable zero-copy transfer for the payload.
     if (in.body() != null) {
+      in.bodyTakenByEncoder();
       try {
         bodyLength = (int) in.body().size();
         body = in.body().convertToNetty();
@@ -87,6 +87,22 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
         respond(
             new ChunkFetchFailure(
                 ((ChunkFetchRequest) req).streamChunkSlice, Throwables.getStackTraceAsString(e)));
+      } else if (req instanceof ChunksFetchRequest) {
+        ChunksFetchRequest chunksFetchRequest = (ChunksFetchRequest) req;
+        for (int i = 0; i < chunksFetchRequest.numChunks; i++) {
+          respond(
+              new ChunkFetchFailure(
+                  chunksFetchRequest.streamChunkSlice(chunksFetchRequest.startChunkIndex + i),
+                  Throwables.getStackTraceAsString(e)));
+        }
+      } else if (req instanceof ChunkStreamCredit) {
+        ChunkStreamCredit chunkStreamCredit = (ChunkStreamCredit) req;
+        for (int i = 0; i < chunkStreamCredit.credit; i++) {
+          respond(
+              new ChunkFetchFailure(
+                  chunkStreamCredit.streamChunkSlice(chunkStreamCredit.startChunkIndex + i),
+                  Throwables.getStackTraceAsString(e)));
+        }
       } else if (req instanceof OneWayMessage) {
         logger.warn("Ignore OneWayMessage since worker is not registered!");
       }
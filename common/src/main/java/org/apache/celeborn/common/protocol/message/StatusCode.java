@@ -75,7 +75,8 @@ public enum StatusCode {
   PUSH_DATA_TIMEOUT_MASTER(42),
   PUSH_DATA_TIMEOUT_SLAVE(43),
   PUSH_DATA_MASTER_BLACKLISTED(44),
-  PUSH_DATA_SLAVE_BLACKLISTED(45);
+  PUSH_DATA_SLAVE_BLACKLISTED(45),
+  PUSH_DATA_SUCCESS_WITH_CREDIT(46);
 
   private final byte value;
 
@@ -60,6 +60,30 @@ public class ShuffleBlockInfoUtils {
     return sortedChunkOffset;
   }
 
+  public static ByteBuffer serializeShuffleBlockInfos(
+      Map<Integer, List<ShuffleBlockInfo>> indexMap) {
+    int indexSize = 0;
+    for (Map.Entry<Integer, List<ShuffleBlockInfo>> entry : indexMap.entrySet()) {
+      indexSize += 8;
+      indexSize += entry.getValue().size() * 16;
+    }
+
+    ByteBuffer indexBuf = ByteBuffer.allocate(indexSize);
+    for (Map.Entry<Integer, List<ShuffleBlockInfo>> entry : indexMap.entrySet()) {
+      int mapId = entry.getKey();
+      List<ShuffleBlockInfo> list = entry.getValue();
+      indexBuf.putInt(mapId);
+      indexBuf.putInt(list.size());
+      list.forEach(
+          info -> {
+            indexBuf.putLong(info.offset);
+            indexBuf.putLong(info.length);
+          });
+    }
+    indexBuf.flip();
+    return indexBuf;
+  }
+
   public static Map<Integer, List<ShuffleBlockInfo>> parseShuffleBlockInfosFromByteBuffer(
       byte[] buffer) {
     return parseShuffleBlockInfosFromByteBuffer(ByteBuffer.wrap(buffer));
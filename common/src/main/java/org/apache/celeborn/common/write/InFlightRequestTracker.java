@@ -41,16 +41,25 @@ public class InFlightRequestTracker {
   private final long delta;
   private final PushState pushState;
   private final PushStrategy pushStrategy;
+  private final PushCredits pushCredits;
 
   private final AtomicInteger batchId = new AtomicInteger();
   private final ConcurrentHashMap<String, Set<Integer>> inflightBatchesPerAddress =
       JavaUtils.newConcurrentHashMap();
+  // The bytes of the batches in flight which are taken out of push credits.
+  private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Integer>>
+      creditedBytesPerAddress = JavaUtils.newConcurrentHashMap();
 
   public InFlightRequestTracker(CelebornConf conf, PushState pushState) {
+    this(conf, pushState, null);
+  }
+
+  public InFlightRequestTracker(CelebornConf conf, PushState pushState, PushCredits pushCredits) {
     this.waitInflightTimeoutMs = conf.pushLimitInFlightTimeoutMs();
     this.delta = conf.pushLimitInFlightSleepDeltaMs();
     this.pushState = pushState;
     this.pushStrategy = PushStrategy.getStrategy(conf);
+    this.pushCredits = pushCredits;
   }
 
   public void addBatch(int batchId, String hostAndPushPort) {
@@ -60,9 +69,33 @@ public class InFlightRequestTracker {
     batchIdSetPerPair.add(batchId);
   }
 
+  /** Add the batch, whose bytes are taken out of the push credit by limitPushCredit. */
+  public void addBatch(int batchId, int creditedBytes, String hostAndPushPort) {
+    addBatch(batchId, hostAndPushPort);
+    if (pushCredits != null) {
+      creditedBytesPerAddress
+          .computeIfAbsent(hostAndPushPort, address -> JavaUtils.newConcurrentHashMap())
+          .put(batchId, creditedBytes);
+    }
+  }
+
   public void removeBatch(int batchId, String hostAndPushPort) {
     Set<Integer> batchIdSet = inflightBatchesPerAddress.get(hostAndPushPort);
     batchIdSet.remove(batchId);
+    if (pushCredits != null) {
+      ConcurrentHashMap<Integer, Integer> creditedBytes =
+          creditedBytesPerAddress.get(hostAndPushPort);
+      Integer numBytes = creditedBytes == null ? null : creditedBytes.remove(batchId);
+      if (numBytes != null) {
+        pushCredits.release(hostAndPushPort, numBytes);
+      }
+    }
+  }
+
+  public void onCredit(String hostAndPushPort, long credit) {
+    if (pushCredits != null) {
+      pushCredits.grant(hostAndPushPort, credit);
+    }
   }
 
   public void onSuccess(String hostAndPushPort) {
@@ -122,6 +155,50 @@ public class InFlightRequestTracker {
     return times <= 0;
   }
 
+  /** Wait until the bytes fit in the push credit of the worker and take them out of it. */
+  public boolean limitPushCredit(String hostAndPushPort, int numBytes) throws IOException {
+    if (pushState.exception.get() != null) {
+      throw pushState.exception.get();
+    }
+    if (pushCredits == null) {
+      return false;
+    }
+
+    long times = waitInflightTimeoutMs / delta;
+    try {
+      while (times > 0) {
+        if (pushCredits.tryAcquire(hostAndPushPort, numBytes)) {
+          break;
+        }
+        if (pushState.exception.get() != null) {
+          throw pushState.exception.get();
+        }
+        Thread.sleep(delta);
+        times--;
+      }
+    } catch (InterruptedException e) {
+      pushState.exception.set(new CelebornIOException(e));
+    }
+
+    if (times <= 0) {
+      logger.warn(
+          "After waiting for {} ms, "
+              + "there are still {} bytes in flight "
+              + "for hostAndPushPort {}, "
+              + "which leaves no push credit for {} bytes.",
+          waitInflightTimeoutMs,
+          pushCredits.inFlightBytes(hostAndPushPort),
+          hostAndPushPort,
+          numBytes);
+    }
+
+    if (pushState.exception.get() != null) {
+      throw pushState.exception.get();
+    }
+
+    return times <= 0;
+  }
+
   public boolean limitZeroInFlight() throws IOException {
     if (pushState.exception.get() != null) {
       throw pushState.exception.get();
@@ -173,6 +250,16 @@ public class InFlightRequestTracker {
     if (!inflightBatchesPerAddress.isEmpty()) {
       inflightBatchesPerAddress.clear();
     }
+    // Return the credits of the batches left in flight, as the credits are shared with other
+    // tasks.
+    creditedBytesPerAddress.forEach(
+        (hostAndPushPort, creditedBytes) ->
+            creditedBytes.forEach(
+                (batchId, numBytes) -> {
+                  if (creditedBytes.remove(batchId) != null) {
+                    pushCredits.release(hostAndPushPort, numBytes);
+                  }
+                }));
     pushStrategy.clear();
   }
 }
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.common.write;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.celeborn.common.util.JavaUtils;
+
+/*
+ * The push credits granted by workers in their acks, which limit the bytes of push data a client
+ * has in flight to each worker. Shared by the push states of all tasks of the client. Pushes to a
+ * worker which has not granted a credit are not limited, and a push is always allowed if nothing
+ * is in flight to the worker, so that a small credit cannot stall the client.
+ */
+public class PushCredits {
+
+  private static class Credit {
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private volatile long granted = Long.MAX_VALUE;
+  }
+
+  private final ConcurrentHashMap<String, Credit> credits = JavaUtils.newConcurrentHashMap();
+
+  private Credit getCredit(String hostAndPushPort) {
+    return credits.computeIfAbsent(hostAndPushPort, address -> new Credit());
+  }
+
+  public void grant(String hostAndPushPort, long credit) {
+    getCredit(hostAndPushPort).granted = credit;
+  }
+
+  /** Take the bytes out of the credit of the worker, returns false if the credit is used up. */
+  public boolean tryAcquire(String hostAndPushPort, long numBytes) {
+    Credit credit = getCredit(hostAndPushPort);
+    while (true) {
+      long inFlightBytes = credit.inFlightBytes.get();
+      if (inFlightBytes > 0 && inFlightBytes + numBytes > credit.granted) {
+        return false;
+      }
+      if (credit.inFlightBytes.compareAndSet(inFlightBytes, inFlightBytes + numBytes)) {
+        return true;
+      }
+    }
+  }
+
+  public void release(String hostAndPushPort, long numBytes) {
+    getCredit(hostAndPushPort).inFlightBytes.addAndGet(-numBytes);
+  }
+
+  public long inFlightBytes(String hostAndPushPort) {
+    return getCredit(hostAndPushPort).inFlightBytes.get();
+  }
+}
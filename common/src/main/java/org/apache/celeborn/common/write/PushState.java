@@ -32,8 +32,13 @@ public class PushState {
   private final InFlightRequestTracker inFlightRequestTracker;
 
   public PushState(CelebornConf conf) {
+    this(conf, null);
+  }
+
+  /** A push state whose pushes are limited by the push credits if they are not null. */
+  public PushState(CelebornConf conf, PushCredits pushCredits) {
     pushBufferMaxSize = conf.pushBufferMaxSize();
-    inFlightRequestTracker = new InFlightRequestTracker(conf, this);
+    inFlightRequestTracker = new InFlightRequestTracker(conf, this, pushCredits);
   }
 
   public void cleanup() {
@@ -70,6 +75,10 @@ public class PushState {
     inFlightRequestTracker.addBatch(batchId, hostAndPushPort);
   }
 
+  public void addBatch(int batchId, int creditedBytes, String hostAndPushPort) {
+    inFlightRequestTracker.addBatch(batchId, creditedBytes, hostAndPushPort);
+  }
+
   public void removeBatch(int batchId, String hostAndPushPort) {
     inFlightRequestTracker.removeBatch(batchId, hostAndPushPort);
   }
@@ -82,10 +91,18 @@ public class PushState {
     inFlightRequestTracker.onCongestControl(hostAndPushPort);
   }
 
+  public void onCredit(String hostAndPushPort, long credit) {
+    inFlightRequestTracker.onCredit(hostAndPushPort, credit);
+  }
+
   public boolean limitMaxInFlight(String hostAndPushPort) throws IOException {
     return inFlightRequestTracker.limitMaxInFlight(hostAndPushPort);
   }
 
+  public boolean limitPushCredit(String hostAndPushPort, int numBytes) throws IOException {
+    return inFlightRequestTracker.limitPushCredit(hostAndPushPort, numBytes);
+  }
+
   public boolean limitZeroInFlight() throws IOException {
     return inFlightRequestTracker.limitZeroInFlight();
   }
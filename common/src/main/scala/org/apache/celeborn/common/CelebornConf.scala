@@ -507,7 +507,10 @@ class CelebornConf(loadDefaults: Boolean) extends Cloneable with Logging with Se
   def workerCheckFileCleanTimeout: Long = get(WORKER_CHECK_FILE_CLEAN_TIMEOUT)
   def workerHeartbeatTimeout: Long = get(WORKER_HEARTBEAT_TIMEOUT)
   def workerReplicateThreads: Int = get(WORKER_REPLICATE_THREADS)
+  def workerReplicateBatchMaxSize: Long = get(WORKER_REPLICATE_BATCH_MAX_SIZE)
+  def workerReplicateBatchMaxDelayUs: Long = get(WORKER_REPLICATE_BATCH_MAX_DELAY)
   def workerCommitThreads: Int = get(WORKER_COMMIT_THREADS)
+  def workerAppendThreads: Int = get(WORKER_APPEND_THREADS)
   def workerShuffleCommitTimeout: Long = get(WORKER_SHUFFLE_COMMIT_TIMEOUT)
   def minPartitionSizeToEstimate: Long = get(SHUFFLE_MIN_PARTITION_SIZE_TO_ESTIMATE)
   def partitionSorterSortPartitionTimeout: Long = get(PARTITION_SORTER_SORT_TIMEOUT)
@@ -515,8 +518,25 @@ class CelebornConf(loadDefaults: Boolean) extends Cloneable with Logging with Se
     get(PARTITION_SORTER_PER_PARTITION_RESERVED_MEMORY)
   def partitionSorterThreads: Int =
     get(PARTITION_SORTER_THREADS).getOrElse(Runtime.getRuntime.availableProcessors)
+  def partitionSorterBlockIndexEnabled: Boolean = get(PARTITION_SORTER_BLOCK_INDEX_ENABLED)
+  def partitionSorterIndexCacheMaxWeight: Long = get(PARTITION_SORTER_INDEX_CACHE_MAX_WEIGHT)
+  def partitionSorterParallelSortParallelism: Int = get(PARTITION_SORTER_PARALLEL_SORT_PARALLELISM)
+  def partitionSorterParallelSortMinFileSize: Long =
+    get(PARTITION_SORTER_PARALLEL_SORT_MIN_FILE_SIZE)
+  def partitionSorterEagerSortEnabled: Boolean = get(PARTITION_SORTER_EAGER_SORT_ENABLED)
+  def partitionSorterEagerSortMinFileSize: Long = get(PARTITION_SORTER_EAGER_SORT_MIN_FILE_SIZE)
+  def partitionSorterSortFreeRangeReadEnabled: Boolean =
+    get(PARTITION_SORTER_SORT_FREE_RANGE_READ_ENABLED)
   def workerPushHeartbeatEnabled: Boolean = get(WORKER_PUSH_HEARTBEAT_ENABLED)
   def workerFetchHeartbeatEnabled: Boolean = get(WORKER_FETCH_HEARTBEAT_ENABLED)
+  def workerFetchMaxChunksBeingTransferredPerClient: Long =
+    get(WORKER_FETCH_MAX_CHUNKS_BEING_TRANSFERRED_PER_CLIENT)
+  def workerFetchMaxChunksBeingTransferredPerApp: Long =
+    get(WORKER_FETCH_MAX_CHUNKS_BEING_TRANSFERRED_PER_APP)
+  def workerFetchQueueTimeoutMs: Long = get(WORKER_FETCH_QUEUE_TIMEOUT)
+  def workerFetchSharedFileChannelEnabled: Boolean = get(WORKER_FETCH_SHARED_FILE_CHANNEL_ENABLED)
+  def workerFetchReadAheadChunks: Int = get(WORKER_FETCH_READ_AHEAD_CHUNKS)
+  def workerFetchReadAheadMaxBytesPerDisk: Long = get(WORKER_FETCH_READ_AHEAD_MAX_BYTES_PER_DISK)
 
   // //////////////////////////////////////////////////////
   //                      Client                         //
@@ -685,6 +705,8 @@ class CelebornConf(loadDefaults: Boolean) extends Cloneable with Logging with Se
   // //////////////////////////////////////////////////////
   def fetchTimeoutMs: Long = get(FETCH_TIMEOUT)
   def fetchMaxReqsInFlight: Int = get(FETCH_MAX_REQS_IN_FLIGHT)
+  def fetchMultiChunksEnabled: Boolean = get(FETCH_MULTI_CHUNKS_ENABLED)
+  def fetchStreamingEnabled: Boolean = get(FETCH_STREAMING_ENABLED)
   def fetchMaxRetriesForEachReplica: Int = get(FETCH_MAX_RETRIES_FOR_EACH_REPLICA)
 
   // //////////////////////////////////////////////////////
@@ -703,6 +725,7 @@ class CelebornConf(loadDefaults: Boolean) extends Cloneable with Logging with Se
   def pushStageEndTimeout: Long =
     get(PUSH_STAGE_END_TIMEOUT).getOrElse(get(RPC_ASK_TIMEOUT) * (requestCommitFilesMaxRetries + 1))
   def pushLimitStrategy: String = get(PUSH_LIMIT_STRATEGY)
+  def pushCreditEnabled: Boolean = get(PUSH_CREDIT_ENABLED)
   def pushSlowStartInitialSleepTime: Long = get(PUSH_SLOW_START_INITIAL_SLEEP_TIME)
   def pushSlowStartMaxSleepMills: Long = get(PUSH_SLOW_START_MAX_SLEEP_TIME)
   def pushLimitInFlightTimeoutMs: Long =
@@ -749,9 +772,16 @@ class CelebornConf(loadDefaults: Boolean) extends Cloneable with Logging with Se
   // //////////////////////////////////////////////////////
   def workerFlusherBufferSize: Long = get(WORKER_FLUSHER_BUFFER_SIZE)
   def writerCloseTimeoutMs: Long = get(WORKER_WRITER_CLOSE_TIMEOUT)
+  def workerWriterSmallBatchThreshold: Int = get(WORKER_WRITER_SMALL_BATCH_THRESHOLD).toInt
   def hddFlusherThreads: Int = get(WORKER_FLUSHER_HDD_THREADS)
   def ssdFlusherThreads: Int = get(WORKER_FLUSHER_SSD_THREADS)
   def hdfsFlusherThreads: Int = get(WORKER_FLUSHER_HDFS_THREADS)
+  def workerFlusherAdaptiveThreadsEnabled: Boolean = get(WORKER_FLUSHER_ADAPTIVE_THREADS_ENABLED)
+  def workerFlusherDirectIOEnabled(diskType: String): Boolean =
+    get(WORKER_FLUSHER_DIRECT_IO_DISK_TYPES).contains(diskType.toUpperCase(Locale.ROOT))
+  def workerFlusherDirectIOAlignment: Int = get(WORKER_FLUSHER_DIRECT_IO_ALIGNMENT)
+  def hdfsOutputStreamPoolMaxStreams: Int = get(WORKER_HDFS_OUTPUT_STREAM_POOL_MAX_STREAMS)
+  def hdfsOutputStreamPoolIdleTimeoutMs: Long = get(WORKER_HDFS_OUTPUT_STREAM_POOL_IDLE_TIMEOUT)
   def diskTimeSlidingWindowSize: Int = get(WORKER_DISKTIME_SLIDINGWINDOW_SIZE)
   def diskTimeSlidingWindowMinFlushCount: Int =
     get(WORKER_DISKTIME_SLIDINGWINDOW_MINFLUSHCOUNT)
@@ -786,6 +816,8 @@ class CelebornConf(loadDefaults: Boolean) extends Cloneable with Logging with Se
     get(WORKER_DIRECT_MEMORY_TRIM_FLUSH_WAIT_INTERVAL)
   def workerDirectMemoryRatioForShuffleStorage: Double =
     get(WORKER_DIRECT_MEMORY_RATIO_FOR_SHUFFLE_STORAGE)
+  def workerMemoryStorageMaxFileSize: Long = get(WORKER_MEMORY_STORAGE_MAX_FILE_SIZE)
+  def workerDuplicateBatchFilterSize: Int = get(WORKER_DUPLICATE_BATCH_FILTER_SIZE)
   def creditStreamThreadsPerMountpoint: Int = get(WORKER_BUFFERSTREAM_THREADS_PER_MOUNTPOINT)
   def workerDirectMemoryRatioForReadBuffer: Double = get(WORKER_DIRECT_MEMORY_RATIO_FOR_READ_BUFFER)
   def partitionReadBuffersMin: Int = get(WORKER_PARTITION_READ_BUFFERS_MIN)
@@ -811,6 +843,11 @@ class CelebornConf(loadDefaults: Boolean) extends Cloneable with Logging with Se
     get(WORKER_CONGESTION_CONTROL_HIGH_WATERMARK)
   def workerCongestionControlUserInactiveIntervalMs: Long =
     get(WORKER_CONGESTION_CONTROL_USER_INACTIVE_INTERVAL)
+  def workerCongestionControlCheckIntervalMs: Long =
+    get(WORKER_CONGESTION_CONTROL_CHECK_INTERVAL)
+  def workerPushCreditEnabled: Boolean = get(WORKER_PUSH_CREDIT_ENABLED)
+  def workerPushCreditMin: Long = get(WORKER_PUSH_CREDIT_MIN)
+  def workerPushCreditUpdateIntervalMs: Long = get(WORKER_PUSH_CREDIT_UPDATE_INTERVAL)
 
   /**
    * @return workingDir, usable space, flusher thread count, disk type
@@ -1393,6 +1430,26 @@ object CelebornConf extends Logging {
       .intConf
       .createWithDefault(3)
 
+  val FETCH_MULTI_CHUNKS_ENABLED: ConfigEntry[Boolean] =
+    buildConf("celeborn.fetch.multiChunks.enabled")
+      .categories("client")
+      .version("0.3.0")
+      .doc("Whether to fetch the chunks to be in flight with one request instead of a request " +
+        "per chunk. Requires workers supporting the request.")
+      .booleanConf
+      .createWithDefault(false)
+
+  val FETCH_STREAMING_ENABLED: ConfigEntry[Boolean] =
+    buildConf("celeborn.fetch.streaming.enabled")
+      .categories("client")
+      .version("0.3.0")
+      .doc("Whether workers send the chunks of reduce partitions on the credit granted by the " +
+        "client as it consumes the chunks, instead of the client requesting each chunk. The " +
+        "credit is `celeborn.fetch.maxReqsInFlight`. Takes precedence over " +
+        "`celeborn.fetch.multiChunks.enabled`. Requires workers supporting the credit.")
+      .booleanConf
+      .createWithDefault(false)
+
   val CLIENT_RPC_MAX_PARALLELISM: ConfigEntry[Int] =
     buildConf("celeborn.rpc.maxParallelism")
       .withAlternative("rss.rpc.max.parallelism")
@@ -1981,6 +2038,25 @@ object CelebornConf extends Logging {
       .intConf
       .createWithDefault(64)
 
+  val WORKER_REPLICATE_BATCH_MAX_SIZE: ConfigEntry[Long] =
+    buildConf("celeborn.worker.replicate.batch.maxSize")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("Max size of the PushData replicas of one mapper queued for the same peer that " +
+        "are sent to it in one PushMergedData. Set to 0 to send every replica in its own " +
+        "PushData.")
+      .bytesConf(ByteUnit.BYTE)
+      .createWithDefaultString("1m")
+
+  val WORKER_REPLICATE_BATCH_MAX_DELAY: ConfigEntry[Long] =
+    buildConf("celeborn.worker.replicate.batch.maxDelay")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("How long the first PushData replica queued for a peer waits for more replicas " +
+        "to batch with. With 0, replicas are only batched while the replicate threads are busy.")
+      .timeConf(TimeUnit.MICROSECONDS)
+      .createWithDefaultString("0us")
+
   val WORKER_COMMIT_THREADS: ConfigEntry[Int] =
     buildConf("celeborn.worker.commit.threads")
       .withAlternative("rss.worker.asyncCommitFiles.numThreads")
@@ -1990,6 +2066,18 @@ object CelebornConf extends Logging {
       .intConf
       .createWithDefault(32)
 
+  val WORKER_APPEND_THREADS: ConfigEntry[Int] =
+    buildConf("celeborn.worker.append.threads")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("Number of threads appending pushed data to reduce partition writers, every writer " +
+        "is owned by one of them so that pushes into the same partition do not contend. " +
+        "0 means pushed data is appended by the threads receiving it, under the lock of " +
+        "the writer.")
+      .intConf
+      .checkValue(v => v >= 0, "the number of threads must not be negative.")
+      .createWithDefault(0)
+
   val WORKER_SHUFFLE_COMMIT_TIMEOUT: ConfigEntry[Long] =
     buildConf("celeborn.worker.shuffle.commit.timeout")
       .withAlternative("rss.flush.timeout")
@@ -2024,6 +2112,81 @@ object CelebornConf extends Logging {
       .intConf
       .createOptional
 
+  val PARTITION_SORTER_BLOCK_INDEX_ENABLED: ConfigEntry[Boolean] =
+    buildConf("celeborn.worker.partitionSorter.blockIndex.enabled")
+      .categories("worker")
+      .doc("Whether to record the map id, offset and length of every batch when writing a " +
+        "reduce partition file, and persist it beside the data file on commit. When enabled, " +
+        "PartitionFilesSorter uses the recorded block index instead of scanning the whole file " +
+        "to find block boundaries.")
+      .version("0.3.0")
+      .booleanConf
+      .createWithDefault(true)
+
+  val PARTITION_SORTER_INDEX_CACHE_MAX_WEIGHT: ConfigEntry[Long] =
+    buildConf("celeborn.worker.partitionSorter.indexCache.maxWeight")
+      .categories("worker")
+      .doc("Max approximate heap size of the sorted file indexes cached by PartitionFilesSorter. " +
+        "Least recently used indexes are evicted beyond this size and read from the index " +
+        "file again on the next open stream.")
+      .version("0.3.0")
+      .bytesConf(ByteUnit.BYTE)
+      .createWithDefaultString("128mb")
+
+  val PARTITION_SORTER_EAGER_SORT_ENABLED: ConfigEntry[Boolean] =
+    buildConf("celeborn.worker.partitionSorter.eagerSort.enabled")
+      .categories("worker")
+      .doc("Whether to sort large reduce partition files of the master replica in background " +
+        "once they are committed, instead of waiting for the first map-range read. Eager sorts " +
+        "run after sorts requested by readers. The unsorted file is kept for whole-partition " +
+        "reads, so an eagerly sorted file takes twice its size on disk until the shuffle expires.")
+      .version("0.3.0")
+      .booleanConf
+      .createWithDefault(false)
+
+  val PARTITION_SORTER_EAGER_SORT_MIN_FILE_SIZE: ConfigEntry[Long] =
+    buildConf("celeborn.worker.partitionSorter.eagerSort.minFileSize")
+      .categories("worker")
+      .doc("Min size of a committed reduce partition file to be sorted eagerly, see " +
+        "`celeborn.worker.partitionSorter.eagerSort.enabled`.")
+      .version("0.3.0")
+      .bytesConf(ByteUnit.BYTE)
+      .createWithDefaultString("256mb")
+
+  val PARTITION_SORTER_PARALLEL_SORT_PARALLELISM: ConfigEntry[Int] =
+    buildConf("celeborn.worker.partitionSorter.parallelSort.parallelism")
+      .categories("worker")
+      .doc("Max number of segments a large local shuffle file is split into and copied " +
+        "concurrently when it is sorted, capped by `celeborn.worker.partitionSorter.threads`. " +
+        "Segment copies share the threads of `celeborn.worker.partitionSorter.threads` with " +
+        "sorts, so they only run in parallel when sorter threads are idle. " +
+        "Set to 1 to copy every file with a single thread.")
+      .version("0.3.0")
+      .intConf
+      .checkValue(v => v > 0, "Parallelism must be positive.")
+      .createWithDefault(4)
+
+  val PARTITION_SORTER_PARALLEL_SORT_MIN_FILE_SIZE: ConfigEntry[Long] =
+    buildConf("celeborn.worker.partitionSorter.parallelSort.minFileSize")
+      .categories("worker")
+      .doc("Min size of a local shuffle file to be sorted by several threads, see " +
+        "`celeborn.worker.partitionSorter.parallelSort.parallelism`.")
+      .version("0.3.0")
+      .bytesConf(ByteUnit.BYTE)
+      .createWithDefaultString("1gb")
+
+  val PARTITION_SORTER_SORT_FREE_RANGE_READ_ENABLED: ConfigEntry[Boolean] =
+    buildConf("celeborn.worker.partitionSorter.sortFreeRangeRead.enabled")
+      .categories("worker")
+      .doc("Whether to serve map-range reads of a local reduce partition file directly from " +
+        "segments of the unsorted file, located by the block index recorded at write time, " +
+        "instead of rewriting the file into a sorted copy. Requires " +
+        "`celeborn.worker.partitionSorter.blockIndex.enabled`, files without a block index " +
+        "and HDFS files are still sorted.")
+      .version("0.3.0")
+      .booleanConf
+      .createWithDefault(false)
+
   val WORKER_FLUSHER_BUFFER_SIZE: ConfigEntry[Long] =
     buildConf("celeborn.worker.flusher.buffer.size")
       .withAlternative("rss.worker.flush.buffer.size")
@@ -2042,6 +2205,17 @@ object CelebornConf extends Logging {
       .timeConf(TimeUnit.MILLISECONDS)
       .createWithDefaultString("120s")
 
+  val WORKER_WRITER_SMALL_BATCH_THRESHOLD: ConfigEntry[Long] =
+    buildConf("celeborn.worker.writer.smallBatch.threshold")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("Pushed batches smaller than this are copied into 64k pooled buffers of the file " +
+        "writer instead of retaining the network buffers they were received in, until flushed. " +
+        "0 means always retaining the network buffers.")
+      .bytesConf(ByteUnit.BYTE)
+      .checkValue(v => v >= 0 && v <= 64 * 1024, "value must be between 0 and 64k")
+      .createWithDefaultString("8k")
+
   val WORKER_FLUSHER_THREADS: ConfigEntry[Int] =
     buildConf("celeborn.worker.flusher.threads")
       .withAlternative("rss.flusher.thread.count")
@@ -2078,6 +2252,57 @@ object CelebornConf extends Logging {
       .intConf
       .createWithDefault(4)
 
+  val WORKER_FLUSHER_ADAPTIVE_THREADS_ENABLED: ConfigEntry[Boolean] =
+    buildConf("celeborn.worker.flusher.adaptiveThreads.enabled")
+      .categories("worker")
+      .doc("Whether the number of flusher threads of a local disk flushing concurrently adapts " +
+        "between 1 and the configured thread count of the disk type, shrinking when the flush " +
+        "time per byte grows with concurrency.")
+      .version("0.3.0")
+      .booleanConf
+      .createWithDefault(false)
+
+  val WORKER_FLUSHER_DIRECT_IO_DISK_TYPES: ConfigEntry[Seq[String]] =
+    buildConf("celeborn.worker.flusher.directIO.diskTypes")
+      .categories("worker")
+      .doc("Types of local disks, e.g. HDD,SSD, written with direct I/O instead of through " +
+        "the page cache, so that shuffle writes do not evict pages of files being read. " +
+        "Requires a JVM supporting ExtendedOpenOption.DIRECT (JDK 10+), otherwise writes are " +
+        "buffered.")
+      .version("0.3.0")
+      .stringConf
+      .transform(_.toUpperCase(Locale.ROOT))
+      .toSequence
+      .createWithDefault(Seq.empty)
+
+  val WORKER_FLUSHER_DIRECT_IO_ALIGNMENT: ConfigEntry[Int] =
+    buildConf("celeborn.worker.flusher.directIO.alignment")
+      .categories("worker")
+      .doc("Block size which positions, lengths and memory of direct I/O writes are aligned " +
+        "to, must be a multiple of the logical block size of the disks.")
+      .version("0.3.0")
+      .intConf
+      .checkValue(v => v > 0 && (v & (v - 1)) == 0, "alignment must be a power of 2")
+      .createWithDefault(4096)
+
+  val WORKER_HDFS_OUTPUT_STREAM_POOL_MAX_STREAMS: ConfigEntry[Int] =
+    buildConf("celeborn.worker.hdfs.outputStreamPool.maxStreams")
+      .categories("worker")
+      .doc("Max number of HDFS output streams kept open across flushes. Every open stream has " +
+        "a DataStreamer thread, least recently written streams are closed beyond this number " +
+        "and reopened by append on their next flush.")
+      .version("0.3.0")
+      .intConf
+      .createWithDefault(128)
+
+  val WORKER_HDFS_OUTPUT_STREAM_POOL_IDLE_TIMEOUT: ConfigEntry[Long] =
+    buildConf("celeborn.worker.hdfs.outputStreamPool.idleTimeout")
+      .categories("worker")
+      .doc("HDFS output streams not written for this long are closed.")
+      .version("0.3.0")
+      .timeConf(TimeUnit.MILLISECONDS)
+      .createWithDefaultString("30s")
+
   val WORKER_FLUSHER_SHUTDOWN_TIMEOUT: ConfigEntry[Long] =
     buildConf("celeborn.worker.flusher.shutdownTimeout")
       .withAlternative("rss.worker.diskFlusherShutdownTimeoutMs")
@@ -2279,6 +2504,16 @@ object CelebornConf extends Logging {
       .checkValues(Set("SIMPLE", "SLOWSTART"))
       .createWithDefaultString("SIMPLE")
 
+  val PUSH_CREDIT_ENABLED: ConfigEntry[Boolean] =
+    buildConf("celeborn.push.credit.enabled")
+      .categories("client")
+      .version("0.3.0")
+      .doc("Whether to keep the bytes of push data in flight to a worker within the credit the " +
+        "worker grants in its acks. Cooperates with `celeborn.worker.push.credit.enabled`, " +
+        "pushes to workers which do not grant credits are not limited by it.")
+      .booleanConf
+      .createWithDefault(false)
+
   val PUSH_SLOW_START_INITIAL_SLEEP_TIME: ConfigEntry[Long] =
     buildConf("celeborn.push.slowStart.initialSleepTime")
       .categories("client")
@@ -2879,6 +3114,28 @@ object CelebornConf extends Logging {
       .doubleConf
       .createWithDefault(0.0)
 
+  val WORKER_MEMORY_STORAGE_MAX_FILE_SIZE: ConfigEntry[Long] =
+    buildConf("celeborn.worker.memoryStorage.maxFileSize")
+      .categories("worker")
+      .doc("Reduce partitions are kept in memory while they are not larger than this and " +
+        "the memory of celeborn.worker.directMemoryRatioForMemoryShuffleStorage is not used " +
+        "up, and are written to the local disk beyond it, on memory pressure, or before " +
+        "range reads. Set to 0 to disable.")
+      .version("0.3.0")
+      .bytesConf(ByteUnit.BYTE)
+      .createWithDefaultString("8m")
+
+  val WORKER_DUPLICATE_BATCH_FILTER_SIZE: ConfigEntry[Int] =
+    buildConf("celeborn.worker.duplicateBatchFilter.size")
+      .categories("worker")
+      .doc("Number of the last batches written to a reduce partition that the worker " +
+        "remembers, batches resent by clients after push timeouts are not written again if " +
+        "they are among them. Set to 0 to disable.")
+      .version("0.3.0")
+      .intConf
+      .checkValue(v => v >= 0, "the number of batches must not be negative.")
+      .createWithDefault(256)
+
   val WORKER_DIRECT_MEMORY_RATIO_PAUSE_RECEIVE: ConfigEntry[Double] =
     buildConf("celeborn.worker.directMemoryRatioToPauseReceive")
       .withAlternative("rss.pause.pushdata.memory.ratio")
@@ -2985,6 +3242,43 @@ object CelebornConf extends Logging {
       .timeConf(TimeUnit.MILLISECONDS)
       .createWithDefaultString("10min")
 
+  val WORKER_CONGESTION_CONTROL_CHECK_INTERVAL: ConfigEntry[Long] =
+    buildConf("celeborn.worker.congestionControl.check.interval")
+      .categories("worker")
+      .doc("Interval of the worker to update users' produce/consume rate and decide which " +
+        "users to congest. Pushes read the latest decision, so it should be small.")
+      .version("0.3.0")
+      .timeConf(TimeUnit.MILLISECONDS)
+      .checkValue(v => v > 0 && v < 1000, "The check interval must be within (0, 1s).")
+      .createWithDefaultString("10ms")
+
+  val WORKER_PUSH_CREDIT_ENABLED: ConfigEntry[Boolean] =
+    buildConf("celeborn.worker.push.credit.enabled")
+      .categories("worker")
+      .doc("Whether to grant push credits to clients in the acks of push data of reduce " +
+        "partitions. The memory left below the pause receive threshold plus the bytes flushed " +
+        "in the last interval is shared evenly by the channels pushing data, so clients with " +
+        "`celeborn.push.credit.enabled` slow down before all push channels are paused.")
+      .version("0.3.0")
+      .booleanConf
+      .createWithDefault(false)
+
+  val WORKER_PUSH_CREDIT_MIN: ConfigEntry[Long] =
+    buildConf("celeborn.worker.push.credit.min")
+      .categories("worker")
+      .doc("The minimum push credit granted to a channel.")
+      .version("0.3.0")
+      .bytesConf(ByteUnit.BYTE)
+      .createWithDefaultString("64k")
+
+  val WORKER_PUSH_CREDIT_UPDATE_INTERVAL: ConfigEntry[Long] =
+    buildConf("celeborn.worker.push.credit.update.interval")
+      .categories("worker")
+      .doc("Interval of the worker to update the push credit granted to channels.")
+      .version("0.3.0")
+      .timeConf(TimeUnit.MILLISECONDS)
+      .createWithDefaultString("100ms")
+
   val WORKER_GRACEFUL_SHUTDOWN_ENABLED: ConfigEntry[Boolean] =
     buildConf("celeborn.worker.graceful.shutdown.enabled")
       .withAlternative("rss.worker.graceful.shutdown")
@@ -3233,6 +3527,63 @@ object CelebornConf extends Logging {
       .booleanConf
       .createWithDefault(true)
 
+  val WORKER_FETCH_MAX_CHUNKS_BEING_TRANSFERRED_PER_CLIENT: ConfigEntry[Long] =
+    buildConf("celeborn.worker.fetch.maxChunksBeingTransferredPerClient")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("The max number of chunks allowed to be transferred at the same time to a client " +
+        "connection. Fetches beyond it are queued for up to " +
+        "`celeborn.worker.fetch.queue.timeout`.")
+      .longConf
+      .createWithDefault(Long.MaxValue)
+
+  val WORKER_FETCH_MAX_CHUNKS_BEING_TRANSFERRED_PER_APP: ConfigEntry[Long] =
+    buildConf("celeborn.worker.fetch.maxChunksBeingTransferredPerApp")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("The max number of chunks of an application allowed to be transferred at the same " +
+        "time. Fetches beyond it are queued for up to `celeborn.worker.fetch.queue.timeout`.")
+      .longConf
+      .createWithDefault(Long.MaxValue)
+
+  val WORKER_FETCH_QUEUE_TIMEOUT: ConfigEntry[Long] =
+    buildConf("celeborn.worker.fetch.queue.timeout")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("How long a chunk fetch beyond the limits of chunks being transferred waits in the " +
+        "queue of the worker before it fails as the worker is too busy. 0 fails it at once.")
+      .timeConf(TimeUnit.MILLISECONDS)
+      .createWithDefaultString("1s")
+
+  val WORKER_FETCH_SHARED_FILE_CHANNEL_ENABLED: ConfigEntry[Boolean] =
+    buildConf("celeborn.worker.fetch.sharedFileChannel.enabled")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("Whether the chunks of a stream are served over a file channel shared by the stream, " +
+        "which is opened on the first chunk and closed after the last chunk or when the stream " +
+        "is cleaned up. Otherwise the file is opened for each chunk.")
+      .booleanConf
+      .createWithDefault(true)
+
+  val WORKER_FETCH_READ_AHEAD_CHUNKS: ConfigEntry[Int] =
+    buildConf("celeborn.worker.fetch.readAhead.chunks")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("The number of chunks following a fetched chunk of a stream which the worker reads " +
+        "ahead into the page cache, on a thread per disk. 0 disables read-ahead.")
+      .intConf
+      .checkValue(v => v >= 0, "The number of chunks to read ahead must not be negative.")
+      .createWithDefault(0)
+
+  val WORKER_FETCH_READ_AHEAD_MAX_BYTES_PER_DISK: ConfigEntry[Long] =
+    buildConf("celeborn.worker.fetch.readAhead.maxBytesPerDisk")
+      .categories("worker")
+      .version("0.3.0")
+      .doc("The max bytes of chunks queued and being read ahead on a disk, chunks beyond it are " +
+        "not read ahead.")
+      .bytesConf(ByteUnit.BYTE)
+      .createWithDefaultString("256m")
+
   val CLIENT_HEARTBEAT_INTERVAL: ConfigEntry[Long] =
     buildConf("celeborn.client.heartbeat.interval")
       .categories("client", "worker")
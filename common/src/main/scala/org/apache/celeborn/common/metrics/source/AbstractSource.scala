@@ -220,11 +220,7 @@ abstract class AbstractSource(conf: CelebornConf, role: String)
       val (namedTimer, map) = namedTimers.get(metricNameWithLabel)
       val startTime = Option(map.remove(key))
       startTime match {
-        case Some(t) =>
-          namedTimer.timer.update(System.nanoTime() - t, TimeUnit.NANOSECONDS)
-          if (namedTimer.timer.getCount % metricsSlidingWindowSize == 0) {
-            recordTimer(namedTimer)
-          }
+        case Some(t) => updateTimer(namedTimer, System.nanoTime() - t)
         case None =>
       }
     } catch {
@@ -233,6 +229,25 @@ abstract class AbstractSource(conf: CelebornConf, role: String)
     }
   }
 
+  /**
+   * Timer of the metric with the customized labels, or null if not added. For callers on hot
+   * paths which look the timer up once and keep the start time of sampled operations themselves,
+   * instead of building a key for startTimer and stopTimer on every operation.
+   */
+  def getNamedTimer(metricsName: String): NamedTimer = getNamedTimer(metricsName, Map.empty)
+
+  def getNamedTimer(metricsName: String, labels: Map[String, String]): NamedTimer = {
+    val pair = namedTimers.get(metricNameWithCustomizedLabels(metricsName, labels))
+    if (pair != null) pair._1 else null
+  }
+
+  def updateTimer(namedTimer: NamedTimer, durationNs: Long): Unit = {
+    namedTimer.timer.update(durationNs, TimeUnit.NANOSECONDS)
+    if (namedTimer.timer.getCount % metricsSlidingWindowSize == 0) {
+      recordTimer(namedTimer)
+    }
+  }
+
   def incCounter(metricsName: String): Unit = {
     incCounter(metricsName, 1)
   }
@@ -913,6 +913,8 @@ object Utils extends Logging {
         StatusCode.PUSH_DATA_MASTER_BLACKLISTED
       case 45 =>
         StatusCode.PUSH_DATA_SLAVE_BLACKLISTED
+      case 46 =>
+        StatusCode.PUSH_DATA_SUCCESS_WITH_CREDIT
       case _ =>
         null
     }
@@ -960,6 +962,7 @@ object Utils extends Logging {
 
   val SORTED_SUFFIX = ".sorted"
   val INDEX_SUFFIX = ".index"
+  val BLOCK_INDEX_SUFFIX = ".blockIndex"
   val SUFFIX_HDFS_WRITE_SUCCESS = ".success"
   val COMPATIBLE_HDFS_REGEX = "^[a-zA-Z0-9]+://.*"
 
@@ -975,6 +978,10 @@ object Utils extends Logging {
     path + INDEX_SUFFIX
   }
 
+  def getBlockIndexFilePath(path: String): String = {
+    path + BLOCK_INDEX_SUFFIX
+  }
+
   def getWriteSuccessFilePath(path: String): String = {
     path + SUFFIX_HDFS_WRITE_SUCCESS
   }
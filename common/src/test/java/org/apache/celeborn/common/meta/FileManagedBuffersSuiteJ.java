@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.common.meta;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import io.netty.util.ReferenceCounted;
+import org.junit.Test;
+
+import org.apache.celeborn.common.CelebornConf;
+import org.apache.celeborn.common.identity.UserIdentifier;
+import org.apache.celeborn.common.network.buffer.ManagedBuffer;
+import org.apache.celeborn.common.network.buffer.SharedFileChannel;
+import org.apache.celeborn.common.network.util.TransportConf;
+
+public class FileManagedBuffersSuiteJ {
+
+  @Test
+  public void testChunksShareFileChannel() throws Exception {
+    File file = File.createTempFile("celeborn", "FileManagedBuffersSuiteJ");
+    file.deleteOnExit();
+    byte[] data = new byte[300];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    Files.write(file.toPath(), data);
+    FileInfo fileInfo =
+        new FileInfo(
+            file.getAbsolutePath(),
+            new ArrayList<>(Arrays.asList(0L, 100L, 200L, 300L)),
+            new UserIdentifier("mock", "mock"));
+    FileManagedBuffers buffers =
+        new FileManagedBuffers(fileInfo, new TransportConf("shuffle", new CelebornConf()));
+
+    ManagedBuffer chunk0 = buffers.chunk(0, 0, Integer.MAX_VALUE);
+    SharedFileChannel channel = buffers.sharedChannel();
+    assertEquals(2, channel.refCnt());
+    ManagedBuffer chunk1 = buffers.chunk(1, 0, Integer.MAX_VALUE);
+    assertSame(channel, buffers.sharedChannel());
+    assertEquals(3, channel.refCnt());
+    chunk0.release();
+
+    ByteBuffer read = chunk1.nioByteBuffer();
+    assertEquals(ByteBuffer.wrap(data, 100, 100), read);
+    ReferenceCounted region = (ReferenceCounted) chunk1.convertToNetty();
+    assertEquals(3, channel.refCnt());
+    chunk1.release();
+    region.release();
+    assertEquals(1, channel.refCnt());
+
+    // The stream's reference is handed over to the last chunk.
+    ManagedBuffer chunk2 = buffers.chunk(2, 0, Integer.MAX_VALUE);
+    assertNull(buffers.sharedChannel());
+    assertEquals(ByteBuffer.wrap(data, 200, 100), chunk2.nioByteBuffer());
+    chunk2.release();
+    assertEquals(0, channel.refCnt());
+    assertFalse(channel.channel().isOpen());
+
+    // Chunks fetched again open the file again, until the stream is closed.
+    chunk0 = buffers.chunk(0, 0, Integer.MAX_VALUE);
+    channel = buffers.sharedChannel();
+    buffers.close();
+    assertEquals(1, channel.refCnt());
+    assertEquals(ByteBuffer.wrap(data, 0, 100), chunk0.nioByteBuffer());
+    chunk0.release();
+    assertFalse(channel.channel().isOpen());
+    chunk0 = buffers.chunk(0, 0, Integer.MAX_VALUE);
+    assertNull(buffers.sharedChannel());
+    assertEquals(ByteBuffer.wrap(data, 0, 100), chunk0.nioByteBuffer());
+  }
+}
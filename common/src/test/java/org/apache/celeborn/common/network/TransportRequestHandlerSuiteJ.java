@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.celeborn.common.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.apache.celeborn.common.network.client.TransportClient;
+import org.apache.celeborn.common.network.protocol.*;
+import org.apache.celeborn.common.network.server.BaseMessageHandler;
+import org.apache.celeborn.common.network.server.TransportRequestHandler;
+
+public class TransportRequestHandlerSuiteJ {
+  @Test
+  public void failChunkStreamCreditWhenNotRegistered() {
+    Channel channel = mock(Channel.class);
+    ChannelFuture future = mock(ChannelFuture.class);
+    when(channel.writeAndFlush(any())).thenReturn(future);
+    BaseMessageHandler msgHandler = mock(BaseMessageHandler.class);
+    when(msgHandler.checkRegistered()).thenReturn(false);
+    TransportRequestHandler handler =
+        new TransportRequestHandler(channel, mock(TransportClient.class), msgHandler);
+
+    handler.handle(new ChunkStreamCredit(1, 3, 2));
+
+    verify(msgHandler, never()).receive(any(), any());
+    ArgumentCaptor<Object> responses = ArgumentCaptor.forClass(Object.class);
+    verify(channel, times(2)).writeAndFlush(responses.capture());
+    List<Object> failures = responses.getAllValues();
+    for (int i = 0; i < 2; i++) {
+      ChunkFetchFailure failure = (ChunkFetchFailure) failures.get(i);
+      assertEquals(new StreamChunkSlice(1, 3 + i), failure.streamChunkSlice);
+    }
+  }
+}
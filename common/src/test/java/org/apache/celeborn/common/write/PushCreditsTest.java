@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.common.write;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.celeborn.common.CelebornConf;
+
+public class PushCreditsTest {
+
+  private final CelebornConf conf = new CelebornConf();
+  private final String dummyHostPort = "test:9087";
+
+  @Test
+  public void testAcquireWithinCredit() {
+    PushCredits credits = new PushCredits();
+
+    // Not limited until the worker grants a credit
+    Assert.assertTrue(credits.tryAcquire(dummyHostPort, 1 << 20));
+    credits.grant(dummyHostPort, 1 << 20);
+    Assert.assertFalse(credits.tryAcquire(dummyHostPort, 1));
+
+    // A push is always allowed if nothing is in flight, even beyond the credit
+    credits.release(dummyHostPort, 1 << 20);
+    credits.grant(dummyHostPort, 100);
+    Assert.assertTrue(credits.tryAcquire(dummyHostPort, 200));
+    Assert.assertFalse(credits.tryAcquire(dummyHostPort, 1));
+    credits.release(dummyHostPort, 200);
+    Assert.assertTrue(credits.tryAcquire(dummyHostPort, 60));
+    Assert.assertTrue(credits.tryAcquire(dummyHostPort, 40));
+    Assert.assertFalse(credits.tryAcquire(dummyHostPort, 1));
+    Assert.assertEquals(100, credits.inFlightBytes(dummyHostPort));
+  }
+
+  @Test
+  public void testReleaseCreditedBatches() throws Exception {
+    PushCredits credits = new PushCredits();
+    PushState pushState = new PushState(conf, credits);
+    PushState otherPushState = new PushState(conf, credits);
+    pushState.onCredit(dummyHostPort, 100);
+
+    Assert.assertFalse(pushState.limitPushCredit(dummyHostPort, 60));
+    pushState.addBatch(1, 60, dummyHostPort);
+    Assert.assertFalse(otherPushState.limitPushCredit(dummyHostPort, 40));
+    otherPushState.addBatch(1, 40, dummyHostPort);
+    Assert.assertEquals(100, credits.inFlightBytes(dummyHostPort));
+
+    // Retried batches are not credited
+    pushState.addBatch(2, 0, dummyHostPort);
+    pushState.removeBatch(2, dummyHostPort);
+    Assert.assertEquals(100, credits.inFlightBytes(dummyHostPort));
+
+    pushState.removeBatch(1, dummyHostPort);
+    Assert.assertEquals(40, credits.inFlightBytes(dummyHostPort));
+
+    // Batches left in flight return their credits on cleanup
+    otherPushState.cleanup();
+    Assert.assertEquals(0, credits.inFlightBytes(dummyHostPort));
+  }
+}
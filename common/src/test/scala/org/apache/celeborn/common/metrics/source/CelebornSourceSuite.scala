@@ -68,6 +68,19 @@ class CelebornSourceSuite extends CelebornFunSuite {
     assert(res.contains(exp6))
   }
 
+  test("test updateTimer of named timer") {
+    val mockSource = new AbstractSource(new CelebornConf(), "mock") {
+      override def sourceName: String = "mockSource"
+    }
+    mockSource.addTimer("Timer1")
+    assert(mockSource.getNamedTimer("Timer2") == null)
+    val timer = mockSource.getNamedTimer("Timer1")
+    mockSource.updateTimer(timer, 1000000)
+    mockSource.updateTimer(timer, 3000000)
+    assert(timer.timer.getCount == 2)
+    assert(mockSource.getMetrics().contains("""metrics_Timer1_Count{role="mock"} 2"""))
+  }
+
   test("test getMetrics with customized label by conf") {
     val conf = new CelebornConf()
     // label's is normal
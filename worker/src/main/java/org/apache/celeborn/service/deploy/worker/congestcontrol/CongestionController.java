@@ -22,8 +22,8 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,41 +44,50 @@ public class CongestionController {
   private final long lowWatermark;
   private final long userInactiveTimeMills;
 
-  private final AtomicBoolean overHighWatermark = new AtomicBoolean(false);
+  // Written by the check tick only, read on the push path.
+  private volatile boolean overHighWatermark = false;
+  private volatile long consumeSpeed = 0;
+  private volatile long potentialConsumeSpeed = 0;
 
-  private final BufferStatusHub consumedBufferStatusHub;
+  private final TimeBucketedCounter consumedBytes;
 
   private final ConcurrentHashMap<UserIdentifier, UserBufferInfo> userBufferStatuses;
 
-  private final ScheduledExecutorService removeUserExecutorService;
+  private final ScheduledExecutorService scheduledExecutorService;
 
   protected CongestionController(
       WorkerSource workerSource,
       int sampleTimeWindowSeconds,
       long highWatermark,
       long lowWatermark,
-      long userInactiveTimeMills) {
+      long userInactiveTimeMills,
+      long checkIntervalMs) {
     assert (highWatermark > lowWatermark);
+    // The counters need a check tick within every second to clear their buckets.
+    assert (checkIntervalMs < 1000);
 
     this.workerSource = workerSource;
     this.sampleTimeWindowSeconds = sampleTimeWindowSeconds;
     this.highWatermark = highWatermark;
     this.lowWatermark = lowWatermark;
     this.userInactiveTimeMills = userInactiveTimeMills;
-    this.consumedBufferStatusHub = new BufferStatusHub(sampleTimeWindowSeconds);
+    this.consumedBytes =
+        new TimeBucketedCounter(sampleTimeWindowSeconds, System.currentTimeMillis());
     this.userBufferStatuses = JavaUtils.newConcurrentHashMap();
 
-    this.removeUserExecutorService =
-        ThreadUtils.newDaemonSingleThreadScheduledExecutor("remove-inactive-user");
+    this.scheduledExecutorService =
+        ThreadUtils.newDaemonSingleThreadScheduledExecutor("congestion-controller");
 
-    this.removeUserExecutorService.scheduleWithFixedDelay(
+    this.scheduledExecutorService.scheduleWithFixedDelay(
         this::removeInactiveUsers, 0, userInactiveTimeMills, TimeUnit.MILLISECONDS);
 
+    this.scheduledExecutorService.scheduleWithFixedDelay(
+        this::checkCongestionSafely, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+
     this.workerSource.addGauge(
         WorkerSource.PotentialConsumeSpeed(), this::getPotentialConsumeSpeed);
 
-    this.workerSource.addGauge(
-        WorkerSource.WorkerConsumeSpeed(), consumedBufferStatusHub::avgBytesPerSec);
+    this.workerSource.addGauge(WorkerSource.WorkerConsumeSpeed(), () -> consumeSpeed);
   }
 
   public static synchronized CongestionController initialize(
@@ -86,14 +95,16 @@ public class CongestionController {
       int sampleTimeWindowSeconds,
       long highWatermark,
       long lowWatermark,
-      long userInactiveTimeMills) {
+      long userInactiveTimeMills,
+      long checkIntervalMs) {
     _INSTANCE =
         new CongestionController(
             workSource,
             sampleTimeWindowSeconds,
             highWatermark,
             lowWatermark,
-            userInactiveTimeMills);
+            userInactiveTimeMills,
+            checkIntervalMs);
     return _INSTANCE;
   }
 
@@ -102,25 +113,15 @@ public class CongestionController {
   }
 
   private static class UserBufferInfo {
-    long timestamp;
-    final BufferStatusHub bufferStatusHub;
-
-    public UserBufferInfo(long timestamp, BufferStatusHub bufferStatusHub) {
-      this.timestamp = timestamp;
-      this.bufferStatusHub = bufferStatusHub;
-    }
+    volatile long timestamp;
+    final TimeBucketedCounter producedBytes;
+    // Written by the check tick only.
+    volatile long produceSpeed = 0;
+    volatile boolean congested = false;
 
-    synchronized void updateInfo(long timestamp, BufferStatusHub.BufferStatusNode node) {
+    public UserBufferInfo(long timestamp, TimeBucketedCounter producedBytes) {
       this.timestamp = timestamp;
-      this.bufferStatusHub.add(timestamp, node);
-    }
-
-    public long getTimestamp() {
-      return timestamp;
-    }
-
-    public BufferStatusHub getBufferStatusHub() {
-      return bufferStatusHub;
+      this.producedBytes = producedBytes;
     }
   }
 
@@ -132,74 +133,107 @@ public class CongestionController {
    *
    * <p>3. If the pending bytes doesn't exceed the high watermark, will allow all users to try to
    * get max throughout capacity.
+   *
+   * <p>The decision is made by the check tick, this only reads its result, so it lags behind the
+   * pushed bytes by up to the check interval.
    */
   public boolean isUserCongested(UserIdentifier userIdentifier) {
-    if (userBufferStatuses.size() == 0) {
+    if (!overHighWatermark) {
       return false;
     }
+    UserBufferInfo userBufferInfo = userBufferStatuses.get(userIdentifier);
+    return userBufferInfo != null && userBufferInfo.congested;
+  }
 
-    long pendingConsumed = getTotalPendingBytes();
-    long avgConsumeSpeed = getPotentialConsumeSpeed();
+  public void produceBytes(UserIdentifier userIdentifier, int numBytes) {
+    long currentTimeMillis = System.currentTimeMillis();
+    UserBufferInfo userBufferInfo = userBufferStatuses.get(userIdentifier);
+    if (userBufferInfo == null) {
+      userBufferInfo =
+          userBufferStatuses.computeIfAbsent(
+              userIdentifier,
+              user -> {
+                logger.info("New user {} comes, initializing its rate status", user);
+                UserBufferInfo userInfo =
+                    new UserBufferInfo(
+                        currentTimeMillis,
+                        new TimeBucketedCounter(sampleTimeWindowSeconds, currentTimeMillis));
+                workerSource.addGauge(
+                    WorkerSource.UserProduceSpeed(),
+                    () -> userInfo.produceSpeed,
+                    userIdentifier.toMap());
+                return userInfo;
+              });
+    }
+    userBufferInfo.timestamp = currentTimeMillis;
+    userBufferInfo.producedBytes.add(currentTimeMillis, numBytes);
+  }
+
+  public void consumeBytes(int numBytes) {
+    consumedBytes.add(System.currentTimeMillis(), numBytes);
+  }
 
-    if (pendingConsumed > highWatermark && overHighWatermark.compareAndSet(false, true)) {
+  /**
+   * Updates the produce and consume speeds and the congestion flags of users, run by the check
+   * tick. Tests call it directly to check without waiting for the tick.
+   */
+  @VisibleForTesting
+  synchronized void checkCongestion() {
+    long currentTimeMillis = System.currentTimeMillis();
+    consumeSpeed = consumedBytes.avgBytesPerSec(currentTimeMillis);
+    int numUsers = userBufferStatuses.size();
+    long avgConsumeSpeed = numUsers == 0 ? 0 : consumeSpeed / numUsers;
+    potentialConsumeSpeed = avgConsumeSpeed;
+    for (UserBufferInfo userBufferInfo : userBufferStatuses.values()) {
+      userBufferInfo.produceSpeed = userBufferInfo.producedBytes.avgBytesPerSec(currentTimeMillis);
+    }
+    if (numUsers == 0) {
+      overHighWatermark = false;
+      return;
+    }
+
+    boolean congest = overHighWatermark;
+    long pendingConsumed = getTotalPendingBytes();
+    if (!congest && pendingConsumed > highWatermark) {
       logger.info(
           "Pending consume bytes: {} higher than high watermark, need to congest it",
           pendingConsumed);
+      congest = true;
     }
-
-    if (overHighWatermark.get()) {
+    if (congest) {
       trimMemoryUsage();
       pendingConsumed = getTotalPendingBytes();
-
-      if (pendingConsumed < lowWatermark && overHighWatermark.compareAndSet(true, false)) {
+      if (pendingConsumed < lowWatermark) {
         logger.info("Lower than low watermark, exit congestion control");
+        congest = false;
       }
+    }
 
-      if (!overHighWatermark.get()) {
-        return false;
-      }
-
-      // If the user produce speed is higher that the avg consume speed, will congest it
-      long userProduceSpeed = getUserProduceSpeed(userBufferStatuses.get(userIdentifier));
-      if (logger.isDebugEnabled()) {
+    // If the user produce speed is higher that the avg consume speed, will congest it. Flags
+    // are set before entering congestion, so that pushes do not read the stale ones.
+    for (Map.Entry<UserIdentifier, UserBufferInfo> entry : userBufferStatuses.entrySet()) {
+      UserBufferInfo userBufferInfo = entry.getValue();
+      boolean userCongested = congest && userBufferInfo.produceSpeed > avgConsumeSpeed;
+      if (congest && logger.isDebugEnabled()) {
         logger.debug(
             "The user {}, produceSpeed is {},"
                 + " while consumeSpeed is {}, need to congest it: {}",
-            userIdentifier,
-            userProduceSpeed,
+            entry.getKey(),
+            userBufferInfo.produceSpeed,
             avgConsumeSpeed,
-            userProduceSpeed > avgConsumeSpeed);
+            userCongested);
       }
-      return userProduceSpeed > avgConsumeSpeed;
+      userBufferInfo.congested = userCongested;
     }
-
-    return false;
-  }
-
-  public void produceBytes(UserIdentifier userIdentifier, int numBytes) {
-    long currentTimeMillis = System.currentTimeMillis();
-    UserBufferInfo userBufferInfo =
-        userBufferStatuses.computeIfAbsent(
-            userIdentifier,
-            user -> {
-              logger.info("New user {} comes, initializing its rate status", user);
-              BufferStatusHub bufferStatusHub = new BufferStatusHub(sampleTimeWindowSeconds);
-              UserBufferInfo userInfo = new UserBufferInfo(currentTimeMillis, bufferStatusHub);
-              workerSource.addGauge(
-                  WorkerSource.UserProduceSpeed(),
-                  () -> getUserProduceSpeed(userInfo),
-                  userIdentifier.toMap());
-              return userInfo;
-            });
-
-    BufferStatusHub.BufferStatusNode node = new BufferStatusHub.BufferStatusNode(numBytes);
-    userBufferInfo.updateInfo(currentTimeMillis, node);
+    overHighWatermark = congest;
   }
 
-  public void consumeBytes(int numBytes) {
-    long currentTimeMillis = System.currentTimeMillis();
-    BufferStatusHub.BufferStatusNode node = new BufferStatusHub.BufferStatusNode(numBytes);
-    consumedBufferStatusHub.add(currentTimeMillis, node);
+  private void checkCongestionSafely() {
+    try {
+      checkCongestion();
+    } catch (Exception e) {
+      logger.error("Error occurs when checking congestion, ", e);
+    }
   }
 
   public long getTotalPendingBytes() {
@@ -212,23 +246,10 @@ public class CongestionController {
 
   /**
    * Get avg consumed bytes in a configured time window, and divide with the number of active users
-   * to determine the potential consume speed.
+   * to determine the potential consume speed. Computed by the check tick.
    */
   public long getPotentialConsumeSpeed() {
-    if (userBufferStatuses.size() == 0) {
-      return 0;
-    }
-
-    return consumedBufferStatusHub.avgBytesPerSec() / userBufferStatuses.size();
-  }
-
-  /** Get the avg user produce speed, the unit is bytes/sec. */
-  private long getUserProduceSpeed(UserBufferInfo userBufferInfo) {
-    if (userBufferInfo != null) {
-      return userBufferInfo.getBufferStatusHub().avgBytesPerSec();
-    }
-
-    return 0L;
+    return potentialConsumeSpeed;
   }
 
   private void removeInactiveUsers() {
@@ -241,7 +262,7 @@ public class CongestionController {
         Map.Entry<UserIdentifier, UserBufferInfo> next = iterator.next();
         UserIdentifier userIdentifier = next.getKey();
         UserBufferInfo userBufferInfo = next.getValue();
-        if (currentTimeMillis - userBufferInfo.getTimestamp() >= userInactiveTimeMills) {
+        if (currentTimeMillis - userBufferInfo.timestamp >= userInactiveTimeMills) {
           userBufferStatuses.remove(userIdentifier);
           workerSource.removeGauge(WorkerSource.UserProduceSpeed(), userIdentifier.toMap());
           logger.info(
@@ -255,9 +276,8 @@ public class CongestionController {
   }
 
   public void close() {
-    this.removeUserExecutorService.shutdownNow();
+    this.scheduledExecutorService.shutdownNow();
     this.userBufferStatuses.clear();
-    this.consumedBufferStatusHub.clear();
   }
 
   public static synchronized void destroy() {
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.congestcontrol;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counts bytes per second over a sliding window of whole seconds. Writers add to the striped
+ * counter of the current second, without locks or allocation. The ring has one bucket more than
+ * the window, which is the bucket of the next second, cleared by the reader before it is used.
+ * Reading is expected from a single thread, the check tick of the congestion controller, which
+ * must run more often than once a second.
+ */
+class TimeBucketedCounter {
+  private final LongAdder[] buckets;
+  private final int windowSeconds;
+  // The first second counted, to average over less than the window when the counter is young.
+  private final long firstSecond;
+  // Buckets are clear up to the one of the second after this. Only used by the reader.
+  private long clearedSecond;
+
+  TimeBucketedCounter(int windowSeconds, long currentTimeMillis) {
+    this.windowSeconds = windowSeconds;
+    this.buckets = new LongAdder[windowSeconds + 1];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+    this.firstSecond = currentTimeMillis / 1000;
+    // All buckets are clear, up to the one of the last second in the first window.
+    this.clearedSecond = firstSecond + windowSeconds - 1;
+  }
+
+  void add(long currentTimeMillis, long numBytes) {
+    bucket(currentTimeMillis / 1000).add(numBytes);
+  }
+
+  /** The average bytes per second over the window, also clears the bucket of the next second. */
+  long avgBytesPerSec(long currentTimeMillis) {
+    long second = currentTimeMillis / 1000;
+    // Clear the buckets of the seconds after the last cleared one up to the next second. Unless
+    // the reader has been away for more than a second, this is the bucket of the next second
+    // only, otherwise it drops some bytes of the current second along with the stale ones.
+    long toClear = Math.min(second - clearedSecond, buckets.length);
+    for (long i = 0; i < toClear; i++) {
+      bucket(second + 1 - i).reset();
+    }
+    clearedSecond = Math.max(clearedSecond, second);
+
+    long sum = 0;
+    for (int i = 0; i < windowSeconds; i++) {
+      sum += bucket(second - i).sum();
+    }
+    return sum / Math.max(1, Math.min(windowSeconds, second - firstSecond + 1));
+  }
+
+  private LongAdder bucket(long second) {
+    return buckets[(int) Math.floorMod(second, (long) buckets.length)];
+  }
+}
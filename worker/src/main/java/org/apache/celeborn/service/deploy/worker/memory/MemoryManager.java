@@ -68,6 +68,7 @@ public class MemoryManager {
   private AtomicLong nettyMemoryCounter = null;
   private final AtomicLong sortMemoryCounter = new AtomicLong(0);
   private final AtomicLong diskBufferCounter = new AtomicLong(0);
+  private final LongAdder releasedDiskBufferCounter = new LongAdder();
   private final LongAdder pausePushDataCounter = new LongAdder();
   private final LongAdder pausePushDataAndReplicateCounter = new LongAdder();
   private MemoryManagerStat memoryManagerStat = MemoryManagerStat.resumeAll;
@@ -343,12 +344,52 @@ public class MemoryManager {
     }
   }
 
+  /** Whether the current memory pressure asks for memory held by the worker to be released. */
+  public boolean underMemoryPressure() {
+    return currentMemoryAction() != MemoryManagerStat.resumeAll;
+  }
+
+  public boolean memoryShuffleStorageAvailable() {
+    return memoryShuffleStorageCounter.get() < memoryShuffleStorageThreshold;
+  }
+
+  /** Reserve memory to store shuffle data in, returns false if the budget is used up. */
+  public boolean reserveMemoryShuffleStorage(long size) {
+    while (true) {
+      long current = memoryShuffleStorageCounter.get();
+      if (current + size > memoryShuffleStorageThreshold) {
+        return false;
+      }
+      if (memoryShuffleStorageCounter.compareAndSet(current, current + size)) {
+        return true;
+      }
+    }
+  }
+
+  public void releaseMemoryShuffleStorage(long size) {
+    memoryShuffleStorageCounter.addAndGet(-size);
+  }
+
+  public long getMemoryShuffleStorageUsage() {
+    return memoryShuffleStorageCounter.get();
+  }
+
   public void incrementDiskBuffer(int size) {
     diskBufferCounter.addAndGet(size);
   }
 
   public void releaseDiskBuffer(int size) {
     diskBufferCounter.addAndGet(size * -1);
+    releasedDiskBufferCounter.add(size);
+  }
+
+  /** Total bytes of disk buffers released since the worker started, mostly by flushes. */
+  public long getReleasedDiskBuffer() {
+    return releasedDiskBufferCounter.sum();
+  }
+
+  public long getPausePushDataThreshold() {
+    return pausePushDataThreshold;
   }
 
   public AtomicLong getNettyMemoryCounter() {
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.celeborn.common.CelebornConf;
+import org.apache.celeborn.common.protocol.message.StatusCode;
+import org.apache.celeborn.common.util.ThreadUtils;
+import org.apache.celeborn.common.util.Utils;
+
+/*
+ * Grants push credits to the channels pushing data of reduce partitions, the bytes a client may
+ * have in flight to this worker. The memory left below the threshold pausing push data, plus the
+ * disk buffers released by flushes in the last interval, is shared evenly by the channels which
+ * pushed in the last interval. The credit is piggybacked on the acks of plain successful pushes,
+ * so clients slow down one by one before the memory manager has to pause all push channels.
+ */
+public class PushCreditManager {
+  private static final Logger logger = LoggerFactory.getLogger(PushCreditManager.class);
+  private static volatile PushCreditManager _INSTANCE = null;
+
+  private final MemoryManager memoryManager;
+  private final long minCredit;
+  private final Set<Channel> activeChannels = ConcurrentHashMap.newKeySet();
+  // Only used by the update thread.
+  private long lastReleasedDiskBuffer;
+  private volatile long credit;
+  // Shared by all acks until the next update, it is read-only and never read by relative gets on
+  // the way to the channel.
+  private volatile ByteBuffer creditResponse;
+
+  private final ScheduledExecutorService updateService =
+      ThreadUtils.newDaemonSingleThreadScheduledExecutor("push-credit-updater");
+
+  @VisibleForTesting
+  PushCreditManager(MemoryManager memoryManager, long minCredit, long updateIntervalMs) {
+    this.memoryManager = memoryManager;
+    this.minCredit = minCredit;
+    this.lastReleasedDiskBuffer = memoryManager.getReleasedDiskBuffer();
+    setCredit(Math.max(minCredit, memoryManager.getPausePushDataThreshold()));
+    updateService.scheduleWithFixedDelay(
+        () -> {
+          try {
+            update();
+          } catch (Exception e) {
+            logger.warn("Failed to update push credit", e);
+          }
+        },
+        updateIntervalMs,
+        updateIntervalMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public static synchronized PushCreditManager initialize(
+      CelebornConf conf, MemoryManager memoryManager) {
+    _INSTANCE =
+        new PushCreditManager(
+            memoryManager, conf.workerPushCreditMin(), conf.workerPushCreditUpdateIntervalMs());
+    return _INSTANCE;
+  }
+
+  public static PushCreditManager instance() {
+    return _INSTANCE;
+  }
+
+  /** The ack of a successful push from the channel, carrying the channel's credit. */
+  public ByteBuffer creditResponse(Channel channel) {
+    // Adding a channel which is in the set already does not allocate.
+    activeChannels.add(channel);
+    return creditResponse;
+  }
+
+  public long getCredit() {
+    return credit;
+  }
+
+  @VisibleForTesting
+  void update() {
+    long headroom =
+        Math.max(0, memoryManager.getPausePushDataThreshold() - memoryManager.getMemoryUsage());
+    long releasedDiskBuffer = memoryManager.getReleasedDiskBuffer();
+    long flushed = releasedDiskBuffer - lastReleasedDiskBuffer;
+    lastReleasedDiskBuffer = releasedDiskBuffer;
+    int numChannels = Math.max(1, activeChannels.size());
+    activeChannels.clear();
+
+    long newCredit = Math.max(minCredit, (headroom + flushed) / numChannels);
+    if (newCredit != credit) {
+      logger.debug(
+          "Push credit changed {} -> {}, active channels {}",
+          Utils.bytesToString(credit),
+          Utils.bytesToString(newCredit),
+          numChannels);
+      setCredit(newCredit);
+    }
+  }
+
+  private void setCredit(long newCredit) {
+    ByteBuffer response = ByteBuffer.allocate(9);
+    response.put(StatusCode.PUSH_DATA_SUCCESS_WITH_CREDIT.getValue());
+    response.putLong(newCredit);
+    response.flip();
+    credit = newCredit;
+    creditResponse = response.asReadOnlyBuffer();
+  }
+
+  public void close() {
+    updateService.shutdownNow();
+    activeChannels.clear();
+  }
+
+  public static synchronized void destroy() {
+    if (_INSTANCE != null) {
+      _INSTANCE.close();
+      _INSTANCE = null;
+    }
+  }
+}
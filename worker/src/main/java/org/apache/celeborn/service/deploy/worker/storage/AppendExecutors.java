@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * A fixed set of append threads. Each reduce partition writer is owned by one of them, which
+ * appends all data pushed to the writer, so Netty threads pushing into the same hot partition
+ * hand their data over through a lock-free queue instead of contending for the writer's lock.
+ * Tasks of a shard run in submission order, so a barrier queued behind the appends of a writer
+ * completes once they are done. Tasks still queued when the executors stop are dropped, so that
+ * they can release what they hold.
+ */
+public class AppendExecutors {
+  private static final Logger logger = LoggerFactory.getLogger(AppendExecutors.class);
+
+  private final Shard[] shards;
+  private final AtomicInteger nextShard = new AtomicInteger();
+
+  public AppendExecutors(int numThreads) {
+    shards = new Shard[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      shards[i] = new Shard("worker-file-append-" + i);
+    }
+  }
+
+  /** The shard owning a new writer, assigned round-robin. */
+  public Shard nextShard() {
+    return shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+  }
+
+  public void shutdown() {
+    for (Shard shard : shards) {
+      shard.stop();
+    }
+  }
+
+  /** A task of a shard, which is either run or dropped. */
+  public interface Task extends Runnable {
+    /** Called instead of run if the executors stop before the task runs. */
+    void drop();
+  }
+
+  public static class Shard implements Runnable {
+    // Multiple producers, consumed by the shard's thread, or by anyone once stopped.
+    private final ConcurrentLinkedQueue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean parked = false;
+    private volatile boolean stopped = false;
+
+    Shard(String name) {
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    public void execute(Task task) {
+      tasks.offer(task);
+      if (stopped) {
+        // The thread may have drained the queue before the task was added.
+        dropQueuedTasks();
+        return;
+      }
+      // The thread sets parked before checking the queue again, so either it sees the task or
+      // it is unparked here.
+      if (parked) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    /**
+     * Run the action on the thread of this shard, after the tasks submitted before. Completes
+     * exceptionally if the action fails or the executors stop before it runs.
+     */
+    public CompletableFuture<Void> submit(Callable<Void> action) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      execute(
+          new Task() {
+            @Override
+            public void run() {
+              try {
+                action.call();
+                future.complete(null);
+              } catch (Throwable t) {
+                future.completeExceptionally(t);
+              }
+            }
+
+            @Override
+            public void drop() {
+              future.completeExceptionally(
+                  new IOException("Append executors are stopped, " + thread.getName()));
+            }
+          });
+      return future;
+    }
+
+    /** Completes when the tasks submitted before are done. */
+    public CompletableFuture<Void> barrier() {
+      return submit(() -> null);
+    }
+
+    public boolean isShardThread() {
+      return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+      while (!stopped) {
+        Task task = tasks.poll();
+        if (task != null) {
+          try {
+            task.run();
+          } catch (Throwable t) {
+            logger.error("Append task failed.", t);
+          }
+        } else {
+          parked = true;
+          if (tasks.isEmpty() && !stopped) {
+            LockSupport.park(this);
+          }
+          parked = false;
+        }
+      }
+      dropQueuedTasks();
+    }
+
+    private void dropQueuedTasks() {
+      Task task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.drop();
+        } catch (Throwable t) {
+          logger.error("Drop append task failed.", t);
+        }
+      }
+    }
+
+    private void stop() {
+      stopped = true;
+      LockSupport.unpark(thread);
+    }
+  }
+}
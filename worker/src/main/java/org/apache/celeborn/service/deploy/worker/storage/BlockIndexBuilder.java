@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.celeborn.common.util.ShuffleBlockInfoUtils.ShuffleBlockInfo;
+
+/*
+ * Records the (mapId, offset, length) of every batch appended to a reduce partition file,
+ * so that the file can be sorted or range-read without scanning batch headers again.
+ * Not thread safe, callers should hold the FileWriter's monitor.
+ */
+public class BlockIndexBuilder {
+  private static final int INITIAL_CAPACITY = 64;
+
+  private int[] mapIds = new int[INITIAL_CAPACITY];
+  private long[] offsets = new long[INITIAL_CAPACITY];
+  private int[] lengths = new int[INITIAL_CAPACITY];
+  private int numBlocks = 0;
+  private long totalLength = 0;
+
+  public void addBlock(int mapId, long offset, int length) {
+    if (numBlocks == mapIds.length) {
+      int newCapacity = mapIds.length << 1;
+      mapIds = Arrays.copyOf(mapIds, newCapacity);
+      offsets = Arrays.copyOf(offsets, newCapacity);
+      lengths = Arrays.copyOf(lengths, newCapacity);
+    }
+    mapIds[numBlocks] = mapId;
+    offsets[numBlocks] = offset;
+    lengths[numBlocks] = length;
+    numBlocks++;
+    totalLength += length;
+  }
+
+  public int numBlocks() {
+    return numBlocks;
+  }
+
+  public long totalLength() {
+    return totalLength;
+  }
+
+  /** Groups recorded blocks by mapId in ascending order, keeping append order inside a map. */
+  public Map<Integer, List<ShuffleBlockInfo>> toShuffleBlockInfos() {
+    Map<Integer, List<ShuffleBlockInfo>> indexMap = new TreeMap<>();
+    for (int i = 0; i < numBlocks; i++) {
+      ShuffleBlockInfo blockInfo = new ShuffleBlockInfo();
+      blockInfo.offset = offsets[i];
+      blockInfo.length = lengths[i];
+      indexMap.computeIfAbsent(mapIds[i], v -> new ArrayList<>()).add(blockInfo);
+    }
+    return indexMap;
+  }
+}
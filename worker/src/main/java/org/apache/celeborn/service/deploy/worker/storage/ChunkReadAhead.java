@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.celeborn.common.meta.FileManagedBuffers;
+import org.apache.celeborn.common.util.JavaUtils;
+import org.apache.celeborn.common.util.ThreadUtils;
+
+/*
+ * Reads ahead the chunks following a fetched chunk of a stream into the page cache, so that the
+ * chunks are sent from memory instead of paying a seek and a cold read on the fetch. Each disk has
+ * a read-ahead thread reading through a direct scratch buffer of the slab allocator, chunks beyond
+ * the bytes of a disk being read ahead are skipped. A chunk is read ahead at most once per stream.
+ */
+public class ChunkReadAhead {
+  private static final Logger logger = LoggerFactory.getLogger(ChunkReadAhead.class);
+
+  private static final int SCRATCH_BUFFER_SIZE = 256 * 1024;
+  // Files of which the mount point is unknown share a read-ahead thread.
+  private static final String UNKNOWN_MOUNT_POINT = "unknown";
+
+  private final int readAheadChunks;
+  private final long maxBytesPerDisk;
+  private final ConcurrentHashMap<String, Disk> disks = JavaUtils.newConcurrentHashMap();
+
+  private static class Disk {
+    final ExecutorService executor;
+    // Bytes queued and being read ahead.
+    final AtomicLong pendingBytes = new AtomicLong();
+    // Used by the executor's thread only, released by the executor's last task.
+    final ByteBuf scratchMemory =
+        FileWriter.SLAB_ALLOCATOR.directBuffer(SCRATCH_BUFFER_SIZE, SCRATCH_BUFFER_SIZE);
+    final ByteBuffer scratch = scratchMemory.nioBuffer(0, SCRATCH_BUFFER_SIZE);
+
+    Disk(String mountPoint) {
+      executor = ThreadUtils.newDaemonSingleThreadExecutor("worker-read-ahead-" + mountPoint);
+    }
+  }
+
+  public ChunkReadAhead(int readAheadChunks, long maxBytesPerDisk) {
+    this.readAheadChunks = readAheadChunks;
+    this.maxBytesPerDisk = maxBytesPerDisk;
+  }
+
+  /** Reads ahead the chunks following the fetched chunk which are not read ahead yet. */
+  void chunkFetched(ChunkStreamManager.StreamState state, int chunkIndex) {
+    FileManagedBuffers buffers = state.buffers;
+    int endChunkIndex = Math.min(chunkIndex + 1 + readAheadChunks, buffers.numChunks());
+    if (state.nextReadAheadChunkIndex >= endChunkIndex) {
+      return;
+    }
+    Disk disk = disk(buffers.getMountPoint());
+    synchronized (state) {
+      int readAheadChunkIndex = Math.max(state.nextReadAheadChunkIndex, chunkIndex + 1);
+      while (readAheadChunkIndex < endChunkIndex) {
+        long length = buffers.chunkLength(readAheadChunkIndex);
+        if (disk.pendingBytes.addAndGet(length) > maxBytesPerDisk) {
+          // Tried again on the next fetch of the stream.
+          disk.pendingBytes.addAndGet(-length);
+          break;
+        }
+        int index = readAheadChunkIndex;
+        disk.executor.execute(
+            () -> {
+              try {
+                buffers.readAhead(index, disk.scratch);
+              } catch (Exception e) {
+                logger.debug("Read ahead chunk {} of {} failed.", index, buffers, e);
+              } finally {
+                disk.pendingBytes.addAndGet(-length);
+              }
+            });
+        readAheadChunkIndex++;
+      }
+      state.nextReadAheadChunkIndex = readAheadChunkIndex;
+    }
+  }
+
+  private Disk disk(String mountPoint) {
+    String key = mountPoint != null ? mountPoint : UNKNOWN_MOUNT_POINT;
+    Disk disk = disks.get(key);
+    if (disk == null) {
+      disk = disks.computeIfAbsent(key, Disk::new);
+    }
+    return disk;
+  }
+
+  @VisibleForTesting
+  long pendingBytes(String mountPoint) {
+    return disk(mountPoint).pendingBytes.get();
+  }
+
+  @VisibleForTesting
+  ByteBuf scratchMemory(String mountPoint) {
+    return disk(mountPoint).scratchMemory;
+  }
+
+  public void close() {
+    // Not interrupted, an interrupted read would close the channel shared with chunks being sent.
+    for (Disk disk : disks.values()) {
+      disk.executor.execute(disk.scratchMemory::release);
+      disk.executor.shutdown();
+    }
+  }
+
+  @VisibleForTesting
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    for (Disk disk : disks.values()) {
+      if (!disk.executor.awaitTermination(timeout, unit)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
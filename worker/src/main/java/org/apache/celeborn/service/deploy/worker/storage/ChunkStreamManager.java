@@ -21,9 +21,11 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import io.netty.channel.Channel;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
@@ -46,29 +48,80 @@ public class ChunkStreamManager {
   protected final ConcurrentHashMap<Long, StreamState> streams;
   // ShuffleKey -> StreamId
   protected final ConcurrentHashMap<String, Set<Long>> shuffleStreamIds;
+  // Channel -> StreamId, of the streams opened on the channel
+  private final ConcurrentHashMap<Channel, Set<Long>> channelStreamIds;
+
+  // Chunks being transferred and not finished yet, in total, per client channel and per
+  // application, checked against their limits when a chunk fetch is admitted.
+  private final long maxChunksBeingTransferred;
+  private final long maxChunksBeingTransferredPerClient;
+  private final long maxChunksBeingTransferredPerApp;
+  private final LongAdder chunksBeingTransferred = new LongAdder();
+  private final ConcurrentHashMap<Channel, AtomicLong> clientChunksBeingTransferred;
+  // AppId -> AppState, removed with the last stream of the application
+  private final ConcurrentHashMap<String, AppState> apps;
+  private final ChunkReadAhead readAhead;
+
+  /** State of an application, shared by its streams. */
+  private static class AppState {
+    final AtomicLong chunksBeingTransferred = new AtomicLong();
+    // Streams registered and not cleaned up yet, guarded by the apps map.
+    int numStreams = 0;
+  }
 
   /** State of a single stream. */
   protected static class StreamState {
     final FileManagedBuffers buffers;
     final String shuffleKey;
     final TimeWindow fetchTimeMetric;
+    // The channel the stream was opened on, the buffers are closed when it terminates.
+    final Channel associatedChannel;
+    final String appId;
+    // Chunks of the stream's application being transferred, shared by its streams.
+    final AtomicLong appChunksBeingTransferred;
+    // Index of the next chunk to send on the credit granted by the client, guarded by the state.
+    int nextCreditedChunkIndex = 0;
+    // Index of the next chunk to read ahead, written while holding the state's lock.
+    volatile int nextReadAheadChunkIndex = 0;
 
-    // Used to keep track of the number of chunks being transferred and not finished yet.
-    volatile long chunksBeingTransferred = 0L;
-
-    StreamState(String shuffleKey, FileManagedBuffers buffers, TimeWindow fetchTimeMetric) {
+    StreamState(
+        String shuffleKey,
+        FileManagedBuffers buffers,
+        TimeWindow fetchTimeMetric,
+        Channel associatedChannel,
+        String appId,
+        AtomicLong appChunksBeingTransferred) {
       this.buffers = Preconditions.checkNotNull(buffers);
       this.shuffleKey = shuffleKey;
       this.fetchTimeMetric = fetchTimeMetric;
+      this.associatedChannel = associatedChannel;
+      this.appId = appId;
+      this.appChunksBeingTransferred = appChunksBeingTransferred;
     }
   }
 
   public ChunkStreamManager() {
+    this(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, null);
+  }
+
+  /** The chunks following fetched chunks are read ahead by readAhead if it is not null. */
+  public ChunkStreamManager(
+      long maxChunksBeingTransferred,
+      long maxChunksBeingTransferredPerClient,
+      long maxChunksBeingTransferredPerApp,
+      ChunkReadAhead readAhead) {
     // For debugging purposes, start with a random stream id to help identifying different streams.
     // This does not need to be globally unique, only unique to this class.
     nextStreamId = new AtomicLong((long) new Random().nextInt(Integer.MAX_VALUE) * 1000);
     streams = JavaUtils.newConcurrentHashMap();
     shuffleStreamIds = JavaUtils.newConcurrentHashMap();
+    channelStreamIds = JavaUtils.newConcurrentHashMap();
+    this.maxChunksBeingTransferred = maxChunksBeingTransferred;
+    this.maxChunksBeingTransferredPerClient = maxChunksBeingTransferredPerClient;
+    this.maxChunksBeingTransferredPerApp = maxChunksBeingTransferredPerApp;
+    clientChunksBeingTransferred = JavaUtils.newConcurrentHashMap();
+    apps = JavaUtils.newConcurrentHashMap();
+    this.readAhead = readAhead;
   }
 
   public ManagedBuffer getChunk(long streamId, int chunkIndex, int offset, int len) {
@@ -84,10 +137,44 @@ public class ChunkStreamManager {
 
     FileManagedBuffers buffers = state.buffers;
     ManagedBuffer nextChunk = buffers.chunk(chunkIndex, offset, len);
+    if (readAhead != null) {
+      readAhead.chunkFetched(state, chunkIndex);
+    }
 
     return nextChunk;
   }
 
+  /**
+   * Grants credit to send the next chunks of the stream from startChunkIndex, returns the number of
+   * chunks to send, at most the credit and up to the end of the stream. The credit must start at
+   * the chunk following those of the credit granted before.
+   */
+  public int addCredit(long streamId, int startChunkIndex, int credit) {
+    StreamState state = streams.get(streamId);
+    if (state == null) {
+      throw new IllegalStateException(
+          String.format(
+              "Stream %s for credit %s is not registered(Maybe removed).", streamId, credit));
+    }
+    synchronized (state) {
+      if (startChunkIndex != state.nextCreditedChunkIndex) {
+        throw new IllegalStateException(
+            String.format(
+                "Credit of stream %s starts at chunk %s, expected chunk %s.",
+                streamId, startChunkIndex, state.nextCreditedChunkIndex));
+      }
+      int numChunks = Math.max(0, Math.min(credit, state.buffers.numChunks() - startChunkIndex));
+      state.nextCreditedChunkIndex += numChunks;
+      return numChunks;
+    }
+  }
+
+  /** The number of chunks of the stream, -1 if the stream is not registered. */
+  public int numChunks(long streamId) {
+    StreamState state = streams.get(streamId);
+    return state == null ? -1 : state.buffers.numChunks();
+  }
+
   public TimeWindow getFetchTimeMetric(long streamId) {
     StreamState state = streams.get(streamId);
     if (state != null) {
@@ -111,26 +198,81 @@ public class ChunkStreamManager {
     return ImmutablePair.of(streamId, chunkIndex);
   }
 
-  public void chunkBeingSent(long streamId) {
+  /**
+   * Admit a chunk of the stream to be sent to the client, returns false if the chunks being
+   * transferred in total, to the client or of the stream's application are at their limits. The
+   * total limit keeps the existing semantics of maxChunksBeingTransferred, chunks are rejected only
+   * when more than that many are being transferred. The limits are soft, concurrent admissions may
+   * exceed them by the number of fetch threads. An admitted chunk must be followed by chunkSent.
+   */
+  public boolean tryChunkBeingSent(long streamId, Channel channel) {
     StreamState streamState = streams.get(streamId);
+    AtomicLong clientChunks = clientChunksBeingTransferred.get(channel);
+    if (clientChunks == null) {
+      clientChunks = clientChunksBeingTransferred.computeIfAbsent(channel, c -> new AtomicLong());
+      // The counter must not outlive the connection, connectionTerminated may have run already.
+      if (!channel.isActive()) {
+        clientChunksBeingTransferred.remove(channel, clientChunks);
+        return false;
+      }
+    }
+    if (isTotalLimitReached()
+        || clientChunks.get() >= maxChunksBeingTransferredPerClient
+        || (streamState != null
+            && streamState.appChunksBeingTransferred.get() >= maxChunksBeingTransferredPerApp)) {
+      return false;
+    }
+    chunksBeingTransferred.increment();
+    clientChunks.incrementAndGet();
     if (streamState != null) {
-      streamState.chunksBeingTransferred++;
+      streamState.appChunksBeingTransferred.incrementAndGet();
     }
+    return true;
   }
 
-  public void chunkSent(long streamId) {
+  /** Whether no chunk can be admitted to any client because of the total limit. */
+  public boolean isTotalLimitReached() {
+    return chunksBeingTransferred.sum() > maxChunksBeingTransferred;
+  }
+
+  public void chunkSent(long streamId, Channel channel) {
+    chunksBeingTransferred.decrement();
+    AtomicLong clientChunks = clientChunksBeingTransferred.get(channel);
+    if (clientChunks != null) {
+      clientChunks.decrementAndGet();
+    }
     StreamState streamState = streams.get(streamId);
     if (streamState != null) {
-      streamState.chunksBeingTransferred--;
+      streamState.appChunksBeingTransferred.decrementAndGet();
     }
   }
 
   public long chunksBeingTransferred() {
-    long sum = 0L;
-    for (StreamState streamState : streams.values()) {
-      sum += streamState.chunksBeingTransferred;
+    return chunksBeingTransferred.sum();
+  }
+
+  /**
+   * Drops the counters of the channel and closes the buffers of the streams opened on it, so that
+   * a stream which is not fully read does not hold its file open until the shuffle expires. The
+   * streams stay registered for a reconnected client, which reads them without a shared channel.
+   */
+  public void connectionTerminated(Channel channel) {
+    clientChunksBeingTransferred.remove(channel);
+    Set<Long> streamIds = channelStreamIds.remove(channel);
+    if (streamIds != null) {
+      for (Long streamId : streamIds) {
+        StreamState state = streams.get(streamId);
+        if (state != null) {
+          state.buffers.close();
+        }
+      }
     }
-    return sum;
+  }
+
+  // The application of the shuffle key, the text before its last '-', or the key itself.
+  private static String getAppId(String shuffleKey) {
+    int index = shuffleKey.lastIndexOf('-');
+    return index < 0 ? shuffleKey : shuffleKey.substring(0, index);
   }
 
   /**
@@ -144,11 +286,34 @@ public class ChunkStreamManager {
    *
    * <p>This stream could be reused again when other channel of the client is reconnected. If a
    * stream is not properly closed, it will eventually be cleaned up by `cleanupExpiredShuffleKey`.
+   * Its buffers are closed when the channel it is opened on terminates, if the channel is known.
    */
   public long registerStream(
-      String shuffleKey, FileManagedBuffers buffers, TimeWindow fetchTimeMetric) {
+      String shuffleKey,
+      FileManagedBuffers buffers,
+      TimeWindow fetchTimeMetric,
+      Channel associatedChannel) {
     long myStreamId = nextStreamId.getAndIncrement();
-    streams.put(myStreamId, new StreamState(shuffleKey, buffers, fetchTimeMetric));
+    String appId = getAppId(shuffleKey);
+    AppState app =
+        apps.compute(
+            appId,
+            (key, value) -> {
+              if (value == null) {
+                value = new AppState();
+              }
+              value.numStreams++;
+              return value;
+            });
+    StreamState state =
+        new StreamState(
+            shuffleKey,
+            buffers,
+            fetchTimeMetric,
+            associatedChannel,
+            appId,
+            app.chunksBeingTransferred);
+    streams.put(myStreamId, state);
     shuffleStreamIds.compute(
         shuffleKey,
         (key, value) -> {
@@ -158,17 +323,48 @@ public class ChunkStreamManager {
           value.add(myStreamId);
           return value;
         });
+    if (associatedChannel != null) {
+      channelStreamIds
+          .computeIfAbsent(associatedChannel, channel -> ConcurrentHashMap.newKeySet())
+          .add(myStreamId);
+      // The channel may have terminated before the stream was indexed, close it as
+      // connectionTerminated would have.
+      if (!associatedChannel.isActive()) {
+        removeChannelStream(associatedChannel, myStreamId);
+        buffers.close();
+      }
+    }
 
     return myStreamId;
   }
 
+  private void removeChannelStream(Channel channel, long streamId) {
+    channelStreamIds.computeIfPresent(
+        channel,
+        (key, value) -> {
+          value.remove(streamId);
+          return value.isEmpty() ? null : value;
+        });
+  }
+
   public void cleanupExpiredShuffleKey(Set<String> expiredShuffleKeys) {
     for (String expiredShuffleKey : expiredShuffleKeys) {
       Set<Long> expiredStreamIds = shuffleStreamIds.remove(expiredShuffleKey);
 
       // normally expiredStreamIds set will be empty as streamId will be removed when be fully read
       if (expiredStreamIds != null && !expiredStreamIds.isEmpty()) {
-        streams.keySet().removeAll(expiredStreamIds);
+        for (Long streamId : expiredStreamIds) {
+          StreamState streamState = streams.remove(streamId);
+          if (streamState != null) {
+            streamState.buffers.close();
+            if (streamState.associatedChannel != null) {
+              removeChannelStream(streamState.associatedChannel, streamId);
+            }
+            // Applications are expired with all of their streams.
+            apps.computeIfPresent(
+                streamState.appId, (key, value) -> --value.numStreams == 0 ? null : value);
+          }
+        }
       }
     }
   }
@@ -178,6 +374,21 @@ public class ChunkStreamManager {
     return streams.size();
   }
 
+  @VisibleForTesting
+  public int numApps() {
+    return apps.size();
+  }
+
+  @VisibleForTesting
+  public int numChannelsWithStreams() {
+    return channelStreamIds.size();
+  }
+
+  @VisibleForTesting
+  public int numClients() {
+    return clientChunksBeingTransferred.size();
+  }
+
   @VisibleForTesting
   public long numShuffleSteams() {
     return shuffleStreamIds.values().stream().flatMap(Set::stream).count();
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.PlatformDependent;
+
+import org.apache.celeborn.common.util.JavaUtils;
+
+/*
+ * Writes a file through a channel opened with direct I/O, so that shuffle writes do not evict
+ * the pages of files being read from the page cache. Direct I/O only accepts writes of whole
+ * aligned blocks from aligned memory: flushed data is copied into an aligned buffer of the
+ * flusher thread, whole blocks are written and the last partial block is carried over to the
+ * next flush. Aligned buffers come from the slab allocator of FileWriter, so they count toward
+ * the direct memory watched by MemoryManager, and are released by releaseAlignedBuffer. The tail
+ * left at finish is written through the page cache, so the file ends up with exactly the flushed
+ * bytes and chunk offsets of the writers stay valid.
+ */
+public class DirectIOWriter {
+  private static final ThreadLocal<AlignedBuffer> alignedBuffers = new ThreadLocal<>();
+
+  private final FileChannel channel;
+  private final String filePath;
+  private final int alignment;
+  private final byte[] tail;
+  private int tailLength = 0;
+  // File position of the next aligned write, always a multiple of alignment.
+  private long position = 0;
+
+  public DirectIOWriter(FileChannel channel, String filePath, int alignment) {
+    this.channel = channel;
+    this.filePath = filePath;
+    this.alignment = alignment;
+    this.tail = new byte[alignment];
+  }
+
+  /** Write the readable bytes of the buffer, without changing its reader index. */
+  public synchronized void write(ByteBuf buffer) throws IOException {
+    int total = tailLength + buffer.readableBytes();
+    int alignedLength = total / alignment * alignment;
+    ByteBuffer aligned = alignedBuffer(alignedLength + alignment);
+    aligned.put(tail, 0, tailLength);
+    // getBytes fills the destination up to its limit.
+    aligned.limit(total);
+    buffer.getBytes(buffer.readerIndex(), aligned);
+    aligned.flip();
+
+    if (alignedLength > 0) {
+      aligned.limit(alignedLength);
+      while (aligned.hasRemaining()) {
+        position += channel.write(aligned, position);
+      }
+      aligned.limit(total);
+    }
+    tailLength = total - alignedLength;
+    aligned.get(tail, 0, tailLength);
+  }
+
+  /** Write the last partial block, must be called after all flushes are done. */
+  public synchronized void finish() throws IOException {
+    if (tailLength > 0) {
+      FileChannel tailChannel = FileChannelUtils.createWritableFileChannel(filePath);
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(tail, 0, tailLength);
+        while (buffer.hasRemaining()) {
+          position += tailChannel.write(buffer, position);
+        }
+      } finally {
+        tailChannel.close();
+      }
+      tailLength = 0;
+    }
+  }
+
+  public boolean isOpen() {
+    return channel.isOpen();
+  }
+
+  public void close() {
+    JavaUtils.closeQuietly(channel);
+  }
+
+  /** Release the aligned buffer of the calling thread, if it has one. */
+  public static void releaseAlignedBuffer() {
+    AlignedBuffer buffer = alignedBuffers.get();
+    if (buffer != null) {
+      alignedBuffers.remove();
+      buffer.memory.release();
+    }
+  }
+
+  @VisibleForTesting
+  static ByteBuf alignedBufferMemory() {
+    AlignedBuffer buffer = alignedBuffers.get();
+    return buffer == null ? null : buffer.memory;
+  }
+
+  /** An aligned buffer of the calling thread with at least the capacity, cleared. */
+  private ByteBuffer alignedBuffer(int capacity) {
+    AlignedBuffer buffer = alignedBuffers.get();
+    if (buffer == null
+        || buffer.buffer.capacity() < capacity
+        || buffer.buffer.capacity() % alignment != 0) {
+      int size = Math.max(capacity, buffer == null ? 0 : buffer.buffer.capacity());
+      size = (size + alignment - 1) / alignment * alignment;
+      releaseAlignedBuffer();
+      buffer = new AlignedBuffer(size, alignment);
+      alignedBuffers.set(buffer);
+    }
+    buffer.buffer.clear();
+    return buffer.buffer;
+  }
+
+  private static class AlignedBuffer {
+    private final ByteBuf memory;
+    private final ByteBuffer buffer;
+
+    AlignedBuffer(int size, int alignment) {
+      memory = FileWriter.SLAB_ALLOCATOR.directBuffer(size + alignment, size + alignment);
+      ByteBuffer raw = memory.nioBuffer(0, size + alignment);
+      long address = PlatformDependent.directBufferAddress(raw) + raw.position();
+      int offset = (int) ((alignment - address % alignment) % alignment);
+      raw.position(raw.position() + offset);
+      raw.limit(raw.position() + size);
+      buffer = raw.slice();
+    }
+  }
+}
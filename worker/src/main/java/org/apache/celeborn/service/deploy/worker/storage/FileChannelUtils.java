@@ -19,16 +19,55 @@ package org.apache.celeborn.service.deploy.worker.storage;
 
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public class FileChannelUtils {
+  private static final Logger logger = LoggerFactory.getLogger(FileChannelUtils.class);
+
+  // ExtendedOpenOption.DIRECT is only available since JDK 10, null if unsupported.
+  private static final OpenOption DIRECT_OPEN_OPTION = loadDirectOpenOption();
+
+  private static OpenOption loadDirectOpenOption() {
+    try {
+      return (OpenOption)
+          Class.forName("com.sun.nio.file.ExtendedOpenOption").getField("DIRECT").get(null);
+    } catch (ReflectiveOperationException e) {
+      logger.info("Direct I/O is not supported by this JVM, local flushes are buffered.");
+      return null;
+    }
+  }
 
   public static FileChannel createWritableFileChannel(String filePath) throws IOException {
     return FileChannel.open(
         Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
   }
 
+  /**
+   * Open a channel which bypasses the page cache, positions and lengths of its writes must be
+   * aligned to the block size of the file system. Returns null if direct I/O is not supported by
+   * the JVM or the file system.
+   */
+  public static FileChannel createDirectWritableFileChannel(String filePath) {
+    if (DIRECT_OPEN_OPTION == null) {
+      return null;
+    }
+    try {
+      return FileChannel.open(
+          Paths.get(filePath),
+          StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE,
+          DIRECT_OPEN_OPTION);
+    } catch (IOException | UnsupportedOperationException e) {
+      logger.warn("Open {} with direct I/O failed, fall back to buffered writes.", filePath, e);
+      return null;
+    }
+  }
+
   public static FileChannel openReadableFileChannel(String filePath) throws IOException {
     return FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
   }
@@ -19,13 +19,22 @@ package org.apache.celeborn.service.deploy.worker.storage;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeoutException;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +44,7 @@ import org.apache.celeborn.common.exception.AlreadyClosedException;
 import org.apache.celeborn.common.meta.DiskStatus;
 import org.apache.celeborn.common.meta.FileInfo;
 import org.apache.celeborn.common.metrics.source.AbstractSource;
+import org.apache.celeborn.common.network.util.NettyUtils;
 import org.apache.celeborn.common.protocol.PartitionSplitMode;
 import org.apache.celeborn.common.protocol.PartitionType;
 import org.apache.celeborn.common.protocol.StorageInfo;
@@ -49,23 +59,34 @@ import org.apache.celeborn.service.deploy.worker.memory.MemoryManager;
  */
 public abstract class FileWriter implements DeviceObserver {
   private static final Logger logger = LoggerFactory.getLogger(FileWriter.class);
-  private static final long WAIT_INTERVAL_MS = 5;
+  // mapId, attemptId, batchId and length of a pushed batch.
+  private static final int BATCH_HEADER_SIZE = 16;
+  private static final int SLAB_SIZE = 64 * 1024;
+  // Slabs are released by flusher threads, so thread local caches would only delay reuse.
+  static final PooledByteBufAllocator SLAB_ALLOCATOR =
+      NettyUtils.createPooledByteBufAllocator(true, false, 0);
 
   protected final FileInfo fileInfo;
   private FileChannel channel;
+  private DirectIOWriter directWriter;
   private volatile boolean closed;
   private volatile boolean destroyed;
 
-  protected final AtomicInteger numPendingWrites = new AtomicInteger();
+  protected final PendingCounter numPendingWrites = new PendingCounter();
   protected long bytesFlushed;
 
   public final Flusher flusher;
-  private final int flushWorkerIndex;
+  // Flush tasks of this file, flushed in order.
+  private final FlushStrand flushStrand = new FlushStrand();
   protected CompositeByteBuf flushBuffer;
 
   private final long writerCloseTimeoutMs;
 
   protected final long flusherBufferSize;
+  // Batches smaller than this are copied into the slab rather than retained.
+  private final int smallBatchThreshold;
+  // Small batches not added to the flush buffer yet, see copyToSlab.
+  private ByteBuf slab = null;
 
   protected final DeviceMonitor deviceMonitor;
   protected final AbstractSource source; // metrics
@@ -76,7 +97,15 @@ public abstract class FileWriter implements DeviceObserver {
   private final boolean rangeReadFilter;
   protected boolean deleted = false;
   private RoaringBitmap mapIdBitMap = null;
+  protected BlockIndexBuilder blockIndexBuilder = null;
+  // Drops batches resent by clients after a push timeout, only set for reduce partitions.
+  protected RecentBatchFilter recentBatchFilter = null;
+  // Shard appending the writes of this writer, or null if they are appended by the calling
+  // threads under the lock of the writer. Only set for reduce partitions.
+  protected AppendExecutors.Shard appendShard = null;
   protected final FlushNotifier notifier = new FlushNotifier();
+  // Flushed data is kept in memory while the file is not larger than this, see storeInMemory.
+  private long memoryFileMaxSize = 0;
 
   public FileWriter(
       FileInfo fileInfo,
@@ -91,20 +120,32 @@ public abstract class FileWriter implements DeviceObserver {
       throws IOException {
     this.fileInfo = fileInfo;
     this.flusher = flusher;
-    this.flushWorkerIndex = flusher.getWorkerIndex();
     this.writerCloseTimeoutMs = conf.writerCloseTimeoutMs();
     this.splitThreshold = splitThreshold;
     this.flusherBufferSize = conf.workerFlusherBufferSize();
+    this.smallBatchThreshold = conf.workerWriterSmallBatchThreshold();
     this.deviceMonitor = deviceMonitor;
     this.splitMode = splitMode;
     this.partitionType = partitionType;
     this.rangeReadFilter = rangeReadFilter;
     if (!fileInfo.isHdfs()) {
-      channel = FileChannelUtils.createWritableFileChannel(fileInfo.getFilePath());
+      if (flusher instanceof LocalFlusher
+          && conf.workerFlusherDirectIOEnabled(((LocalFlusher) flusher).diskType().name())) {
+        FileChannel directChannel =
+            FileChannelUtils.createDirectWritableFileChannel(fileInfo.getFilePath());
+        if (directChannel != null) {
+          directWriter =
+              new DirectIOWriter(
+                  directChannel, fileInfo.getFilePath(), conf.workerFlusherDirectIOAlignment());
+        }
+      }
+      if (directWriter == null) {
+        channel = FileChannelUtils.createWritableFileChannel(fileInfo.getFilePath());
+      }
     } else {
-      // We open the stream and close immediately because HDFS output stream will
-      // create a DataStreamer that is a thread.
-      // If we reuse HDFS output stream, we will exhaust the memory soon.
+      // Create the file and close the stream immediately, flushes append to the file through
+      // StorageManager.hdfsOutputStreamPool, which bounds the number of open streams because
+      // every HDFS output stream has a DataStreamer thread.
       try {
         StorageManager.hadoopFs().create(fileInfo.getHdfsPath(), true).close();
       } catch (IOException e) {
@@ -134,20 +175,46 @@ public abstract class FileWriter implements DeviceObserver {
   }
 
   public void incrementPendingWrites() {
-    numPendingWrites.incrementAndGet();
+    numPendingWrites.increment();
   }
 
   public void decrementPendingWrites() {
-    numPendingWrites.decrementAndGet();
+    numPendingWrites.decrement();
+  }
+
+  /**
+   * Keep flushed data in memory instead of writing the file, until the file grows beyond maxSize
+   * or the memory shuffle storage budget is used up, or it is evicted on memory pressure.
+   */
+  public synchronized void storeInMemory(long maxSize) {
+    memoryFileMaxSize = maxSize;
+    fileInfo.setMemoryBuffer(Unpooled.compositeBuffer(Integer.MAX_VALUE));
   }
 
   protected void flush(boolean finalFlush) throws IOException {
+    sealSlab();
     int numBytes = flushBuffer.readableBytes();
     notifier.checkException();
-    notifier.numPendingFlushes.incrementAndGet();
+    if (fileInfo.isInMemory()) {
+      if (bytesFlushed + numBytes <= memoryFileMaxSize
+          && MemoryManager.instance().reserveMemoryShuffleStorage(numBytes)) {
+        // Copy rather than retain the pushed buffers, which may pin much larger network buffers.
+        ByteBuf data = Unpooled.directBuffer(numBytes);
+        data.writeBytes(flushBuffer, flushBuffer.readerIndex(), numBytes);
+        fileInfo.appendMemoryData(data);
+        flusher.returnBuffer(flushBuffer);
+        flushBuffer = null;
+        bytesFlushed += numBytes;
+        return;
+      }
+      evictMemoryData();
+    }
+    notifier.numPendingFlushes.increment();
     FlushTask task = null;
     if (channel != null) {
       task = new LocalFlushTask(flushBuffer, channel, notifier);
+    } else if (directWriter != null) {
+      task = new DirectLocalFlushTask(flushBuffer, directWriter, notifier);
     } else if (fileInfo.isHdfs()) {
       task = new HdfsFlushTask(flushBuffer, fileInfo.getHdfsPath(), notifier);
     }
@@ -172,8 +239,14 @@ public abstract class FileWriter implements DeviceObserver {
       return;
     }
 
+    if (recentBatchFilter != null && isDuplicateBatch(data)) {
+      source.incCounter(WorkerSource.DuplicateBatchDropCount());
+      numPendingWrites.decrement();
+      return;
+    }
+
     int mapId = 0;
-    if (rangeReadFilter) {
+    if (rangeReadFilter || blockIndexBuilder != null) {
       byte[] header = new byte[4];
       data.markReaderIndex();
       data.readBytes(header);
@@ -189,25 +262,285 @@ public abstract class FileWriter implements DeviceObserver {
             congestionController ->
                 congestionController.produceBytes(fileInfo.getUserIdentifier(), numBytes));
 
+    if (appendShard != null) {
+      appendAsync(data, mapId, numBytes);
+      return;
+    }
+
     synchronized (this) {
       if (closed) {
         String msg = "FileWriter has already closed!, fileName " + fileInfo.getFilePath();
         logger.warn(msg);
         throw new AlreadyClosedException(msg);
       }
-      if (rangeReadFilter) {
-        mapIdBitMap.add(mapId);
-      }
-      if (flushBuffer.readableBytes() != 0
-          && flushBuffer.readableBytes() + numBytes >= flusherBufferSize) {
-        flush(false);
-        takeBuffer();
-      }
+      append(data, mapId, numBytes);
+    }
+  }
 
+  // Caller must hold the lock of the writer, or be the thread of its append shard.
+  private void append(ByteBuf data, int mapId, int numBytes) throws IOException {
+    if (rangeReadFilter) {
+      mapIdBitMap.add(mapId);
+    }
+    if (bufferedBytes() != 0 && bufferedBytes() + numBytes >= flusherBufferSize) {
+      flush(false);
+      takeBuffer();
+    }
+
+    if (blockIndexBuilder != null) {
+      blockIndexBuilder.addBlock(mapId, bytesFlushed + bufferedBytes(), numBytes);
+    }
+
+    if (numBytes < smallBatchThreshold) {
+      copyToSlab(data, numBytes);
+    } else {
+      sealSlab();
       data.retain();
       flushBuffer.addComponent(true, data);
+    }
+
+    numPendingWrites.decrement();
+  }
+
+  /**
+   * Copy a small batch into the slab, so that it does not pin the much larger network buffer it
+   * was received in until flushed, and consecutive small batches are written from one buffer.
+   */
+  private void copyToSlab(ByteBuf data, int numBytes) {
+    if (slab != null && slab.writableBytes() < numBytes) {
+      sealSlab();
+    }
+    if (slab == null) {
+      slab = SLAB_ALLOCATOR.directBuffer(SLAB_SIZE, SLAB_SIZE);
+    }
+    slab.writeBytes(data, data.readerIndex(), numBytes);
+  }
+
+  // Add the slab to the flush buffer, before any data appended after the batches in it.
+  private void sealSlab() {
+    if (slab != null) {
+      flushBuffer.addComponent(true, slab);
+      slab = null;
+    }
+  }
+
+  // Data appended but not flushed yet, caller must hold the lock of the writer, or be the thread
+  // of its append shard.
+  private int bufferedBytes() {
+    return flushBuffer.readableBytes() + (slab != null ? slab.readableBytes() : 0);
+  }
+
+  /**
+   * Hand the data over to the shard owning this writer. The caller has already acknowledged the
+   * push, so failures are only logged like those of synchronous writes. The shard's thread owns
+   * the append state of the writer, so appends run without the lock of the writer, and the other
+   * changes of that state go through runOnAppendThread.
+   */
+  private void appendAsync(ByteBuf data, int mapId, int numBytes) {
+    data.retain();
+    appendShard.execute(
+        new AppendExecutors.Task() {
+          @Override
+          public void run() {
+            try {
+              if (closed) {
+                logger.warn(
+                    "FileWriter has already closed!, fileName {}, drop appended data.",
+                    fileInfo.getFilePath());
+                dropAppend(numBytes);
+                return;
+              }
+              append(data, mapId, numBytes);
+            } catch (Exception e) {
+              logger.error("Exception encountered when append.", e);
+            } finally {
+              data.release();
+            }
+          }
+
+          @Override
+          public void drop() {
+            dropAppend(numBytes);
+            data.release();
+          }
+        });
+  }
+
+  // Undo the accounting of write for data which is not appended.
+  private void dropAppend(int numBytes) {
+    MemoryManager.instance().releaseDiskBuffer(numBytes);
+    Optional.ofNullable(CongestionController.instance())
+        .ifPresent(congestionController -> congestionController.consumeBytes(numBytes));
+    numPendingWrites.decrement();
+  }
+
+  /**
+   * Run the action on the thread owning the append state of the writer. With an append shard
+   * that is the shard's thread, after the appends queued before, otherwise the calling thread
+   * under the lock of the writer. Shard tasks never take the lock, so the caller may hold it.
+   */
+  private void runOnAppendThread(RunnableWithException<IOException> action) throws IOException {
+    if (appendShard == null) {
+      synchronized (this) {
+        action.run();
+      }
+      return;
+    }
+    if (appendShard.isShardThread()) {
+      action.run();
+      return;
+    }
+    try {
+      appendShard
+          .submit(
+              () -> {
+                action.run();
+                return null;
+              })
+          .get(writerCloseTimeoutMs, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (TimeoutException e) {
+      throw new IOException("Wait for the append thread timeout, file " + fileInfo.getFilePath());
+    }
+  }
+
+  /**
+   * Wait for the appends queued to the owning shard, including those of writes that are pending
+   * but not queued yet.
+   */
+  protected void waitOnQueuedAppends() throws IOException {
+    if (appendShard == null) {
+      return;
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writerCloseTimeoutMs);
+    do {
+      long remaining = deadline - System.nanoTime();
+      try {
+        appendShard.barrier().get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        break;
+      } catch (InterruptedException | ExecutionException e) {
+        IOException ioe = new IOException(e);
+        notifier.setException(ioe);
+        throw ioe;
+      }
+      notifier.checkException();
+    } while (numPendingWrites.get() > 0 && System.nanoTime() < deadline);
+    // Writes pending beyond the deadline fail the close in waitOnNoPending.
+  }
+
+  /**
+   * Like {@link #waitOnQueuedAppends()}, but completes the returned future once the queued appends
+   * are done instead of blocking on them. It completes normally at the close timeout as well.
+   */
+  protected CompletableFuture<Void> queuedAppendsDone(Timer timer) {
+    if (appendShard == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    Timeout timeout =
+        timer.newTimeout(t -> done.complete(null), writerCloseTimeoutMs, TimeUnit.MILLISECONDS);
+    awaitQueuedAppends(done);
+    return done.whenComplete((v, e) -> timeout.cancel());
+  }
+
+  private void awaitQueuedAppends(CompletableFuture<Void> done) {
+    appendShard
+        .barrier()
+        .whenComplete(
+            (v, e) -> {
+              if (e != null) {
+                IOException ioe = new IOException(e);
+                notifier.setException(ioe);
+                done.completeExceptionally(ioe);
+                return;
+              }
+              try {
+                notifier.checkException();
+              } catch (IOException ioe) {
+                done.completeExceptionally(ioe);
+                return;
+              }
+              if (numPendingWrites.get() > 0 && !done.isDone()) {
+                awaitQueuedAppends(done);
+              } else {
+                done.complete(null);
+              }
+            });
+  }
+
+  private boolean isDuplicateBatch(ByteBuf data) {
+    if (data.readableBytes() < BATCH_HEADER_SIZE) {
+      return false;
+    }
+    int index = data.readerIndex();
+    // The header is only compared, so reading it in any byte order will do.
+    int mapId = data.getInt(index);
+    int attemptId = data.getInt(index + 4);
+    int batchId = data.getInt(index + 8);
+    synchronized (recentBatchFilter) {
+      return !recentBatchFilter.add(mapId, attemptId, batchId);
+    }
+  }
+
+  /**
+   * Write the data kept in memory to the file. Before commit the data starts the file written by
+   * the flusher, after commit it is written through a new channel and fetches opened earlier
+   * switch to the file once it is complete.
+   */
+  public void evictMemoryFile() throws IOException {
+    runOnAppendThread(this::evictMemoryData);
+  }
 
-      numPendingWrites.decrementAndGet();
+  // Caller must hold the lock of the writer, or be the thread of its append shard.
+  private void evictMemoryData() throws IOException {
+    ByteBuf data = fileInfo.getMemoryBuffer();
+    if (data == null) {
+      return;
+    }
+    try {
+      if (channel != null && channel.isOpen()) {
+        writeMemoryData(channel, data);
+      } else if (directWriter != null && directWriter.isOpen()) {
+        try {
+          directWriter.write(data);
+        } finally {
+          // Evicting threads are not flusher threads, which keep their aligned buffer.
+          DirectIOWriter.releaseAlignedBuffer();
+        }
+      } else {
+        FileChannel evictChannel =
+            FileChannelUtils.createWritableFileChannel(fileInfo.getFilePath());
+        try {
+          writeMemoryData(evictChannel, data);
+        } finally {
+          evictChannel.close();
+        }
+      }
+    } catch (IOException e) {
+      // The file may be partially written, later flushes can not append to it.
+      notifier.setException(e);
+      throw e;
+    }
+    long size = fileInfo.releaseMemoryBuffer();
+    MemoryManager.instance().releaseMemoryShuffleStorage(size);
+    source.incCounter(WorkerSource.MemoryFileEvictionCount());
+    logger.debug("Evicted {} bytes of {} from memory.", size, this);
+  }
+
+  private void writeMemoryData(FileChannel fileChannel, ByteBuf data) throws IOException {
+    // Relative writes, so that later flushes of the writer's channel append to the data.
+    for (ByteBuffer buffer : data.nioBuffers()) {
+      while (buffer.hasRemaining()) {
+        fileChannel.write(buffer);
+      }
     }
   }
 
@@ -230,6 +563,23 @@ public abstract class FileWriter implements DeviceObserver {
 
   public abstract long close() throws IOException;
 
+  /**
+   * Close the writer without blocking on its pending flushes. Writers which support it flush the
+   * remaining data on the calling thread and finish closing on the executor once the flushes are
+   * done, the others close on the executor.
+   */
+  public CompletableFuture<Long> closeAsync(Executor executor, Timer timer) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return close();
+          } catch (IOException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
   @FunctionalInterface
   public interface RunnableWithException<R extends IOException> {
     void run() throws R;
@@ -240,6 +590,57 @@ public abstract class FileWriter implements DeviceObserver {
       RunnableWithException streamClose,
       RunnableWithException finalClose)
       throws IOException {
+    beginClose(tryClose, streamClose, finalClose);
+    try {
+      waitOnNoPending(notifier.numPendingFlushes);
+    } catch (IOException e) {
+      releaseOnClose(streamClose, finalClose);
+      throw e;
+    }
+    return finishClose(streamClose, finalClose);
+  }
+
+  protected CompletableFuture<Long> closeAsync(
+      RunnableWithException tryClose,
+      RunnableWithException streamClose,
+      RunnableWithException finalClose,
+      Executor executor,
+      Timer timer) {
+    try {
+      beginClose(tryClose, streamClose, finalClose);
+    } catch (IOException e) {
+      CompletableFuture<Long> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+    CompletableFuture<Object> flushed =
+        CompletableFuture.anyOf(notifier.numPendingFlushes.whenDrained(), notifier.failure);
+    Timeout timeout =
+        timer.newTimeout(t -> flushed.complete(null), writerCloseTimeoutMs, TimeUnit.MILLISECONDS);
+    return flushed.thenApplyAsync(
+        ignored -> {
+          timeout.cancel();
+          try {
+            try {
+              checkNoPending(notifier.numPendingFlushes);
+            } catch (IOException e) {
+              releaseOnClose(streamClose, finalClose);
+              throw e;
+            }
+            return finishClose(streamClose, finalClose);
+          } catch (IOException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
+  /** Stop accepting data and flush the remaining data. */
+  private synchronized void beginClose(
+      RunnableWithException tryClose,
+      RunnableWithException streamClose,
+      RunnableWithException finalClose)
+      throws IOException {
     if (closed) {
       String msg = "FileWriter has already closed! fileName " + fileInfo.getFilePath();
       logger.error(msg);
@@ -248,36 +649,62 @@ public abstract class FileWriter implements DeviceObserver {
 
     try {
       waitOnNoPending(numPendingWrites);
-      closed = true;
+      runOnAppendThread(
+          () -> {
+            closed = true;
+
+            if (bufferedBytes() > 0) {
+              flush(true);
+            }
+
+            tryClose.run();
+          });
+    } catch (IOException | RuntimeException e) {
+      releaseOnClose(streamClose, finalClose);
+      throw e;
+    }
+  }
 
-      if (flushBuffer.readableBytes() > 0) {
-        flush(true);
+  /** Complete the file once its flushes are done. */
+  private synchronized long finishClose(
+      RunnableWithException streamClose, RunnableWithException finalClose) throws IOException {
+    try {
+      if (directWriter != null) {
+        directWriter.finish();
+      }
+      if (fileInfo.isHdfs()) {
+        StorageManager.hdfsOutputStreamPool().close(fileInfo.getHdfsPath());
       }
-
-      tryClose.run();
-      waitOnNoPending(notifier.numPendingFlushes);
     } finally {
-      returnBuffer();
-      try {
-        if (channel != null) {
-          channel.close();
-        }
-        if (fileInfo.isHdfs()) {
-          streamClose.run();
-        }
-      } catch (IOException e) {
-        logger.warn("close file writer" + this + "failed", e);
+      releaseOnClose(streamClose, finalClose);
+    }
+    return bytesFlushed;
+  }
+
+  private synchronized void releaseOnClose(
+      RunnableWithException streamClose, RunnableWithException finalClose) throws IOException {
+    returnBuffer();
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+      if (directWriter != null) {
+        directWriter.close();
+      }
+      if (fileInfo.isHdfs()) {
+        streamClose.run();
       }
+    } catch (IOException e) {
+      logger.warn("close file writer" + this + "failed", e);
+    }
 
-      finalClose.run();
+    finalClose.run();
 
-      // unregister from DeviceMonitor
-      if (!fileInfo.isHdfs()) {
-        logger.debug("file info {} register from device monitor");
-        deviceMonitor.unregisterFileWriter(this);
-      }
+    // unregister from DeviceMonitor
+    if (!fileInfo.isHdfs()) {
+      logger.debug("file info {} register from device monitor");
+      deviceMonitor.unregisterFileWriter(this);
     }
-    return bytesFlushed;
   }
 
   public synchronized void destroy(IOException ioException) {
@@ -291,6 +718,9 @@ public abstract class FileWriter implements DeviceObserver {
         if (channel != null) {
           channel.close();
         }
+        if (directWriter != null) {
+          directWriter.close();
+        }
       } catch (IOException e) {
         logger.warn(
             "Close channel failed for file {} caused by {}.",
@@ -301,6 +731,12 @@ public abstract class FileWriter implements DeviceObserver {
 
     if (!destroyed) {
       destroyed = true;
+      if (fileInfo.isInMemory()) {
+        MemoryManager.instance().releaseMemoryShuffleStorage(fileInfo.releaseMemoryBuffer());
+      }
+      if (fileInfo.isHdfs()) {
+        StorageManager.hdfsOutputStreamPool().discard(fileInfo.getHdfsPath());
+      }
       fileInfo.deleteAllFiles(StorageManager.hadoopFs());
 
       // unregister from DeviceMonitor
@@ -318,25 +754,28 @@ public abstract class FileWriter implements DeviceObserver {
     }
   }
 
-  protected void waitOnNoPending(AtomicInteger counter) throws IOException {
-    long waitTime = writerCloseTimeoutMs;
-    while (counter.get() > 0 && waitTime > 0) {
-      try {
-        notifier.checkException();
-        TimeUnit.MILLISECONDS.sleep(WAIT_INTERVAL_MS);
-      } catch (InterruptedException e) {
-        IOException ioe = new IOException(e);
-        notifier.setException(ioe);
-        throw ioe;
-      }
-      waitTime -= WAIT_INTERVAL_MS;
+  protected void waitOnNoPending(PendingCounter counter) throws IOException {
+    try {
+      // Wakes up as soon as the last pending action is done, or any of them fails.
+      CompletableFuture.anyOf(counter.whenDrained(), notifier.failure)
+          .get(writerCloseTimeoutMs, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // Fails below.
+    } catch (InterruptedException | ExecutionException e) {
+      IOException ioe = new IOException(e);
+      notifier.setException(ioe);
+      throw ioe;
     }
+    checkNoPending(counter);
+  }
+
+  private void checkNoPending(PendingCounter counter) throws IOException {
+    notifier.checkException();
     if (counter.get() > 0) {
       IOException ioe = new IOException("Wait pending actions timeout.");
       notifier.setException(ioe);
       throw ioe;
     }
-    notifier.checkException();
   }
 
   protected void takeBuffer() {
@@ -359,17 +798,25 @@ public abstract class FileWriter implements DeviceObserver {
   }
 
   protected void addTask(FlushTask task) throws IOException {
-    if (!flusher.addTask(task, writerCloseTimeoutMs, flushWorkerIndex)) {
-      IOException e = new IOException("Add flush task timeout.");
+    if (!flusher.addTask(task, flushStrand)) {
+      IOException e = new IOException("Add flush task failed, flusher is stopped.");
       notifier.setException(e);
       throw e;
     }
   }
 
-  protected synchronized void returnBuffer() {
-    if (flushBuffer != null) {
-      flusher.returnBuffer(flushBuffer);
-      flushBuffer = null;
+  protected void returnBuffer() {
+    try {
+      runOnAppendThread(
+          () -> {
+            if (flushBuffer != null) {
+              sealSlab();
+              flusher.returnBuffer(flushBuffer);
+              flushBuffer = null;
+            }
+          });
+    } catch (IOException e) {
+      logger.warn("Return the flush buffer of {} failed.", fileInfo.getFilePath(), e);
     }
   }
 
@@ -387,11 +834,32 @@ public abstract class FileWriter implements DeviceObserver {
   }
 
   public void flushOnMemoryPressure() throws IOException {
+    if (appendShard != null) {
+      // Don't hold up the other writers behind the appends queued to the shard.
+      appendShard
+          .submit(
+              () -> {
+                flushBufferedData();
+                return null;
+              })
+          .whenComplete(
+              (ignored, e) -> {
+                if (e != null) {
+                  logger.warn("Flush {} on memory pressure failed.", fileInfo.getFilePath(), e);
+                }
+              });
+      return;
+    }
     synchronized (this) {
-      if (flushBuffer != null && flushBuffer.readableBytes() != 0) {
-        flush(false);
-        takeBuffer();
-      }
+      flushBufferedData();
+    }
+  }
+
+  // Caller must hold the lock of the writer, or be the thread of its append shard.
+  private void flushBufferedData() throws IOException {
+    if (flushBuffer != null && bufferedBytes() != 0) {
+      flush(false);
+      takeBuffer();
     }
   }
 
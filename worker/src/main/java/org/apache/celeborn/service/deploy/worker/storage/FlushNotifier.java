@@ -18,15 +18,18 @@
 package org.apache.celeborn.service.deploy.worker.storage;
 
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class FlushNotifier {
-  final AtomicInteger numPendingFlushes = new AtomicInteger();
+  final PendingCounter numPendingFlushes = new PendingCounter();
   final AtomicReference<IOException> exception = new AtomicReference<>();
+  // Completed on the first exception, to wake up a close waiting on pending actions.
+  final CompletableFuture<Void> failure = new CompletableFuture<>();
 
   void setException(IOException e) {
     exception.set(e);
+    failure.complete(null);
   }
 
   boolean hasException() {
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.celeborn.common.util.ThreadUtils;
+
+/*
+ * Keeps HDFS output streams of files being written open across flushes, instead of appending
+ * and closing the file for every flushed buffer. Every open stream holds a DataStreamer thread,
+ * so the number of open streams is bounded: least recently written streams are closed beyond
+ * the bound, as are streams idle for too long, and reopened by append on their next write.
+ */
+public class HdfsOutputStreamPool {
+  private static final Logger logger = LoggerFactory.getLogger(HdfsOutputStreamPool.class);
+
+  private final FileSystem fs;
+  private final int maxOpenStreams;
+  private final long idleTimeoutMs;
+
+  // Access ordered, guarded by this. Entries stay until the file is committed or discarded.
+  private final LinkedHashMap<Path, PooledStream> streams = new LinkedHashMap<>(16, 0.75f, true);
+  private final AtomicInteger openStreams = new AtomicInteger();
+  private final ScheduledExecutorService idleChecker;
+
+  private static class PooledStream {
+    // Written while holding the PooledStream's lock.
+    private volatile FSDataOutputStream out;
+    private volatile long lastWriteTime;
+    // Failure of closing the stream by eviction, reported to the next write or commit.
+    private IOException closeFailure;
+  }
+
+  public HdfsOutputStreamPool(FileSystem fs, int maxOpenStreams, long idleTimeoutMs) {
+    this.fs = fs;
+    this.maxOpenStreams = maxOpenStreams;
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.idleChecker =
+        ThreadUtils.newDaemonSingleThreadScheduledExecutor("worker-hdfs-stream-idle-checker");
+    long checkInterval = Math.max(idleTimeoutMs / 2, 1);
+    idleChecker.scheduleWithFixedDelay(
+        this::closeIdleStreams, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /** Append the readable bytes of the buffer to the file, without changing its reader index. */
+  public void write(Path path, ByteBuf buffer) throws IOException {
+    PooledStream stream;
+    synchronized (this) {
+      stream = streams.computeIfAbsent(path, p -> new PooledStream());
+    }
+    boolean opened = false;
+    synchronized (stream) {
+      checkCloseFailure(path, stream);
+      if (stream.out == null) {
+        stream.out = fs.append(path);
+        openStreams.incrementAndGet();
+        opened = true;
+      }
+      buffer.getBytes(buffer.readerIndex(), stream.out, buffer.readableBytes());
+      stream.lastWriteTime = System.currentTimeMillis();
+    }
+    if (opened && openStreams.get() > maxOpenStreams) {
+      closeLeastRecentlyWritten(stream);
+    }
+  }
+
+  /** Close the stream of a committed file, so that its data and length are visible to readers. */
+  public void close(Path path) throws IOException {
+    PooledStream stream;
+    synchronized (this) {
+      stream = streams.remove(path);
+    }
+    if (stream != null) {
+      synchronized (stream) {
+        checkCloseFailure(path, stream);
+        closeStream(stream);
+      }
+    }
+  }
+
+  /** Drop the stream of a file which is going to be deleted. */
+  public void discard(Path path) {
+    try {
+      close(path);
+    } catch (IOException e) {
+      logger.warn("Close HDFS output stream of {} failed.", path, e);
+    }
+  }
+
+  public int getOpenStreamCount() {
+    return openStreams.get();
+  }
+
+  public void shutdown() {
+    idleChecker.shutdownNow();
+    List<PooledStream> remaining;
+    synchronized (this) {
+      remaining = new ArrayList<>(streams.values());
+      streams.clear();
+    }
+    for (PooledStream stream : remaining) {
+      synchronized (stream) {
+        try {
+          closeStream(stream);
+        } catch (IOException e) {
+          logger.warn("Close HDFS output stream failed during shutdown.", e);
+        }
+      }
+    }
+  }
+
+  private void closeLeastRecentlyWritten(PooledStream justOpened) {
+    List<PooledStream> victims = new ArrayList<>();
+    synchronized (this) {
+      int toClose = openStreams.get() - maxOpenStreams;
+      Iterator<PooledStream> iterator = streams.values().iterator();
+      while (toClose > 0 && iterator.hasNext()) {
+        PooledStream stream = iterator.next();
+        // Reading out without the stream's lock is only a hint, it is checked again below.
+        if (stream != justOpened && stream.out != null) {
+          victims.add(stream);
+          toClose--;
+        }
+      }
+    }
+    victims.forEach(this::closeQuietly);
+  }
+
+  private void closeIdleStreams() {
+    long now = System.currentTimeMillis();
+    List<PooledStream> idleStreams = new ArrayList<>();
+    synchronized (this) {
+      for (PooledStream stream : streams.values()) {
+        if (stream.out != null && now - stream.lastWriteTime > idleTimeoutMs) {
+          idleStreams.add(stream);
+        }
+      }
+    }
+    idleStreams.forEach(this::closeQuietly);
+  }
+
+  private void closeQuietly(PooledStream stream) {
+    synchronized (stream) {
+      try {
+        closeStream(stream);
+      } catch (IOException e) {
+        logger.warn("Close pooled HDFS output stream failed.", e);
+        stream.closeFailure = e;
+      }
+    }
+  }
+
+  // Caller must hold the stream's lock.
+  private void checkCloseFailure(Path path, PooledStream stream) throws IOException {
+    if (stream.closeFailure != null) {
+      throw new IOException(
+          "Close HDFS output stream of " + path + " failed.", stream.closeFailure);
+    }
+  }
+
+  // Caller must hold the stream's lock.
+  private void closeStream(PooledStream stream) throws IOException {
+    if (stream.out != null) {
+      FSDataOutputStream out = stream.out;
+      stream.out = null;
+      openStreams.decrementAndGet();
+      out.close();
+    }
+  }
+}
@@ -23,20 +23,34 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -68,17 +82,34 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
   private volatile boolean shutdown = false;
   private final ConcurrentHashMap<String, Set<String>> sortedShuffleFiles =
       JavaUtils.newConcurrentHashMap();
-  private final ConcurrentHashMap<String, Set<String>> sortingShuffleFiles =
+  // shuffleKey -> (fileId -> queued or running file sorter)
+  private final ConcurrentHashMap<String, Map<String, FileSorter>> sortingShuffleFiles =
       JavaUtils.newConcurrentHashMap();
-  private final ConcurrentHashMap<String, Map<String, Map<Integer, List<ShuffleBlockInfo>>>>
-      cachedIndexMaps = JavaUtils.newConcurrentHashMap();
-  private final LinkedBlockingQueue<FileSorter> shuffleSortTaskDeque = new LinkedBlockingQueue<>();
+  // fileId -> index of the sorted file, and fileId + BLOCK_INDEX_KEY_SUFFIX -> block index of
+  // the unsorted file, bounded together by the approximate heap size of indexes
+  private final Cache<String, SortedFileIndex> sortedIndexCache;
+  private final AtomicLong sortedIndexCacheWeight = new AtomicLong();
+  private static final String BLOCK_INDEX_KEY_SUFFIX = ".blockIndex";
+  // Sorts requested by open streams go before eager sorts, each kind in submission order.
+  private final PriorityBlockingQueue<FileSorter> shuffleSortTaskDeque =
+      new PriorityBlockingQueue<>(
+          64,
+          Comparator.comparing((FileSorter sorter) -> sorter.eager)
+              .thenComparingLong(sorter -> sorter.sequence));
+  private final AtomicLong sortTaskSequence = new AtomicLong();
 
   private final AtomicInteger sortedFileCount = new AtomicInteger();
   private final AtomicLong sortedFilesSize = new AtomicLong();
+  private final AtomicInteger queuedOpenStreams = new AtomicInteger();
+  private final AtomicLong sortWaitSequence = new AtomicLong();
   protected final long sortTimeout;
   protected final long shuffleChunkSize;
   protected final long reservedMemoryPerPartition;
+  protected final boolean sortFreeRangeReadEnabled;
+  protected final int parallelSortParallelism;
+  protected final long parallelSortMinFileSize;
+  protected final boolean eagerSortEnabled;
+  protected final long eagerSortMinFileSize;
   private boolean gracefulShutdown;
   private long partitionSorterShutdownAwaitTime;
   private DB sortedFilesDb;
@@ -87,16 +118,40 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
   protected final AbstractSource source;
 
   private final ExecutorService fileSorterExecutors;
+  private final ExecutorService sortCopyExecutors;
+  // Shared by sort tasks and segment copies, so they use at most partitionSorterThreads threads.
+  private final Semaphore sortThreadPermits;
   private final Thread fileSorterSchedulerThread;
+  private final ScheduledExecutorService sortTimeoutScheduler;
 
   public PartitionFilesSorter(
       MemoryManager memoryManager, CelebornConf conf, AbstractSource source) {
     this.sortTimeout = conf.partitionSorterSortPartitionTimeout();
     this.shuffleChunkSize = conf.shuffleChunkSize();
     this.reservedMemoryPerPartition = conf.partitionSorterReservedMemoryPerPartition();
+    this.sortFreeRangeReadEnabled =
+        conf.partitionSorterBlockIndexEnabled() && conf.partitionSorterSortFreeRangeReadEnabled();
+    this.parallelSortParallelism =
+        Math.min(conf.partitionSorterParallelSortParallelism(), conf.partitionSorterThreads());
+    this.parallelSortMinFileSize = conf.partitionSorterParallelSortMinFileSize();
+    this.eagerSortEnabled = conf.partitionSorterEagerSortEnabled();
+    this.eagerSortMinFileSize = conf.partitionSorterEagerSortMinFileSize();
     this.partitionSorterShutdownAwaitTime = conf.partitionSorterCloseAwaitTimeMs();
     this.source = source;
     this.memoryManager = memoryManager;
+    this.sortedIndexCache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(conf.partitionSorterIndexCacheMaxWeight())
+            .weigher((Weigher<String, SortedFileIndex>) (fileId, index) -> index.weight())
+            .removalListener(
+                (RemovalListener<String, SortedFileIndex>)
+                    notification -> {
+                      sortedIndexCacheWeight.addAndGet(-notification.getValue().weight());
+                      if (notification.wasEvicted()) {
+                        source.incCounter(WorkerSource.SortedIndexCacheEvictionCount());
+                      }
+                    })
+            .build();
     this.gracefulShutdown = conf.workerGracefulShutdown();
     // ShuffleClient can fetch shuffle data from a restarted worker only
     // when the worker's fetching port is stable and enables graceful shutdown.
@@ -117,6 +172,10 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
     fileSorterExecutors =
         ThreadUtils.newDaemonCachedThreadPool(
             "worker-file-sorter-execute", conf.partitionSorterThreads(), 120);
+    sortCopyExecutors =
+        ThreadUtils.newDaemonCachedThreadPool(
+            "worker-file-sorter-copy", conf.partitionSorterThreads(), 120);
+    sortThreadPermits = new Semaphore(conf.partitionSorterThreads());
 
     fileSorterSchedulerThread =
         new Thread(
@@ -124,17 +183,26 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
               try {
                 while (!shutdown) {
                   FileSorter task = shuffleSortTaskDeque.take();
+                  if (task.eager && !sortingShuffleFiles.containsKey(task.shuffleKey)) {
+                    // The shuffle expired while the eager sort was queued.
+                    task.sortFuture.completeExceptionally(
+                        new IOException("Shuffle " + task.shuffleKey + " has expired."));
+                    continue;
+                  }
                   memoryManager.reserveSortMemory(reservedMemoryPerPartition);
                   while (!memoryManager.sortMemoryReady()) {
                     Thread.sleep(20);
                   }
                   fileSorterExecutors.submit(
                       () -> {
+                        sortThreadPermits.acquireUninterruptibly();
                         try {
                           task.sort();
                         } catch (InterruptedException e) {
                           logger.warn(
                               "File sorter thread was interrupted when expanding padding buffer.");
+                        } finally {
+                          sortThreadPermits.release();
                         }
                       });
                 }
@@ -143,6 +211,9 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
               }
             });
     fileSorterSchedulerThread.start();
+
+    sortTimeoutScheduler =
+        ThreadUtils.newDaemonSingleThreadScheduledExecutor("worker-file-sorter-timeout");
   }
 
   public int getSortingCount() {
@@ -157,84 +228,259 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
     return (int) sortedFilesSize.get();
   }
 
-  public FileInfo getSortedFileInfo(
-      String shuffleKey, String fileName, FileInfo fileInfo, int startMapIndex, int endMapIndex)
-      throws IOException {
+  public long getSortedIndexCacheWeight() {
+    return sortedIndexCacheWeight.get();
+  }
+
+  public int getQueuedOpenStreamCount() {
+    return queuedOpenStreams.get();
+  }
+
+  /**
+   * Return a future of the sorted file info of the given map range. The future completes when the
+   * file has been sorted, so callers on network threads can reply from its callbacks instead of
+   * waiting for the sort. Files kept in memory must be evicted to disk before.
+   */
+  public CompletableFuture<FileInfo> getSortedFileInfo(
+      String shuffleKey, String fileName, FileInfo fileInfo, int startMapIndex, int endMapIndex) {
+    if (fileInfo.isInMemory()) {
+      return failedFuture(
+          new IOException("File " + fileInfo.getFilePath() + " is kept in memory, can not sort."));
+    }
     String fileId = shuffleKey + "-" + fileName;
     UserIdentifier userIdentifier = fileInfo.getUserIdentifier();
 
     Set<String> sorted =
         sortedShuffleFiles.computeIfAbsent(shuffleKey, v -> ConcurrentHashMap.newKeySet());
-    Set<String> sorting =
-        sortingShuffleFiles.computeIfAbsent(shuffleKey, v -> ConcurrentHashMap.newKeySet());
+    Map<String, FileSorter> sorting =
+        sortingShuffleFiles.computeIfAbsent(shuffleKey, v -> JavaUtils.newConcurrentHashMap());
 
     String sortedFilePath = Utils.getSortedFilePath(fileInfo.getFilePath());
     String indexFilePath = Utils.getIndexFilePath(fileInfo.getFilePath());
 
+    CompletableFuture<Void> sortFuture;
     synchronized (sorting) {
       if (sorted.contains(fileId)) {
-        return resolve(
-            shuffleKey,
-            fileId,
-            userIdentifier,
-            sortedFilePath,
-            indexFilePath,
-            startMapIndex,
-            endMapIndex);
-      }
-      if (!sorting.contains(fileId)) {
         try {
-          FileSorter fileSorter = new FileSorter(fileInfo, fileId, shuffleKey);
-          sorting.add(fileId);
+          return CompletableFuture.completedFuture(
+              resolve(
+                  shuffleKey,
+                  fileId,
+                  userIdentifier,
+                  sortedFilePath,
+                  indexFilePath,
+                  startMapIndex,
+                  endMapIndex));
+        } catch (IOException e) {
+          return failedFuture(e);
+        }
+      }
+      FileSorter fileSorter = sorting.get(fileId);
+      if (fileSorter != null) {
+        if (fileSorter.eager && shuffleSortTaskDeque.remove(fileSorter)) {
+          // A reader is waiting now, move the queued eager sort ahead of other eager sorts.
+          fileSorter.eager = false;
+          shuffleSortTaskDeque.put(fileSorter);
+        }
+        sortFuture = fileSorter.sortFuture;
+      } else {
+        try {
+          fileSorter = new FileSorter(fileInfo, fileId, shuffleKey, false);
+          sortFuture = fileSorter.sortFuture;
+          sorting.put(fileId, fileSorter);
           shuffleSortTaskDeque.put(fileSorter);
-        } catch (InterruptedException e) {
-          logger.info("Sorter scheduler thread is interrupted means worker is shutting down.");
-          throw new IOException(
-              "Sort scheduler thread is interrupted means worker is shutting down.", e);
         } catch (IOException e) {
           logger.error("File sorter access hdfs failed.", e);
-          throw new IOException("File sorter access hdfs failed.", e);
+          return failedFuture(new IOException("File sorter access hdfs failed.", e));
         }
       }
     }
 
-    long sortStartTime = System.currentTimeMillis();
-    while (!sorted.contains(fileId)) {
-      if (sorting.contains(fileId)) {
-        try {
-          Thread.sleep(50);
-          if (System.currentTimeMillis() - sortStartTime > sortTimeout) {
-            logger.error("Sorting file {} timeout after {}ms", fileId, sortTimeout);
-            throw new IOException(
-                "Sort file " + fileInfo.getFilePath() + " timeout after " + sortTimeout);
+    String waitKey = fileId + "-" + sortWaitSequence.incrementAndGet();
+    source.startTimer(WorkerSource.SortWaitTime(), waitKey);
+    queuedOpenStreams.incrementAndGet();
+    CompletableFuture<FileInfo> result = new CompletableFuture<>();
+    ScheduledFuture<?> timeoutTask =
+        sortTimeoutScheduler.schedule(
+            () -> {
+              if (!result.isDone()) {
+                logger.error("Sorting file {} timeout after {}ms", fileId, sortTimeout);
+                result.completeExceptionally(
+                    new IOException(
+                        "Sort file " + fileInfo.getFilePath() + " timeout after " + sortTimeout));
+              }
+            },
+            sortTimeout,
+            TimeUnit.MILLISECONDS);
+    result.whenComplete(
+        (info, throwable) -> {
+          timeoutTask.cancel(false);
+          queuedOpenStreams.decrementAndGet();
+          source.stopTimer(WorkerSource.SortWaitTime(), waitKey);
+        });
+    sortFuture.whenComplete(
+        (v, throwable) -> {
+          if (throwable != null) {
+            result.completeExceptionally(throwable);
+            return;
           }
-        } catch (InterruptedException e) {
-          logger.error("Sorter scheduler thread is interrupted means worker is shutting down.", e);
-          throw new IOException(
-              "Sorter scheduler thread is interrupted means worker is shutting down.", e);
-        }
-      } else {
-        logger.debug("Sorting shuffle file for {} {} failed.", shuffleKey, fileInfo.getFilePath());
-        throw new IOException(
-            "Sorting shuffle file for " + shuffleKey + " " + fileInfo.getFilePath() + " failed.");
+          try {
+            result.complete(
+                resolve(
+                    shuffleKey,
+                    fileId,
+                    userIdentifier,
+                    sortedFilePath,
+                    indexFilePath,
+                    startMapIndex,
+                    endMapIndex));
+          } catch (Throwable e) {
+            result.completeExceptionally(e);
+          }
+        });
+    return result;
+  }
+
+  /**
+   * Queue a sort of a committed reduce partition file which is likely to be range read, so that
+   * the sort runs before readers ask for it. Eager sorts run after sorts requested by readers.
+   */
+  public void submitEagerSort(String shuffleKey, String fileName, FileInfo fileInfo) {
+    if (!eagerSortEnabled
+        || fileInfo.getFileLength() < eagerSortMinFileSize
+        || fileInfo.isInMemory()) {
+      return;
+    }
+    if (sortFreeRangeReadEnabled
+        && !fileInfo.isHdfs()
+        && new File(fileInfo.getBlockIndexPath()).exists()) {
+      // Range reads of this file will be served without sorting.
+      return;
+    }
+    String fileId = shuffleKey + "-" + fileName;
+    Set<String> sorted =
+        sortedShuffleFiles.computeIfAbsent(shuffleKey, v -> ConcurrentHashMap.newKeySet());
+    Map<String, FileSorter> sorting =
+        sortingShuffleFiles.computeIfAbsent(shuffleKey, v -> JavaUtils.newConcurrentHashMap());
+    synchronized (sorting) {
+      if (sorted.contains(fileId) || sorting.containsKey(fileId)) {
+        return;
+      }
+      try {
+        FileSorter fileSorter = new FileSorter(fileInfo, fileId, shuffleKey, true);
+        sorting.put(fileId, fileSorter);
+        shuffleSortTaskDeque.put(fileSorter);
+        logger.debug("Submit eager sort for {} {}", shuffleKey, fileInfo.getFilePath());
+      } catch (IOException e) {
+        logger.warn("Submit eager sort for {} failed.", fileId, e);
       }
     }
+  }
 
-    return resolve(
-        shuffleKey,
-        fileId,
-        userIdentifier,
-        sortedFilePath,
-        indexFilePath,
+  private static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(throwable);
+    return future;
+  }
+
+  /**
+   * Resolve a map range of an unsorted local file to segments of the file itself by its block
+   * index, so that the range can be served without sorting. Return null if the file can not be
+   * served this way, and the caller should fall back to {@link #getSortedFileInfo}.
+   */
+  public FileInfo getMapRangeFileInfo(
+      String shuffleKey, String fileName, FileInfo fileInfo, int startMapIndex, int endMapIndex) {
+    if (!sortFreeRangeReadEnabled || fileInfo.isHdfs()) {
+      return null;
+    }
+    String fileId = shuffleKey + "-" + fileName;
+    Set<String> sorted = sortedShuffleFiles.get(shuffleKey);
+    if (sorted != null && sorted.contains(fileId)) {
+      // The origin file has been replaced by the sorted one.
+      return null;
+    }
+
+    SortedFileIndex blockIndex = getBlockIndex(fileId, fileInfo);
+    if (blockIndex == null) {
+      return null;
+    }
+
+    List<ShuffleBlockInfo> segments = new ArrayList<>();
+    List<Long> chunkOffsets = new ArrayList<>();
+    long[] streamOffset = new long[1];
+    blockIndex.forEachBlock(
         startMapIndex,
-        endMapIndex);
+        endMapIndex,
+        (offset, length) -> {
+          if (chunkOffsets.isEmpty()) {
+            chunkOffsets.add(streamOffset[0]);
+          } else if (streamOffset[0] - chunkOffsets.get(chunkOffsets.size() - 1)
+              > shuffleChunkSize) {
+            chunkOffsets.add(streamOffset[0]);
+          }
+          ShuffleBlockInfo lastSegment =
+              segments.isEmpty() ? null : segments.get(segments.size() - 1);
+          if (lastSegment != null && lastSegment.offset + lastSegment.length == offset) {
+            lastSegment.length += length;
+          } else {
+            ShuffleBlockInfo segment = new ShuffleBlockInfo();
+            segment.offset = offset;
+            segment.length = length;
+            segments.add(segment);
+          }
+          streamOffset[0] += length;
+        });
+    if (!chunkOffsets.isEmpty()) {
+      chunkOffsets.add(streamOffset[0]);
+    }
+
+    FileInfo mapRangeFileInfo =
+        new FileInfo(fileInfo.getFilePath(), chunkOffsets, fileInfo.getUserIdentifier());
+    mapRangeFileInfo.setFileSegments(segments);
+    mapRangeFileInfo.setMountPoint(fileInfo.getMountPoint());
+    return mapRangeFileInfo;
+  }
+
+  private SortedFileIndex getBlockIndex(String fileId, FileInfo fileInfo) {
+    String cacheKey = fileId + BLOCK_INDEX_KEY_SUFFIX;
+    SortedFileIndex blockIndex = sortedIndexCache.getIfPresent(cacheKey);
+    if (blockIndex != null) {
+      return blockIndex;
+    }
+
+    String blockIndexFilePath = fileInfo.getBlockIndexPath();
+    if (!new File(blockIndexFilePath).exists()) {
+      return null;
+    }
+    try {
+      blockIndex = SortedFileIndex.parse(readIndexFile(blockIndexFilePath, false));
+      if (blockIndex.totalLength() != fileInfo.getFileLength()) {
+        logger.warn(
+            "Block index {} covers {} bytes but file length is {}, ignore it.",
+            blockIndexFilePath,
+            blockIndex.totalLength(),
+            fileInfo.getFileLength());
+        return null;
+      }
+      sortedIndexCacheWeight.addAndGet(blockIndex.weight());
+      sortedIndexCache.put(cacheKey, blockIndex);
+      return blockIndex;
+    } catch (IOException e) {
+      logger.warn("Read block index {} failed, will sort the file.", blockIndexFilePath, e);
+      return null;
+    }
   }
 
   public void cleanup(HashSet<String> expiredShuffleKeys) {
     for (String expiredShuffleKey : expiredShuffleKeys) {
       sortingShuffleFiles.remove(expiredShuffleKey);
       deleteSortedShuffleFiles(expiredShuffleKey);
-      cachedIndexMaps.remove(expiredShuffleKey);
+      String fileIdPrefix = expiredShuffleKey + "-";
+      for (String fileId : sortedIndexCache.asMap().keySet()) {
+        if (fileId.startsWith(fileIdPrefix)) {
+          sortedIndexCache.invalidate(fileId);
+        }
+      }
     }
   }
 
@@ -259,7 +505,19 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
       fileSorterSchedulerThread.interrupt();
       fileSorterExecutors.shutdownNow();
     }
-    cachedIndexMaps.clear();
+    sortCopyExecutors.shutdownNow();
+    sortTimeoutScheduler.shutdownNow();
+    for (Map<String, FileSorter> sorting : sortingShuffleFiles.values()) {
+      synchronized (sorting) {
+        sorting
+            .values()
+            .forEach(
+                fileSorter ->
+                    fileSorter.sortFuture.completeExceptionally(
+                        new IOException("Partition sorter is closed, worker is shutting down.")));
+      }
+    }
+    sortedIndexCache.invalidateAll();
     if (sortedFilesDb != null) {
       try {
         updateSortedShuffleFilesInDB();
@@ -314,6 +572,8 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
   @VisibleForTesting
   public void updateSortedShuffleFiles(String shuffleKey, String fileId, long fileLength) {
     sortedShuffleFiles.get(shuffleKey).add(fileId);
+    // Range reads of the sorted file no longer go through its block index.
+    sortedIndexCache.invalidate(fileId + BLOCK_INDEX_KEY_SUFFIX);
     sortedFileCount.incrementAndGet();
     sortedFilesSize.addAndGet(fileLength);
   }
@@ -341,26 +601,8 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
       indexFileChannel = FileChannelUtils.createWritableFileChannel(indexFilePath);
     }
 
-    int indexSize = 0;
-    for (Map.Entry<Integer, List<ShuffleBlockInfo>> entry : indexMap.entrySet()) {
-      indexSize += 8;
-      indexSize += entry.getValue().size() * 16;
-    }
-
-    ByteBuffer indexBuf = ByteBuffer.allocate(indexSize);
-    for (Map.Entry<Integer, List<ShuffleBlockInfo>> entry : indexMap.entrySet()) {
-      int mapId = entry.getKey();
-      List<ShuffleBlockInfo> list = entry.getValue();
-      indexBuf.putInt(mapId);
-      indexBuf.putInt(list.size());
-      list.forEach(
-          info -> {
-            indexBuf.putLong(info.offset);
-            indexBuf.putLong(info.length);
-          });
-    }
-
-    indexBuf.flip();
+    ByteBuffer indexBuf = ShuffleBlockInfoUtils.serializeShuffleBlockInfos(indexMap);
+    int indexSize = indexBuf.limit();
     if (isHdfs) {
       // Direct byte buffer has no array, so can not invoke indexBuf.array() here.
       byte[] tmpBuf = new byte[indexSize];
@@ -428,6 +670,34 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
     return transferredSize;
   }
 
+  protected ByteBuffer readIndexFile(String indexFilePath, boolean isHdfs) throws IOException {
+    FileChannel indexChannel = null;
+    FSDataInputStream hdfsIndexStream = null;
+    int indexSize;
+    try {
+      if (isHdfs) {
+        hdfsIndexStream = StorageManager.hadoopFs().open(new Path(indexFilePath));
+        indexSize =
+            (int) StorageManager.hadoopFs().getFileStatus(new Path(indexFilePath)).getLen();
+      } else {
+        indexChannel = FileChannelUtils.openReadableFileChannel(indexFilePath);
+        File indexFile = new File(indexFilePath);
+        indexSize = (int) indexFile.length();
+      }
+      ByteBuffer indexBuf = ByteBuffer.allocate(indexSize);
+      if (isHdfs) {
+        readStreamFully(hdfsIndexStream, indexBuf, indexFilePath);
+      } else {
+        readChannelFully(indexChannel, indexBuf, indexFilePath);
+      }
+      indexBuf.rewind();
+      return indexBuf;
+    } finally {
+      IOUtils.closeQuietly(indexChannel, null);
+      IOUtils.closeQuietly(hdfsIndexStream, null);
+    }
+  }
+
   public FileInfo resolve(
       String shuffleKey,
       String fileId,
@@ -437,48 +707,26 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
       int startMapIndex,
       int endMapIndex)
       throws IOException {
-    Map<Integer, List<ShuffleBlockInfo>> indexMap;
-    if (cachedIndexMaps.containsKey(shuffleKey)
-        && cachedIndexMaps.get(shuffleKey).containsKey(fileId)) {
-      indexMap = cachedIndexMaps.get(shuffleKey).get(fileId);
+    SortedFileIndex index = sortedIndexCache.getIfPresent(fileId);
+    if (index != null) {
+      source.incCounter(WorkerSource.SortedIndexCacheHitCount());
     } else {
-      FileChannel indexChannel = null;
-      FSDataInputStream hdfsIndexStream = null;
-      boolean isHdfs = Utils.isHdfsPath(indexFilePath);
-      int indexSize = 0;
+      source.incCounter(WorkerSource.SortedIndexCacheMissCount());
       try {
-        if (isHdfs) {
-          hdfsIndexStream = StorageManager.hadoopFs().open(new Path(indexFilePath));
-          indexSize =
-              (int) StorageManager.hadoopFs().getFileStatus(new Path(indexFilePath)).getLen();
-        } else {
-          indexChannel = FileChannelUtils.openReadableFileChannel(indexFilePath);
-          File indexFile = new File(indexFilePath);
-          indexSize = (int) indexFile.length();
-        }
-        ByteBuffer indexBuf = ByteBuffer.allocate(indexSize);
-        if (isHdfs) {
-          readStreamFully(hdfsIndexStream, indexBuf, indexFilePath);
-        } else {
-          readChannelFully(indexChannel, indexBuf, indexFilePath);
-        }
-        indexBuf.rewind();
-        indexMap = ShuffleBlockInfoUtils.parseShuffleBlockInfosFromByteBuffer(indexBuf);
-        Map<String, Map<Integer, List<ShuffleBlockInfo>>> cacheMap =
-            cachedIndexMaps.computeIfAbsent(shuffleKey, v -> JavaUtils.newConcurrentHashMap());
-        cacheMap.put(fileId, indexMap);
+        ByteBuffer indexBuf = readIndexFile(indexFilePath, Utils.isHdfsPath(indexFilePath));
+        index = SortedFileIndex.parse(indexBuf);
       } catch (Exception e) {
         logger.error("Read sorted shuffle file index " + indexFilePath + " error, detail: ", e);
         throw new IOException("Read sorted shuffle file index failed.", e);
-      } finally {
-        IOUtils.closeQuietly(indexChannel, null);
-        IOUtils.closeQuietly(hdfsIndexStream, null);
       }
+      // Concurrent misses of the same file may both load it, the later put replaces the
+      // earlier one and the removal listener keeps the weight accounting right.
+      sortedIndexCacheWeight.addAndGet(index.weight());
+      sortedIndexCache.put(fileId, index);
     }
     return new FileInfo(
         sortedFilePath,
-        ShuffleBlockInfoUtils.getChunkOffsetsFromShuffleBlockInfos(
-            startMapIndex, endMapIndex, shuffleChunkSize, indexMap),
+        index.getChunkOffsets(startMapIndex, endMapIndex, shuffleChunkSize),
         userIdentifier);
   }
 
@@ -486,6 +734,7 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
     private final String originFilePath;
     private final String sortedFilePath;
     private final String indexFilePath;
+    private final String blockIndexFilePath;
     private final long originFileLen;
     private final String fileId;
     private final String shuffleKey;
@@ -496,7 +745,17 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
     private FileChannel originFileChannel = null;
     private FileChannel sortedFileChannel = null;
 
-    FileSorter(FileInfo fileInfo, String fileId, String shuffleKey) throws IOException {
+    final CompletableFuture<Void> sortFuture = new CompletableFuture<>();
+    final long sequence = sortTaskSequence.incrementAndGet();
+    // Only changed while the sorter is out of shuffleSortTaskDeque.
+    volatile boolean eager;
+    // Eagerly sorted files may still be read as a whole, keep the origin file for them.
+    private final boolean keepOriginFile;
+
+    FileSorter(FileInfo fileInfo, String fileId, String shuffleKey, boolean eager)
+        throws IOException {
+      this.eager = eager;
+      this.keepOriginFile = eager;
       this.originFilePath = fileInfo.getFilePath();
       this.sortedFilePath = Utils.getSortedFilePath(originFilePath);
       this.isHdfs = fileInfo.isHdfs();
@@ -504,6 +763,7 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
       this.fileId = fileId;
       this.shuffleKey = shuffleKey;
       this.indexFilePath = Utils.getIndexFilePath(originFilePath);
+      this.blockIndexFilePath = Utils.getBlockIndexFilePath(originFilePath);
       if (!isHdfs) {
         File sortedFile = new File(this.sortedFilePath);
         if (sortedFile.exists()) {
@@ -526,76 +786,143 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
     public void sort() throws InterruptedException {
       source.startTimer(WorkerSource.SortTime(), fileId);
 
+      boolean succeeded = false;
       try {
         initializeFiles();
 
-        Map<Integer, List<ShuffleBlockInfo>> originShuffleBlockInfos = new TreeMap<>();
         Map<Integer, List<ShuffleBlockInfo>> sortedBlockInfoMap = new HashMap<>();
-
-        int batchHeaderLen = 16;
         int reserveMemory = (int) reservedMemoryPerPartition;
-        ByteBuffer headerBuf = ByteBuffer.allocate(batchHeaderLen);
-        ByteBuffer paddingBuf = ByteBuffer.allocateDirect(reserveMemory);
-
-        long index = 0;
-        while (index != originFileLen) {
-          long blockStartIndex = index;
-          readBufferFully(headerBuf);
-          byte[] batchHeader = headerBuf.array();
-          headerBuf.rewind();
-
-          int mapId = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET);
-          final int compressedSize = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 12);
-
-          List<ShuffleBlockInfo> singleMapIdShuffleBlockList =
-              originShuffleBlockInfos.computeIfAbsent(mapId, v -> new ArrayList<>());
-          ShuffleBlockInfo blockInfo = new ShuffleBlockInfo();
-          blockInfo.offset = blockStartIndex;
-          blockInfo.length = compressedSize + 16;
-          singleMapIdShuffleBlockList.add(blockInfo);
-
-          index += batchHeaderLen + compressedSize;
-          paddingBuf.clear();
-          readBufferBySize(paddingBuf, compressedSize);
+
+        Map<Integer, List<ShuffleBlockInfo>> originShuffleBlockInfos = readBlockIndex();
+        if (originShuffleBlockInfos == null) {
+          originShuffleBlockInfos = scanShuffleBlockInfos(reserveMemory);
         }
 
-        long fileIndex = 0;
-        for (Map.Entry<Integer, List<ShuffleBlockInfo>> originBlockInfoEntry :
-            originShuffleBlockInfos.entrySet()) {
-          int mapId = originBlockInfoEntry.getKey();
-          List<ShuffleBlockInfo> originShuffleBlocks = originBlockInfoEntry.getValue();
-          List<ShuffleBlockInfo> sortedShuffleBlocks = new ArrayList<>();
-          for (ShuffleBlockInfo blockInfo : originShuffleBlocks) {
-            long offset = blockInfo.offset;
-            long length = blockInfo.length;
-            ShuffleBlockInfo sortedBlock = new ShuffleBlockInfo();
-            sortedBlock.offset = fileIndex;
-            sortedBlock.length = length;
-            sortedShuffleBlocks.add(sortedBlock);
-            fileIndex += transferBlock(offset, length);
+        if (!isHdfs
+            && parallelSortParallelism > 1
+            && originFileLen >= parallelSortMinFileSize) {
+          transferBlocksInParallel(originShuffleBlockInfos, sortedBlockInfoMap);
+        } else {
+          long fileIndex = 0;
+          for (Map.Entry<Integer, List<ShuffleBlockInfo>> originBlockInfoEntry :
+              originShuffleBlockInfos.entrySet()) {
+            int mapId = originBlockInfoEntry.getKey();
+            List<ShuffleBlockInfo> originShuffleBlocks = originBlockInfoEntry.getValue();
+            List<ShuffleBlockInfo> sortedShuffleBlocks = new ArrayList<>();
+            for (ShuffleBlockInfo blockInfo : originShuffleBlocks) {
+              long offset = blockInfo.offset;
+              long length = blockInfo.length;
+              ShuffleBlockInfo sortedBlock = new ShuffleBlockInfo();
+              sortedBlock.offset = fileIndex;
+              sortedBlock.length = length;
+              sortedShuffleBlocks.add(sortedBlock);
+              fileIndex += transferBlock(offset, length);
+            }
+            sortedBlockInfoMap.put(mapId, sortedShuffleBlocks);
           }
-          sortedBlockInfoMap.put(mapId, sortedShuffleBlocks);
         }
 
         memoryManager.releaseSortMemory(reserveMemory);
 
         writeIndex(sortedBlockInfoMap, indexFilePath, isHdfs);
         updateSortedShuffleFiles(shuffleKey, fileId, originFileLen);
-        deleteOriginFiles();
+        if (!keepOriginFile) {
+          deleteOriginFiles();
+        }
+        succeeded = true;
         logger.debug("sort complete for {} {}", shuffleKey, originFilePath);
       } catch (Exception e) {
         logger.error(
             "Sorting shuffle file for " + fileId + " " + originFilePath + " failed, detail: ", e);
       } finally {
         closeFiles();
-        Set<String> sorting = sortingShuffleFiles.get(shuffleKey);
-        synchronized (sorting) {
-          sorting.remove(fileId);
+        Map<String, FileSorter> sorting = sortingShuffleFiles.get(shuffleKey);
+        if (sorting != null) {
+          synchronized (sorting) {
+            sorting.remove(fileId);
+          }
+        }
+        if (succeeded) {
+          sortFuture.complete(null);
+        } else {
+          sortFuture.completeExceptionally(
+              new IOException(
+                  "Sorting shuffle file for " + shuffleKey + " " + originFilePath + " failed."));
         }
       }
       source.stopTimer(WorkerSource.SortTime(), fileId);
     }
 
+    /**
+     * Load the block index recorded by ReducePartitionFileWriter, return null if it is absent or
+     * does not cover the whole origin file.
+     */
+    private Map<Integer, List<ShuffleBlockInfo>> readBlockIndex() {
+      try {
+        boolean exists =
+            isHdfs
+                ? StorageManager.hadoopFs().exists(new Path(blockIndexFilePath))
+                : new File(blockIndexFilePath).exists();
+        if (!exists) {
+          return null;
+        }
+        Map<Integer, List<ShuffleBlockInfo>> blockInfos =
+            new TreeMap<>(
+                ShuffleBlockInfoUtils.parseShuffleBlockInfosFromByteBuffer(
+                    readIndexFile(blockIndexFilePath, isHdfs)));
+        long indexedLength = 0;
+        for (List<ShuffleBlockInfo> blocks : blockInfos.values()) {
+          for (ShuffleBlockInfo block : blocks) {
+            indexedLength += block.length;
+          }
+        }
+        if (indexedLength != originFileLen) {
+          logger.warn(
+              "Block index {} covers {} bytes but origin file length is {}, ignore it.",
+              blockIndexFilePath,
+              indexedLength,
+              originFileLen);
+          return null;
+        }
+        return blockInfos;
+      } catch (Exception e) {
+        logger.warn("Read block index {} failed, will scan origin file.", blockIndexFilePath, e);
+        return null;
+      }
+    }
+
+    private Map<Integer, List<ShuffleBlockInfo>> scanShuffleBlockInfos(int reserveMemory)
+        throws IOException {
+      Map<Integer, List<ShuffleBlockInfo>> originShuffleBlockInfos = new TreeMap<>();
+
+      int batchHeaderLen = 16;
+      ByteBuffer headerBuf = ByteBuffer.allocate(batchHeaderLen);
+      ByteBuffer paddingBuf = ByteBuffer.allocateDirect(reserveMemory);
+
+      long index = 0;
+      while (index != originFileLen) {
+        long blockStartIndex = index;
+        readBufferFully(headerBuf);
+        byte[] batchHeader = headerBuf.array();
+        headerBuf.rewind();
+
+        int mapId = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET);
+        final int compressedSize = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 12);
+
+        List<ShuffleBlockInfo> singleMapIdShuffleBlockList =
+            originShuffleBlockInfos.computeIfAbsent(mapId, v -> new ArrayList<>());
+        ShuffleBlockInfo blockInfo = new ShuffleBlockInfo();
+        blockInfo.offset = blockStartIndex;
+        blockInfo.length = compressedSize + 16;
+        singleMapIdShuffleBlockList.add(blockInfo);
+
+        index += batchHeaderLen + compressedSize;
+        paddingBuf.clear();
+        readBufferBySize(paddingBuf, compressedSize);
+      }
+      return originShuffleBlockInfos;
+    }
+
     private void initializeFiles() throws IOException {
       if (isHdfs) {
         hdfsOriginInput = StorageManager.hadoopFs().open(new Path(originFilePath));
@@ -629,12 +956,131 @@ public class PartitionFilesSorter extends ShuffleRecoverHelper {
       }
     }
 
+    /**
+     * Lay out the sorted file up front, then split it into segments of consecutive blocks and copy
+     * the segments concurrently. Each segment writes through its own channel positioned at the
+     * segment's offset in the sorted file, so segments don't contend on a shared position. This
+     * thread copies segments itself and is only helped by copy threads for which a sorter thread
+     * permit is free, so parallel sorts never run more threads than partitionSorterThreads.
+     */
+    private void transferBlocksInParallel(
+        Map<Integer, List<ShuffleBlockInfo>> originShuffleBlockInfos,
+        Map<Integer, List<ShuffleBlockInfo>> sortedBlockInfoMap)
+        throws IOException {
+      List<ShuffleBlockInfo> originBlocksInSortedOrder = new ArrayList<>();
+      long sortedFileLen = 0;
+      for (Map.Entry<Integer, List<ShuffleBlockInfo>> originBlockInfoEntry :
+          originShuffleBlockInfos.entrySet()) {
+        List<ShuffleBlockInfo> sortedShuffleBlocks = new ArrayList<>();
+        for (ShuffleBlockInfo blockInfo : originBlockInfoEntry.getValue()) {
+          ShuffleBlockInfo sortedBlock = new ShuffleBlockInfo();
+          sortedBlock.offset = sortedFileLen;
+          sortedBlock.length = blockInfo.length;
+          sortedShuffleBlocks.add(sortedBlock);
+          originBlocksInSortedOrder.add(blockInfo);
+          sortedFileLen += blockInfo.length;
+        }
+        sortedBlockInfoMap.put(originBlockInfoEntry.getKey(), sortedShuffleBlocks);
+      }
+
+      long segmentSize = (sortedFileLen + parallelSortParallelism - 1) / parallelSortParallelism;
+      List<List<ShuffleBlockInfo>> segments = new ArrayList<>();
+      List<Long> segmentOffsets = new ArrayList<>();
+      int segmentStartBlock = 0;
+      long segmentStartOffset = 0;
+      long segmentLength = 0;
+      for (int i = 0; i < originBlocksInSortedOrder.size(); i++) {
+        segmentLength += originBlocksInSortedOrder.get(i).length;
+        if (segmentLength >= segmentSize || i == originBlocksInSortedOrder.size() - 1) {
+          segments.add(originBlocksInSortedOrder.subList(segmentStartBlock, i + 1));
+          segmentOffsets.add(segmentStartOffset);
+          segmentStartBlock = i + 1;
+          segmentStartOffset += segmentLength;
+          segmentLength = 0;
+        }
+      }
+
+      AtomicInteger nextSegment = new AtomicInteger();
+      AtomicBoolean failed = new AtomicBoolean();
+      List<Future<?>> helperFutures = new ArrayList<>();
+      for (int i = 1; i < segments.size() && sortThreadPermits.tryAcquire(); i++) {
+        try {
+          helperFutures.add(
+              sortCopyExecutors.submit(
+                  () -> {
+                    try {
+                      copySegments(segments, segmentOffsets, nextSegment, failed);
+                      return null;
+                    } finally {
+                      sortThreadPermits.release();
+                    }
+                  }));
+        } catch (RejectedExecutionException e) {
+          sortThreadPermits.release();
+          break;
+        }
+      }
+
+      IOException failure = null;
+      try {
+        copySegments(segments, segmentOffsets, nextSegment, failed);
+      } catch (IOException e) {
+        failure = e;
+      }
+      // Wait for every helper even after a failure, so that no segment is still being written
+      // when the caller closes and deletes the sorted file.
+      for (Future<?> helperFuture : helperFutures) {
+        try {
+          Uninterruptibles.getUninterruptibly(helperFuture);
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure =
+                new IOException("Copy segment of " + originFilePath + " failed.", e.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    private void copySegments(
+        List<List<ShuffleBlockInfo>> segments,
+        List<Long> segmentOffsets,
+        AtomicInteger nextSegment,
+        AtomicBoolean failed)
+        throws IOException {
+      int segment;
+      while (!failed.get() && (segment = nextSegment.getAndIncrement()) < segments.size()) {
+        try {
+          transferSegment(segments.get(segment), segmentOffsets.get(segment));
+        } catch (IOException e) {
+          failed.set(true);
+          throw e;
+        }
+      }
+    }
+
+    private void transferSegment(List<ShuffleBlockInfo> originBlocks, long targetOffset)
+        throws IOException {
+      try (FileChannel targetChannel =
+          FileChannelUtils.createWritableFileChannel(sortedFilePath)) {
+        targetChannel.position(targetOffset);
+        for (ShuffleBlockInfo blockInfo : originBlocks) {
+          transferChannelFully(
+              originFileChannel, targetChannel, blockInfo.offset, blockInfo.length);
+        }
+      }
+    }
+
     private void deleteOriginFiles() throws IOException {
       boolean deleteSuccess = false;
       if (isHdfs) {
         deleteSuccess = StorageManager.hadoopFs().delete(new Path(originFilePath), false);
+        StorageManager.hadoopFs().delete(new Path(blockIndexFilePath), false);
       } else {
         deleteSuccess = new File(originFilePath).delete();
+        new File(blockIndexFilePath).delete();
       }
       if (!deleteSuccess) {
         logger.warn("Clean origin file failed, origin file is : {}", originFilePath);
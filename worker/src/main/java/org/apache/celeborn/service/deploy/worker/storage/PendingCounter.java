@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Counts pending writes or flushes of a file, so that closing it can wait on a future completed
+ * by the last of them rather than polling the count.
+ */
+public class PendingCounter {
+  private final AtomicInteger count = new AtomicInteger();
+  // Created on the first wait only, most actions complete with nobody waiting.
+  private volatile CompletableFuture<Void> drained = null;
+
+  public int get() {
+    return count.get();
+  }
+
+  public void increment() {
+    count.incrementAndGet();
+  }
+
+  public void decrement() {
+    if (count.decrementAndGet() <= 0) {
+      CompletableFuture<Void> future = drained;
+      if (future != null) {
+        future.complete(null);
+      }
+    }
+  }
+
+  /** Completes once no action is pending. */
+  public synchronized CompletableFuture<Void> whenDrained() {
+    CompletableFuture<Void> future = drained;
+    if (future == null || future.isDone()) {
+      future = new CompletableFuture<>();
+      drained = future;
+    }
+    // Either the count is seen drained here, or the decrement sees the future.
+    if (count.get() <= 0) {
+      future.complete(null);
+    }
+    return future;
+  }
+}
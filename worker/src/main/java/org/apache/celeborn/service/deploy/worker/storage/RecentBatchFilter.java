@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.util.Arrays;
+
+/*
+ * Remembers the last batches written to a file by their (mapId, attemptId, batchId), so that
+ * batches resent by clients after a push timeout are not appended again. It keeps a fixed number
+ * of batches in a ring in write order, indexed by a linear probing table of ring positions.
+ * Duplicates of batches older than the ring are not detected, readers skip them as before.
+ * Arrays are allocated on the first batch, as many files never receive data. Not thread safe.
+ */
+public class RecentBatchFilter {
+  private static final int EMPTY = -1;
+
+  private final int capacity;
+  // Ring of recent batches, the map attempt is mapId << 32 | attemptId.
+  private long[] mapAttempts;
+  private int[] batchIds;
+  private int size = 0;
+  private int next = 0;
+  // Ring positions of the batches, EMPTY for a free slot.
+  private int[] table;
+  private int mask;
+
+  public RecentBatchFilter(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /** Add the batch, returns false if it is one of the recent batches already. */
+  public boolean add(int mapId, int attemptId, int batchId) {
+    if (table == null) {
+      mapAttempts = new long[capacity];
+      batchIds = new int[capacity];
+      // At most half full, so that probe sequences stay short.
+      table = new int[Integer.highestOneBit(capacity) << 2];
+      Arrays.fill(table, EMPTY);
+      mask = table.length - 1;
+    }
+    long mapAttempt = ((long) mapId << 32) | (attemptId & 0xFFFFFFFFL);
+    int slot = slot(mapAttempt, batchId);
+    while (table[slot] != EMPTY) {
+      int position = table[slot];
+      if (mapAttempts[position] == mapAttempt && batchIds[position] == batchId) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    if (size == capacity) {
+      // Removing the oldest batch may shift the free slot found above, probe again.
+      remove(next);
+      slot = slot(mapAttempt, batchId);
+      while (table[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+    } else {
+      size++;
+    }
+    mapAttempts[next] = mapAttempt;
+    batchIds[next] = batchId;
+    table[slot] = next;
+    next = (next + 1) % capacity;
+    return true;
+  }
+
+  private int slot(long mapAttempt, int batchId) {
+    long hash = (mapAttempt * 0x9E3779B97F4A7C15L) ^ (batchId * 0xC2B2AE3D27D4EB4FL);
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  private void remove(int position) {
+    int gap = slot(mapAttempts[position], batchIds[position]);
+    while (table[gap] != position) {
+      gap = (gap + 1) & mask;
+    }
+    // Shift back the following entries of the probe sequence which may fill the gap.
+    int current = gap;
+    while (true) {
+      current = (current + 1) & mask;
+      int moved = table[current];
+      if (moved == EMPTY) {
+        break;
+      }
+      int home = slot(mapAttempts[moved], batchIds[moved]);
+      if (((current - home) & mask) >= ((current - gap) & mask)) {
+        table[gap] = moved;
+        gap = current;
+      }
+    }
+    table[gap] = EMPTY;
+  }
+}
@@ -17,8 +17,14 @@
 
 package org.apache.celeborn.service.deploy.worker.storage;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+import io.netty.util.Timer;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +34,7 @@ import org.apache.celeborn.common.meta.FileInfo;
 import org.apache.celeborn.common.metrics.source.AbstractSource;
 import org.apache.celeborn.common.protocol.PartitionSplitMode;
 import org.apache.celeborn.common.protocol.PartitionType;
+import org.apache.celeborn.common.util.ShuffleBlockInfoUtils;
 
 /*
  * reduce partition file writer, it will create chunk index
@@ -60,6 +67,15 @@ public final class ReducePartitionFileWriter extends FileWriter {
         rangeReadFilter);
     this.shuffleChunkSize = conf.shuffleChunkSize();
     this.nextBoundary = this.shuffleChunkSize;
+    if (conf.partitionSorterBlockIndexEnabled()) {
+      this.blockIndexBuilder = new BlockIndexBuilder();
+    }
+    if (conf.workerDuplicateBatchFilterSize() > 0) {
+      this.recentBatchFilter = new RecentBatchFilter(conf.workerDuplicateBatchFilterSize());
+    }
+    if (StorageManager.appendExecutors() != null) {
+      this.appendShard = StorageManager.appendExecutors().nextShard();
+    }
   }
 
   protected void flush(boolean finalFlush) throws IOException {
@@ -86,28 +102,79 @@ public final class ReducePartitionFileWriter extends FileWriter {
     return fileInfo.getLastChunkOffset() == bytesFlushed;
   }
 
-  public synchronized long close() throws IOException {
-    return super.close(
-        () -> {
-          if (!isChunkOffsetValid()) {
-            maybeSetChunkOffsets(true);
-          }
-        },
-        () -> {
-          if (StorageManager.hadoopFs().exists(fileInfo.getHdfsPeerWriterSuccessPath())) {
-            StorageManager.hadoopFs().delete(fileInfo.getHdfsPath(), false);
-            deleted = true;
-          } else {
-            StorageManager.hadoopFs().create(fileInfo.getHdfsWriterSuccessPath()).close();
-            FSDataOutputStream indexOutputStream =
-                StorageManager.hadoopFs().create(fileInfo.getHdfsIndexPath());
-            indexOutputStream.writeInt(fileInfo.getChunkOffsets().size());
-            for (Long offset : fileInfo.getChunkOffsets()) {
-              indexOutputStream.writeLong(offset);
+  private void writeBlockIndex() {
+    if (blockIndexBuilder == null) {
+      return;
+    }
+    // The block index is only an optimization for sorting, PartitionFilesSorter will
+    // fall back to scanning the data file if it is absent.
+    if (blockIndexBuilder.totalLength() == bytesFlushed && blockIndexBuilder.numBlocks() > 0) {
+      ByteBuffer indexBuf =
+          ShuffleBlockInfoUtils.serializeShuffleBlockInfos(
+              blockIndexBuilder.toShuffleBlockInfos());
+      try {
+        if (fileInfo.isHdfs()) {
+          FSDataOutputStream blockIndexOutputStream =
+              StorageManager.hadoopFs().create(fileInfo.getHdfsBlockIndexPath(), true);
+          blockIndexOutputStream.write(indexBuf.array(), 0, indexBuf.limit());
+          blockIndexOutputStream.close();
+        } else {
+          try (FileChannel blockIndexChannel =
+              FileChannelUtils.createWritableFileChannel(fileInfo.getBlockIndexPath())) {
+            while (indexBuf.hasRemaining()) {
+              blockIndexChannel.write(indexBuf);
             }
-            indexOutputStream.close();
           }
-        },
-        () -> {});
+        }
+      } catch (IOException e) {
+        logger.warn("Write block index for {} failed.", fileInfo.getFilePath(), e);
+        if (!fileInfo.isHdfs()) {
+          new File(fileInfo.getBlockIndexPath()).delete();
+        }
+      }
+    }
+    blockIndexBuilder = null;
+  }
+
+  public long close() throws IOException {
+    waitOnQueuedAppends();
+    return super.close(this::tryClose, this::streamClose, () -> {});
+  }
+
+  @Override
+  public CompletableFuture<Long> closeAsync(Executor executor, Timer timer) {
+    // The queued appends complete on the append shard, begin the close on the executor so the
+    // shard is not held by it.
+    return queuedAppendsDone(timer)
+        .thenComposeAsync(
+            ignored ->
+                super.closeAsync(this::tryClose, this::streamClose, () -> {}, executor, timer),
+            executor);
+  }
+
+  private void tryClose() {
+    if (!isChunkOffsetValid()) {
+      maybeSetChunkOffsets(true);
+    }
+    if (!fileInfo.isHdfs()) {
+      writeBlockIndex();
+    }
+  }
+
+  private void streamClose() throws IOException {
+    if (StorageManager.hadoopFs().exists(fileInfo.getHdfsPeerWriterSuccessPath())) {
+      StorageManager.hadoopFs().delete(fileInfo.getHdfsPath(), false);
+      deleted = true;
+    } else {
+      StorageManager.hadoopFs().create(fileInfo.getHdfsWriterSuccessPath()).close();
+      FSDataOutputStream indexOutputStream =
+          StorageManager.hadoopFs().create(fileInfo.getHdfsIndexPath());
+      indexOutputStream.writeInt(fileInfo.getChunkOffsets().size());
+      for (Long offset : fileInfo.getChunkOffsets()) {
+        indexOutputStream.writeLong(offset);
+      }
+      indexOutputStream.close();
+      writeBlockIndex();
+    }
   }
 }
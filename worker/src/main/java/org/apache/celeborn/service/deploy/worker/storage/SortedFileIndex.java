@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Index of a sorted shuffle file kept in primitive arrays, so that a cached index costs a few
+ * bytes per block instead of several boxed objects. Blocks of mapIds[i] are
+ * [blockStarts[i], blockStarts[i + 1]) of offsets and lengths.
+ */
+public class SortedFileIndex {
+  // Rough size of the object headers and array headers of an index.
+  private static final int BASE_WEIGHT = 96;
+
+  private final int[] mapIds;
+  private final int[] blockStarts;
+  private final long[] offsets;
+  private final long[] lengths;
+
+  private SortedFileIndex(int[] mapIds, int[] blockStarts, long[] offsets, long[] lengths) {
+    this.mapIds = mapIds;
+    this.blockStarts = blockStarts;
+    this.offsets = offsets;
+    this.lengths = lengths;
+  }
+
+  /** Parse the content of an index file written by {@link PartitionFilesSorter}. */
+  public static SortedFileIndex parse(ByteBuffer buffer) {
+    int numMaps = countMaps(buffer.duplicate());
+    int numBlocks = (buffer.remaining() - numMaps * 8) / 16;
+    int[] mapIds = new int[numMaps];
+    int[] blockStarts = new int[numMaps + 1];
+    long[] offsets = new long[numBlocks];
+    long[] lengths = new long[numBlocks];
+    int block = 0;
+    for (int i = 0; i < numMaps; i++) {
+      mapIds[i] = buffer.getInt();
+      int count = buffer.getInt();
+      blockStarts[i] = block;
+      for (int j = 0; j < count; j++) {
+        offsets[block] = buffer.getLong();
+        lengths[block] = buffer.getLong();
+        block++;
+      }
+    }
+    blockStarts[numMaps] = block;
+
+    // The sorter writes maps in hash map order, which is not guaranteed to be ascending.
+    boolean ordered = true;
+    for (int i = 1; i < numMaps && ordered; i++) {
+      ordered = mapIds[i - 1] < mapIds[i];
+    }
+    if (!ordered) {
+      return sortByMapId(mapIds, blockStarts, offsets, lengths);
+    }
+    return new SortedFileIndex(mapIds, blockStarts, offsets, lengths);
+  }
+
+  private static int countMaps(ByteBuffer buffer) {
+    int numMaps = 0;
+    while (buffer.hasRemaining()) {
+      buffer.getInt();
+      int count = buffer.getInt();
+      buffer.position(buffer.position() + count * 16);
+      numMaps++;
+    }
+    return numMaps;
+  }
+
+  private static SortedFileIndex sortByMapId(
+      int[] mapIds, int[] blockStarts, long[] offsets, long[] lengths) {
+    int numMaps = mapIds.length;
+    long[] order = new long[numMaps];
+    for (int i = 0; i < numMaps; i++) {
+      // Sort by mapId, carrying the original position in the low bits.
+      order[i] = ((long) mapIds[i] << 32) | i;
+    }
+    Arrays.sort(order);
+    int[] sortedMapIds = new int[numMaps];
+    int[] sortedBlockStarts = new int[numMaps + 1];
+    long[] sortedOffsets = new long[offsets.length];
+    long[] sortedLengths = new long[lengths.length];
+    int block = 0;
+    for (int i = 0; i < numMaps; i++) {
+      int origin = (int) order[i];
+      sortedMapIds[i] = mapIds[origin];
+      sortedBlockStarts[i] = block;
+      int count = blockStarts[origin + 1] - blockStarts[origin];
+      System.arraycopy(offsets, blockStarts[origin], sortedOffsets, block, count);
+      System.arraycopy(lengths, blockStarts[origin], sortedLengths, block, count);
+      block += count;
+    }
+    sortedBlockStarts[numMaps] = block;
+    return new SortedFileIndex(sortedMapIds, sortedBlockStarts, sortedOffsets, sortedLengths);
+  }
+
+  /**
+   * Same chunking as {@link
+   * org.apache.celeborn.common.util.ShuffleBlockInfoUtils#getChunkOffsetsFromShuffleBlockInfos}.
+   */
+  public List<Long> getChunkOffsets(int startMapIndex, int endMapIndex, long fetchChunkSize) {
+    List<Long> chunkOffsets = new ArrayList<>();
+    int from = Arrays.binarySearch(mapIds, startMapIndex);
+    if (from < 0) {
+      from = -from - 1;
+    }
+    int lastBlock = -1;
+    for (int i = from; i < mapIds.length && mapIds[i] < endMapIndex; i++) {
+      for (int block = blockStarts[i]; block < blockStarts[i + 1]; block++) {
+        if (chunkOffsets.isEmpty()) {
+          chunkOffsets.add(offsets[block]);
+        }
+        if (offsets[block] - chunkOffsets.get(chunkOffsets.size() - 1) > fetchChunkSize) {
+          chunkOffsets.add(offsets[block]);
+        }
+        lastBlock = block;
+      }
+    }
+    if (lastBlock >= 0) {
+      long endChunkOffset = offsets[lastBlock] + lengths[lastBlock];
+      if (chunkOffsets.get(chunkOffsets.size() - 1) != endChunkOffset) {
+        chunkOffsets.add(endChunkOffset);
+      }
+    }
+    return chunkOffsets;
+  }
+
+  /** Visit the blocks of maps in [startMapIndex, endMapIndex) in mapId order. */
+  public void forEachBlock(int startMapIndex, int endMapIndex, BlockVisitor visitor) {
+    int from = Arrays.binarySearch(mapIds, startMapIndex);
+    if (from < 0) {
+      from = -from - 1;
+    }
+    for (int i = from; i < mapIds.length && mapIds[i] < endMapIndex; i++) {
+      for (int block = blockStarts[i]; block < blockStarts[i + 1]; block++) {
+        visitor.visit(offsets[block], lengths[block]);
+      }
+    }
+  }
+
+  /** Sum of the lengths of all blocks. */
+  public long totalLength() {
+    long totalLength = 0;
+    for (long length : lengths) {
+      totalLength += length;
+    }
+    return totalLength;
+  }
+
+  public int numBlocks() {
+    return offsets.length;
+  }
+
+  /** Approximate heap bytes held by this index. */
+  public int weight() {
+    return BASE_WEIGHT + mapIds.length * 8 + offsets.length * 16;
+  }
+
+  public interface BlockVisitor {
+    void visit(long offset, long length);
+  }
+}
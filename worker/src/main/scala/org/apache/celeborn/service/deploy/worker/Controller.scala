@@ -21,7 +21,7 @@ import java.io.IOException
 import java.util.{ArrayList => jArrayList, HashMap => jHashMap, List => jList, Set => jSet}
 import java.util.concurrent._
 import java.util.concurrent.atomic.{AtomicBoolean, AtomicIntegerArray, AtomicReference}
-import java.util.function.BiFunction
+import java.util.function.{BiFunction, Function => JFunction, Supplier}
 
 import scala.collection.JavaConverters._
 
@@ -38,7 +38,7 @@ import org.apache.celeborn.common.protocol.message.ControlMessages._
 import org.apache.celeborn.common.protocol.message.StatusCode
 import org.apache.celeborn.common.rpc._
 import org.apache.celeborn.common.util.{JavaUtils, Utils}
-import org.apache.celeborn.service.deploy.worker.storage.StorageManager
+import org.apache.celeborn.service.deploy.worker.storage.{PartitionFilesSorter, ReducePartitionFileWriter, StorageManager}
 
 private[deploy] class Controller(
     override val rpcEnv: RpcEnv,
@@ -48,6 +48,7 @@ private[deploy] class Controller(
 
   var workerSource: WorkerSource = _
   var storageManager: StorageManager = _
+  var partitionsSorter: PartitionFilesSorter = _
   var shuffleMapperAttempts: ConcurrentHashMap[String, AtomicIntegerArray] = _
   // shuffleKey -> (epoch -> CommitInfo)
   var shuffleCommitInfos: ConcurrentHashMap[String, ConcurrentHashMap[Long, CommitInfo]] = _
@@ -66,6 +67,7 @@ private[deploy] class Controller(
   def init(worker: Worker): Unit = {
     workerSource = worker.workerSource
     storageManager = worker.storageManager
+    partitionsSorter = worker.partitionsSorter
     shufflePartitionType = worker.shufflePartitionType
     shufflePushDataTimeout = worker.shufflePushDataTimeout
     shuffleMapperAttempts = worker.shuffleMapperAttempts
@@ -267,49 +269,71 @@ private[deploy] class Controller(
 
     if (uniqueIds != null) {
       uniqueIds.asScala.foreach { uniqueId =>
-        val task = CompletableFuture.runAsync(
-          new Runnable {
-            override def run(): Unit = {
-              try {
-                val location =
-                  if (master) {
-                    partitionLocationInfo.getMasterLocation(shuffleKey, uniqueId)
-                  } else {
-                    partitionLocationInfo.getSlaveLocation(shuffleKey, uniqueId)
-                  }
-
-                if (location == null) {
-                  logWarning(s"Get Partition Location for $shuffleKey $uniqueId but didn't exist.")
-                  return
+        val task = CompletableFuture.supplyAsync(
+          new Supplier[CompletableFuture[Void]] {
+            override def get(): CompletableFuture[Void] = {
+              val location =
+                if (master) {
+                  partitionLocationInfo.getMasterLocation(shuffleKey, uniqueId)
+                } else {
+                  partitionLocationInfo.getSlaveLocation(shuffleKey, uniqueId)
                 }
 
-                val fileWriter = location.asInstanceOf[WorkingPartition].getFileWriter
-                val bytes = fileWriter.close()
-                if (bytes > 0L) {
-                  if (fileWriter.getStorageInfo == null) {
-                    // Only HDFS can be null, means that this partition location is deleted.
-                    logDebug(s"Location $uniqueId is deleted.")
-                  } else {
-                    committedStorageInfos.put(uniqueId, fileWriter.getStorageInfo)
-                    if (fileWriter.getMapIdBitMap != null) {
-                      committedMapIdBitMap.put(uniqueId, fileWriter.getMapIdBitMap)
-                    }
-                    if (bytes >= minPartitionSizeToEstimate) {
-                      partitionSizeList.add(bytes)
+              if (location == null) {
+                logWarning(s"Get Partition Location for $shuffleKey $uniqueId but didn't exist.")
+                return CompletableFuture.completedFuture(null)
+              }
+
+              val fileWriter = location.asInstanceOf[WorkingPartition].getFileWriter
+              // Commit threads do not block on the flushes of the writer, so all writers wait
+              // for their flushes at the same time.
+              fileWriter.closeAsync(commitThreadPool, timer).handle(
+                new BiFunction[java.lang.Long, Throwable, Void] {
+                  override def apply(bytes: java.lang.Long, t: Throwable): Void = {
+                    if (t != null) {
+                      val cause = t match {
+                        case e: CompletionException if e.getCause != null => e.getCause
+                        case e => e
+                      }
+                      cause match {
+                        case e: IOException =>
+                          logError(s"Commit file for $shuffleKey $uniqueId failed.", e)
+                          failedIds.add(uniqueId)
+                        case e => throw new CompletionException(e)
+                      }
+                    } else if (bytes > 0L) {
+                      if (fileWriter.getStorageInfo == null) {
+                        // Only HDFS can be null, means that this partition location is deleted.
+                        logDebug(s"Location $uniqueId is deleted.")
+                      } else {
+                        committedStorageInfos.put(uniqueId, fileWriter.getStorageInfo)
+                        if (fileWriter.getMapIdBitMap != null) {
+                          committedMapIdBitMap.put(uniqueId, fileWriter.getMapIdBitMap)
+                        }
+                        if (bytes >= minPartitionSizeToEstimate) {
+                          partitionSizeList.add(bytes)
+                        }
+                        committedIds.add(uniqueId)
+                        // Readers go to the master replica first, only sort it ahead of time.
+                        if (master && fileWriter.isInstanceOf[ReducePartitionFileWriter]) {
+                          partitionsSorter.submitEagerSort(
+                            shuffleKey,
+                            location.getFileName,
+                            fileWriter.getFileInfo)
+                        }
+                      }
+                    } else {
+                      emptyFileIds.add(uniqueId)
                     }
-                    committedIds.add(uniqueId)
+                    null
                   }
-                } else {
-                  emptyFileIds.add(uniqueId)
-                }
-              } catch {
-                case e: IOException =>
-                  logError(s"Commit file for $shuffleKey $uniqueId failed.", e)
-                  failedIds.add(uniqueId)
-              }
+                })
             }
           },
-          commitThreadPool)
+          commitThreadPool).thenCompose(
+          new JFunction[CompletableFuture[Void], CompletionStage[Void]] {
+            override def apply(closed: CompletableFuture[Void]): CompletionStage[Void] = closed
+          })
 
         if (future == null) {
           future = task
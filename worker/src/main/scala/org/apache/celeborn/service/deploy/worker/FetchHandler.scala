@@ -20,8 +20,11 @@ package org.apache.celeborn.service.deploy.worker
 import java.io.{FileNotFoundException, IOException}
 import java.nio.charset.StandardCharsets
 import java.util
+import java.util.concurrent.{CompletableFuture, CompletionException, CompletionStage, ConcurrentLinkedQueue, ScheduledExecutorService, TimeUnit}
 import java.util.concurrent.atomic.AtomicBoolean
-import java.util.function.Consumer
+import java.util.function.{BiConsumer, Consumer, Function => JFunction}
+
+import scala.collection.JavaConverters._
 
 import com.google.common.base.Throwables
 import io.netty.util.concurrent.{Future, GenericFutureListener}
@@ -35,11 +38,23 @@ import org.apache.celeborn.common.network.protocol.Message.Type
 import org.apache.celeborn.common.network.server.BaseMessageHandler
 import org.apache.celeborn.common.network.util.{NettyUtils, TransportConf}
 import org.apache.celeborn.common.protocol.PartitionType
-import org.apache.celeborn.common.util.ExceptionUtils
-import org.apache.celeborn.service.deploy.worker.storage.{ChunkStreamManager, CreditStreamManager, PartitionFilesSorter, StorageManager}
+import org.apache.celeborn.common.util.{ExceptionUtils, ThreadUtils}
+import org.apache.celeborn.service.deploy.worker.storage.{ChunkReadAhead, ChunkStreamManager, CreditStreamManager, PartitionFilesSorter, StorageManager}
 
 class FetchHandler(val conf: TransportConf) extends BaseMessageHandler with Logging {
-  var chunkStreamManager = new ChunkStreamManager()
+  private val chunkReadAhead =
+    if (conf.getCelebornConf.workerFetchReadAheadChunks > 0) {
+      new ChunkReadAhead(
+        conf.getCelebornConf.workerFetchReadAheadChunks,
+        conf.getCelebornConf.workerFetchReadAheadMaxBytesPerDisk)
+    } else {
+      null
+    }
+  var chunkStreamManager = new ChunkStreamManager(
+    conf.maxChunksBeingTransferred,
+    conf.getCelebornConf.workerFetchMaxChunksBeingTransferredPerClient,
+    conf.getCelebornConf.workerFetchMaxChunksBeingTransferredPerApp,
+    chunkReadAhead)
   val creditStreamManager = new CreditStreamManager(
     conf.getCelebornConf.partitionReadBuffersMin,
     conf.getCelebornConf.partitionReadBuffersMax,
@@ -50,9 +65,29 @@ class FetchHandler(val conf: TransportConf) extends BaseMessageHandler with Logg
   var partitionsSorter: PartitionFilesSorter = _
   var registered: AtomicBoolean = new AtomicBoolean(false)
 
+  // Chunk fetches beyond the limits of chunks being transferred, admitted as chunks are sent, or
+  // failed once they have waited for the queue timeout.
+  private val pendingFetches = new ConcurrentLinkedQueue[PendingFetch]()
+  private val fetchQueueTimeoutNs =
+    TimeUnit.MILLISECONDS.toNanos(conf.getCelebornConf.workerFetchQueueTimeoutMs)
+  private var fetchQueueChecker: ScheduledExecutorService = _
+
   def init(worker: Worker): Unit = {
     this.workerSource = worker.workerSource
 
+    if (fetchQueueTimeoutNs > 0) {
+      // Fails the fetches which time out while no chunks are sent.
+      fetchQueueChecker =
+        ThreadUtils.newDaemonSingleThreadScheduledExecutor("worker-fetch-queue-checker")
+      fetchQueueChecker.scheduleWithFixedDelay(
+        new Runnable {
+          override def run(): Unit = admitPendingFetches()
+        },
+        100,
+        100,
+        TimeUnit.MILLISECONDS)
+    }
+
     workerSource.addGauge(
       WorkerSource.CreditStreamCount,
       _ => creditStreamManager.getStreamsCount)
@@ -87,6 +122,10 @@ class FetchHandler(val conf: TransportConf) extends BaseMessageHandler with Logg
         handleReadAddCredit(r)
       case r: ChunkFetchRequest =>
         handleChunkFetchRequest(client, r)
+      case r: ChunksFetchRequest =>
+        handleChunksFetchRequest(client, r)
+      case r: ChunkStreamCredit =>
+        handleChunkStreamCredit(client, r)
       case r: RpcRequest =>
         val msg = Message.decode(r.body().nioByteBuffer())
         handleOpenStream(client, r, msg)
@@ -112,43 +151,78 @@ class FetchHandler(val conf: TransportConf) extends BaseMessageHandler with Logg
     // metrics start
     workerSource.startTimer(WorkerSource.OpenStreamTime, shuffleKey)
     try {
-      var fileInfo = getRawFileInfo(shuffleKey, fileName)
+      val fileInfo = getRawFileInfo(shuffleKey, fileName)
       try fileInfo.getPartitionType() match {
         case PartitionType.REDUCE =>
           val startMapIndex = msg.asInstanceOf[OpenStream].startMapIndex
           val endMapIndex = msg.asInstanceOf[OpenStream].endMapIndex
-          if (endMapIndex != Integer.MAX_VALUE) {
-            fileInfo = partitionsSorter.getSortedFileInfo(
+          if (endMapIndex == Integer.MAX_VALUE) {
+            replyStreamHandle(
+              client,
+              request,
               shuffleKey,
               fileName,
               fileInfo,
               startMapIndex,
               endMapIndex)
-          }
-          logDebug(s"Received chunk fetch request $shuffleKey $fileName " +
-            s"$startMapIndex $endMapIndex get file info $fileInfo")
-          if (fileInfo.isHdfs) {
-            val streamHandle = new StreamHandle(0, 0)
-            client.getChannel.writeAndFlush(new RpcResponse(
-              request.requestId,
-              new NioManagedBuffer(streamHandle.toByteBuffer)))
           } else {
-            val buffers = new FileManagedBuffers(fileInfo, conf)
-            val fetchTimeMetrics = storageManager.getFetchTimeMetric(fileInfo.getFile)
-            val streamId = chunkStreamManager.registerStream(
-              shuffleKey,
-              buffers,
-              fetchTimeMetrics)
-            val streamHandle = new StreamHandle(streamId, fileInfo.numChunks())
-            if (fileInfo.numChunks() == 0)
-              logDebug(s"StreamId $streamId fileName $fileName startMapIndex" +
-                s" $startMapIndex endMapIndex $endMapIndex is empty.")
-            else logDebug(
-              s"StreamId $streamId fileName $fileName numChunks ${fileInfo.numChunks()} " +
-                s"startMapIndex $startMapIndex endMapIndex $endMapIndex")
-            client.getChannel.writeAndFlush(new RpcResponse(
-              request.requestId,
-              new NioManagedBuffer(streamHandle.toByteBuffer)))
+            // Range reads are served from the file, a file kept in memory is evicted to it first.
+            // Reply when the eviction and the sort finish rather than holding this fetch thread
+            // until then.
+            val fileReady =
+              if (fileInfo.isInMemory) {
+                storageManager.evictMemoryFile(fileInfo)
+              } else {
+                CompletableFuture.completedFuture[Void](null)
+              }
+            fileReady.thenCompose[FileInfo](new JFunction[Void, CompletionStage[FileInfo]] {
+              override def apply(ignored: Void): CompletionStage[FileInfo] = {
+                val mapRangeFileInfo = partitionsSorter.getMapRangeFileInfo(
+                  shuffleKey,
+                  fileName,
+                  fileInfo,
+                  startMapIndex,
+                  endMapIndex)
+                if (mapRangeFileInfo != null) {
+                  CompletableFuture.completedFuture(mapRangeFileInfo)
+                } else {
+                  partitionsSorter.getSortedFileInfo(
+                    shuffleKey,
+                    fileName,
+                    fileInfo,
+                    startMapIndex,
+                    endMapIndex)
+                }
+              }
+            }).whenComplete(new BiConsumer[FileInfo, Throwable] {
+              override def accept(rangeFileInfo: FileInfo, throwable: Throwable): Unit = {
+                if (throwable == null) {
+                  try {
+                    replyStreamHandle(
+                      client,
+                      request,
+                      shuffleKey,
+                      fileName,
+                      rangeFileInfo,
+                      startMapIndex,
+                      endMapIndex)
+                  } catch {
+                    case e: IOException =>
+                      handleRpcIOException(client, request.requestId, e)
+                  }
+                } else {
+                  val cause = throwable match {
+                    case e: CompletionException if e.getCause != null => e.getCause
+                    case e => e
+                  }
+                  val ioe = cause match {
+                    case e: IOException => e
+                    case e => new IOException(e)
+                  }
+                  handleRpcIOException(client, request.requestId, ioe)
+                }
+              }
+            })
           }
         case PartitionType.MAP =>
           val initialCredit = msg.asInstanceOf[OpenStreamWithCredit].initialCredit
@@ -189,6 +263,42 @@ class FetchHandler(val conf: TransportConf) extends BaseMessageHandler with Logg
     }
   }
 
+  private def replyStreamHandle(
+      client: TransportClient,
+      request: RpcRequest,
+      shuffleKey: String,
+      fileName: String,
+      fileInfo: FileInfo,
+      startMapIndex: Int,
+      endMapIndex: Int): Unit = {
+    logDebug(s"Received chunk fetch request $shuffleKey $fileName " +
+      s"$startMapIndex $endMapIndex get file info $fileInfo")
+    if (fileInfo.isHdfs) {
+      val streamHandle = new StreamHandle(0, 0)
+      client.getChannel.writeAndFlush(new RpcResponse(
+        request.requestId,
+        new NioManagedBuffer(streamHandle.toByteBuffer)))
+    } else {
+      val buffers = new FileManagedBuffers(fileInfo, conf)
+      val fetchTimeMetrics = storageManager.getFetchTimeMetric(fileInfo.getFile)
+      val streamId = chunkStreamManager.registerStream(
+        shuffleKey,
+        buffers,
+        fetchTimeMetrics,
+        client.getChannel)
+      val streamHandle = new StreamHandle(streamId, fileInfo.numChunks())
+      if (fileInfo.numChunks() == 0)
+        logDebug(s"StreamId $streamId fileName $fileName startMapIndex" +
+          s" $startMapIndex endMapIndex $endMapIndex is empty.")
+      else logDebug(
+        s"StreamId $streamId fileName $fileName numChunks ${fileInfo.numChunks()} " +
+          s"startMapIndex $startMapIndex endMapIndex $endMapIndex")
+      client.getChannel.writeAndFlush(new RpcResponse(
+        request.requestId,
+        new NioManagedBuffer(streamHandle.toByteBuffer)))
+    }
+  }
+
   private def handleRpcIOException(
       client: TransportClient,
       requestId: Long,
@@ -213,53 +323,178 @@ class FetchHandler(val conf: TransportConf) extends BaseMessageHandler with Logg
     logTrace(s"Received req from ${NettyUtils.getRemoteAddress(client.getChannel)}" +
       s" to fetch block ${req.streamChunkSlice}")
 
-    val chunksBeingTransferred = chunkStreamManager.chunksBeingTransferred
-    if (chunksBeingTransferred > conf.maxChunksBeingTransferred) {
-      val message = "Worker is too busy. The number of chunks being transferred " +
-        s"$chunksBeingTransferred exceeds celeborn.shuffle.maxChunksBeingTransferred " +
-        s"${conf.maxChunksBeingTransferred}."
+    // A fetch is admitted right away only if no fetch is queued before it.
+    if (pendingFetches.isEmpty &&
+      chunkStreamManager.tryChunkBeingSent(req.streamChunkSlice.streamId, client.getChannel)) {
+      sendChunk(client, req)
+    } else if (fetchQueueTimeoutNs > 0) {
+      pendingFetches.offer(new PendingFetch(client, req, System.nanoTime()))
+      // Chunks may have been sent since the check, with nothing left to admit this fetch.
+      admitPendingFetches()
+    } else {
+      rejectFetch(client, req)
+    }
+  }
+
+  /**
+   * Each chunk of the run is admitted and answered as if it was requested by its own
+   * ChunkFetchRequest, the client keeps track of the chunks one by one. A run which does not start
+   * within the stream is failed by a single ChunkFetchFailure of its first chunk.
+   */
+  def handleChunksFetchRequest(client: TransportClient, req: ChunksFetchRequest): Unit = {
+    logTrace(s"Received req from ${NettyUtils.getRemoteAddress(client.getChannel)}" +
+      s" to fetch chunks $req")
+
+    val streamChunks = chunkStreamManager.numChunks(req.streamId)
+    if (req.startChunkIndex < 0 || req.startChunkIndex >= streamChunks || req.numChunks <= 0) {
+      val message = s"Invalid chunks $req of stream ${req.streamId} with $streamChunks chunks" +
+        s" requested by ${NettyUtils.getRemoteAddress(client.getChannel)}"
       logError(message)
       client.getChannel.writeAndFlush(
-        new ChunkFetchFailure(req.streamChunkSlice, message))
-    } else {
-      workerSource.startTimer(WorkerSource.FetchChunkTime, req.toString)
-      val fetchTimeMetric = chunkStreamManager.getFetchTimeMetric(req.streamChunkSlice.streamId)
-      val fetchBeginTime = System.nanoTime()
+        new ChunkFetchFailure(req.streamChunkSlice(req.startChunkIndex), message))
+      return
+    }
+
+    // The run is bounded by the end of the stream.
+    val endChunkIndex = math.min(req.startChunkIndex.toLong + req.numChunks, streamChunks).toInt
+    var chunkIndex = req.startChunkIndex
+    while (chunkIndex < endChunkIndex) {
+      handleChunkFetchRequest(client, new ChunkFetchRequest(req.streamChunkSlice(chunkIndex)))
+      chunkIndex += 1
+    }
+  }
+
+  /**
+   * Sends the next chunks of the stream on the credit granted by the client, each chunk admitted
+   * and answered as if it was requested by its own ChunkFetchRequest. A credit which can not be
+   * granted fails each of its chunks.
+   */
+  def handleChunkStreamCredit(client: TransportClient, req: ChunkStreamCredit): Unit = {
+    logTrace(s"Received credit from ${NettyUtils.getRemoteAddress(client.getChannel)}" +
+      s" to send chunks $req")
+
+    val numChunks =
       try {
-        val buf = chunkStreamManager.getChunk(
-          req.streamChunkSlice.streamId,
-          req.streamChunkSlice.chunkIndex,
-          req.streamChunkSlice.offset,
-          req.streamChunkSlice.len)
-        chunkStreamManager.chunkBeingSent(req.streamChunkSlice.streamId)
-        client.getChannel.writeAndFlush(new ChunkFetchSuccess(req.streamChunkSlice, buf))
-          .addListener(new GenericFutureListener[Future[_ >: Void]] {
-            override def operationComplete(future: Future[_ >: Void]): Unit = {
-              chunkStreamManager.chunkSent(req.streamChunkSlice.streamId)
-              if (fetchTimeMetric != null) {
-                fetchTimeMetric.update(System.nanoTime() - fetchBeginTime)
-              }
-              workerSource.stopTimer(WorkerSource.FetchChunkTime, req.toString)
-            }
-          })
+        chunkStreamManager.addCredit(req.streamId, req.startChunkIndex, req.credit)
       } catch {
         case e: Exception =>
           logError(
-            String.format(s"Error opening block ${req.streamChunkSlice} for request from" +
-              s" ${NettyUtils.getRemoteAddress(client.getChannel)}"),
+            s"Error adding credit $req from ${NettyUtils.getRemoteAddress(client.getChannel)}",
             e)
-          client.getChannel.writeAndFlush(new ChunkFetchFailure(
-            req.streamChunkSlice,
-            Throwables.getStackTraceAsString(e)))
-          workerSource.stopTimer(WorkerSource.FetchChunkTime, req.toString)
+          // The client waits for each credited chunk.
+          val errorString = Throwables.getStackTraceAsString(e)
+          var chunkIndex = req.startChunkIndex
+          while (chunkIndex < req.startChunkIndex + req.credit) {
+            client.getChannel.writeAndFlush(
+              new ChunkFetchFailure(req.streamChunkSlice(chunkIndex), errorString))
+            chunkIndex += 1
+          }
+          return
       }
+    var chunkIndex = req.startChunkIndex
+    while (chunkIndex < req.startChunkIndex + numChunks) {
+      handleChunkFetchRequest(client, new ChunkFetchRequest(req.streamChunkSlice(chunkIndex)))
+      chunkIndex += 1
+    }
+  }
+
+  private def sendChunk(client: TransportClient, req: ChunkFetchRequest): Unit = {
+    workerSource.startTimer(WorkerSource.FetchChunkTime, req.toString)
+    val fetchTimeMetric = chunkStreamManager.getFetchTimeMetric(req.streamChunkSlice.streamId)
+    val fetchBeginTime = System.nanoTime()
+    try {
+      val buf = chunkStreamManager.getChunk(
+        req.streamChunkSlice.streamId,
+        req.streamChunkSlice.chunkIndex,
+        req.streamChunkSlice.offset,
+        req.streamChunkSlice.len)
+      val message = new ChunkFetchSuccess(req.streamChunkSlice, buf)
+      client.getChannel.writeAndFlush(message)
+        .addListener(new GenericFutureListener[Future[_ >: Void]] {
+          override def operationComplete(future: Future[_ >: Void]): Unit = {
+            if (!future.isSuccess && !message.isBodyTakenByEncoder) {
+              // Failed before the encoder took the chunk, which holds the stream's file open.
+              buf.release()
+            }
+            chunkStreamManager.chunkSent(req.streamChunkSlice.streamId, client.getChannel)
+            if (!pendingFetches.isEmpty) {
+              admitPendingFetches()
+            }
+            if (fetchTimeMetric != null) {
+              fetchTimeMetric.update(System.nanoTime() - fetchBeginTime)
+            }
+            workerSource.stopTimer(WorkerSource.FetchChunkTime, req.toString)
+          }
+        })
+    } catch {
+      case e: Exception =>
+        chunkStreamManager.chunkSent(req.streamChunkSlice.streamId, client.getChannel)
+        logError(
+          String.format(s"Error opening block ${req.streamChunkSlice} for request from" +
+            s" ${NettyUtils.getRemoteAddress(client.getChannel)}"),
+          e)
+        client.getChannel.writeAndFlush(new ChunkFetchFailure(
+          req.streamChunkSlice,
+          Throwables.getStackTraceAsString(e)))
+        workerSource.stopTimer(WorkerSource.FetchChunkTime, req.toString)
     }
   }
 
+  private def rejectFetch(client: TransportClient, req: ChunkFetchRequest): Unit = {
+    val message = "Worker is too busy. The number of chunks being transferred " +
+      s"${chunkStreamManager.chunksBeingTransferred} or those to the client or of the " +
+      "application reach their limits, celeborn.shuffle.maxChunksBeingTransferred " +
+      s"${conf.maxChunksBeingTransferred}, " +
+      "celeborn.worker.fetch.maxChunksBeingTransferredPerClient " +
+      s"${conf.getCelebornConf.workerFetchMaxChunksBeingTransferredPerClient} and " +
+      "celeborn.worker.fetch.maxChunksBeingTransferredPerApp " +
+      s"${conf.getCelebornConf.workerFetchMaxChunksBeingTransferredPerApp}."
+    logError(message)
+    client.getChannel.writeAndFlush(new ChunkFetchFailure(req.streamChunkSlice, message))
+  }
+
+  /**
+   * Admits the pending fetches within the limits in order, and fails those which time out. No
+   * fetch is admitted past one held back by the total limit. A fetch held back by the limit of its
+   * client or application keeps its place in the queue while the fetches after it are admitted,
+   * at most MAX_SKIPPED_FETCHES of them are skipped per call, so a call stays short.
+   */
+  private def admitPendingFetches(): Unit = {
+    val admitted = new util.ArrayList[PendingFetch]()
+    val expired = new util.ArrayList[PendingFetch]()
+    pendingFetches.synchronized {
+      var skipped = 0
+      val iter = pendingFetches.iterator()
+      while (iter.hasNext && skipped < FetchHandler.MAX_SKIPPED_FETCHES) {
+        val pending = iter.next()
+        val channel = pending.client.getChannel
+        if (!channel.isActive) {
+          // Dropped with the connection.
+          iter.remove()
+        } else if (chunkStreamManager.tryChunkBeingSent(
+            pending.request.streamChunkSlice.streamId,
+            channel)) {
+          iter.remove()
+          admitted.add(pending)
+        } else if (System.nanoTime() - pending.enqueueTime >= fetchQueueTimeoutNs) {
+          iter.remove()
+          expired.add(pending)
+        } else if (chunkStreamManager.isTotalLimitReached) {
+          skipped = FetchHandler.MAX_SKIPPED_FETCHES
+        } else {
+          skipped += 1
+        }
+      }
+    }
+    admitted.asScala.foreach(pending => sendChunk(pending.client, pending.request))
+    expired.asScala.foreach(pending => rejectFetch(pending.client, pending.request))
+  }
+
   override def checkRegistered: Boolean = registered.get
 
   override def channelInactive(client: TransportClient): Unit = {
     creditStreamManager.connectionTerminated(client.getChannel)
+    chunkStreamManager.connectionTerminated(client.getChannel)
     logDebug(s"channel inactive ${client.getSocketAddress}")
   }
 
@@ -270,4 +505,22 @@ class FetchHandler(val conf: TransportConf) extends BaseMessageHandler with Logg
   def cleanupExpiredShuffleKey(expiredShuffleKeys: util.HashSet[String]): Unit = {
     chunkStreamManager.cleanupExpiredShuffleKey(expiredShuffleKeys)
   }
+
+  def close(): Unit = {
+    if (fetchQueueChecker != null) {
+      fetchQueueChecker.shutdownNow()
+    }
+    if (chunkReadAhead != null) {
+      chunkReadAhead.close()
+    }
+  }
 }
+
+object FetchHandler {
+  private val MAX_SKIPPED_FETCHES = 8
+}
+
+private class PendingFetch(
+    val client: TransportClient,
+    val request: ChunkFetchRequest,
+    val enqueueTime: Long)
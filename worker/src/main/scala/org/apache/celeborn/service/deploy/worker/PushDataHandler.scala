@@ -28,7 +28,7 @@ import org.apache.celeborn.common.CelebornConf
 import org.apache.celeborn.common.exception.{AlreadyClosedException, CelebornIOException}
 import org.apache.celeborn.common.internal.Logging
 import org.apache.celeborn.common.meta.{WorkerInfo, WorkerPartitionLocationInfo}
-import org.apache.celeborn.common.metrics.source.Source
+import org.apache.celeborn.common.metrics.source.NamedTimer
 import org.apache.celeborn.common.network.buffer.{NettyManagedBuffer, NioManagedBuffer}
 import org.apache.celeborn.common.network.client.{RpcResponseCallback, TransportClient, TransportClientFactory}
 import org.apache.celeborn.common.network.protocol.{Message, PushData, PushDataHandShake, PushMergedData, RegionFinish, RegionStart, RequestMessage, RpcFailure, RpcRequest, RpcResponse}
@@ -37,7 +37,9 @@ import org.apache.celeborn.common.network.server.BaseMessageHandler
 import org.apache.celeborn.common.protocol.{PartitionLocation, PartitionSplitMode, PartitionType}
 import org.apache.celeborn.common.protocol.message.StatusCode
 import org.apache.celeborn.common.unsafe.Platform
+import org.apache.celeborn.service.deploy.worker.PushDataRpcResponseCallback.{emptyResponse, statusResponse}
 import org.apache.celeborn.service.deploy.worker.congestcontrol.CongestionController
+import org.apache.celeborn.service.deploy.worker.memory.PushCreditManager
 import org.apache.celeborn.service.deploy.worker.storage.{FileWriter, HdfsFlusher, LocalFlusher, MapPartitionFileWriter, StorageManager}
 
 class PushDataHandler extends BaseMessageHandler with Logging {
@@ -49,6 +51,7 @@ class PushDataHandler extends BaseMessageHandler with Logging {
   var shufflePushDataTimeout: ConcurrentHashMap[String, Long] = _
   var replicateThreadPool: ThreadPoolExecutor = _
   var unavailablePeers: ConcurrentHashMap[WorkerInfo, Long] = _
+  var replicationPipeline: ReplicationPipeline = _
   var pushClientFactory: TransportClientFactory = _
   var registered: AtomicBoolean = new AtomicBoolean(false)
   var workerInfo: WorkerInfo = _
@@ -57,6 +60,8 @@ class PushDataHandler extends BaseMessageHandler with Logging {
   var shutdown: AtomicBoolean = _
   var storageManager: StorageManager = _
   var conf: CelebornConf = _
+  var masterPushDataTimer: NamedTimer = _
+  var slavePushDataTimer: NamedTimer = _
   @volatile var pushMasterDataTimeoutTested = false
   @volatile var pushSlaveDataTimeoutTested = false
 
@@ -68,6 +73,7 @@ class PushDataHandler extends BaseMessageHandler with Logging {
     shuffleMapperAttempts = worker.shuffleMapperAttempts
     replicateThreadPool = worker.replicateThreadPool
     unavailablePeers = worker.unavailablePeers
+    replicationPipeline = worker.replicationPipeline
     pushClientFactory = worker.pushClientFactory
     registered = worker.registered
     workerInfo = worker.workerInfo
@@ -76,6 +82,8 @@ class PushDataHandler extends BaseMessageHandler with Logging {
     storageManager = worker.storageManager
     shutdown = worker.shutdown
     conf = worker.conf
+    masterPushDataTimer = workerSource.getNamedTimer(WorkerSource.MasterPushDataTime)
+    slavePushDataTimer = workerSource.getNamedTimer(WorkerSource.SlavePushDataTime)
 
     logInfo(s"diskReserveSize $diskReserveSize")
   }
@@ -88,17 +96,21 @@ class PushDataHandler extends BaseMessageHandler with Logging {
           pushData,
           pushData.requestId,
           () => {
-            val callback = new SimpleRpcResponseCallback(
-              client,
-              pushData.requestId,
-              pushData.shuffleKey)
             shufflePartitionType.getOrDefault(pushData.shuffleKey, PartitionType.REDUCE) match {
               case PartitionType.REDUCE => handlePushData(
                   pushData,
-                  callback)
+                  PushDataRpcResponseCallback.newInstance(
+                    client,
+                    pushData.requestId,
+                    workerSource,
+                    pushDataTimer(pushData.mode),
+                    pushCreditManager(pushData.mode)))
               case PartitionType.MAP => handleMapPartitionPushData(
                   pushData,
-                  callback)
+                  new SimpleRpcResponseCallback(
+                    client,
+                    pushData.requestId,
+                    pushData.shuffleKey))
             }
           })
       case pushMergedData: PushMergedData =>
@@ -109,13 +121,32 @@ class PushDataHandler extends BaseMessageHandler with Logging {
           () =>
             handlePushMergedData(
               pushMergedData,
-              new SimpleRpcResponseCallback(
+              PushDataRpcResponseCallback.newInstance(
                 client,
                 pushMergedData.requestId,
-                pushMergedData.shuffleKey)))
+                workerSource,
+                pushDataTimer(pushMergedData.mode),
+                pushCreditManager(pushMergedData.mode))))
       case rpcRequest: RpcRequest => handleRpcRequest(client, rpcRequest)
     }
 
+  private def pushDataTimer(mode: Byte): NamedTimer = {
+    if (PartitionLocation.getMode(mode) == PartitionLocation.Mode.MASTER) {
+      masterPushDataTimer
+    } else {
+      slavePushDataTimer
+    }
+  }
+
+  // Credits are granted to clients only, acks of replicas are forwarded by the master.
+  private def pushCreditManager(mode: Byte): PushCreditManager = {
+    if (PartitionLocation.getMode(mode) == PartitionLocation.Mode.MASTER) {
+      PushCreditManager.instance()
+    } else {
+      null
+    }
+  }
+
   def handlePushData(pushData: PushData, callback: RpcResponseCallback): Unit = {
     val shuffleKey = pushData.shuffleKey
     val mode = PartitionLocation.getMode(pushData.mode)
@@ -133,22 +164,6 @@ class PushDataHandler extends BaseMessageHandler with Logging {
       return
     }
 
-    val key = s"${pushData.requestId}"
-    val callbackWithTimer =
-      if (isMaster) {
-        new RpcResponseCallbackWithTimer(
-          workerSource,
-          WorkerSource.MasterPushDataTime,
-          key,
-          callback)
-      } else {
-        new RpcResponseCallbackWithTimer(
-          workerSource,
-          WorkerSource.SlavePushDataTime,
-          key,
-          callback)
-      }
-
     // find FileWriter responsible for the data
     val location =
       if (isMaster) {
@@ -172,12 +187,12 @@ class PushDataHandler extends BaseMessageHandler with Logging {
           // partition data has already been committed
           logInfo(s"Receive push data from speculative task(shuffle $shuffleKey, map $mapId, " +
             s" attempt $attemptId), but this mapper has already been ended.")
-          callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte](StatusCode.STAGE_ENDED.getValue)))
+          callback.onSuccess(statusResponse(StatusCode.STAGE_ENDED))
         } else {
           logInfo(
             s"Receive push data for committed hard split partition of (shuffle $shuffleKey, " +
               s"map $mapId attempt $attemptId)")
-          callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte](StatusCode.HARD_SPLIT.getValue)))
+          callback.onSuccess(statusResponse(StatusCode.HARD_SPLIT))
         }
       } else {
         if (storageManager.shuffleKeySet().contains(shuffleKey)) {
@@ -186,11 +201,11 @@ class PushDataHandler extends BaseMessageHandler with Logging {
           // after worker restart, some task still push data to this HARD_SPLIT partition.
           logInfo(s"Receive push data for committed hard split partition of " +
             s"(shuffle $shuffleKey, map $mapId attempt $attemptId)")
-          callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte](StatusCode.HARD_SPLIT.getValue)))
+          callback.onSuccess(statusResponse(StatusCode.HARD_SPLIT))
         } else {
           logWarning(s"While handle PushData, Partition location wasn't found for " +
             s"task(shuffle $shuffleKey, map $mapId, attempt $attemptId, uniqueId ${pushData.partitionUniqueId}).")
-          callbackWithTimer.onFailure(
+          callback.onFailure(
             new CelebornIOException(StatusCode.PUSH_DATA_FAIL_PARTITION_NOT_FOUND))
         }
       }
@@ -201,7 +216,7 @@ class PushDataHandler extends BaseMessageHandler with Logging {
     // This should before return exception to make current push data can revive and retry.
     if (shutdown.get()) {
       logInfo(s"Push data return HARD_SPLIT for shuffle $shuffleKey since worker shutdown.")
-      callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte](StatusCode.HARD_SPLIT.getValue)))
+      callback.onSuccess(statusResponse(StatusCode.HARD_SPLIT))
       return
     }
 
@@ -218,109 +233,80 @@ class PushDataHandler extends BaseMessageHandler with Logging {
         s"While handling PushData, throw $cause, fileWriter $fileWriter has exception.",
         exception)
       workerSource.incCounter(WorkerSource.WriteDataFailCount)
-      callbackWithTimer.onFailure(new CelebornIOException(cause))
+      callback.onFailure(new CelebornIOException(cause))
       return
     }
 
-    if (checkDiskFullAndSplit(fileWriter, isMaster, softSplit, callbackWithTimer)) return
+    if (checkDiskFullAndSplit(fileWriter, isMaster, softSplit, callback)) return
 
     fileWriter.incrementPendingWrites()
 
     // for master, send data to slave
     if (doReplicate) {
       pushData.body().retain()
-      replicateThreadPool.submit(new Runnable {
-        override def run(): Unit = {
-          val peer = location.getPeer
-          val peerWorker = new WorkerInfo(
-            peer.getHost,
-            peer.getRpcPort,
-            peer.getPushPort,
-            peer.getFetchPort,
-            peer.getReplicatePort)
-          if (unavailablePeers.containsKey(peerWorker)) {
-            pushData.body().release()
-            workerSource.incCounter(WorkerSource.ReplicateDataCreateConnectionFailCount)
-            logError(
-              s"PushData replication failed caused by unavailable peer for partitionLocation: $location")
-            callbackWithTimer.onFailure(
-              new CelebornIOException(StatusCode.PUSH_DATA_CREATE_CONNECTION_FAIL_SLAVE))
-            return
-          }
-
-          // Handle the response from replica
-          val wrappedCallback = new RpcResponseCallback() {
-            override def onSuccess(response: ByteBuffer): Unit = {
-              if (response.remaining() > 0) {
-                val resp = ByteBuffer.allocate(response.remaining())
-                resp.put(response)
-                resp.flip()
-                callbackWithTimer.onSuccess(resp)
-              } else if (softSplit.get()) {
-                // TODO Currently if the worker is in soft split status, given the guess that the client
-                // will fast stop pushing data to the worker, we won't return congest status. But
-                // in the long term, especially if this issue could frequently happen, we may need to return
-                // congest&softSplit status together
-                callbackWithTimer.onSuccess(
-                  ByteBuffer.wrap(Array[Byte](StatusCode.SOFT_SPLIT.getValue)))
-              } else {
-                Option(CongestionController.instance()) match {
-                  case Some(congestionController) =>
-                    if (congestionController.isUserCongested(
-                        fileWriter.getFileInfo.getUserIdentifier)) {
-                      // Check whether master congest the data though the replicas doesn't congest
-                      // it(the response is empty)
-                      callbackWithTimer.onSuccess(
-                        ByteBuffer.wrap(
-                          Array[Byte](StatusCode.PUSH_DATA_SUCCESS_MASTER_CONGESTED.getValue)))
-                    } else {
-                      callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte]()))
-                    }
-                  case None =>
-                    callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+      // Handle the response from replica
+      val wrappedCallback = new RpcResponseCallback() {
+        // A timed out push is failed again when its write is cancelled, but the callback is
+        // recycled once completed and must only be completed once.
+        private val completed = new AtomicBoolean(false)
+
+        override def onSuccess(response: ByteBuffer): Unit = {
+          if (!completed.compareAndSet(false, true)) return
+          if (response.remaining() > 0) {
+            val resp = ByteBuffer.allocate(response.remaining())
+            resp.put(response)
+            resp.flip()
+            callback.onSuccess(resp)
+          } else if (softSplit.get()) {
+            // TODO Currently if the worker is in soft split status, given the guess that the client
+            // will fast stop pushing data to the worker, we won't return congest status. But
+            // in the long term, especially if this issue could frequently happen, we may need to return
+            // congest&softSplit status together
+            callback.onSuccess(statusResponse(StatusCode.SOFT_SPLIT))
+          } else {
+            Option(CongestionController.instance()) match {
+              case Some(congestionController) =>
+                if (congestionController.isUserCongested(
+                    fileWriter.getFileInfo.getUserIdentifier)) {
+                  // Check whether master congest the data though the replicas doesn't congest
+                  // it(the response is empty)
+                  callback.onSuccess(statusResponse(StatusCode.PUSH_DATA_SUCCESS_MASTER_CONGESTED))
+                } else {
+                  callback.onSuccess(emptyResponse)
                 }
-              }
-            }
-
-            override def onFailure(e: Throwable): Unit = {
-              logError(s"PushData replication failed for partitionLocation: $location", e)
-              // 1. Throw PUSH_DATA_FAIL_SLAVE by slave peer worker
-              // 2. Throw PUSH_DATA_TIMEOUT_SLAVE by TransportResponseHandler
-              // 3. Throw IOException by channel, convert to PUSH_DATA_CONNECTION_EXCEPTION_SLAVE
-              if (e.getMessage.startsWith(StatusCode.PUSH_DATA_WRITE_FAIL_SLAVE.name())) {
-                workerSource.incCounter(WorkerSource.ReplicateDataWriteFailCount)
-                callbackWithTimer.onFailure(e)
-              } else if (e.getMessage.startsWith(StatusCode.PUSH_DATA_TIMEOUT_SLAVE.name())) {
-                workerSource.incCounter(WorkerSource.ReplicateDataTimeoutCount)
-                callbackWithTimer.onFailure(e)
-              } else {
-                workerSource.incCounter(WorkerSource.ReplicateDataConnectionExceptionCount)
-                callbackWithTimer.onFailure(
-                  new CelebornIOException(StatusCode.PUSH_DATA_CONNECTION_EXCEPTION_SLAVE))
-              }
+              case None =>
+                callback.onSuccess(emptyResponse)
             }
           }
-          try {
-            val client = getClient(peer.getHost, peer.getReplicatePort, location.getId)
-            val newPushData = new PushData(
-              PartitionLocation.Mode.SLAVE.mode(),
-              shuffleKey,
-              pushData.partitionUniqueId,
-              pushData.body)
-            client.pushData(newPushData, shufflePushDataTimeout.get(shuffleKey), wrappedCallback)
-          } catch {
-            case e: Exception =>
-              pushData.body().release()
-              unavailablePeers.put(peerWorker, System.currentTimeMillis())
-              workerSource.incCounter(WorkerSource.ReplicateDataCreateConnectionFailCount)
-              logError(
-                s"PushData replication failed during connecting peer for partitionLocation: $location",
-                e)
-              callbackWithTimer.onFailure(
-                new CelebornIOException(StatusCode.PUSH_DATA_CREATE_CONNECTION_FAIL_SLAVE))
+        }
+
+        override def onFailure(e: Throwable): Unit = {
+          if (!completed.compareAndSet(false, true)) return
+          logError(s"PushData replication failed for partitionLocation: $location", e)
+          // 1. Throw PUSH_DATA_FAIL_SLAVE by slave peer worker
+          // 2. Throw PUSH_DATA_TIMEOUT_SLAVE by TransportResponseHandler
+          // 3. Throw IOException by channel, convert to PUSH_DATA_CONNECTION_EXCEPTION_SLAVE
+          if (e.getMessage.startsWith(StatusCode.PUSH_DATA_WRITE_FAIL_SLAVE.name())) {
+            workerSource.incCounter(WorkerSource.ReplicateDataWriteFailCount)
+            callback.onFailure(e)
+          } else if (e.getMessage.startsWith(StatusCode.PUSH_DATA_TIMEOUT_SLAVE.name())) {
+            workerSource.incCounter(WorkerSource.ReplicateDataTimeoutCount)
+            callback.onFailure(e)
+          } else {
+            workerSource.incCounter(WorkerSource.ReplicateDataConnectionExceptionCount)
+            callback.onFailure(
+              new CelebornIOException(StatusCode.PUSH_DATA_CONNECTION_EXCEPTION_SLAVE))
           }
         }
-      })
+      }
+      replicationPipeline.replicate(
+        shuffleKey,
+        location,
+        pushData.partitionUniqueId,
+        getMapAttempt(body)._1,
+        pushData.body,
+        wrappedCallback,
+        callback)
     } else {
       // The codes here could be executed if
       // 1. the client doesn't enable push data to the replica, the master worker could hit here
@@ -330,25 +316,21 @@ class PushDataHandler extends BaseMessageHandler with Logging {
       // in the long term, especially if this issue could frequently happen, we may need to return
       // congest&softSplit status together
       if (softSplit.get()) {
-        callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte](StatusCode.SOFT_SPLIT.getValue)))
+        callback.onSuccess(statusResponse(StatusCode.SOFT_SPLIT))
       } else {
         Option(CongestionController.instance()) match {
           case Some(congestionController) =>
             if (congestionController.isUserCongested(fileWriter.getFileInfo.getUserIdentifier)) {
               if (isMaster) {
-                callbackWithTimer.onSuccess(
-                  ByteBuffer.wrap(
-                    Array[Byte](StatusCode.PUSH_DATA_SUCCESS_MASTER_CONGESTED.getValue)))
+                callback.onSuccess(statusResponse(StatusCode.PUSH_DATA_SUCCESS_MASTER_CONGESTED))
               } else {
-                callbackWithTimer.onSuccess(
-                  ByteBuffer.wrap(
-                    Array[Byte](StatusCode.PUSH_DATA_SUCCESS_SLAVE_CONGESTED.getValue)))
+                callback.onSuccess(statusResponse(StatusCode.PUSH_DATA_SUCCESS_SLAVE_CONGESTED))
               }
             } else {
-              callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+              callback.onSuccess(emptyResponse)
             }
           case None =>
-            callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+            callback.onSuccess(emptyResponse)
         }
       }
     }
@@ -380,22 +362,6 @@ class PushDataHandler extends BaseMessageHandler with Logging {
     val body = pushMergedData.body.asInstanceOf[NettyManagedBuffer].getBuf
     val isMaster = mode == PartitionLocation.Mode.MASTER
 
-    val key = s"${pushMergedData.requestId}"
-    val callbackWithTimer =
-      if (isMaster) {
-        new RpcResponseCallbackWithTimer(
-          workerSource,
-          WorkerSource.MasterPushDataTime,
-          key,
-          callback)
-      } else {
-        new RpcResponseCallbackWithTimer(
-          workerSource,
-          WorkerSource.SlavePushDataTime,
-          key,
-          callback)
-      }
-
     // For test
     if (isMaster && conf.testPushMasterDataTimeout && !PushDataHandler.pushMasterDataTimeoutTested) {
       PushDataHandler.pushMasterDataTimeoutTested = true
@@ -432,13 +398,11 @@ class PushDataHandler extends BaseMessageHandler with Logging {
             logInfo(s"Receive push merged data from speculative " +
               s"task(shuffle $shuffleKey, map $mapId, attempt $attemptId), " +
               s"but this mapper has already been ended.")
-            callbackWithTimer.onSuccess(
-              ByteBuffer.wrap(Array[Byte](StatusCode.STAGE_ENDED.getValue)))
+            callback.onSuccess(statusResponse(StatusCode.STAGE_ENDED))
           } else {
             logInfo(s"Receive push merged data for committed hard split partition of " +
               s"(shuffle $shuffleKey, map $mapId attempt $attemptId)")
-            callbackWithTimer.onSuccess(
-              ByteBuffer.wrap(Array[Byte](StatusCode.HARD_SPLIT.getValue)))
+            callback.onSuccess(statusResponse(StatusCode.HARD_SPLIT))
           }
         } else {
           if (storageManager.shuffleKeySet().contains(shuffleKey)) {
@@ -447,12 +411,11 @@ class PushDataHandler extends BaseMessageHandler with Logging {
             // after worker restart, some task still push data to this HARD_SPLIT partition.
             logInfo(s"Receive push merged data for committed hard split partition of " +
               s"(shuffle $shuffleKey, map $mapId attempt $attemptId)")
-            callbackWithTimer.onSuccess(
-              ByteBuffer.wrap(Array[Byte](StatusCode.HARD_SPLIT.getValue)))
+            callback.onSuccess(statusResponse(StatusCode.HARD_SPLIT))
           } else {
             logWarning(s"While handling PushMergedData, Partition location wasn't found for " +
               s"task(shuffle $shuffleKey, map $mapId, attempt $attemptId, uniqueId $id).")
-            callbackWithTimer.onFailure(
+            callback.onFailure(
               new CelebornIOException(StatusCode.PUSH_DATA_FAIL_PARTITION_NOT_FOUND))
           }
         }
@@ -463,7 +426,7 @@ class PushDataHandler extends BaseMessageHandler with Logging {
     // During worker shutdown, worker will return HARD_SPLIT for all existed partition.
     // This should before return exception to make current push data can revive and retry.
     if (shutdown.get()) {
-      callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte](StatusCode.HARD_SPLIT.getValue)))
+      callback.onSuccess(statusResponse(StatusCode.HARD_SPLIT))
       return
     }
 
@@ -482,7 +445,7 @@ class PushDataHandler extends BaseMessageHandler with Logging {
         s"While handling PushMergedData, throw $cause, fileWriter $fileWriterWithException has exception.",
         exception)
       workerSource.incCounter(WorkerSource.WriteDataFailCount)
-      callbackWithTimer.onFailure(new CelebornIOException(cause))
+      callback.onFailure(new CelebornIOException(cause))
       return
     }
     fileWriters.foreach(_.incrementPendingWrites())
@@ -505,20 +468,25 @@ class PushDataHandler extends BaseMessageHandler with Logging {
             workerSource.incCounter(WorkerSource.ReplicateDataCreateConnectionFailCount)
             logError(
               s"PushMergedData replication failed caused by unavailable peer for partitionLocation: $location")
-            callbackWithTimer.onFailure(
+            callback.onFailure(
               new CelebornIOException(StatusCode.PUSH_DATA_CREATE_CONNECTION_FAIL_SLAVE))
             return
           }
 
           // Handle the response from replica
           val wrappedCallback = new RpcResponseCallback() {
+            // A timed out push is failed again when its write is cancelled, but the callback is
+            // recycled once completed and must only be completed once.
+            private val completed = new AtomicBoolean(false)
+
             override def onSuccess(response: ByteBuffer): Unit = {
+              if (!completed.compareAndSet(false, true)) return
               // Only master data enable replication will push data to slave
               if (response.remaining() > 0) {
                 val resp = ByteBuffer.allocate(response.remaining())
                 resp.put(response)
                 resp.flip()
-                callbackWithTimer.onSuccess(resp)
+                callback.onSuccess(resp)
               } else {
                 Option(CongestionController.instance()) match {
                   case Some(congestionController) if fileWriters.nonEmpty =>
@@ -526,32 +494,32 @@ class PushDataHandler extends BaseMessageHandler with Logging {
                         fileWriters.head.getFileInfo.getUserIdentifier)) {
                       // Check whether master congest the data though the replicas doesn't congest
                       // it(the response is empty)
-                      callbackWithTimer.onSuccess(
-                        ByteBuffer.wrap(
-                          Array[Byte](StatusCode.PUSH_DATA_SUCCESS_MASTER_CONGESTED.getValue)))
+                      callback.onSuccess(
+                        statusResponse(StatusCode.PUSH_DATA_SUCCESS_MASTER_CONGESTED))
                     } else {
-                      callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+                      callback.onSuccess(emptyResponse)
                     }
                   case None =>
-                    callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+                    callback.onSuccess(emptyResponse)
                 }
               }
             }
 
             override def onFailure(e: Throwable): Unit = {
+              if (!completed.compareAndSet(false, true)) return
               logError(s"PushMergedData replicate failed for partitionLocation: $location", e)
               // 1. Throw PUSH_DATA_FAIL_SLAVE by slave peer worker
               // 2. Throw PUSH_DATA_TIMEOUT_SLAVE by TransportResponseHandler
               // 3. Throw IOException by channel, convert to PUSH_DATA_CONNECTION_EXCEPTION_SLAVE
               if (e.getMessage.startsWith(StatusCode.PUSH_DATA_WRITE_FAIL_SLAVE.name())) {
                 workerSource.incCounter(WorkerSource.ReplicateDataWriteFailCount)
-                callbackWithTimer.onFailure(e)
+                callback.onFailure(e)
               } else if (e.getMessage.startsWith(StatusCode.PUSH_DATA_TIMEOUT_SLAVE.name())) {
                 workerSource.incCounter(WorkerSource.ReplicateDataTimeoutCount)
-                callbackWithTimer.onFailure(e)
+                callback.onFailure(e)
               } else {
                 workerSource.incCounter(WorkerSource.ReplicateDataConnectionExceptionCount)
-                callbackWithTimer.onFailure(
+                callback.onFailure(
                   new CelebornIOException(StatusCode.PUSH_DATA_CONNECTION_EXCEPTION_SLAVE))
               }
             }
@@ -577,7 +545,7 @@ class PushDataHandler extends BaseMessageHandler with Logging {
               logError(
                 s"PushMergedData replication failed during connecting peer for partitionLocation: $location",
                 e)
-              callbackWithTimer.onFailure(
+              callback.onFailure(
                 new CelebornIOException(StatusCode.PUSH_DATA_CREATE_CONNECTION_FAIL_SLAVE))
           }
         }
@@ -591,18 +559,15 @@ class PushDataHandler extends BaseMessageHandler with Logging {
           if (congestionController.isUserCongested(
               fileWriters.head.getFileInfo.getUserIdentifier)) {
             if (isMaster) {
-              callbackWithTimer.onSuccess(
-                ByteBuffer.wrap(
-                  Array[Byte](StatusCode.PUSH_DATA_SUCCESS_MASTER_CONGESTED.getValue)))
+              callback.onSuccess(statusResponse(StatusCode.PUSH_DATA_SUCCESS_MASTER_CONGESTED))
             } else {
-              callbackWithTimer.onSuccess(
-                ByteBuffer.wrap(Array[Byte](StatusCode.PUSH_DATA_SUCCESS_SLAVE_CONGESTED.getValue)))
+              callback.onSuccess(statusResponse(StatusCode.PUSH_DATA_SUCCESS_SLAVE_CONGESTED))
             }
           } else {
-            callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+            callback.onSuccess(emptyResponse)
           }
         case None =>
-          callbackWithTimer.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+          callback.onSuccess(emptyResponse)
       }
     }
 
@@ -656,25 +621,6 @@ class PushDataHandler extends BaseMessageHandler with Logging {
 
   override def checkRegistered(): Boolean = registered.get()
 
-  class RpcResponseCallbackWithTimer(
-      source: Source,
-      metricName: String,
-      key: String,
-      callback: RpcResponseCallback)
-    extends RpcResponseCallback {
-    source.startTimer(metricName, key)
-
-    override def onSuccess(response: ByteBuffer): Unit = {
-      callback.onSuccess(response)
-      source.stopTimer(metricName, key)
-    }
-
-    override def onFailure(e: Throwable): Unit = {
-      callback.onFailure(e)
-      source.stopTimer(metricName, key)
-    }
-  }
-
   class SimpleRpcResponseCallback(
       client: TransportClient,
       requestId: Long,
@@ -753,7 +699,7 @@ class PushDataHandler extends BaseMessageHandler with Logging {
     // This should before return exception to make current push request revive and retry.
     if (shutdown.get()) {
       logInfo(s"Push data return HARD_SPLIT for shuffle $shuffleKey since worker shutdown.")
-      callback.onSuccess(ByteBuffer.wrap(Array[Byte](StatusCode.HARD_SPLIT.getValue)))
+      callback.onSuccess(statusResponse(StatusCode.HARD_SPLIT))
       return
     }
 
@@ -770,9 +716,9 @@ class PushDataHandler extends BaseMessageHandler with Logging {
     // for master, send data to slave
     if (location.getPeer != null && isMaster) {
       // to do
-      wrappedCallback.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+      wrappedCallback.onSuccess(emptyResponse)
     } else {
-      wrappedCallback.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+      wrappedCallback.onSuccess(emptyResponse)
     }
 
     try {
@@ -893,9 +839,9 @@ class PushDataHandler extends BaseMessageHandler with Logging {
       // for master, send data to slave
       if (location.getPeer != null && isMaster) {
         // TODO replica
-        wrappedCallback.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+        wrappedCallback.onSuccess(emptyResponse)
       } else {
-        wrappedCallback.onSuccess(ByteBuffer.wrap(Array[Byte]()))
+        wrappedCallback.onSuccess(emptyResponse)
       }
     } catch {
       case t: Throwable =>
@@ -921,7 +867,7 @@ class PushDataHandler extends BaseMessageHandler with Logging {
           resp.flip()
           callback.onSuccess(resp)
         } else if (softSplit != null && softSplit.get()) {
-          callback.onSuccess(ByteBuffer.wrap(Array[Byte](StatusCode.SOFT_SPLIT.getValue)))
+          callback.onSuccess(statusResponse(StatusCode.SOFT_SPLIT))
         } else {
           callback.onSuccess(response)
         }
@@ -1043,14 +989,14 @@ class PushDataHandler extends BaseMessageHandler with Logging {
       if (softSplit != null && fileWriter.getSplitMode == PartitionSplitMode.SOFT) {
         softSplit.set(true)
       } else {
-        callback.onSuccess(ByteBuffer.wrap(Array[Byte](StatusCode.HARD_SPLIT.getValue)))
+        callback.onSuccess(statusResponse(StatusCode.HARD_SPLIT))
         return true
       }
     }
     false
   }
 
-  private def getClient(host: String, port: Int, partitionId: Int): TransportClient = {
+  private[worker] def getClient(host: String, port: Int, partitionId: Int): TransportClient = {
     if (conf.workerReplicateRandomConnectionEnabled) {
       pushClientFactory.createClient(host, port)
     } else {
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker
+
+import java.nio.ByteBuffer
+
+import io.netty.util.Recycler
+
+import org.apache.celeborn.common.metrics.source.{AbstractSource, NamedTimer}
+import org.apache.celeborn.common.network.buffer.NioManagedBuffer
+import org.apache.celeborn.common.network.client.{RpcResponseCallback, TransportClient}
+import org.apache.celeborn.common.network.protocol.{RpcFailure, RpcResponse}
+import org.apache.celeborn.common.protocol.message.StatusCode
+import org.apache.celeborn.service.deploy.worker.memory.PushCreditManager
+
+/**
+ * Sends the response of a PushData or PushMergedData to the client and records the push time of
+ * sampled requests. A plain success is answered with the push credit of the client's channel if
+ * credits are granted. Instances are recycled once completed, so a callback must be completed
+ * exactly once and must not be used afterwards.
+ */
+final class PushDataRpcResponseCallback private (
+    handle: Recycler.Handle[PushDataRpcResponseCallback])
+  extends RpcResponseCallback {
+  private var client: TransportClient = _
+  private var requestId: Long = _
+  private var source: AbstractSource = _
+  private var timer: NamedTimer = _
+  private var pushCreditManager: PushCreditManager = _
+  // System.nanoTime() when the request is sampled, otherwise -1.
+  private var startTime: Long = -1
+
+  override def onSuccess(response: ByteBuffer): Unit = {
+    val ack =
+      if (pushCreditManager != null && (response eq PushDataRpcResponseCallback.emptyResponse)) {
+        pushCreditManager.creditResponse(client.getChannel)
+      } else {
+        response
+      }
+    client.getChannel.writeAndFlush(new RpcResponse(requestId, new NioManagedBuffer(ack)))
+    complete()
+  }
+
+  override def onFailure(e: Throwable): Unit = {
+    client.getChannel.writeAndFlush(new RpcFailure(requestId, e.getMessage))
+    complete()
+  }
+
+  private def complete(): Unit = {
+    if (startTime != -1) {
+      source.updateTimer(timer, System.nanoTime() - startTime)
+    }
+    client = null
+    source = null
+    timer = null
+    pushCreditManager = null
+    startTime = -1
+    handle.recycle(this)
+  }
+}
+
+object PushDataRpcResponseCallback {
+  private val recycler = new Recycler[PushDataRpcResponseCallback]() {
+    override def newObject(
+        handle: Recycler.Handle[PushDataRpcResponseCallback]): PushDataRpcResponseCallback =
+      new PushDataRpcResponseCallback(handle)
+  }
+
+  // Responses shared by all requests. They are read-only and never read by relative gets on the
+  // way to the channel, so the same instance can be sent any number of times.
+  val emptyResponse: ByteBuffer = ByteBuffer.allocate(0).asReadOnlyBuffer()
+  private val statusResponses: Array[ByteBuffer] = {
+    val responses = new Array[ByteBuffer](256)
+    StatusCode.values().foreach { code =>
+      responses(code.getValue & 0xFF) =
+        ByteBuffer.wrap(Array[Byte](code.getValue)).asReadOnlyBuffer()
+    }
+    responses
+  }
+
+  def statusResponse(code: StatusCode): ByteBuffer = statusResponses(code.getValue & 0xFF)
+
+  /**
+   * A recycled callback, timing the request with the timer if it is not null and the source
+   * samples the request, and granting push credits if the credit manager is not null.
+   */
+  def newInstance(
+      client: TransportClient,
+      requestId: Long,
+      source: AbstractSource,
+      timer: NamedTimer,
+      pushCreditManager: PushCreditManager): PushDataRpcResponseCallback = {
+    val callback = recycler.get()
+    callback.client = client
+    callback.requestId = requestId
+    callback.pushCreditManager = pushCreditManager
+    if (timer != null && source.needSample()) {
+      callback.source = source
+      callback.timer = timer
+      callback.startTime = System.nanoTime()
+    }
+    callback
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker
+
+import java.nio.ByteBuffer
+import java.util
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, ThreadPoolExecutor, TimeUnit}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
+
+import io.netty.buffer.Unpooled
+
+import org.apache.celeborn.common.CelebornConf
+import org.apache.celeborn.common.exception.CelebornIOException
+import org.apache.celeborn.common.internal.Logging
+import org.apache.celeborn.common.meta.WorkerInfo
+import org.apache.celeborn.common.network.buffer.{ManagedBuffer, NettyManagedBuffer}
+import org.apache.celeborn.common.network.client.{RpcResponseCallback, TransportClient}
+import org.apache.celeborn.common.network.protocol.{PushData, PushMergedData}
+import org.apache.celeborn.common.protocol.PartitionLocation
+import org.apache.celeborn.common.protocol.message.StatusCode
+import org.apache.celeborn.common.util.{JavaUtils, ThreadUtils}
+
+/**
+ * Replicates PushData of master partitions to their peers. Replicas queued for the same peer are
+ * drained by one replicate task at a time and sent as one PushMergedData per mapper, which mixes
+ * the partitions of the mapper like the PushMergedData of the client, bounded by
+ * `celeborn.worker.replicate.batch.maxSize`, so that a busy replica link carries fewer RPCs than
+ * the client links. Batches form while the replicate threads are busy, or during
+ * `celeborn.worker.replicate.batch.maxDelay` if it is set. The peer answers a merged frame with one
+ * status, such as STAGE_ENDED or HARD_SPLIT, which is passed to the callback of every replica in
+ * it, the way the client applies the status of its merged frames to all of their batches.
+ */
+private[worker] class ReplicationPipeline(
+    conf: CelebornConf,
+    workerSource: WorkerSource,
+    replicateThreadPool: ThreadPoolExecutor,
+    unavailablePeers: ConcurrentHashMap[WorkerInfo, Long],
+    shufflePushDataTimeout: ConcurrentHashMap[String, Long],
+    getClient: (String, Int, Int) => TransportClient) extends Logging {
+
+  private val maxBatchSize = conf.workerReplicateBatchMaxSize
+  private val maxDelayUs = conf.workerReplicateBatchMaxDelayUs
+  // host:replicatePort -> replicas waiting for the peer
+  private val peerQueues = JavaUtils.newConcurrentHashMap[String, PeerQueue]()
+  private val queuedReplicas = new AtomicInteger()
+  private lazy val delayScheduler =
+    ThreadUtils.newDaemonSingleThreadScheduledExecutor("worker-replicate-batch-scheduler")
+
+  private class PendingReplica(
+      val shuffleKey: String,
+      val location: PartitionLocation,
+      val partitionUniqueId: String,
+      val mapId: Int,
+      val body: ManagedBuffer,
+      val callback: RpcResponseCallback,
+      val connectFailCallback: RpcResponseCallback) {
+    val size: Long = body.size()
+  }
+
+  private class PeerQueue(peer: PartitionLocation) {
+    val host: String = peer.getHost
+    val replicatePort: Int = peer.getReplicatePort
+    val peerWorker = new WorkerInfo(
+      peer.getHost,
+      peer.getRpcPort,
+      peer.getPushPort,
+      peer.getFetchPort,
+      peer.getReplicatePort)
+    val replicas = new ConcurrentLinkedQueue[PendingReplica]()
+    // Set while a drain task of this peer is scheduled or running, only that task polls.
+    val draining = new AtomicBoolean(false)
+  }
+
+  /**
+   * Send the retained body of the mapper to the peer of the location. `callback` receives the
+   * response of the replica, `connectFailCallback` is failed if the peer can not be connected.
+   */
+  def replicate(
+      shuffleKey: String,
+      location: PartitionLocation,
+      partitionUniqueId: String,
+      mapId: Int,
+      body: ManagedBuffer,
+      callback: RpcResponseCallback,
+      connectFailCallback: RpcResponseCallback): Unit = {
+    val peer = location.getPeer
+    val peerKey = peer.getHost + ":" + peer.getReplicatePort
+    var peerQueue = peerQueues.get(peerKey)
+    if (peerQueue == null) {
+      peerQueue = peerQueues.computeIfAbsent(peerKey, _ => new PeerQueue(peer))
+    }
+    peerQueue.replicas.add(new PendingReplica(
+      shuffleKey,
+      location,
+      partitionUniqueId,
+      mapId,
+      body,
+      callback,
+      connectFailCallback))
+    queuedReplicas.incrementAndGet()
+    if (peerQueue.draining.compareAndSet(false, true)) {
+      val queue = peerQueue
+      if (maxDelayUs > 0) {
+        delayScheduler.schedule(
+          new Runnable {
+            override def run(): Unit = submitDrain(queue)
+          },
+          maxDelayUs,
+          TimeUnit.MICROSECONDS)
+      } else {
+        submitDrain(queue)
+      }
+    }
+  }
+
+  def getQueuedReplicaCount: Int = queuedReplicas.get()
+
+  private def submitDrain(peerQueue: PeerQueue): Unit = {
+    replicateThreadPool.submit(new Runnable {
+      override def run(): Unit = drain(peerQueue)
+    })
+  }
+
+  private def drain(peerQueue: PeerQueue): Unit = {
+    var continue = true
+    while (continue) {
+      var next = peerQueue.replicas.peek()
+      while (next != null) {
+        val batch = new ArrayBuffer[PendingReplica]()
+        var batchSize = 0L
+        while (next != null && (batch.isEmpty || batchSize + next.size <= maxBatchSize)) {
+          batch += peerQueue.replicas.poll()
+          batchSize += next.size
+          next = peerQueue.replicas.peek()
+        }
+        queuedReplicas.addAndGet(-batch.size)
+        groupByMapper(batch).foreach(replicas => send(peerQueue, replicas))
+      }
+      peerQueue.draining.set(false)
+      // A replica added after the last poll but before the flag is cleared has no drain task.
+      continue = !peerQueue.replicas.isEmpty && peerQueue.draining.compareAndSet(false, true)
+    }
+  }
+
+  private def groupByMapper(batch: Seq[PendingReplica]): Iterable[Seq[PendingReplica]] = {
+    if (batch.size == 1) {
+      Seq(batch)
+    } else {
+      val groups = new util.LinkedHashMap[(String, Int), ArrayBuffer[PendingReplica]]()
+      batch.foreach { replica =>
+        groups.computeIfAbsent(
+          (replica.shuffleKey, replica.mapId),
+          _ => new ArrayBuffer[PendingReplica]()) += replica
+      }
+      groups.values().asScala
+    }
+  }
+
+  private def send(peerQueue: PeerQueue, replicas: Seq[PendingReplica]): Unit = {
+    if (unavailablePeers.containsKey(peerQueue.peerWorker)) {
+      replicas.foreach { replica =>
+        replica.body.release()
+        workerSource.incCounter(WorkerSource.ReplicateDataCreateConnectionFailCount)
+        logError(s"PushData replication failed caused by unavailable peer for " +
+          s"partitionLocation: ${replica.location}")
+        replica.connectFailCallback.onFailure(
+          new CelebornIOException(StatusCode.PUSH_DATA_CREATE_CONNECTION_FAIL_SLAVE))
+      }
+      return
+    }
+
+    val head = replicas.head
+    val client =
+      try {
+        getClient(peerQueue.host, peerQueue.replicatePort, head.location.getId)
+      } catch {
+        case e: Exception =>
+          unavailablePeers.put(peerQueue.peerWorker, System.currentTimeMillis())
+          replicas.foreach { replica =>
+            replica.body.release()
+            workerSource.incCounter(WorkerSource.ReplicateDataCreateConnectionFailCount)
+            logError(
+              s"PushData replication failed during connecting peer for " +
+                s"partitionLocation: ${replica.location}",
+              e)
+            replica.connectFailCallback.onFailure(
+              new CelebornIOException(StatusCode.PUSH_DATA_CREATE_CONNECTION_FAIL_SLAVE))
+          }
+          return
+      }
+
+    val timeout = shufflePushDataTimeout.get(head.shuffleKey)
+    if (replicas.size == 1) {
+      val pushData = new PushData(
+        PartitionLocation.Mode.SLAVE.mode(),
+        head.shuffleKey,
+        head.partitionUniqueId,
+        head.body)
+      client.pushData(pushData, timeout, head.callback)
+    } else {
+      val body = Unpooled.compositeBuffer(replicas.size)
+      val partitionUniqueIds = new Array[String](replicas.size)
+      val batchOffsets = new Array[Int](replicas.size)
+      var index = 0
+      replicas.foreach { replica =>
+        partitionUniqueIds(index) = replica.partitionUniqueId
+        batchOffsets(index) = body.readableBytes()
+        // The composite buffer takes over the reference retained for the replica.
+        body.addComponent(true, replica.body.asInstanceOf[NettyManagedBuffer].getBuf)
+        index += 1
+      }
+      val pushMergedData = new PushMergedData(
+        PartitionLocation.Mode.SLAVE.mode(),
+        head.shuffleKey,
+        partitionUniqueIds,
+        batchOffsets,
+        new NettyManagedBuffer(body))
+      client.pushMergedData(
+        pushMergedData,
+        timeout,
+        new RpcResponseCallback {
+          override def onSuccess(response: ByteBuffer): Unit = {
+            replicas.foreach(_.callback.onSuccess(response.duplicate()))
+          }
+
+          override def onFailure(e: Throwable): Unit = {
+            replicas.foreach(_.callback.onFailure(e))
+          }
+        })
+      workerSource.incCounter(WorkerSource.ReplicateBatchCount)
+      workerSource.incCounter(WorkerSource.ReplicateBatchedDataCount, replicas.size)
+    }
+  }
+
+  def close(): Unit = {
+    if (maxDelayUs > 0) {
+      delayScheduler.shutdownNow()
+    }
+  }
+}
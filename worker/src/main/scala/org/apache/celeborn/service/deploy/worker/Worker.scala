@@ -44,7 +44,7 @@ import org.apache.celeborn.common.rpc._
 import org.apache.celeborn.common.util.{JavaUtils, ShutdownHookManager, ThreadUtils, Utils}
 import org.apache.celeborn.server.common.{HttpService, Service}
 import org.apache.celeborn.service.deploy.worker.congestcontrol.CongestionController
-import org.apache.celeborn.service.deploy.worker.memory.{ChannelsLimiter, MemoryManager}
+import org.apache.celeborn.service.deploy.worker.memory.{ChannelsLimiter, MemoryManager, PushCreditManager}
 import org.apache.celeborn.service.deploy.worker.storage.{PartitionFilesSorter, StorageManager}
 
 private[celeborn] class Worker(
@@ -89,6 +89,9 @@ private[celeborn] class Worker(
 
   val memoryManager = MemoryManager.initialize(conf)
   memoryManager.registerMemoryListener(storageManager)
+  if (conf.workerPushCreditEnabled) {
+    PushCreditManager.initialize(conf, memoryManager)
+  }
 
   val partitionsSorter = new PartitionFilesSorter(memoryManager, conf, workerSource)
 
@@ -103,7 +106,8 @@ private[celeborn] class Worker(
       conf.workerCongestionControlSampleTimeWindowSeconds.toInt,
       conf.workerCongestionControlHighWatermark.get,
       conf.workerCongestionControlLowWatermark.get,
-      conf.workerCongestionControlUserInactiveIntervalMs)
+      conf.workerCongestionControlUserInactiveIntervalMs,
+      conf.workerCongestionControlCheckIntervalMs)
   }
 
   var controller = new Controller(rpcEnv, conf, metricsSystem)
@@ -215,6 +219,13 @@ private[celeborn] class Worker(
   val replicateThreadPool = ThreadUtils.newDaemonCachedThreadPool(
     "worker-replicate-data",
     conf.workerReplicateThreads)
+  val replicationPipeline = new ReplicationPipeline(
+    conf,
+    workerSource,
+    replicateThreadPool,
+    unavailablePeers,
+    shufflePushDataTimeout,
+    pushDataHandler.getClient)
   val commitThreadPool = ThreadUtils.newDaemonCachedThreadPool(
     "Worker-CommitFiles",
     conf.workerCommitThreads)
@@ -234,9 +245,21 @@ private[celeborn] class Worker(
   workerSource.addGauge(WorkerSource.SlotsAllocated, _ => workerInfo.allocationsInLastHour())
   workerSource.addGauge(WorkerSource.SortMemory, _ => memoryManager.getSortMemoryCounter.get())
   workerSource.addGauge(WorkerSource.SortingFiles, _ => partitionsSorter.getSortingCount)
+  workerSource.addGauge(
+    WorkerSource.QueuedOpenStreamCount,
+    _ => partitionsSorter.getQueuedOpenStreamCount)
   workerSource.addGauge(WorkerSource.SortedFiles, _ => partitionsSorter.getSortedCount)
   workerSource.addGauge(WorkerSource.SortedFileSize, _ => partitionsSorter.getSortedSize)
+  workerSource.addGauge(
+    WorkerSource.SortedIndexCacheSize,
+    _ => partitionsSorter.getSortedIndexCacheWeight)
   workerSource.addGauge(WorkerSource.DiskBuffer, _ => memoryManager.getDiskBufferCounter.get())
+  workerSource.addGauge(
+    WorkerSource.MemoryFileStorage,
+    _ => memoryManager.getMemoryShuffleStorageUsage)
+  workerSource.addGauge(
+    WorkerSource.ReplicateQueueDepth,
+    _ => replicationPipeline.getQueuedReplicaCount)
   workerSource.addGauge(WorkerSource.NettyMemory, _ => memoryManager.getNettyMemoryCounter.get())
   workerSource.addGauge(WorkerSource.PausePushDataCount, _ => memoryManager.getPausePushDataCounter)
   workerSource.addGauge(
@@ -374,14 +397,17 @@ private[celeborn] class Worker(
         checkFastfailTask = null
       }
       forwardMessageScheduler.shutdownNow()
+      replicationPipeline.close()
       replicateThreadPool.shutdownNow()
       commitThreadPool.shutdownNow()
       asyncReplyPool.shutdownNow()
       partitionsSorter.close()
+      fetchHandler.close()
 
       if (null != storageManager) {
         storageManager.close()
       }
+      PushCreditManager.destroy()
       memoryManager.close();
 
       rssHARetryClient.close()
@@ -28,11 +28,18 @@ class WorkerSource(conf: CelebornConf) extends AbstractSource(conf, MetricsSyste
   import WorkerSource._
   // add counters
   addCounter(WriteDataFailCount)
+  addCounter(DuplicateBatchDropCount)
   addCounter(ReplicateDataFailCount)
   addCounter(ReplicateDataWriteFailCount)
   addCounter(ReplicateDataCreateConnectionFailCount)
   addCounter(ReplicateDataConnectionExceptionCount)
   addCounter(ReplicateDataTimeoutCount)
+  addCounter(ReplicateBatchCount)
+  addCounter(ReplicateBatchedDataCount)
+  addCounter(SortedIndexCacheHitCount)
+  addCounter(SortedIndexCacheMissCount)
+  addCounter(SortedIndexCacheEvictionCount)
+  addCounter(MemoryFileEvictionCount)
 
   // add Timers
   addTimer(CommitFilesTime)
@@ -52,6 +59,7 @@ class WorkerSource(conf: CelebornConf) extends AbstractSource(conf, MetricsSyste
   addTimer(OpenStreamTime)
   addTimer(TakeBufferTime)
   addTimer(SortTime)
+  addTimer(SortWaitTime)
 
   // start cleaner thread
   startCleaner()
@@ -63,6 +71,8 @@ object WorkerSource {
   val ReserveSlotsTime = "ReserveSlotsTime"
 
   val FlushDataTime = "FlushDataTime"
+  // Per mount point, only of local disks.
+  val FlushQueueTime = "FlushQueueTime"
 
   val OpenStreamTime = "OpenStreamTime"
 
@@ -72,11 +82,15 @@ object WorkerSource {
   val MasterPushDataTime = "MasterPushDataTime"
   val SlavePushDataTime = "SlavePushDataTime"
   val WriteDataFailCount = "WriteDataFailCount"
+  val DuplicateBatchDropCount = "DuplicateBatchDropCount"
   val ReplicateDataFailCount = "ReplicateDataFailCount"
   val ReplicateDataWriteFailCount = "ReplicateDataWriteFailCount"
   val ReplicateDataCreateConnectionFailCount = "ReplicateDataCreateConnectionFailCount"
   val ReplicateDataConnectionExceptionCount = "ReplicateDataConnectionExceptionCount"
   val ReplicateDataTimeoutCount = "ReplicateDataTimeoutCount"
+  val ReplicateBatchCount = "ReplicateBatchCount"
+  val ReplicateBatchedDataCount = "ReplicateBatchedDataCount"
+  val ReplicateQueueDepth = "ReplicateQueueDepth"
   val PushDataHandshakeFailCount = "PushDataHandshakeFailCount"
   val RegionStartFailCount = "RegionStartFailCount"
   val RegionFinishFailCount = "RegionFinishFailCount"
@@ -99,11 +113,19 @@ object WorkerSource {
   // memory
   val NettyMemory = "NettyMemory"
   val SortTime = "SortTime"
+  val SortWaitTime = "SortWaitTime"
   val SortMemory = "SortMemory"
   val SortingFiles = "SortingFiles"
+  val QueuedOpenStreamCount = "QueuedOpenStreamCount"
   val SortedFiles = "SortedFiles"
   val SortedFileSize = "SortedFileSize"
+  val SortedIndexCacheSize = "SortedIndexCacheSize"
+  val SortedIndexCacheHitCount = "SortedIndexCacheHitCount"
+  val SortedIndexCacheMissCount = "SortedIndexCacheMissCount"
+  val SortedIndexCacheEvictionCount = "SortedIndexCacheEvictionCount"
   val DiskBuffer = "DiskBuffer"
+  val MemoryFileStorage = "MemoryFileStorage"
+  val MemoryFileEvictionCount = "MemoryFileEvictionCount"
   val PausePushDataCount = "PausePushData"
   val PausePushDataAndReplicateCount = "PausePushDataAndReplicate"
   val BufferStreamReadBuffer = "BufferStreamReadBuffer"
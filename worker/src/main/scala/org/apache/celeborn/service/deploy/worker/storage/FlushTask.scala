@@ -17,38 +17,65 @@
 
 package org.apache.celeborn.service.deploy.worker.storage
 
+import java.nio.ByteBuffer
 import java.nio.channels.FileChannel
 
-import io.netty.buffer.{ByteBufUtil, CompositeByteBuf}
+import io.netty.buffer.CompositeByteBuf
 import org.apache.hadoop.fs.Path
 
 abstract private[worker] class FlushTask(
     val buffer: CompositeByteBuf,
     val notifier: FlushNotifier) {
+  // System.nanoTime() when the task is queued to the flusher.
+  var enqueueTime: Long = 0L
+
   def flush(): Unit
 }
 
 private[worker] class LocalFlushTask(
     buffer: CompositeByteBuf,
-    fileChannel: FileChannel,
+    val fileChannel: FileChannel,
     notifier: FlushNotifier) extends FlushTask(buffer, notifier) {
   override def flush(): Unit = {
-    val buffers = buffer.nioBuffers()
-    for (buffer <- buffers) {
-      while (buffer.hasRemaining) {
-        fileChannel.write(buffer)
+    LocalFlushTask.writeFully(fileChannel, buffer.nioBuffers())
+  }
+}
+
+private[worker] object LocalFlushTask {
+  // Linux IOV_MAX, more buffers in one gathering write are split by the JDK anyway.
+  val MAX_BUFFERS_PER_WRITE = 1024
+
+  /** Flush consecutive tasks of the same file channel with gathering writes. */
+  def flush(tasks: Seq[LocalFlushTask]): Unit = {
+    writeFully(tasks.head.fileChannel, tasks.flatMap(_.buffer.nioBuffers()).toArray)
+  }
+
+  def writeFully(fileChannel: FileChannel, buffers: Array[ByteBuffer]): Unit = {
+    var offset = 0
+    while (offset < buffers.length) {
+      fileChannel.write(buffers, offset, buffers.length - offset)
+      while (offset < buffers.length && !buffers(offset).hasRemaining) {
+        offset += 1
       }
     }
   }
 }
 
+// Not a LocalFlushTask, direct writes are not coalesced with gathering writes.
+private[worker] class DirectLocalFlushTask(
+    buffer: CompositeByteBuf,
+    val writer: DirectIOWriter,
+    notifier: FlushNotifier) extends FlushTask(buffer, notifier) {
+  override def flush(): Unit = {
+    writer.write(buffer)
+  }
+}
+
 private[worker] class HdfsFlushTask(
     buffer: CompositeByteBuf,
     val path: Path,
     notifier: FlushNotifier) extends FlushTask(buffer, notifier) {
   override def flush(): Unit = {
-    val hdfsStream = StorageManager.hadoopFs.append(path)
-    hdfsStream.write(ByteBufUtil.getBytes(buffer))
-    hdfsStream.close()
+    StorageManager.hdfsOutputStreamPool.write(path, buffer)
   }
 }
@@ -19,31 +19,64 @@ package org.apache.celeborn.service.deploy.worker.storage
 
 import java.io.IOException
 import java.nio.channels.ClosedByInterruptException
-import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
-import java.util.concurrent.atomic.{AtomicBoolean, AtomicLongArray}
+import java.util
+import java.util.concurrent.{ConcurrentLinkedQueue, LinkedBlockingDeque, LinkedBlockingQueue, TimeUnit}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger, AtomicIntegerArray, AtomicLong, AtomicLongArray, LongAdder}
+import java.util.concurrent.locks.LockSupport
 
 import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
 import scala.util.Random
 
 import io.netty.buffer.{CompositeByteBuf, Unpooled}
 
 import org.apache.celeborn.common.internal.Logging
 import org.apache.celeborn.common.meta.{DiskStatus, TimeWindow}
-import org.apache.celeborn.common.metrics.source.AbstractSource
+import org.apache.celeborn.common.metrics.source.{AbstractSource, NamedTimer}
 import org.apache.celeborn.common.protocol.StorageInfo
 import org.apache.celeborn.service.deploy.worker.WorkerSource
 import org.apache.celeborn.service.deploy.worker.congestcontrol.CongestionController
 import org.apache.celeborn.service.deploy.worker.memory.MemoryManager
 
+/**
+ * Flush tasks of one file. A strand is in the working queue of at most one worker while it has
+ * tasks and is not being flushed, so the tasks of a file are flushed in order by one worker at a
+ * time, whichever worker that is.
+ */
+private[worker] class FlushStrand {
+  val tasks = new ConcurrentLinkedQueue[FlushTask]()
+  // Set while the strand is queued or being flushed.
+  val scheduled = new AtomicBoolean(false)
+}
+
+/**
+ * Workers flushing the strands of a disk. New strands are spread over the active workers, and an
+ * idle worker steals strands from the others, so a file which is slow to flush only holds up its
+ * own worker. With fewer min than max threads, the number of active workers adapts to the flush
+ * time per byte, see adjustActiveThreads.
+ */
 abstract private[worker] class Flusher(
     val workerSource: AbstractSource,
     val threadCount: Int,
+    val minThreadCount: Int,
     flushTimeMetric: TimeWindow) extends Logging {
   protected lazy val flusherId = System.identityHashCode(this)
-  protected val workingQueues = new Array[LinkedBlockingQueue[FlushTask]](threadCount)
+  // Workers take strands from the head of their own queue, and steal from the tail of others.
+  protected val workingQueues = new Array[LinkedBlockingDeque[FlushStrand]](threadCount)
   protected val bufferQueue = new LinkedBlockingQueue[CompositeByteBuf]()
   protected val workers = new Array[Thread](threadCount)
-  protected var nextWorkerIndex: Int = 0
+  private val nextWorkerIndex = new AtomicInteger()
+  // 1 while the worker is parked or about to park, waiting for strands.
+  private val idleWorkers = new AtomicIntegerArray(threadCount)
+  private val pendingTasks = new AtomicInteger()
+  // Workers below this index take new strands and steal from others, the others only drain their
+  // own queue.
+  @volatile private var activeThreads = threadCount
+  private val flushedBytes = new LongAdder()
+  private val flushNanos = new LongAdder()
+  private val lastAdjustTime = new AtomicLong(System.nanoTime())
+  // Only accessed by the worker adjusting the active threads.
+  private val activeThreadsLimit = new ActiveThreadsLimit(minThreadCount, threadCount)
 
   val lastBeginFlushTime: AtomicLongArray = new AtomicLongArray(threadCount)
   val stopFlag = new AtomicBoolean(false)
@@ -56,33 +89,20 @@ abstract private[worker] class Flusher(
       lastBeginFlushTime.set(i, -1)
     }
     for (index <- 0 until threadCount) {
-      workingQueues(index) = new LinkedBlockingQueue[FlushTask]()
+      workingQueues(index) = new LinkedBlockingDeque[FlushStrand]()
+    }
+    for (index <- 0 until threadCount) {
       workers(index) = new Thread(s"$this-$index") {
         override def run(): Unit = {
-          while (!stopFlag.get()) {
-            val task = workingQueues(index).take()
-            val key = s"Flusher-$this-${rand.nextInt()}"
-            workerSource.sample(WorkerSource.FlushDataTime, key) {
-              if (!task.notifier.hasException) {
-                try {
-                  val flushBeginTime = System.nanoTime()
-                  lastBeginFlushTime.set(index, flushBeginTime)
-                  task.flush()
-                  if (flushTimeMetric != null) {
-                    val delta = System.nanoTime() - flushBeginTime
-                    flushTimeMetric.update(delta)
-                  }
-                } catch {
-                  case _: ClosedByInterruptException =>
-                  case e: IOException =>
-                    task.notifier.setException(e)
-                    processIOException(e, DiskStatus.READ_OR_WRITE_FAILURE)
-                }
-                lastBeginFlushTime.set(index, -1)
+          try {
+            while (!stopFlag.get()) {
+              val strand = nextStrand(index)
+              if (strand != null) {
+                flushStrand(index, strand)
               }
-              returnBuffer(task.buffer)
-              task.notifier.numPendingFlushes.decrementAndGet()
             }
+          } finally {
+            DirectIOWriter.releaseAlignedBuffer()
           }
         }
       }
@@ -96,9 +116,171 @@ abstract private[worker] class Flusher(
     }
   }
 
-  def getWorkerIndex: Int = synchronized {
-    nextWorkerIndex = (nextWorkerIndex + 1) % threadCount
-    nextWorkerIndex
+  /** Timer of the time tasks wait in the queues before they are flushed, or null. */
+  protected def flushQueueTimer: NamedTimer
+
+  private def nextStrand(index: Int): FlushStrand = {
+    var strand = pollStrand(index)
+    if (strand == null) {
+      idleWorkers.set(index, 1)
+      // Strands queued before the flag is set are polled here, later ones unpark this worker.
+      strand = pollStrand(index)
+      if (strand == null) {
+        LockSupport.parkNanos(this, Flusher.IDLE_PARK_NANOS)
+      }
+      idleWorkers.set(index, 0)
+    }
+    strand
+  }
+
+  private def pollStrand(index: Int): FlushStrand = {
+    var strand = workingQueues(index).pollFirst()
+    if (strand == null && index < activeThreads) {
+      var i = 1
+      while (strand == null && i < threadCount) {
+        strand = workingQueues((index + i) % threadCount).pollLast()
+        i += 1
+      }
+    }
+    strand
+  }
+
+  /** Queue the strand to the worker, or to the next active worker if it is -1. */
+  private def schedule(strand: FlushStrand, workerIndex: Int): Unit = {
+    val index =
+      if (workerIndex >= 0) workerIndex
+      else Math.floorMod(nextWorkerIndex.getAndIncrement(), activeThreads)
+    workingQueues(index).offerLast(strand)
+    if (idleWorkers.get(index) == 1) {
+      LockSupport.unpark(workers(index))
+    } else {
+      // Let an idle worker steal the strand rather than wait for the busy one.
+      val numActive = activeThreads
+      var i = 0
+      while (i < numActive && idleWorkers.get(i) == 0) {
+        i += 1
+      }
+      if (i < numActive) {
+        LockSupport.unpark(workers(i))
+      }
+    }
+  }
+
+  private def flushStrand(index: Int, strand: FlushStrand): Unit = {
+    var turns = 0
+    var task = strand.tasks.poll()
+    while (task != null) {
+      val tasks = task match {
+        case localTask: LocalFlushTask => coalesce(localTask, strand.tasks)
+        case _ => Seq(task)
+      }
+      flush(index, tasks)
+      turns += 1
+      // Give the other strands queued to this worker a turn.
+      task = if (turns < Flusher.MAX_TURNS_PER_STRAND) strand.tasks.poll() else null
+    }
+    strand.scheduled.set(false)
+    if (!strand.tasks.isEmpty && strand.scheduled.compareAndSet(false, true)) {
+      schedule(strand, if (index < activeThreads) index else -1)
+    }
+  }
+
+  private def flush(index: Int, tasks: Seq[FlushTask]): Unit = {
+    val task = tasks.head
+    pendingTasks.addAndGet(-tasks.size)
+    val timer = flushQueueTimer
+    if (timer != null) {
+      val now = System.nanoTime()
+      tasks.foreach(queuedTask => workerSource.updateTimer(timer, now - queuedTask.enqueueTime))
+    }
+    val key = s"Flusher-$this-${rand.nextInt()}"
+    workerSource.sample(WorkerSource.FlushDataTime, key) {
+      if (!task.notifier.hasException) {
+        try {
+          val flushBeginTime = System.nanoTime()
+          lastBeginFlushTime.set(index, flushBeginTime)
+          if (tasks.size == 1) {
+            task.flush()
+          } else {
+            LocalFlushTask.flush(tasks.asInstanceOf[Seq[LocalFlushTask]])
+          }
+          val delta = System.nanoTime() - flushBeginTime
+          if (flushTimeMetric != null) {
+            flushTimeMetric.update(delta)
+          }
+          if (minThreadCount < threadCount) {
+            var bytes = 0L
+            tasks.foreach(flushedTask => bytes += flushedTask.buffer.readableBytes())
+            flushedBytes.add(bytes)
+            flushNanos.add(delta)
+            maybeAdjustActiveThreads()
+          }
+        } catch {
+          case _: ClosedByInterruptException =>
+          case e: IOException =>
+            task.notifier.setException(e)
+            processIOException(e, DiskStatus.READ_OR_WRITE_FAILURE)
+        }
+        lastBeginFlushTime.set(index, -1)
+      }
+      tasks.foreach { flushedTask =>
+        returnBuffer(flushedTask.buffer)
+        flushedTask.notifier.numPendingFlushes.decrement()
+      }
+    }
+  }
+
+  private def maybeAdjustActiveThreads(): Unit = {
+    val now = System.nanoTime()
+    val last = lastAdjustTime.get()
+    if (now - last >= Flusher.ADJUST_INTERVAL_NANOS && lastAdjustTime.compareAndSet(last, now)) {
+      adjustActiveThreads()
+    }
+  }
+
+  /**
+   * Adjust the active threads by the flush time per byte since the last adjustment. Adjusted only
+   * while tasks are waiting, as flushes of an idle disk say nothing about its limit.
+   */
+  private def adjustActiveThreads(): Unit = {
+    val bytes = flushedBytes.sumThenReset()
+    val nanos = flushNanos.sumThenReset()
+    if (bytes < Flusher.MIN_ADJUST_BYTES || pendingTasks.get() == 0) {
+      return
+    }
+    val limit = activeThreads
+    activeThreads = activeThreadsLimit.update(nanos.toDouble / bytes)
+    if (activeThreads != limit) {
+      logDebug(s"$this adjusted active threads from $limit to $activeThreads.")
+    }
+  }
+
+  /**
+   * Take the tasks queued right behind `first` which write the same file, so they can be flushed
+   * together. Only the worker flushing the strand takes from its queue.
+   */
+  private def coalesce(
+      first: LocalFlushTask,
+      queue: util.Queue[FlushTask]): Seq[FlushTask] = {
+    var tasks: ArrayBuffer[FlushTask] = null
+    var numBuffers = first.buffer.nioBufferCount()
+    def canCoalesce(task: FlushTask): Boolean = task match {
+      case localTask: LocalFlushTask =>
+        (localTask.fileChannel eq first.fileChannel) &&
+        numBuffers + localTask.buffer.nioBufferCount() <= LocalFlushTask.MAX_BUFFERS_PER_WRITE
+      case _ => false
+    }
+    var next = queue.peek()
+    while (canCoalesce(next)) {
+      if (tasks == null) {
+        tasks = ArrayBuffer[FlushTask](first)
+      }
+      // Only this thread takes from the queue, so the peeked task is still the head.
+      tasks += queue.poll()
+      numBuffers += next.buffer.nioBufferCount()
+      next = queue.peek()
+    }
+    if (tasks == null) Seq(first) else tasks
   }
 
   def takeBuffer(): CompositeByteBuf = {
@@ -120,12 +302,25 @@ abstract private[worker] class Flusher(
     bufferQueue.put(buffer)
   }
 
-  def addTask(task: FlushTask, timeoutMs: Long, workerIndex: Int): Boolean = {
-    workingQueues(workerIndex).offer(task, timeoutMs, TimeUnit.MILLISECONDS)
+  /** Queue the task behind the other tasks of the strand, false if the flusher is stopped. */
+  def addTask(task: FlushTask, strand: FlushStrand): Boolean = {
+    if (stopFlag.get()) {
+      return false
+    }
+    task.enqueueTime = System.nanoTime()
+    pendingTasks.incrementAndGet()
+    strand.tasks.offer(task)
+    if (strand.scheduled.compareAndSet(false, true)) {
+      schedule(strand, -1)
+    }
+    true
   }
 
   def bufferQueueInfo(): String = s"$this used buffers: ${bufferQueue.size()}"
 
+  /** Number of flush tasks waiting in the working queues. */
+  def pendingTaskCount: Int = pendingTasks.get()
+
   def stopAndCleanFlusher(): Unit = {
     stopFlag.set(true)
     try {
@@ -135,8 +330,10 @@ abstract private[worker] class Flusher(
         logError(s"Exception when interrupt worker: ${workers.mkString(",")}, $e")
     }
     workingQueues.foreach { queue =>
-      queue.asScala.foreach { task =>
-        returnBuffer(task.buffer)
+      queue.asScala.foreach { strand =>
+        strand.tasks.asScala.foreach { task =>
+          returnBuffer(task.buffer)
+        }
       }
     }
   }
@@ -144,18 +341,79 @@ abstract private[worker] class Flusher(
   def processIOException(e: IOException, deviceErrorType: DiskStatus): Unit
 }
 
+/**
+ * Once a disk is saturated, more concurrent flushes only make each of them slower. While the
+ * flush time per byte stays within a tolerance of the lowest one observed, the limit grows by a
+ * square root allowance. Beyond it the limit shrinks in proportion to how much the flush time per
+ * byte grew, without the allowance, so slow disks settle low. Not thread safe.
+ */
+private[worker] class ActiveThreadsLimit(minThreads: Int, maxThreads: Int) {
+  private var limit = maxThreads
+  private var minNanosPerByte = 0.0
+  private var numAdjustments = 0L
+
+  def get: Int = limit
+
+  def update(nanosPerByte: Double): Int = {
+    numAdjustments += 1
+    // Probe the lowest flush time again now and then, in case the disk got slower for good.
+    if (minNanosPerByte == 0 || nanosPerByte < minNanosPerByte ||
+      numAdjustments % Flusher.RESET_MIN_INTERVAL == 0) {
+      minNanosPerByte = nanosPerByte
+    }
+    val gradient = math.max(0.5, math.min(1.0, minNanosPerByte / nanosPerByte))
+    val newLimit =
+      if (gradient >= Flusher.GRADIENT_TOLERANCE) {
+        math.round(limit * gradient + math.sqrt(limit)).toInt
+      } else {
+        math.floor(limit * gradient).toInt
+      }
+    limit = math.max(math.max(minThreads, 1), math.min(maxThreads, newLimit))
+    limit
+  }
+}
+
+private[worker] object Flusher {
+  // Idle workers are unparked when strands are queued, this only bounds a missed wake up.
+  val IDLE_PARK_NANOS: Long = TimeUnit.MILLISECONDS.toNanos(100)
+  val MAX_TURNS_PER_STRAND = 8
+  val ADJUST_INTERVAL_NANOS: Long = TimeUnit.SECONDS.toNanos(1)
+  val MIN_ADJUST_BYTES: Long = 8L * 1024 * 1024
+  val RESET_MIN_INTERVAL = 30
+  // Flush times per byte up to 1 / 0.8 of the lowest one are taken as noise, not congestion.
+  val GRADIENT_TOLERANCE = 0.8
+}
+
 private[worker] class LocalFlusher(
     workerSource: AbstractSource,
     val deviceMonitor: DeviceMonitor,
     threadCount: Int,
+    minThreadCount: Int,
     val mountPoint: String,
     val diskType: StorageInfo.Type,
     timeWindow: TimeWindow) extends Flusher(
     workerSource,
     threadCount,
+    minThreadCount,
     timeWindow)
   with DeviceObserver with Logging {
 
+  def this(
+      workerSource: AbstractSource,
+      deviceMonitor: DeviceMonitor,
+      threadCount: Int,
+      mountPoint: String,
+      diskType: StorageInfo.Type,
+      timeWindow: TimeWindow) =
+    this(workerSource, deviceMonitor, threadCount, threadCount, mountPoint, diskType, timeWindow)
+
+  // Lazy, as workers may flush before the constructor of this class has run.
+  override protected lazy val flushQueueTimer: NamedTimer = {
+    val labels = Map("mountPoint" -> mountPoint)
+    workerSource.addTimer(WorkerSource.FlushQueueTime, labels)
+    workerSource.getNamedTimer(WorkerSource.FlushQueueTime, labels)
+  }
+
   deviceMonitor.registerFlusher(this)
 
   override def processIOException(e: IOException, deviceErrorType: DiskStatus): Unit = {
@@ -188,9 +446,12 @@ final private[worker] class HdfsFlusher(
     hdfsFlusherThreads: Int) extends Flusher(
     workerSource,
     hdfsFlusherThreads,
+    hdfsFlusherThreads,
     null) with Logging {
   override def toString: String = s"HdfsFlusher@$flusherId"
 
+  override protected def flushQueueTimer: NamedTimer = null
+
   override def processIOException(e: IOException, deviceErrorType: DiskStatus): Unit = {
     stopAndCleanFlusher()
     logError(s"$this write failed, reason $deviceErrorType ,exception: $e")
@@ -21,9 +21,9 @@ import java.io.{File, IOException}
 import java.nio.charset.StandardCharsets
 import java.nio.file.{FileAlreadyExistsException, Files, Paths}
 import java.util
-import java.util.concurrent.{ConcurrentHashMap, ThreadPoolExecutor, TimeUnit}
+import java.util.concurrent.{CompletableFuture, CompletionException, ConcurrentHashMap, ExecutionException, ThreadLocalRandom, ThreadPoolExecutor, TimeUnit}
 import java.util.concurrent.atomic.AtomicInteger
-import java.util.function.IntUnaryOperator
+import java.util.function.{BiConsumer, IntUnaryOperator}
 
 import scala.collection.JavaConverters._
 import scala.concurrent.duration._
@@ -43,6 +43,7 @@ import org.apache.celeborn.common.protocol.{PartitionLocation, PartitionSplitMod
 import org.apache.celeborn.common.quota.ResourceConsumption
 import org.apache.celeborn.common.util.{JavaUtils, PbSerDeUtils, ThreadUtils, Utils}
 import org.apache.celeborn.service.deploy.worker._
+import org.apache.celeborn.service.deploy.worker.memory.MemoryManager
 import org.apache.celeborn.service.deploy.worker.memory.MemoryManager.MemoryPressureListener
 import org.apache.celeborn.service.deploy.worker.storage.StorageManager.hadoopFs
 
@@ -106,6 +107,7 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
           workerSource,
           deviceMonitor,
           diskInfo.threadCount,
+          if (conf.workerFlusherAdaptiveThreadsEnabled) 1 else diskInfo.threadCount,
           diskInfo.mountPoint,
           diskInfo.storageType,
           diskInfo.flushTimeMetrics)
@@ -118,6 +120,17 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
 
   deviceMonitor.startCheck()
 
+  // file path -> writer of a file whose data may be kept in memory
+  val memoryFileWriters = JavaUtils.newConcurrentHashMap[String, FileWriter]()
+  // file path -> eviction in progress of a file kept in memory
+  private val memoryFileEvictions =
+    JavaUtils.newConcurrentHashMap[String, CompletableFuture[Void]]()
+  private val memoryFileEvictor = ThreadUtils.newDaemonCachedThreadPool("memory-file-evictor", 4)
+  private val memoryFileMaxSize = conf.workerMemoryStorageMaxFileSize
+
+  StorageManager.appendExecutors =
+    if (conf.workerAppendThreads > 0) new AppendExecutors(conf.workerAppendThreads) else null
+
   val hdfsDir = conf.hdfsDir
   if (!hdfsDir.isEmpty) {
     logInfo(s"Initialize HDFS support with path ${hdfsDir}")
@@ -135,6 +148,10 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
       logInfo("Celeborn will ignore cluster settings " +
         disableCacheName + " and set it to false")
       StorageManager.hadoopFs = path.getFileSystem(hdfsConfiguration)
+      StorageManager.hdfsOutputStreamPool = new HdfsOutputStreamPool(
+        StorageManager.hadoopFs,
+        conf.hdfsOutputStreamPoolMaxStreams,
+        conf.hdfsOutputStreamPoolIdleTimeoutMs)
       (
         Some(new HdfsFlusher(
           workerSource,
@@ -242,6 +259,25 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
 
   private def getNextIndex() = counter.getAndUpdate(counterOperator)
 
+  private def lightlyLoadedDirs(): List[File] = {
+    StorageManager.lightlyLoadedDisk(
+      disksSnapshot(),
+      diskLoad,
+      conf.diskReserveSize,
+      ThreadLocalRandom.current()).map(_.dirs).getOrElse(List.empty)
+  }
+
+  /**
+   * Estimated time for a disk to flush its queued tasks, from its recent average flush time, so
+   * that a slow or degraded disk is not handed its share of new writers.
+   */
+  private def diskLoad(disk: DiskInfo): Double = {
+    val flusher = localFlushers.get(disk.mountPoint)
+    val pendingTasks = if (flusher == null) 0 else flusher.pendingTaskCount
+    // Disks without recent flushes count as the fastest ones.
+    (pendingTasks + 1).toDouble * math.max(disk.avgFlushTime, 1L) / math.max(disk.threadCount, 1)
+  }
+
   private val newMapFunc =
     new java.util.function.Function[String, ConcurrentHashMap[String, FileInfo]]() {
       override def apply(key: String): ConcurrentHashMap[String, FileInfo] =
@@ -278,9 +314,9 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
         if (diskInfo != null && diskInfo.status.equals(DiskStatus.HEALTHY)) {
           diskInfo.dirs
         } else {
-          logDebug(s"Disk unavailable for $suggestedMountPoint, return all healthy" +
-            s" working dirs. diskInfo $diskInfo")
-          healthyWorkingDirs()
+          logDebug(s"Disk unavailable for $suggestedMountPoint, return dirs of a lightly" +
+            s" loaded healthy disk. diskInfo $diskInfo")
+          lightlyLoadedDirs()
         }
       if (dirs.isEmpty && hdfsFlusher.isEmpty) {
         throw new IOException(s"No available disks! suggested mountPoint $suggestedMountPoint")
@@ -356,6 +392,11 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
                 rangeReadFilter)
           }
           deviceMonitor.registerFileWriter(fileWriter)
+          if (partitionType == PartitionType.REDUCE && memoryFileMaxSize > 0 &&
+            MemoryManager.instance().memoryShuffleStorageAvailable()) {
+            fileWriter.storeInMemory(memoryFileMaxSize)
+            memoryFileWriters.put(fileInfo.getFilePath, fileWriter)
+          }
           val map = workingDirWriters.computeIfAbsent(dir, workingDirWriterListFunc)
           map.put(fileInfo.getFilePath, fileWriter)
           fileInfos.computeIfAbsent(shuffleKey, newMapFunc).put(fileName, fileInfo)
@@ -438,6 +479,7 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
         hdfsWriters.remove(fileInfo.getFilePath)
       }
     } else {
+      memoryFileWriters.remove(fileInfo.getFilePath)
       val workingDir =
         fileInfo.getFile.getParentFile.getParentFile.getParentFile
       val writers = workingDirWriters.get(workingDir)
@@ -454,6 +496,63 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
     isHdfsExpired
   }
 
+  /**
+   * Write the data of a file kept in memory to disk, e.g. for readers which need the file. The
+   * returned future completes once the file is complete on disk, callers evicting the same file
+   * concurrently share the eviction.
+   */
+  def evictMemoryFile(fileInfo: FileInfo): CompletableFuture[Void] = {
+    val filePath = fileInfo.getFilePath
+    val eviction = memoryFileEvictions.computeIfAbsent(
+      filePath,
+      new java.util.function.Function[String, CompletableFuture[Void]] {
+        override def apply(path: String): CompletableFuture[Void] = {
+          val writer = memoryFileWriters.remove(path)
+          if (writer == null) {
+            null
+          } else {
+            CompletableFuture.runAsync(
+              new Runnable {
+                override def run(): Unit = {
+                  try {
+                    writer.evictMemoryFile()
+                  } catch {
+                    case e: IOException => throw new CompletionException(e)
+                  }
+                }
+              },
+              memoryFileEvictor)
+          }
+        }
+      })
+    if (eviction == null) {
+      // Not kept in memory, or evicted already.
+      CompletableFuture.completedFuture(null)
+    } else {
+      eviction.whenComplete(new BiConsumer[Void, Throwable] {
+        override def accept(ignored: Void, throwable: Throwable): Unit = {
+          memoryFileEvictions.remove(filePath, eviction)
+        }
+      })
+    }
+  }
+
+  /** Evict files kept in memory, largest first, until memory pressure is relieved. */
+  private def evictMemoryFiles(all: Boolean): Unit = {
+    val writers = memoryFileWriters.values().asScala.toSeq
+      .sortBy(-_.getFileInfo.getFileLength)
+    val iterator = writers.iterator
+    while (iterator.hasNext && (all || MemoryManager.instance().underMemoryPressure())) {
+      val writer = iterator.next()
+      try {
+        evictMemoryFile(writer.getFileInfo).get()
+      } catch {
+        case e: ExecutionException =>
+          logError(s"Evict memory file of $writer failed.", e.getCause)
+      }
+    }
+  }
+
   def cleanupExpiredShuffleKey(expiredShuffleKeys: util.HashSet[String]): Unit = {
     expiredShuffleKeys.asScala.foreach { shuffleKey =>
       logInfo(s"Cleanup expired shuffle $shuffleKey.")
@@ -619,6 +718,10 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
   }
 
   def close(): Unit = {
+    if (conf.workerGracefulShutdown) {
+      // Data in memory would be lost, keep the files of shuffles to recover.
+      evictMemoryFiles(all = true)
+    }
     if (db != null) {
       try {
         updateFileInfosInDB()
@@ -642,6 +745,13 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
       }
     }
     storageScheduler.shutdownNow()
+    memoryFileEvictor.shutdown()
+    if (null != StorageManager.hdfsOutputStreamPool) {
+      StorageManager.hdfsOutputStreamPool.shutdown()
+    }
+    if (null != StorageManager.appendExecutors) {
+      StorageManager.appendExecutors.shutdown()
+    }
     if (null != deviceMonitor) {
       deviceMonitor.close()
     }
@@ -674,6 +784,7 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
 
   override def onTrim(): Unit = {
     logInfo(s"Trigger ${this.getClass.getCanonicalName} trim action")
+    evictMemoryFiles(all = false)
     flushFileWriters()
     try {
       Thread.sleep(conf.workerDirectMemoryTrimFlushWaitInterval)
@@ -741,4 +852,37 @@ final private[worker] class StorageManager(conf: CelebornConf, workerSource: Abs
 
 object StorageManager {
   var hadoopFs: FileSystem = _
+  var hdfsOutputStreamPool: HdfsOutputStreamPool = _
+  var appendExecutors: AppendExecutors = _
+
+  /**
+   * The less loaded of two random healthy disks, or the one with more usable space if they are as
+   * loaded. Sampling two disks rather than taking the least loaded one keeps writers created at
+   * the same time from piling onto the same disk. Disks with less usable space than
+   * `reserveSize` are full to PushDataHandler, which splits the partitions written to them, so
+   * they are not picked however lightly loaded they are.
+   */
+  private[storage] def lightlyLoadedDisk(
+      disksSnapshot: List[DiskInfo],
+      diskLoad: DiskInfo => Double,
+      reserveSize: Long,
+      random: util.Random): Option[DiskInfo] = {
+    val disks = disksSnapshot.filter { disk =>
+      disk.status == DiskStatus.HEALTHY && disk.dirs.nonEmpty &&
+      disk.actualUsableSpace >= reserveSize
+    }
+    if (disks.size <= 1) {
+      return disks.headOption
+    }
+    val first = random.nextInt(disks.size)
+    // Any disk but the first one.
+    val second = (first + 1 + random.nextInt(disks.size - 1)) % disks.size
+    val (disk1, disk2) = (disks(first), disks(second))
+    val (load1, load2) = (diskLoad(disk1), diskLoad(disk2))
+    if (load1 < load2 || (load1 == load2 && disk1.actualUsableSpace >= disk2.actualUsableSpace)) {
+      Some(disk1)
+    } else {
+      Some(disk2)
+    }
+  }
 }
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.congestcontrol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTimeBucketedCounter {
+
+  @Test
+  public void testAvgBytesPerSec() {
+    TimeBucketedCounter counter = new TimeBucketedCounter(3, 0);
+    counter.add(0, 300);
+    counter.add(500, 300);
+    Assert.assertEquals(600, counter.avgBytesPerSec(900));
+
+    // Average over the seconds counted so far until the window is full.
+    counter.add(1000, 200);
+    Assert.assertEquals(400, counter.avgBytesPerSec(1000));
+    counter.add(2000, 100);
+    Assert.assertEquals(300, counter.avgBytesPerSec(2000));
+
+    // The first second leaves the window.
+    counter.add(3000, 300);
+    Assert.assertEquals(200, counter.avgBytesPerSec(3000));
+  }
+
+  @Test
+  public void testClearStaleBuckets() {
+    TimeBucketedCounter counter = new TimeBucketedCounter(3, 0);
+    counter.add(0, 300);
+    counter.add(1000, 300);
+    Assert.assertEquals(300, counter.avgBytesPerSec(1000));
+
+    // Read again after the whole window, the stale bytes are dropped.
+    counter.add(5000, 600);
+    Assert.assertEquals(0, counter.avgBytesPerSec(5000));
+    counter.add(5000, 600);
+    Assert.assertEquals(200, counter.avgBytesPerSec(5500));
+  }
+}
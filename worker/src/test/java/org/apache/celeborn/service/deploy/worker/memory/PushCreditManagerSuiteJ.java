@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.memory;
+
+import java.nio.ByteBuffer;
+
+import io.netty.channel.Channel;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import org.apache.celeborn.common.protocol.message.StatusCode;
+
+public class PushCreditManagerSuiteJ {
+
+  @Test
+  public void testShareCreditByActiveChannels() {
+    MemoryManager memoryManager = Mockito.mock(MemoryManager.class);
+    Mockito.when(memoryManager.getPausePushDataThreshold()).thenReturn(1000L);
+    Mockito.when(memoryManager.getMemoryUsage()).thenReturn(400L);
+    Mockito.when(memoryManager.getReleasedDiskBuffer()).thenReturn(0L, 200L);
+    // Updated by the test only.
+    PushCreditManager manager = new PushCreditManager(memoryManager, 50, 3600 * 1000);
+    try {
+      Channel channel1 = Mockito.mock(Channel.class);
+      Channel channel2 = Mockito.mock(Channel.class);
+      manager.creditResponse(channel1);
+      manager.creditResponse(channel2);
+      manager.creditResponse(channel1);
+
+      // The headroom of 600 bytes and 200 flushed bytes shared by two channels.
+      manager.update();
+      Assert.assertEquals(400, manager.getCredit());
+      ByteBuffer response = manager.creditResponse(channel1).duplicate();
+      Assert.assertEquals(StatusCode.PUSH_DATA_SUCCESS_WITH_CREDIT.getValue(), response.get());
+      Assert.assertEquals(400, response.getLong());
+
+      // No headroom left, the minimum credit is granted.
+      Mockito.when(memoryManager.getMemoryUsage()).thenReturn(1200L);
+      manager.update();
+      Assert.assertEquals(50, manager.getCredit());
+    } finally {
+      manager.close();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AppendExecutorsSuiteJ {
+
+  private static class CountingTask implements AppendExecutors.Task {
+    private final AtomicInteger runs;
+    private final AtomicInteger drops;
+
+    CountingTask(AtomicInteger runs, AtomicInteger drops) {
+      this.runs = runs;
+      this.drops = drops;
+    }
+
+    @Override
+    public void run() {
+      runs.incrementAndGet();
+    }
+
+    @Override
+    public void drop() {
+      drops.incrementAndGet();
+    }
+  }
+
+  @Test
+  public void testTasksRunInSubmissionOrder() throws Exception {
+    AppendExecutors appendExecutors = new AppendExecutors(1);
+    try {
+      AppendExecutors.Shard shard = appendExecutors.nextShard();
+      List<Integer> order = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        int index = i;
+        shard.submit(
+            () -> {
+              Assert.assertTrue(shard.isShardThread());
+              order.add(index);
+              return null;
+            });
+      }
+      shard.barrier().get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(1000, order.size());
+      for (int i = 0; i < 1000; i++) {
+        Assert.assertEquals(i, (int) order.get(i));
+      }
+      Assert.assertFalse(shard.isShardThread());
+    } finally {
+      appendExecutors.shutdown();
+    }
+  }
+
+  @Test
+  public void testStopDropsQueuedTasks() throws Exception {
+    AppendExecutors appendExecutors = new AppendExecutors(1);
+    AppendExecutors.Shard shard = appendExecutors.nextShard();
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    shard.submit(
+        () -> {
+          running.countDown();
+          release.await();
+          return null;
+        });
+    Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+
+    AtomicInteger runs = new AtomicInteger();
+    AtomicInteger drops = new AtomicInteger();
+    for (int i = 0; i < 10; i++) {
+      shard.execute(new CountingTask(runs, drops));
+    }
+    CompletableFuture<Void> barrier = shard.barrier();
+    appendExecutors.shutdown();
+    release.countDown();
+
+    try {
+      barrier.get(10, TimeUnit.SECONDS);
+      Assert.fail("The barrier should fail once the executors stop.");
+    } catch (ExecutionException e) {
+      // expected
+    }
+    Assert.assertEquals(0, runs.get());
+    Assert.assertEquals(10, drops.get());
+
+    // Tasks of a stopped shard are dropped right away.
+    shard.execute(new CountingTask(runs, drops));
+    Assert.assertEquals(0, runs.get());
+    Assert.assertEquals(11, drops.get());
+  }
+}
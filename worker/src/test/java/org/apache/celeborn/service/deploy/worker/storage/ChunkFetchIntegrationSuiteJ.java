@@ -43,6 +43,7 @@ import org.apache.celeborn.common.network.client.TransportClient;
 import org.apache.celeborn.common.network.client.TransportClientFactory;
 import org.apache.celeborn.common.network.protocol.ChunkFetchRequest;
 import org.apache.celeborn.common.network.protocol.ChunkFetchSuccess;
+import org.apache.celeborn.common.network.protocol.ChunksFetchRequest;
 import org.apache.celeborn.common.network.protocol.RequestMessage;
 import org.apache.celeborn.common.network.protocol.StreamChunkSlice;
 import org.apache.celeborn.common.network.server.BaseMessageHandler;
@@ -106,7 +107,17 @@ public class ChunkFetchIntegrationSuiteJ {
         new BaseMessageHandler() {
           @Override
           public void receive(TransportClient client, RequestMessage msg) {
-            StreamChunkSlice slice = ((ChunkFetchRequest) msg).streamChunkSlice;
+            if (msg instanceof ChunksFetchRequest) {
+              ChunksFetchRequest request = (ChunksFetchRequest) msg;
+              for (int i = 0; i < request.numChunks; i++) {
+                sendChunk(client, request.streamChunkSlice(request.startChunkIndex + i));
+              }
+            } else {
+              sendChunk(client, ((ChunkFetchRequest) msg).streamChunkSlice);
+            }
+          }
+
+          private void sendChunk(TransportClient client, StreamChunkSlice slice) {
             ManagedBuffer buf =
                 chunkStreamManager.getChunk(
                     slice.streamId, slice.chunkIndex, slice.offset, slice.len);
@@ -144,6 +155,11 @@ public class ChunkFetchIntegrationSuiteJ {
   }
 
   private FetchResult fetchChunks(List<Integer> chunkIndices) throws Exception {
+    return fetchChunks(chunkIndices, false);
+  }
+
+  private FetchResult fetchChunks(List<Integer> chunkIndices, boolean inOneRequest)
+      throws Exception {
     TransportClient client = clientFactory.createClient(getLocalHost(), server.getPort());
     final Semaphore sem = new Semaphore(0);
 
@@ -169,8 +185,12 @@ public class ChunkFetchIntegrationSuiteJ {
           }
         };
 
-    for (int chunkIndex : chunkIndices) {
-      client.fetchChunk(STREAM_ID, chunkIndex, callback);
+    if (inOneRequest) {
+      client.fetchChunks(STREAM_ID, chunkIndices.get(0), chunkIndices.size(), callback);
+    } else {
+      for (int chunkIndex : chunkIndices) {
+        client.fetchChunk(STREAM_ID, chunkIndex, callback);
+      }
     }
     if (!sem.tryAcquire(chunkIndices.size(), 5, TimeUnit.SECONDS)) {
       fail("Timeout getting response from the server");
@@ -214,6 +234,15 @@ public class ChunkFetchIntegrationSuiteJ {
     res.releaseBuffers();
   }
 
+  @Test
+  public void fetchBothChunksInOneRequest() throws Exception {
+    FetchResult res = fetchChunks(Arrays.asList(BUFFER_CHUNK_INDEX, FILE_CHUNK_INDEX), true);
+    assertEquals(Sets.newHashSet(BUFFER_CHUNK_INDEX, FILE_CHUNK_INDEX), res.successChunks);
+    assertTrue(res.failedChunks.isEmpty());
+    assertBufferListsEqual(Arrays.asList(bufferChunk, fileChunk), res.buffers);
+    res.releaseBuffers();
+  }
+
   @Test
   public void fetchChunkAndNonExistent() throws Exception {
     FetchResult res = fetchChunks(Arrays.asList(BUFFER_CHUNK_INDEX, 12345));
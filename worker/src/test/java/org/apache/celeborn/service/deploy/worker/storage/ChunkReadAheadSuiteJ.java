@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.celeborn.common.CelebornConf;
+import org.apache.celeborn.common.identity.UserIdentifier;
+import org.apache.celeborn.common.meta.FileInfo;
+import org.apache.celeborn.common.meta.FileManagedBuffers;
+import org.apache.celeborn.common.network.util.TransportConf;
+
+public class ChunkReadAheadSuiteJ {
+  private static File file;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    file = File.createTempFile("celeborn", "ChunkReadAheadSuiteJ");
+    Files.write(file.toPath(), new byte[500]);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    file.delete();
+  }
+
+  private long registerStream(ChunkStreamManager manager) {
+    FileInfo fileInfo =
+        new FileInfo(
+            file.getAbsolutePath(),
+            new ArrayList<>(Arrays.asList(0L, 100L, 200L, 300L, 400L, 500L)),
+            new UserIdentifier("mock", "mock"));
+    FileManagedBuffers buffers =
+        new FileManagedBuffers(fileInfo, new TransportConf("shuffle", new CelebornConf()));
+    return manager.registerStream("app1-1", buffers, null, null);
+  }
+
+  // The mount point of the file is unknown, its chunks are read ahead by the disk of null.
+  private void assertDrained(ChunkReadAhead readAhead) throws InterruptedException {
+    readAhead.close();
+    Assert.assertTrue(readAhead.awaitTermination(10, TimeUnit.SECONDS));
+    Assert.assertEquals(0, readAhead.pendingBytes(null));
+    Assert.assertEquals(0, readAhead.scratchMemory(null).refCnt());
+  }
+
+  @Test
+  public void testReadAheadFollowingChunks() throws Exception {
+    ChunkReadAhead readAhead = new ChunkReadAhead(2, 1024);
+    ChunkStreamManager manager =
+        new ChunkStreamManager(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, readAhead);
+    long streamId = registerStream(manager);
+    ChunkStreamManager.StreamState state = manager.streams.get(streamId);
+
+    manager.getChunk(streamId, 0, 0, Integer.MAX_VALUE).release();
+    Assert.assertEquals(3, state.nextReadAheadChunkIndex);
+    manager.getChunk(streamId, 1, 0, Integer.MAX_VALUE).release();
+    Assert.assertEquals(4, state.nextReadAheadChunkIndex);
+    // bounded by the end of the stream
+    manager.getChunk(streamId, 3, 0, Integer.MAX_VALUE).release();
+    Assert.assertEquals(5, state.nextReadAheadChunkIndex);
+    assertDrained(readAhead);
+  }
+
+  @Test
+  public void testReadAheadBoundedPerDisk() throws Exception {
+    ChunkReadAhead readAhead = new ChunkReadAhead(2, 50);
+    ChunkStreamManager manager =
+        new ChunkStreamManager(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, readAhead);
+    long streamId = registerStream(manager);
+    ChunkStreamManager.StreamState state = manager.streams.get(streamId);
+
+    // The chunks do not fit in the bytes of the disk being read ahead, and are left to the
+    // next fetch.
+    manager.getChunk(streamId, 0, 0, Integer.MAX_VALUE).release();
+    Assert.assertEquals(1, state.nextReadAheadChunkIndex);
+    assertDrained(readAhead);
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.celeborn.service.deploy.worker.storage;
 import java.util.Arrays;
 import java.util.HashSet;
 
+import io.netty.channel.Channel;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -39,10 +40,10 @@ public class ChunkStreamManagerSuiteJ {
     FileManagedBuffers buffers3 = Mockito.mock(FileManagedBuffers.class);
     FileManagedBuffers buffers4 = Mockito.mock(FileManagedBuffers.class);
 
-    manager.registerStream("shuffleKey1", buffers, null);
-    manager.registerStream("shuffleKey1", buffers2, null);
-    manager.registerStream("shuffleKey2", buffers3, null);
-    long stream3 = manager.registerStream("shuffleKey3", buffers4, null);
+    manager.registerStream("shuffleKey1", buffers, null, null);
+    manager.registerStream("shuffleKey1", buffers2, null, null);
+    manager.registerStream("shuffleKey2", buffers3, null, null);
+    long stream3 = manager.registerStream("shuffleKey3", buffers4, null, null);
     Assert.assertEquals(4, manager.numStreamStates());
     Assert.assertEquals(manager.numStreamStates(), manager.numShuffleSteams());
 
@@ -62,4 +63,148 @@ public class ChunkStreamManagerSuiteJ {
     manager.cleanupExpiredShuffleKey(new HashSet<>(Arrays.asList("shuffleKey3")));
     Assert.assertEquals(manager.numStreamStates(), manager.numShuffleSteams());
   }
+
+  private static Channel activeChannel() {
+    Channel channel = Mockito.mock(Channel.class);
+    Mockito.when(channel.isActive()).thenReturn(true);
+    return channel;
+  }
+
+  @Test
+  public void testChunksBeingTransferredLimits() {
+    ChunkStreamManager manager = new ChunkStreamManager(3, 2, 3, null);
+    Channel channel1 = activeChannel();
+    Channel channel2 = activeChannel();
+    Channel channel3 = activeChannel();
+    long stream1 =
+        manager.registerStream("app1-1", Mockito.mock(FileManagedBuffers.class), null, null);
+    long stream2 =
+        manager.registerStream("app1-2", Mockito.mock(FileManagedBuffers.class), null, null);
+    long stream3 =
+        manager.registerStream("app2-1", Mockito.mock(FileManagedBuffers.class), null, null);
+
+    // limited per client
+    Assert.assertTrue(manager.tryChunkBeingSent(stream1, channel1));
+    Assert.assertTrue(manager.tryChunkBeingSent(stream1, channel1));
+    Assert.assertFalse(manager.tryChunkBeingSent(stream1, channel1));
+
+    // limited per application across its shuffles
+    Assert.assertTrue(manager.tryChunkBeingSent(stream2, channel2));
+    Assert.assertFalse(manager.tryChunkBeingSent(stream2, channel2));
+    Assert.assertEquals(3, manager.chunksBeingTransferred());
+
+    // limited in total, exceeded only when more than the max are being transferred
+    Assert.assertFalse(manager.isTotalLimitReached());
+    Assert.assertTrue(manager.tryChunkBeingSent(stream3, channel3));
+    Assert.assertTrue(manager.isTotalLimitReached());
+    Assert.assertFalse(manager.tryChunkBeingSent(stream3, channel3));
+    Assert.assertEquals(4, manager.chunksBeingTransferred());
+
+    manager.chunkSent(stream1, channel1);
+    Assert.assertEquals(3, manager.chunksBeingTransferred());
+    Assert.assertTrue(manager.tryChunkBeingSent(stream2, channel2));
+    Assert.assertFalse(manager.tryChunkBeingSent(stream1, channel1));
+
+    // counters of a terminated connection are dropped
+    manager.chunkSent(stream3, channel3);
+    manager.connectionTerminated(channel1);
+    Assert.assertEquals(2, manager.numClients());
+    Assert.assertTrue(manager.tryChunkBeingSent(stream3, channel1));
+    Assert.assertEquals(4, manager.chunksBeingTransferred());
+
+    // and not created again once the connection is inactive
+    manager.chunkSent(stream3, channel1);
+    Mockito.when(channel1.isActive()).thenReturn(false);
+    manager.connectionTerminated(channel1);
+    Assert.assertFalse(manager.tryChunkBeingSent(stream3, channel1));
+    Assert.assertEquals(2, manager.numClients());
+  }
+
+  @Test
+  public void testAddCredit() {
+    ChunkStreamManager manager = new ChunkStreamManager();
+    FileManagedBuffers buffers = Mockito.mock(FileManagedBuffers.class);
+    Mockito.when(buffers.numChunks()).thenReturn(5);
+    long streamId = manager.registerStream("app1-1", buffers, null, null);
+
+    Assert.assertEquals(3, manager.addCredit(streamId, 0, 3));
+    Assert.assertEquals(1, manager.addCredit(streamId, 3, 1));
+    // bounded by the end of the stream
+    Assert.assertEquals(1, manager.addCredit(streamId, 4, 3));
+    Assert.assertEquals(0, manager.addCredit(streamId, 5, 3));
+
+    try {
+      manager.addCredit(streamId + 1, 0, 1);
+      Assert.fail("Credit of an unknown stream should fail.");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testAddCreditOutOfOrder() {
+    ChunkStreamManager manager = new ChunkStreamManager();
+    FileManagedBuffers buffers = Mockito.mock(FileManagedBuffers.class);
+    Mockito.when(buffers.numChunks()).thenReturn(5);
+    long streamId = manager.registerStream("app1-1", buffers, null, null);
+
+    Assert.assertEquals(2, manager.addCredit(streamId, 0, 2));
+    for (int startChunkIndex : new int[] {0, 1, 3}) {
+      try {
+        manager.addCredit(streamId, startChunkIndex, 1);
+        Assert.fail("Credit which does not follow the credit before should fail.");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    }
+    // a rejected credit is not granted
+    Assert.assertEquals(3, manager.addCredit(streamId, 2, 3));
+  }
+
+  @Test
+  public void testConnectionTerminatedClosesStreams() {
+    ChunkStreamManager manager = new ChunkStreamManager();
+    Channel channel1 = activeChannel();
+    Channel channel2 = activeChannel();
+    FileManagedBuffers buffers1 = Mockito.mock(FileManagedBuffers.class);
+    FileManagedBuffers buffers2 = Mockito.mock(FileManagedBuffers.class);
+    manager.registerStream("app1-1", buffers1, null, channel1);
+    manager.registerStream("app1-1", buffers2, null, channel2);
+
+    Assert.assertEquals(2, manager.numChannelsWithStreams());
+
+    manager.connectionTerminated(channel1);
+    Mockito.verify(buffers1).close();
+    Mockito.verify(buffers2, Mockito.never()).close();
+    Assert.assertEquals(1, manager.numChannelsWithStreams());
+    // the stream stays registered for a reconnected client
+    Assert.assertEquals(2, manager.numStreamStates());
+
+    // a stream opened on a terminated channel is closed and not indexed
+    Mockito.when(channel1.isActive()).thenReturn(false);
+    FileManagedBuffers buffers3 = Mockito.mock(FileManagedBuffers.class);
+    manager.registerStream("app1-1", buffers3, null, channel1);
+    Mockito.verify(buffers3).close();
+    Assert.assertEquals(1, manager.numChannelsWithStreams());
+
+    manager.cleanupExpiredShuffleKey(new HashSet<>(Arrays.asList("app1-1")));
+    Assert.assertEquals(0, manager.numChannelsWithStreams());
+  }
+
+  @Test
+  public void testAppsRemovedWithTheirStreams() {
+    ChunkStreamManager manager = new ChunkStreamManager();
+    manager.registerStream("app-1-1", Mockito.mock(FileManagedBuffers.class), null, null);
+    manager.registerStream("app-1-2", Mockito.mock(FileManagedBuffers.class), null, null);
+    manager.registerStream("app-2-1", Mockito.mock(FileManagedBuffers.class), null, null);
+    manager.registerStream("noShuffleId", Mockito.mock(FileManagedBuffers.class), null, null);
+    Assert.assertEquals(3, manager.numApps());
+
+    manager.cleanupExpiredShuffleKey(new HashSet<>(Arrays.asList("app-1-1", "noShuffleId")));
+    Assert.assertEquals(2, manager.numApps());
+    manager.cleanupExpiredShuffleKey(new HashSet<>(Arrays.asList("app-1-2")));
+    Assert.assertEquals(1, manager.numApps());
+    manager.cleanupExpiredShuffleKey(new HashSet<>(Arrays.asList("app-2-1", "unknown")));
+    Assert.assertEquals(0, manager.numApps());
+  }
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DirectIOWriterSuiteJ {
+
+  @Test
+  public void testWriteUnalignedFlushes() throws IOException {
+    File file = File.createTempFile("celeborn-direct-io", ".data");
+    file.deleteOnExit();
+    String path = file.getAbsolutePath();
+    // The temp dir may not support direct I/O, alignment handling is the same without it.
+    FileChannel channel = FileChannelUtils.createDirectWritableFileChannel(path);
+    if (channel == null) {
+      channel = FileChannelUtils.createWritableFileChannel(path);
+    }
+    DirectIOWriter writer = new DirectIOWriter(channel, path, 4096);
+
+    Random random = new Random();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 20; i++) {
+      CompositeByteBuf buffer = Unpooled.compositeBuffer();
+      int numComponents = 1 + random.nextInt(3);
+      for (int j = 0; j < numComponents; j++) {
+        byte[] bytes = new byte[random.nextInt(10000)];
+        random.nextBytes(bytes);
+        expected.write(bytes);
+        buffer.addComponent(true, Unpooled.wrappedBuffer(bytes));
+      }
+      int readable = buffer.readableBytes();
+      writer.write(buffer);
+      Assert.assertEquals(readable, buffer.readableBytes());
+      buffer.release();
+    }
+    writer.finish();
+    writer.close();
+
+    ByteBuf alignedMemory = DirectIOWriter.alignedBufferMemory();
+    Assert.assertNotNull(alignedMemory);
+    DirectIOWriter.releaseAlignedBuffer();
+    Assert.assertEquals(0, alignedMemory.refCnt());
+    Assert.assertNull(DirectIOWriter.alignedBufferMemory());
+
+    Assert.assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file.toPath()));
+  }
+}
@@ -17,15 +17,20 @@
 
 package org.apache.celeborn.service.deploy.worker.storage;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -33,6 +38,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -47,6 +54,7 @@ import scala.collection.mutable.ListBuffer;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.HashedWheelTimer;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -57,7 +65,9 @@ import org.slf4j.LoggerFactory;
 import org.apache.celeborn.common.CelebornConf;
 import org.apache.celeborn.common.identity.UserIdentifier;
 import org.apache.celeborn.common.meta.FileInfo;
+import org.apache.celeborn.common.meta.FileManagedBuffers;
 import org.apache.celeborn.common.network.TransportContext;
+import org.apache.celeborn.common.network.buffer.FileSegmentManagedBuffer;
 import org.apache.celeborn.common.network.buffer.ManagedBuffer;
 import org.apache.celeborn.common.network.client.ChunkReceivedCallback;
 import org.apache.celeborn.common.network.client.TransportClient;
@@ -102,6 +112,8 @@ public class FileWriterSuiteJ {
   public static void beforeAll() {
     tempDir = Utils.createTempDir(System.getProperty("java.io.tmpdir"), "celeborn");
     CONF.set("celeborn.shuffle.chunk.size", "1k");
+    // Generated data repeats the same bytes, every batch would look like a duplicate.
+    CONF.set("celeborn.worker.duplicateBatchFilter.size", "0");
 
     source = Mockito.mock(WorkerSource.class);
     Mockito.doAnswer(
@@ -285,6 +297,239 @@ public class FileWriterSuiteJ {
     assertEquals(fileWriter.getFile().length(), bytesWritten);
   }
 
+  @Test
+  public void testAppendExecutorsKeepWriteOrderOfEachThread()
+      throws IOException, ExecutionException, InterruptedException {
+    final int threadsNum = 8;
+    final int batchesPerThread = 200;
+    AppendExecutors appendExecutors = new AppendExecutors(2);
+    StorageManager.appendExecutors_$eq(appendExecutors);
+    try {
+      File file = getTemporaryFile();
+      FileWriter fileWriter =
+          new ReducePartitionFileWriter(
+              new FileInfo(file, userIdentifier),
+              localFlusher,
+              source,
+              CONF,
+              DeviceMonitor$.MODULE$.EmptyMonitor(),
+              SPLIT_THRESHOLD,
+              splitMode,
+              false);
+
+      List<Future<?>> futures = new ArrayList<>();
+      ExecutorService es = ThreadUtils.newDaemonFixedThreadPool(threadsNum, "FileWriter-UT-4");
+      for (int i = 0; i < threadsNum; ++i) {
+        int thread = i;
+        futures.add(
+            es.submit(
+                () -> {
+                  for (int batch = 0; batch < batchesPerThread; batch++) {
+                    // A batch header which is unique to the thread and batch.
+                    ByteBuf buf = Unpooled.buffer(16);
+                    buf.writeInt(thread).writeInt(0).writeInt(batch).writeInt(0);
+                    try {
+                      fileWriter.incrementPendingWrites();
+                      fileWriter.write(buf);
+                    } catch (IOException e) {
+                      LOG.error("Failed to write buffer.", e);
+                    }
+                    // Queued appends hold their own reference.
+                    buf.release();
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+
+      // Close waits for the queued appends.
+      long bytesWritten = fileWriter.close();
+      assertEquals(threadsNum * batchesPerThread * 16L, bytesWritten);
+
+      // Batches of different threads interleave, those of one thread are in write order.
+      ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+      int[] nextBatch = new int[threadsNum];
+      while (content.hasRemaining()) {
+        int thread = content.getInt();
+        content.getInt();
+        assertEquals(nextBatch[thread]++, content.getInt());
+        content.getInt();
+      }
+      for (int i = 0; i < threadsNum; i++) {
+        assertEquals(batchesPerThread, nextBatch[i]);
+      }
+    } finally {
+      StorageManager.appendExecutors_$eq(null);
+      appendExecutors.shutdown();
+    }
+  }
+
+  @Test
+  public void testCloseAsync() throws Exception {
+    File file = getTemporaryFile();
+    FileWriter fileWriter =
+        new ReducePartitionFileWriter(
+            new FileInfo(file, userIdentifier),
+            localFlusher,
+            source,
+            CONF,
+            DeviceMonitor$.MODULE$.EmptyMonitor(),
+            SPLIT_THRESHOLD,
+            splitMode,
+            false);
+
+    long length = 0;
+    for (int i = 0; i < 64; i++) {
+      byte[] bytes = generateData();
+      length += bytes.length;
+      fileWriter.incrementPendingWrites();
+      fileWriter.write(Unpooled.wrappedBuffer(bytes));
+    }
+
+    ExecutorService es = ThreadUtils.newDaemonFixedThreadPool(1, "FileWriter-UT-5");
+    HashedWheelTimer timer = new HashedWheelTimer();
+    try {
+      long bytesWritten = fileWriter.closeAsync(es, timer).get(10, TimeUnit.SECONDS);
+      assertEquals(length, bytesWritten);
+      assertEquals(fileWriter.getFile().length(), bytesWritten);
+    } finally {
+      timer.stop();
+      es.shutdown();
+    }
+  }
+
+  @Test
+  public void testCloseAsyncDoesNotWaitOnQueuedAppends() throws Exception {
+    AppendExecutors appendExecutors = new AppendExecutors(1);
+    StorageManager.appendExecutors_$eq(appendExecutors);
+    ExecutorService es = ThreadUtils.newDaemonFixedThreadPool(1, "FileWriter-UT-6");
+    HashedWheelTimer timer = new HashedWheelTimer();
+    try {
+      File file = getTemporaryFile();
+      FileWriter fileWriter =
+          new ReducePartitionFileWriter(
+              new FileInfo(file, userIdentifier),
+              localFlusher,
+              source,
+              CONF,
+              DeviceMonitor$.MODULE$.EmptyMonitor(),
+              SPLIT_THRESHOLD,
+              splitMode,
+              false);
+
+      // Hold the append shard so the appends stay queued.
+      CountDownLatch release = new CountDownLatch(1);
+      fileWriter.appendShard.submit(
+          () -> {
+            release.await();
+            return null;
+          });
+      ByteBuf buf = Unpooled.buffer(16);
+      buf.writeInt(0).writeInt(0).writeInt(0).writeInt(0);
+      fileWriter.incrementPendingWrites();
+      fileWriter.write(buf);
+      buf.release();
+
+      CompletableFuture<Long> closed = fileWriter.closeAsync(es, timer);
+      assertFalse(closed.isDone());
+
+      release.countDown();
+      assertEquals(16L, (long) closed.get(10, TimeUnit.SECONDS));
+      assertEquals(16L, file.length());
+    } finally {
+      timer.stop();
+      es.shutdown();
+      StorageManager.appendExecutors_$eq(null);
+      appendExecutors.shutdown();
+    }
+  }
+
+  @Test
+  public void testWriteSmallAndLargeBatches() throws IOException {
+    File file = getTemporaryFile();
+    FileWriter fileWriter =
+        new ReducePartitionFileWriter(
+            new FileInfo(file, userIdentifier),
+            localFlusher,
+            source,
+            CONF,
+            DeviceMonitor$.MODULE$.EmptyMonitor(),
+            SPLIT_THRESHOLD,
+            splitMode,
+            false);
+
+    // Small batches are copied into slabs, large ones are retained, in between them.
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 256; i++) {
+      // Each batch has at least the batch header, which starts with the map id.
+      int size = i % 8 == 0 ? 32 * 1024 : 16 + ThreadLocalRandom.current().nextInt(4096);
+      byte[] bytes = new byte[size];
+      ThreadLocalRandom.current().nextBytes(bytes);
+      expected.write(bytes);
+      ByteBuf buf = Unpooled.wrappedBuffer(bytes);
+      fileWriter.incrementPendingWrites();
+      fileWriter.write(buf);
+      buf.release();
+    }
+    long bytesWritten = fileWriter.close();
+
+    assertEquals(expected.size(), bytesWritten);
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file.toPath()));
+  }
+
+  @Test
+  public void testFlushInOrderWithSharedFlusherThreads() throws IOException {
+    // Strands of the files are stolen by any of the threads, each file must still be in order.
+    LocalFlusher flusher =
+        new LocalFlusher(
+            source,
+            DeviceMonitor$.MODULE$.EmptyMonitor(),
+            4,
+            1,
+            "disk3",
+            StorageInfo.Type.SSD,
+            null);
+    try {
+      int numFiles = 8;
+      List<File> files = new ArrayList<>();
+      List<FileWriter> fileWriters = new ArrayList<>();
+      List<ByteArrayOutputStream> expected = new ArrayList<>();
+      for (int i = 0; i < numFiles; i++) {
+        File file = getTemporaryFile();
+        files.add(file);
+        fileWriters.add(
+            new ReducePartitionFileWriter(
+                new FileInfo(file, userIdentifier),
+                flusher,
+                source,
+                CONF,
+                DeviceMonitor$.MODULE$.EmptyMonitor(),
+                SPLIT_THRESHOLD,
+                splitMode,
+                false));
+        expected.add(new ByteArrayOutputStream());
+      }
+
+      for (int i = 0; i < 512; i++) {
+        int index = i % numFiles;
+        byte[] bytes = new byte[16 * 1024 + ThreadLocalRandom.current().nextInt(64 * 1024)];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        expected.get(index).write(bytes);
+        fileWriters.get(index).incrementPendingWrites();
+        fileWriters.get(index).write(Unpooled.wrappedBuffer(bytes));
+      }
+
+      for (int i = 0; i < numFiles; i++) {
+        assertEquals(expected.get(i).size(), fileWriters.get(i).close());
+        assertArrayEquals(
+            expected.get(i).toByteArray(), Files.readAllBytes(files.get(i).toPath()));
+      }
+    } finally {
+      flusher.stopAndCleanFlusher();
+    }
+  }
+
   @Test
   public void testAfterStressfulWriteWillReadCorrect()
       throws IOException, ExecutionException, InterruptedException {
@@ -407,6 +652,89 @@ public class FileWriterSuiteJ {
     closeChunkServer();
   }
 
+  @Test
+  public void testMemoryFileReadAndEvict() throws IOException {
+    File file = getTemporaryFile();
+    FileInfo fileInfo = new FileInfo(file, userIdentifier);
+    FileWriter fileWriter =
+        new ReducePartitionFileWriter(
+            fileInfo,
+            localFlusher,
+            source,
+            CONF,
+            DeviceMonitor$.MODULE$.EmptyMonitor(),
+            SPLIT_THRESHOLD,
+            splitMode,
+            false);
+    fileWriter.storeInMemory(64 * 1024 * 1024);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 5; i++) {
+      byte[] bytes = generateData();
+      expected.write(bytes);
+      fileWriter.write(Unpooled.wrappedBuffer(bytes));
+    }
+    assertEquals(expected.size(), fileWriter.close());
+    assertTrue(fileInfo.isInMemory());
+    assertEquals(0, file.length());
+
+    FileManagedBuffers buffers = new FileManagedBuffers(fileInfo, transConf);
+    assertArrayEquals(expected.toByteArray(), readChunks(buffers));
+
+    fileWriter.evictMemoryFile();
+    assertFalse(fileInfo.isInMemory());
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file.toPath()));
+    // Streams opened before the eviction switch to the file.
+    ManagedBuffer chunk = buffers.chunk(0, 0, Integer.MAX_VALUE);
+    assertTrue(chunk instanceof FileSegmentManagedBuffer);
+    assertArrayEquals(expected.toByteArray(), readChunks(buffers));
+  }
+
+  @Test
+  public void testConcurrentEvictionsOfMemoryFileShareOne() throws Exception {
+    StorageManager storageManager = new StorageManager(CONF, source);
+    FileInfo fileInfo = new FileInfo(getTemporaryFile(), userIdentifier);
+    CountDownLatch release = new CountDownLatch(1);
+    FileWriter fileWriter = Mockito.mock(FileWriter.class);
+    Mockito.doAnswer(
+            invocation -> {
+              release.await();
+              return null;
+            })
+        .when(fileWriter)
+        .evictMemoryFile();
+    storageManager.memoryFileWriters().put(fileInfo.getFilePath(), fileWriter);
+    try {
+      CompletableFuture<Void> first = storageManager.evictMemoryFile(fileInfo);
+      // A second reader waits for the eviction started by the first rather than reading the
+      // partially written file.
+      CompletableFuture<Void> second = storageManager.evictMemoryFile(fileInfo);
+      assertFalse(first.isDone());
+      assertFalse(second.isDone());
+
+      release.countDown();
+      first.get(10, TimeUnit.SECONDS);
+      second.get(10, TimeUnit.SECONDS);
+      Mockito.verify(fileWriter, Mockito.times(1)).evictMemoryFile();
+      assertTrue(storageManager.evictMemoryFile(fileInfo).isDone());
+    } finally {
+      storageManager.close();
+    }
+  }
+
+  private byte[] readChunks(FileManagedBuffers buffers) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < buffers.numChunks(); i++) {
+      ManagedBuffer chunk = buffers.chunk(i, 0, Integer.MAX_VALUE);
+      ByteBuffer data = chunk.nioByteBuffer();
+      byte[] bytes = new byte[data.remaining()];
+      data.get(bytes);
+      out.write(bytes);
+      chunk.release();
+    }
+    return out.toByteArray();
+  }
+
   @Test
   public void testCompositeBufClear() {
     ByteBuf buf = Unpooled.wrappedBuffer("hello world".getBytes(StandardCharsets.UTF_8));
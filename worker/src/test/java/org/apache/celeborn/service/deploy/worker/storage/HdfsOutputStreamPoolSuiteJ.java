@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HdfsOutputStreamPoolSuiteJ {
+
+  private File tempDir;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("celeborn-hdfs-stream-pool").toFile();
+    // RawLocalFileSystem supports append, unlike the checksummed LocalFileSystem.
+    fs = new RawLocalFileSystem();
+    fs.initialize(URI.create("file:///"), new Configuration());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.close();
+    FileUtils.deleteDirectory(tempDir);
+  }
+
+  private Path createFile(String name) throws IOException {
+    Path path = new Path(new File(tempDir, name).getAbsolutePath());
+    fs.create(path, true).close();
+    return path;
+  }
+
+  private ByteBuf buffer(String... parts) {
+    CompositeByteBuf buffer = Unpooled.compositeBuffer();
+    for (String part : parts) {
+      buffer.addComponent(true, Unpooled.copiedBuffer(part, StandardCharsets.UTF_8));
+    }
+    return buffer;
+  }
+
+  private String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(new File(path.toUri().getPath()).toPath()));
+  }
+
+  @Test
+  public void testEvictLeastRecentlyWritten() throws IOException {
+    HdfsOutputStreamPool pool = new HdfsOutputStreamPool(fs, 1, 60 * 1000);
+    Path a = createFile("a");
+    Path b = createFile("b");
+
+    pool.write(a, buffer("a1", "a2"));
+    Assert.assertEquals(1, pool.getOpenStreamCount());
+    pool.write(b, buffer("b1"));
+    // The stream of a is closed to keep one open stream.
+    Assert.assertEquals(1, pool.getOpenStreamCount());
+    Assert.assertEquals("a1a2", read(a));
+    pool.write(a, buffer("a3"));
+    pool.write(b, buffer("b2"));
+
+    pool.close(a);
+    pool.close(b);
+    Assert.assertEquals(0, pool.getOpenStreamCount());
+    Assert.assertEquals("a1a2a3", read(a));
+    Assert.assertEquals("b1b2", read(b));
+    pool.shutdown();
+  }
+
+  @Test
+  public void testCloseIdleStreams() throws Exception {
+    HdfsOutputStreamPool pool = new HdfsOutputStreamPool(fs, 16, 100);
+    Path a = createFile("a");
+
+    ByteBuf data = buffer("a1");
+    pool.write(a, data);
+    // Writing must not consume the buffer, the flusher releases it afterwards.
+    Assert.assertEquals(2, data.readableBytes());
+    Thread.sleep(500);
+    Assert.assertEquals(0, pool.getOpenStreamCount());
+    Assert.assertEquals("a1", read(a));
+
+    pool.write(a, buffer("a2"));
+    pool.close(a);
+    Assert.assertEquals("a1a2", read(a));
+    pool.shutdown();
+  }
+}
@@ -27,7 +27,9 @@ import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
 
+import io.netty.buffer.Unpooled;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -38,7 +40,10 @@ import org.slf4j.LoggerFactory;
 import org.apache.celeborn.common.CelebornConf;
 import org.apache.celeborn.common.identity.UserIdentifier;
 import org.apache.celeborn.common.meta.FileInfo;
+import org.apache.celeborn.common.meta.FileManagedBuffers;
+import org.apache.celeborn.common.network.util.TransportConf;
 import org.apache.celeborn.common.unsafe.Platform;
+import org.apache.celeborn.common.util.ShuffleBlockInfoUtils;
 import org.apache.celeborn.common.util.Utils;
 import org.apache.celeborn.service.deploy.worker.WorkerSource;
 import org.apache.celeborn.service.deploy.worker.memory.MemoryManager;
@@ -57,6 +62,19 @@ public class PartitionFilesSorterSuiteJ {
   private UserIdentifier userIdentifier = new UserIdentifier("mock-tenantId", "mock-name");
 
   public void prepare(boolean largefile) throws IOException {
+    prepare(largefile, false);
+  }
+
+  public void prepare(boolean largefile, boolean withBlockIndex) throws IOException {
+    prepare(largefile, withBlockIndex, 0);
+  }
+
+  /**
+   * With a non-zero indexMapIdShift the block index records every block under map id (mapId +
+   * indexMapIdShift) % 50, so reads served from the index differ from those of a file scan.
+   */
+  public void prepare(boolean largefile, boolean withBlockIndex, int indexMapIdShift)
+      throws IOException {
     byte[] batchHeader = new byte[16];
     Random random = new Random();
     shuffleFile = File.createTempFile("RSS", "sort-suite");
@@ -66,6 +84,7 @@ public class PartitionFilesSorterSuiteJ {
     FileOutputStream fileOutputStream = new FileOutputStream(shuffleFile);
     FileChannel channel = fileOutputStream.getChannel();
     Map<Integer, Integer> batchIds = new HashMap<>();
+    BlockIndexBuilder blockIndexBuilder = new BlockIndexBuilder();
 
     int maxMapId = 50;
     int mapCount = 1000;
@@ -92,6 +111,10 @@ public class PartitionFilesSorterSuiteJ {
       Platform.putInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 4, currentAttemptId);
       Platform.putInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 8, batchId);
       Platform.putInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 12, dataSize);
+      blockIndexBuilder.addBlock(
+          (mapId + indexMapIdShift) % maxMapId,
+          channel.position(),
+          dataSize + batchHeader.length);
       ByteBuffer buf1 = ByteBuffer.wrap(batchHeader);
       while (buf1.hasRemaining()) {
         channel.write(buf1);
@@ -103,6 +126,16 @@ public class PartitionFilesSorterSuiteJ {
       }
     }
     originFileLen = channel.size();
+    if (withBlockIndex) {
+      ByteBuffer indexBuf =
+          ShuffleBlockInfoUtils.serializeShuffleBlockInfos(blockIndexBuilder.toShuffleBlockInfos());
+      try (FileChannel indexChannel =
+          new FileOutputStream(Utils.getBlockIndexFilePath(originFileName)).getChannel()) {
+        while (indexBuf.hasRemaining()) {
+          indexChannel.write(indexBuf);
+        }
+      }
+    }
     fileInfo.getChunkOffsets().add(originFileLen);
     System.out.println(
         shuffleFile.getAbsolutePath()
@@ -131,30 +164,194 @@ public class PartitionFilesSorterSuiteJ {
   }
 
   @Test
-  public void testSmallFile() throws InterruptedException, IOException {
+  public void testSmallFile() throws InterruptedException, ExecutionException, IOException {
     prepare(false);
     CelebornConf conf = new CelebornConf();
     PartitionFilesSorter partitionFilesSorter =
         new PartitionFilesSorter(MemoryManager.instance(), conf, new WorkerSource(conf));
     FileInfo info =
         partitionFilesSorter.getSortedFileInfo(
-            "application-1", originFileName, fileWriter.getFileInfo(), 5, 10);
+            "application-1", originFileName, fileWriter.getFileInfo(), 5, 10)
+            .get();
     Thread.sleep(1000);
     System.out.println(info.toString());
     Assert.assertTrue(info.numChunks() > 0);
     clean();
   }
 
+  @Test
+  public void testSmallFileWithBlockIndex()
+      throws InterruptedException, ExecutionException, IOException {
+    // The index shifts map ids by 25, a sort scanning the file would return map [5, 10) instead.
+    prepare(false, true, 25);
+    CelebornConf conf = new CelebornConf();
+    PartitionFilesSorter partitionFilesSorter =
+        new PartitionFilesSorter(MemoryManager.instance(), conf, new WorkerSource(conf));
+    FileInfo info =
+        partitionFilesSorter.getSortedFileInfo(
+            "application-1", originFileName, fileWriter.getFileInfo(), 5, 10)
+            .get();
+    Assert.assertTrue(info.numChunks() > 0);
+    Assert.assertFalse(new File(Utils.getBlockIndexFilePath(originFileName)).exists());
+    Assert.assertEquals(originFileLen, new File(info.getFilePath()).length());
+
+    // Every block in the requested range should be indexed under map [5, 10), which the headers
+    // of the blocks give as map [30, 35).
+    byte[] batchHeader = new byte[16];
+    try (FileChannel sortedChannel = FileChannelUtils.openReadableFileChannel(info.getFilePath())) {
+      long position = info.getChunkOffsets().get(0);
+      while (position < info.getLastChunkOffset()) {
+        ByteBuffer headerBuf = ByteBuffer.wrap(batchHeader);
+        while (headerBuf.hasRemaining()) {
+          sortedChannel.read(headerBuf, position + headerBuf.position());
+        }
+        int mapId = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET);
+        int size = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 12);
+        Assert.assertTrue(mapId >= 30 && mapId < 35);
+        position += batchHeader.length + size;
+      }
+      Assert.assertTrue(position > info.getChunkOffsets().get(0));
+      Assert.assertEquals(info.getLastChunkOffset(), position);
+    }
+    new File(info.getFilePath()).delete();
+    new File(Utils.getIndexFilePath(originFileName)).delete();
+  }
+
+  @Test
+  public void testInMemoryFileIsNotSorted() throws InterruptedException, IOException {
+    prepare(false);
+    fileInfo.setMemoryBuffer(Unpooled.compositeBuffer());
+    CelebornConf conf = new CelebornConf();
+    PartitionFilesSorter partitionFilesSorter =
+        new PartitionFilesSorter(MemoryManager.instance(), conf, new WorkerSource(conf));
+    try {
+      partitionFilesSorter
+          .getSortedFileInfo("application-1", originFileName, fileWriter.getFileInfo(), 5, 10)
+          .get();
+      Assert.fail("A file kept in memory should not be sorted.");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+    Assert.assertFalse(new File(Utils.getSortedFilePath(originFileName)).exists());
+    fileInfo.releaseMemoryBuffer();
+    partitionFilesSorter.close();
+    clean();
+  }
+
+  @Test
+  public void testParallelSort() throws InterruptedException, ExecutionException, IOException {
+    prepare(false);
+    CelebornConf conf = new CelebornConf();
+    conf.set("celeborn.worker.partitionSorter.threads", "4");
+    conf.set("celeborn.worker.partitionSorter.parallelSort.parallelism", "4");
+    conf.set("celeborn.worker.partitionSorter.parallelSort.minFileSize", "0");
+    PartitionFilesSorter partitionFilesSorter =
+        new PartitionFilesSorter(MemoryManager.instance(), conf, new WorkerSource(conf));
+    FileInfo info =
+        partitionFilesSorter
+            .getSortedFileInfo("application-1", originFileName, fileWriter.getFileInfo(), 0, 50)
+            .get();
+    Assert.assertEquals(originFileLen, new File(info.getFilePath()).length());
+    Assert.assertEquals(originFileLen, info.getLastChunkOffset());
+
+    // Blocks should be ordered by map id, and keep their batch order inside a map.
+    byte[] batchHeader = new byte[16];
+    Map<Integer, Integer> lastBatchIds = new HashMap<>();
+    int lastMapId = -1;
+    try (FileChannel sortedChannel = FileChannelUtils.openReadableFileChannel(info.getFilePath())) {
+      long position = 0;
+      while (position < originFileLen) {
+        ByteBuffer headerBuf = ByteBuffer.wrap(batchHeader);
+        while (headerBuf.hasRemaining()) {
+          sortedChannel.read(headerBuf, position + headerBuf.position());
+        }
+        int mapId = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET);
+        int batchId = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 8);
+        int size = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 12);
+        Assert.assertTrue(mapId >= lastMapId);
+        Assert.assertEquals(lastBatchIds.getOrDefault(mapId, -1) + 1, batchId);
+        lastBatchIds.put(mapId, batchId);
+        lastMapId = mapId;
+        position += batchHeader.length + size;
+      }
+      Assert.assertEquals(originFileLen, position);
+    }
+    partitionFilesSorter.close();
+    new File(info.getFilePath()).delete();
+    new File(Utils.getIndexFilePath(originFileName)).delete();
+  }
+
+  @Test
+  public void testEagerSort() throws InterruptedException, ExecutionException, IOException {
+    prepare(false);
+    CelebornConf conf = new CelebornConf();
+    conf.set("celeborn.worker.partitionSorter.eagerSort.enabled", "true");
+    conf.set("celeborn.worker.partitionSorter.eagerSort.minFileSize", "0");
+    PartitionFilesSorter partitionFilesSorter =
+        new PartitionFilesSorter(MemoryManager.instance(), conf, new WorkerSource(conf));
+    partitionFilesSorter.submitEagerSort("application-1", originFileName, fileInfo);
+    FileInfo info =
+        partitionFilesSorter
+            .getSortedFileInfo("application-1", originFileName, fileWriter.getFileInfo(), 5, 10)
+            .get();
+    Assert.assertTrue(info.numChunks() > 0);
+    Assert.assertEquals(1, partitionFilesSorter.getSortedCount());
+    // The origin file is kept for reads of the whole partition.
+    Assert.assertTrue(shuffleFile.exists());
+    Assert.assertEquals(originFileLen, new File(info.getFilePath()).length());
+    partitionFilesSorter.close();
+    new File(info.getFilePath()).delete();
+    new File(Utils.getIndexFilePath(originFileName)).delete();
+    clean();
+  }
+
+  @Test
+  public void testSortFreeRangeRead() throws IOException {
+    prepare(false, true);
+    CelebornConf conf = new CelebornConf();
+    conf.set("celeborn.worker.partitionSorter.sortFreeRangeRead.enabled", "true");
+    PartitionFilesSorter partitionFilesSorter =
+        new PartitionFilesSorter(MemoryManager.instance(), conf, new WorkerSource(conf));
+    FileInfo info =
+        partitionFilesSorter.getMapRangeFileInfo(
+            "application-1", originFileName, fileWriter.getFileInfo(), 5, 10);
+    Assert.assertNotNull(info);
+    Assert.assertTrue(info.numChunks() > 0);
+    Assert.assertEquals(originFileName, info.getFilePath());
+    Assert.assertFalse(new File(Utils.getSortedFilePath(originFileName)).exists());
+
+    // Concatenated chunks should only contain blocks of map [5, 10).
+    FileManagedBuffers buffers = new FileManagedBuffers(info, new TransportConf("shuffle", conf));
+    long totalBytes = 0;
+    for (int i = 0; i < buffers.numChunks(); i++) {
+      ByteBuffer chunk = buffers.chunk(i, 0, Integer.MAX_VALUE).nioByteBuffer();
+      totalBytes += chunk.remaining();
+      byte[] batchHeader = new byte[16];
+      while (chunk.hasRemaining()) {
+        chunk.get(batchHeader);
+        int mapId = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET);
+        int size = Platform.getInt(batchHeader, Platform.BYTE_ARRAY_OFFSET + 12);
+        Assert.assertTrue(mapId >= 5 && mapId < 10);
+        chunk.position(chunk.position() + size);
+      }
+    }
+    Assert.assertEquals(info.getLastChunkOffset(), totalBytes);
+    partitionFilesSorter.close();
+    new File(Utils.getBlockIndexFilePath(originFileName)).delete();
+    clean();
+  }
+
   @Test
   @Ignore
-  public void testLargeFile() throws InterruptedException, IOException {
+  public void testLargeFile() throws InterruptedException, ExecutionException, IOException {
     prepare(true);
     CelebornConf conf = new CelebornConf();
     PartitionFilesSorter partitionFilesSorter =
         new PartitionFilesSorter(MemoryManager.instance(), conf, new WorkerSource(conf));
     FileInfo info =
         partitionFilesSorter.getSortedFileInfo(
-            "application-1", originFileName, fileWriter.getFileInfo(), 5, 10);
+            "application-1", originFileName, fileWriter.getFileInfo(), 5, 10)
+            .get();
     Thread.sleep(30000);
     System.out.println(info.toString());
     Assert.assertTrue(info.numChunks() > 0);
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecentBatchFilterSuiteJ {
+
+  @Test
+  public void testDropRecentDuplicates() {
+    RecentBatchFilter filter = new RecentBatchFilter(2);
+    Assert.assertTrue(filter.add(1, 0, 1));
+    Assert.assertTrue(filter.add(1, 1, 1));
+    Assert.assertFalse(filter.add(1, 0, 1));
+    Assert.assertTrue(filter.add(2, 0, 1));
+    // (1, 0, 1) is out of the window after two more batches.
+    Assert.assertTrue(filter.add(1, 0, 1));
+    Assert.assertFalse(filter.add(2, 0, 1));
+  }
+
+  @Test
+  public void testMatchLastBatches() {
+    int capacity = 64;
+    RecentBatchFilter filter = new RecentBatchFilter(capacity);
+    ArrayDeque<String> window = new ArrayDeque<>();
+    Set<String> recent = new HashSet<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      int mapId = random.nextInt(8);
+      int attemptId = random.nextInt(2);
+      int batchId = random.nextInt(64);
+      String key = mapId + "-" + attemptId + "-" + batchId;
+      boolean added = filter.add(mapId, attemptId, batchId);
+      Assert.assertEquals(!recent.contains(key), added);
+      if (added) {
+        window.addLast(key);
+        recent.add(key);
+        if (window.size() > capacity) {
+          recent.remove(window.removeFirst());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.celeborn.common.util.ShuffleBlockInfoUtils;
+import org.apache.celeborn.common.util.ShuffleBlockInfoUtils.ShuffleBlockInfo;
+
+public class SortedFileIndexSuiteJ {
+
+  @Test
+  public void testChunkOffsetsMatchShuffleBlockInfos() {
+    Random random = new Random();
+    // Sparse map ids in a HashMap are not serialized in ascending order, as the sorter does.
+    Map<Integer, List<ShuffleBlockInfo>> indexMap = new HashMap<>();
+    long offset = 0;
+    for (int mapId = 0; mapId < 300; mapId++) {
+      if (random.nextInt(5) == 0) {
+        continue;
+      }
+      List<ShuffleBlockInfo> blocks = new ArrayList<>();
+      int numBlocks = 1 + random.nextInt(4);
+      for (int i = 0; i < numBlocks; i++) {
+        ShuffleBlockInfo info = new ShuffleBlockInfo();
+        info.offset = offset;
+        info.length = 1 + random.nextInt(64 * 1024);
+        offset += info.length;
+        blocks.add(info);
+      }
+      indexMap.put(mapId * 1000, blocks);
+    }
+
+    SortedFileIndex index =
+        SortedFileIndex.parse(ShuffleBlockInfoUtils.serializeShuffleBlockInfos(indexMap));
+    for (int i = 0; i < 50; i++) {
+      int startMapIndex = random.nextInt(300 * 1000);
+      int endMapIndex = startMapIndex + random.nextInt(300 * 1000 - startMapIndex + 1);
+      long chunkSize = 1 + random.nextInt(256 * 1024);
+      Assert.assertEquals(
+          ShuffleBlockInfoUtils.getChunkOffsetsFromShuffleBlockInfos(
+              startMapIndex, endMapIndex, chunkSize, indexMap),
+          index.getChunkOffsets(startMapIndex, endMapIndex, chunkSize));
+    }
+    Assert.assertEquals(indexMap.values().stream().mapToInt(List::size).sum(), index.numBlocks());
+  }
+
+  @Test
+  public void testForEachBlockFollowsMapIdOrder() {
+    Map<Integer, List<ShuffleBlockInfo>> indexMap = new HashMap<>();
+    long offset = 0;
+    for (int mapId : new int[] {7000, 3, 500, 42}) {
+      List<ShuffleBlockInfo> blocks = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        ShuffleBlockInfo info = new ShuffleBlockInfo();
+        info.offset = offset;
+        info.length = 10 + mapId;
+        offset += info.length;
+        blocks.add(info);
+      }
+      indexMap.put(mapId, blocks);
+    }
+
+    SortedFileIndex index =
+        SortedFileIndex.parse(ShuffleBlockInfoUtils.serializeShuffleBlockInfos(indexMap));
+    Assert.assertEquals(offset, index.totalLength());
+
+    List<Long> offsets = new ArrayList<>();
+    index.forEachBlock(
+        4,
+        7000,
+        (blockOffset, blockLength) -> {
+          offsets.add(blockOffset);
+          Assert.assertTrue(blockLength == 52 || blockLength == 510);
+        });
+    List<Long> expected = new ArrayList<>();
+    for (int mapId : new int[] {42, 500}) {
+      for (ShuffleBlockInfo info : indexMap.get(mapId)) {
+        expected.add(info.offset);
+      }
+    }
+    Assert.assertEquals(expected, offsets);
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.celeborn.service.deploy.worker
+
+import java.util
+
+import scala.collection.JavaConverters._
+
+import io.netty.channel.{Channel, ChannelFuture}
+import io.netty.util.concurrent.{Future, GenericFutureListener}
+import org.mockito.ArgumentMatchersSugar._
+import org.mockito.MockitoSugar._
+import org.scalatest.funsuite.AnyFunSuite
+
+import org.apache.celeborn.common.CelebornConf
+import org.apache.celeborn.common.meta.FileManagedBuffers
+import org.apache.celeborn.common.network.buffer.ManagedBuffer
+import org.apache.celeborn.common.network.client.TransportClient
+import org.apache.celeborn.common.network.protocol.{ChunkFetchFailure, ChunkFetchRequest, ChunkFetchSuccess, ChunksFetchRequest, ChunkStreamCredit, StreamChunkSlice}
+import org.apache.celeborn.common.network.util.TransportConf
+import org.apache.celeborn.service.deploy.worker.memory.MemoryManager
+
+class FetchHandlerSuite extends AnyFunSuite {
+
+  // A client whose channel keeps the chunks sent and completes them on demand.
+  private class RecordingClient {
+    val channel: Channel = mock[Channel]
+    val client: TransportClient = mock[TransportClient]
+    val sentChunks = new util.ArrayList[Int]()
+    val failedChunks = new util.ArrayList[Int]()
+    private val listeners = new util.ArrayList[GenericFutureListener[Future[_ >: Void]]]()
+
+    when(client.getChannel).thenReturn(channel)
+    when(channel.isActive).thenReturn(true)
+    when(channel.writeAndFlush(any[Object])).thenAnswer((msg: Object) => {
+      msg match {
+        case success: ChunkFetchSuccess => sentChunks.add(success.streamChunkSlice.chunkIndex)
+        case failure: ChunkFetchFailure => failedChunks.add(failure.streamChunkSlice.chunkIndex)
+        case _ =>
+      }
+      val future = mock[ChannelFuture]
+      when(future.addListener(any[GenericFutureListener[Future[_ >: Void]]])).thenAnswer(
+        (listener: GenericFutureListener[Future[_ >: Void]]) => {
+          listeners.add(listener)
+          future
+        })
+      future
+    })
+
+    def completeNext(success: Boolean = true): Unit = {
+      val future = mock[ChannelFuture]
+      when(future.isSuccess).thenReturn(success)
+      listeners.remove(0).operationComplete(future)
+    }
+  }
+
+  private def fetchHandler(): FetchHandler = {
+    val conf = new CelebornConf()
+    // Up to 2 chunks are transferred at the same time.
+    conf.set(CelebornConf.MAX_CHUNKS_BEING_TRANSFERRED.key, "1")
+    conf.set(CelebornConf.WORKER_FETCH_QUEUE_TIMEOUT.key, "1h")
+    conf.set(CelebornConf.WORKER_FETCH_READ_AHEAD_CHUNKS.key, "0")
+    MemoryManager.initialize(conf)
+    val handler = new FetchHandler(new TransportConf("shuffle", conf))
+    handler.workerSource = mock[WorkerSource]
+    handler
+  }
+
+  private def registerStream(
+      handler: FetchHandler,
+      chunk: ManagedBuffer = mock[ManagedBuffer]): Long = {
+    val buffers = mock[FileManagedBuffers]
+    when(buffers.numChunks()).thenReturn(10)
+    when(buffers.chunk(any[Int], any[Int], any[Int])).thenReturn(chunk)
+    handler.chunkStreamManager.registerStream("app-1", buffers, null, null)
+  }
+
+  private def fetch(
+      handler: FetchHandler,
+      client: RecordingClient,
+      streamId: Long,
+      chunkIndex: Int): Unit = {
+    handler.handleChunkFetchRequest(
+      client.client,
+      new ChunkFetchRequest(new StreamChunkSlice(streamId, chunkIndex)))
+  }
+
+  test("fetches beyond the limits wait in the queue and are admitted in order") {
+    val handler = fetchHandler()
+    val streamId = registerStream(handler)
+    val client = new RecordingClient
+
+    (0 until 4).foreach(fetch(handler, client, streamId, _))
+    assert(client.sentChunks.asScala === Seq(0, 1))
+
+    client.completeNext()
+    assert(client.sentChunks.asScala === Seq(0, 1, 2))
+    client.completeNext()
+    assert(client.sentChunks.asScala === Seq(0, 1, 2, 3))
+    assert(handler.chunkStreamManager.chunksBeingTransferred() === 2)
+  }
+
+  test("new fetches do not skip ahead of the queued ones") {
+    val handler = fetchHandler()
+    val streamId = registerStream(handler)
+    val client1 = new RecordingClient
+    val client2 = new RecordingClient
+
+    (0 until 3).foreach(fetch(handler, client1, streamId, _))
+    assert(client1.sentChunks.asScala === Seq(0, 1))
+
+    // A chunk is done while the queued fetch is not admitted yet.
+    handler.chunkStreamManager.chunkSent(streamId, client1.channel)
+    fetch(handler, client2, streamId, 5)
+    assert(client1.sentChunks.asScala === Seq(0, 1, 2))
+    assert(client2.sentChunks.isEmpty)
+
+    client1.completeNext()
+    assert(client2.sentChunks.asScala === Seq(5))
+  }
+
+  test("queued fetches of a terminated connection are dropped") {
+    val handler = fetchHandler()
+    val streamId = registerStream(handler)
+    val client1 = new RecordingClient
+    val client2 = new RecordingClient
+
+    (0 until 2).foreach(fetch(handler, client1, streamId, _))
+    fetch(handler, client2, streamId, 2)
+    when(client2.channel.isActive).thenReturn(false)
+    handler.channelInactive(client2.client)
+
+    client1.completeNext()
+    assert(client2.sentChunks.isEmpty)
+    assert(handler.chunkStreamManager.chunksBeingTransferred() === 1)
+  }
+
+  test("a chunk whose write fails before it is encoded is released") {
+    val handler = fetchHandler()
+    val chunk = mock[ManagedBuffer]
+    val streamId = registerStream(handler, chunk)
+    val client = new RecordingClient
+
+    fetch(handler, client, streamId, 0)
+    client.completeNext(success = false)
+    verify(chunk).release()
+    assert(handler.chunkStreamManager.chunksBeingTransferred() === 0)
+
+    fetch(handler, client, streamId, 1)
+    client.completeNext()
+    verify(chunk, times(1)).release()
+  }
+
+  test("a run of chunks is bounded by the stream and an invalid run fails once") {
+    val handler = fetchHandler()
+    val streamId = registerStream(handler)
+    val client = new RecordingClient
+
+    handler.handleChunksFetchRequest(client.client, new ChunksFetchRequest(streamId, 8, 100))
+    assert(client.sentChunks.asScala === Seq(8, 9))
+
+    Seq(
+      new ChunksFetchRequest(streamId, 10, 1),
+      new ChunksFetchRequest(streamId, -1, 2),
+      new ChunksFetchRequest(streamId, 0, -5),
+      new ChunksFetchRequest(streamId, 0, 0),
+      new ChunksFetchRequest(streamId + 1, 0, 1)).foreach { req =>
+      handler.handleChunksFetchRequest(client.client, req)
+    }
+    assert(client.failedChunks.asScala === Seq(10, -1, 0, 0, 0))
+    assert(client.sentChunks.asScala === Seq(8, 9))
+  }
+
+  test("a run of chunks up to the maximal int is bounded by the stream") {
+    val handler = fetchHandler()
+    val streamId = registerStream(handler)
+    val client = new RecordingClient
+
+    handler.handleChunksFetchRequest(
+      client.client,
+      new ChunksFetchRequest(streamId, 9, Int.MaxValue))
+    assert(client.sentChunks.asScala === Seq(9))
+    assert(client.failedChunks.isEmpty)
+  }
+
+  test("a credit which can not be granted fails each of its chunks") {
+    val handler = fetchHandler()
+    val streamId = registerStream(handler)
+    val client = new RecordingClient
+
+    handler.handleChunkStreamCredit(client.client, new ChunkStreamCredit(streamId, 0, 2))
+    assert(client.sentChunks.asScala === Seq(0, 1))
+
+    // not following the credit before
+    handler.handleChunkStreamCredit(client.client, new ChunkStreamCredit(streamId, 3, 2))
+    assert(client.failedChunks.asScala === Seq(3, 4))
+    // of an unknown stream
+    handler.handleChunkStreamCredit(client.client, new ChunkStreamCredit(streamId + 1, 0, 1))
+    assert(client.failedChunks.asScala === Seq(3, 4, 0))
+    assert(client.sentChunks.asScala === Seq(0, 1))
+  }
+}
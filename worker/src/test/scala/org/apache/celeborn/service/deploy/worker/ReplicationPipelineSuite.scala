@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker
+
+import java.nio.ByteBuffer
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch, ThreadPoolExecutor, TimeUnit}
+import java.util.concurrent.atomic.AtomicReference
+
+import io.netty.buffer.Unpooled
+import org.mockito.ArgumentMatchersSugar._
+import org.mockito.MockitoSugar._
+import org.scalatest.funsuite.AnyFunSuite
+
+import org.apache.celeborn.common.CelebornConf
+import org.apache.celeborn.common.meta.WorkerInfo
+import org.apache.celeborn.common.network.buffer.NettyManagedBuffer
+import org.apache.celeborn.common.network.client.{RpcResponseCallback, TransportClient}
+import org.apache.celeborn.common.network.protocol.{PushData, PushMergedData}
+import org.apache.celeborn.common.protocol.PartitionLocation
+import org.apache.celeborn.common.protocol.message.StatusCode
+import org.apache.celeborn.common.unsafe.Platform
+import org.apache.celeborn.common.util.ThreadUtils
+
+class ReplicationPipelineSuite extends AnyFunSuite {
+  private val shuffleKey = "app-1"
+
+  private def location(id: Int): PartitionLocation = {
+    val peer =
+      new PartitionLocation(id, 0, "peer", 1, 2, 3, 4, PartitionLocation.Mode.SLAVE)
+    new PartitionLocation(id, 0, "localhost", 5, 6, 7, 8, PartitionLocation.Mode.MASTER, peer)
+  }
+
+  private def body(mapId: Int): NettyManagedBuffer = {
+    val header = new Array[Byte](16)
+    Platform.putInt(header, Platform.BYTE_ARRAY_OFFSET, mapId)
+    new NettyManagedBuffer(Unpooled.wrappedBuffer(header, new Array[Byte](64)))
+  }
+
+  private class RecordingCallback(latch: CountDownLatch) extends RpcResponseCallback {
+    val status = new AtomicReference[ByteBuffer]()
+
+    override def onSuccess(response: ByteBuffer): Unit = {
+      status.set(response)
+      latch.countDown()
+    }
+
+    override def onFailure(e: Throwable): Unit = latch.countDown()
+  }
+
+  private def stageEnded(callback: RecordingCallback): Boolean = {
+    val response = callback.status.get()
+    response.remaining() > 0 && response.get() == StatusCode.STAGE_ENDED.getValue
+  }
+
+  private def newPipeline(
+      conf: CelebornConf,
+      client: TransportClient): (ReplicationPipeline, ThreadPoolExecutor) = {
+    val replicateThreadPool = ThreadUtils.newDaemonCachedThreadPool("test-replicate", 2)
+    val shufflePushDataTimeout = new ConcurrentHashMap[String, Long]()
+    shufflePushDataTimeout.put(shuffleKey, 120000L)
+    val pipeline = new ReplicationPipeline(
+      conf,
+      mock[WorkerSource],
+      replicateThreadPool,
+      new ConcurrentHashMap[WorkerInfo, Long](),
+      shufflePushDataTimeout,
+      (_, _, _) => client)
+    (pipeline, replicateThreadPool)
+  }
+
+  // Map ids of the batches of a merged frame.
+  private def mapIds(merged: PushMergedData): Seq[Int] = {
+    val buf = merged.body().asInstanceOf[NettyManagedBuffer].getBuf
+    val bytes = new Array[Byte](buf.readableBytes())
+    buf.getBytes(buf.readerIndex(), bytes)
+    merged.batchOffsets.toSeq.map { offset =>
+      Platform.getInt(bytes, Platform.BYTE_ARRAY_OFFSET + offset)
+    }
+  }
+
+  test("a status of the peer only reaches the replicas of its mapper") {
+    val conf = new CelebornConf()
+    conf.set(CelebornConf.WORKER_REPLICATE_BATCH_MAX_DELAY.key, "200ms")
+    val stageEndedResponse = ByteBuffer.wrap(Array[Byte](StatusCode.STAGE_ENDED.getValue))
+    val client = mock[TransportClient]
+    // Replicas of mapper 1 answer STAGE_ENDED, those of mapper 2 succeed.
+    when(client.pushMergedData(any[PushMergedData], any[Long], any[RpcResponseCallback]))
+      .thenAnswer((merged: PushMergedData, _: Long, callback: RpcResponseCallback) => {
+        val mappers = mapIds(merged).distinct
+        merged.body().release()
+        if (mappers == Seq(1)) {
+          callback.onSuccess(stageEndedResponse.duplicate())
+        } else {
+          callback.onFailure(new IllegalStateException("Replicas of mappers are mixed."))
+        }
+        null
+      })
+    when(client.pushData(any[PushData], any[Long], any[RpcResponseCallback]))
+      .thenAnswer((pushData: PushData, _: Long, callback: RpcResponseCallback) => {
+        pushData.body().release()
+        callback.onSuccess(ByteBuffer.allocate(0))
+        null
+      })
+
+    val (pipeline, replicateThreadPool) = newPipeline(conf, client)
+    try {
+      val latch = new CountDownLatch(4)
+      val stageEndedReplicas = (0 until 3).map(_ => new RecordingCallback(latch))
+      val otherMapper = new RecordingCallback(latch)
+      // Mapper 1 pushes to partitions 0 and 1, its replicas share one frame.
+      Seq(0, 1, 0).zip(stageEndedReplicas).foreach { case (partitionId, callback) =>
+        pipeline.replicate(
+          shuffleKey,
+          location(partitionId),
+          s"$partitionId-0",
+          1,
+          body(1),
+          callback,
+          callback)
+      }
+      pipeline.replicate(shuffleKey, location(0), "0-0", 2, body(2), otherMapper, otherMapper)
+      assert(latch.await(10, TimeUnit.SECONDS))
+
+      stageEndedReplicas.foreach(callback => assert(stageEnded(callback)))
+      assert(otherMapper.status.get().remaining() === 0)
+      verify(client, times(1))
+        .pushMergedData(any[PushMergedData], any[Long], any[RpcResponseCallback])
+      verify(client, times(1)).pushData(any[PushData], any[Long], any[RpcResponseCallback])
+    } finally {
+      pipeline.close()
+      replicateThreadPool.shutdownNow()
+    }
+  }
+
+  test("replicas of the partitions a mapper pushes to are merged into one frame") {
+    val conf = new CelebornConf()
+    conf.set(CelebornConf.WORKER_REPLICATE_BATCH_MAX_DELAY.key, "200ms")
+    val numMappers = 4
+    val numPartitions = 16
+    val client = mock[TransportClient]
+    when(client.pushMergedData(any[PushMergedData], any[Long], any[RpcResponseCallback]))
+      .thenAnswer((merged: PushMergedData, _: Long, callback: RpcResponseCallback) => {
+        merged.body().release()
+        callback.onSuccess(ByteBuffer.allocate(0))
+        null
+      })
+    when(client.pushData(any[PushData], any[Long], any[RpcResponseCallback]))
+      .thenAnswer((pushData: PushData, _: Long, callback: RpcResponseCallback) => {
+        pushData.body().release()
+        callback.onSuccess(ByteBuffer.allocate(0))
+        null
+      })
+
+    val (pipeline, replicateThreadPool) = newPipeline(conf, client)
+    try {
+      val latch = new CountDownLatch(numMappers * numPartitions)
+      // Running mappers push to every partition in turn, their pushes interleave on the worker.
+      (0 until numPartitions).foreach { partitionId =>
+        (0 until numMappers).foreach { mapId =>
+          val callback = new RecordingCallback(latch)
+          pipeline.replicate(
+            shuffleKey,
+            location(partitionId),
+            s"$partitionId-0",
+            mapId,
+            body(mapId),
+            callback,
+            callback)
+        }
+      }
+      assert(latch.await(10, TimeUnit.SECONDS))
+
+      // One frame per mapper rather than one per partition and mapper.
+      verify(client, times(numMappers))
+        .pushMergedData(any[PushMergedData], any[Long], any[RpcResponseCallback])
+      verify(client, never).pushData(any[PushData], any[Long], any[RpcResponseCallback])
+    } finally {
+      pipeline.close()
+      replicateThreadPool.shutdownNow()
+    }
+  }
+}
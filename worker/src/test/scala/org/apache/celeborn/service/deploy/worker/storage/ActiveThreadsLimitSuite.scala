@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage
+
+import org.scalatest.funsuite.AnyFunSuite
+
+class ActiveThreadsLimitSuite extends AnyFunSuite {
+
+  test("the limit shrinks to one as the flush time per byte keeps rising") {
+    val limit = new ActiveThreadsLimit(1, 5)
+    assert(limit.get === 5)
+    var nanosPerByte = 1.0
+    val limits = (0 until 10).map { _ =>
+      val newLimit = limit.update(nanosPerByte)
+      nanosPerByte *= 1.5
+      newLimit
+    }
+    // The first update only records the lowest flush time.
+    assert(limits.head === 5)
+    assert(limits.sliding(2).forall { case Seq(previous, next) => next <= previous })
+    assert(limits.last === 1)
+  }
+
+  test("the limit grows back while the flush time per byte stays low") {
+    val limit = new ActiveThreadsLimit(1, 16)
+    limit.update(1.0)
+    // A disk which got twice as slow halves the limit, and again.
+    assert(limit.update(2.0) === 8)
+    assert(limit.update(4.0) === 4)
+    // Noise within the tolerance does not shrink the limit.
+    var previous = limit.get
+    (0 until 8).foreach { _ =>
+      val newLimit = limit.update(1.1)
+      assert(newLimit >= previous)
+      previous = newLimit
+    }
+    assert(limit.get === 16)
+  }
+
+  test("the limit stays within the min and max threads") {
+    val limit = new ActiveThreadsLimit(2, 4)
+    limit.update(1.0)
+    (0 until 5).foreach(_ => limit.update(100.0))
+    assert(limit.get === 2)
+    (0 until 5).foreach(_ => limit.update(1.0))
+    assert(limit.get === 4)
+  }
+}
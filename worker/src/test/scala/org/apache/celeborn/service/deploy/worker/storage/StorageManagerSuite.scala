@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.celeborn.service.deploy.worker.storage
+
+import java.io.File
+import java.util.Random
+
+import org.scalatest.funsuite.AnyFunSuite
+
+import org.apache.celeborn.common.meta.{DiskInfo, DiskStatus}
+
+class StorageManagerSuite extends AnyFunSuite {
+  private val reserveSize = 5L * 1024 * 1024 * 1024
+
+  private def disk(mountPoint: String, usableSpace: Long, numDirs: Int = 1): DiskInfo = {
+    val dirs = (0 until numDirs).map(i => new File(s"$mountPoint/dir$i/celeborn-worker")).toList
+    new DiskInfo(mountPoint, usableSpace, 0, 0, 0, dirs, null)
+  }
+
+  private def pickCounts(
+      disks: List[DiskInfo],
+      load: Map[String, Double],
+      picks: Int = 1000): Map[String, Int] = {
+    val random = new Random(42)
+    (0 until picks)
+      .map { _ =>
+        StorageManager.lightlyLoadedDisk(disks, d => load(d.mountPoint), reserveSize, random)
+          .map(_.mountPoint)
+          .getOrElse("none")
+      }
+      .groupBy(identity)
+      .mapValues(_.size)
+      .toMap
+  }
+
+  test("the most loaded disk is never picked from two random ones") {
+    val disks = List(
+      disk("/mnt/disk1", 100 * reserveSize),
+      disk("/mnt/disk2", 100 * reserveSize),
+      disk("/mnt/disk3", 100 * reserveSize))
+    val counts =
+      pickCounts(disks, Map("/mnt/disk1" -> 1.0, "/mnt/disk2" -> 2.0, "/mnt/disk3" -> 10.0))
+    assert(!counts.contains("/mnt/disk3"))
+    // disk1 wins both of its pairs, disk2 only the pair with disk3.
+    assert(counts("/mnt/disk1") > counts("/mnt/disk2"))
+  }
+
+  test("usable space breaks ties of equally loaded disks") {
+    val disks = List(disk("/mnt/disk1", 10 * reserveSize), disk("/mnt/disk2", 20 * reserveSize))
+    val counts = pickCounts(disks, Map("/mnt/disk1" -> 1.0, "/mnt/disk2" -> 1.0))
+    assert(counts === Map("/mnt/disk2" -> 1000))
+  }
+
+  test("disks with less usable space than reserved are not picked") {
+    val nearlyFull = disk("/mnt/disk1", reserveSize - 1)
+    val disks = List(nearlyFull, disk("/mnt/disk2", 100 * reserveSize))
+    // The nearly full disk has the shortest flush queue.
+    val counts = pickCounts(disks, Map("/mnt/disk1" -> 0.0, "/mnt/disk2" -> 100.0))
+    assert(counts === Map("/mnt/disk2" -> 1000))
+
+    val allFull = List(nearlyFull, disk("/mnt/disk2", 0))
+    assert(StorageManager.lightlyLoadedDisk(allFull, _ => 0.0, reserveSize, new Random()).isEmpty)
+  }
+
+  test("unhealthy disks are not picked") {
+    val unhealthy = disk("/mnt/disk1", 100 * reserveSize)
+    unhealthy.setStatus(DiskStatus.IO_HANG)
+    val disks = List(unhealthy, disk("/mnt/disk2", 100 * reserveSize))
+    val counts = pickCounts(disks, Map("/mnt/disk1" -> 0.0, "/mnt/disk2" -> 100.0))
+    assert(counts === Map("/mnt/disk2" -> 1000))
+  }
+
+  test("dirs sharing a mount point are picked together as one disk") {
+    val shared = disk("/mnt/disk1", 100 * reserveSize, numDirs = 3)
+    val disks = List(shared, disk("/mnt/disk2", 100 * reserveSize))
+    val picked = StorageManager.lightlyLoadedDisk(
+      disks,
+      d => if (d.mountPoint == "/mnt/disk1") 1.0 else 2.0,
+      reserveSize,
+      new Random())
+    assert(picked.map(_.dirs) === Some(shared.dirs))
+    // The first sampled of two equal disks wins, the dirs of a mount point do not make it more
+    // likely to be sampled.
+    val counts = pickCounts(disks, Map("/mnt/disk1" -> 1.0, "/mnt/disk2" -> 1.0))
+    assert(counts("/mnt/disk1") > 400 && counts("/mnt/disk1") < 600)
+  }
+}